@@ -1,22 +1,22 @@
 package app;
 
+import java.util.Map;
 import model.*;
+import controller.ViewRouter;
 import javafx.application.Application;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 /**
  * Main application class for the Photos application.
  * This class initializes and starts the JavaFX application, sets up the primary stage, and initializes
- * default data for the application, including stock and admin users.
+ * default data for the application, including stock and admin users, while the login view is shown.
  * @author ZB SL
  */
 public class Photos extends Application {
 
     /**
      * Starts the JavaFX application and sets up the primary stage with the login view.
+     * The other views are shown in the same stage by the ViewRouter.
      * 
      * @param primaryStage The primary stage for this application, onto which
      *                     the application scene can be set.
@@ -24,65 +24,75 @@ public class Photos extends Application {
     @Override
     public void start(Stage primaryStage) {
         try {
-            // Load the FXML file for the login view using the FXMLLoader
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
-            // Load the root node from the FXML file (in this case, a BorderPane)
-            Parent root = loader.load();
-            // Set up the scene with the root node and add it to the stage
-            Scene scene = new Scene(root);
-
-            // Configure the primary stage and show it
-            primaryStage.setTitle("Login");
-            primaryStage.setScene(scene);
-            primaryStage.show();
+            // Load the login view, parsing its FXML file, and show it in the primary stage
+            ViewRouter.start(primaryStage);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Stops the application, waiting for the data to be saved, since saves run in the background.
+     */
+    @Override
+    public void stop() {
+        DataManager.flushSaves();
+    }
+
     /**
      * The main entry point for the application.
-     * Initializes the application data, including stock and admin users, and launches the JavaFX application.
+     * Starts loading the application data on a background thread and launches the JavaFX application at once,
+     * so the login window opens while the data loads, however large it is. The stock and admin users are added
+     * once the data is loaded, if they don't exist yet, and saved in one write.
      * 
      * @param args The command line arguments passed to the application. Not used in this application.
      */
     public static void main(String[] args) {
-        // Initialize the application data (users, albums, photos, etc.) and stock user and admin user
-        DataManager.initializeData();
+        // Load the application data (users, albums, photos, etc.) in the background, then add the stock and admin users
+        DataManager.initializeDataInBackground(Photos::initializeDefaultUsers);
+        launch(args); // Launch the JavaFX application
+    }
+
+    /**
+     * Initializes the stock and admin users if they don't already exist.
+     * Runs on the thread that loaded the data, which saves the users added here once it is done.
+     * 
+     * @param users The map of users in memory, which the users added are put in.
+     */
+    private static void initializeDefaultUsers(Map<String, User> users) {
         // Initialize the stock user if it doesn't already exist
-        initializeStockUser();
+        initializeStockUser(users);
         // Initialize the admin user if it doesn't already exist
-        initializeAdminUser();
-        launch(args); // Launch the JavaFX application
+        initializeAdminUser(users);
     }
 
     /**
      * Initializes the stock user with a default album and some stock photos if it doesn't already exist.
+     * 
+     * @param users The map of users in memory.
      */
-    private static void initializeStockUser() {
-        User stockUser = DataManager.loadUserData("stock");
-        if (stockUser == null) {
+    private static void initializeStockUser(Map<String, User> users) {
+        if (!DataManager.userExists("stock")) {
             // "stock" user doesn't exist, so initialize it
-            stockUser = new User("stock");
+            User stockUser = new User("stock");
             Album stockAlbum = new Album("stock");
             stockUser.createAlbum(stockAlbum);
             // Load stock photos into the album
             loadStockPhotos(stockAlbum);
-            // Save the newly initialized "stock" user
-            DataManager.saveUserData(stockUser);
+            // Add the newly initialized "stock" user, saved with the admin user
+            users.put("stock", stockUser);
         }
     }
     
     /**
      * Initializes the admin user if it doesn't already exist.
+     * 
+     * @param users The map of users in memory.
      */
-    private static void initializeAdminUser() {
-        User adminUser = DataManager.loadUserData("admin");
-        if (adminUser == null) {
-            // "admin" user doesn't exist, so initialize it
-            adminUser = new User("admin");
-            // Save the newly initialized "admin" user
-            DataManager.saveUserData(adminUser);
+    private static void initializeAdminUser(Map<String, User> users) {
+        if (!DataManager.userExists("admin")) {
+            // "admin" user doesn't exist, so initialize it, saved with the stock user
+            users.put("admin", new User("admin"));
         }
     }
 
@@ -0,0 +1,576 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import model.Album;
+import model.ContentHasher;
+import model.DataManager;
+import model.DateHistogram;
+import model.FacetCounts;
+import model.Photo;
+import model.PhotoEdit;
+import model.PhotoImporter;
+import model.SearchCursor;
+import model.Tag;
+import model.User;
+
+/**
+ * Command line entry point for the Photos application, for scripting and bulk work without the user interface.
+ * Works on the same data directory as the application but never starts the JavaFX toolkit, so a command only
+ * pays for reading the user data file; album photos are read from their own files when a command needs them.
+ * Several commands can be run in one process from a batch file, and the data is then saved once at the end.
+ * @author ZB SL
+ */
+public class PhotosCli {
+
+    /**
+     * Exit status of a command that worked.
+     */
+    private static final int OK = 0;
+
+    /**
+     * Exit status of a command that failed or found problems.
+     */
+    private static final int FAILED = 1;
+
+    /**
+     * Exit status of a command that was not understood.
+     */
+    private static final int USAGE = 2;
+
+    /**
+     * The usage message printed for unknown commands.
+     */
+    private static final String USAGE_TEXT = String.join(System.lineSeparator(),
+            "Usage: PhotosCli <command> [arguments]",
+            "       PhotosCli batch <file>        run one command per line (- for standard input), saving once",
+            "Commands:",
+            "  import <user> <album> <file or folder>...   add photos, creating the album if needed",
+            "  tag <user> <type>=<value> [filter]...       tag every matching photo",
+            "  untag <user> <type>=<value> [filter]...     remove a tag from every matching photo",
+            "  search <user> [filter]...                   print the file of every matching photo",
+            "  export <user> <folder> [filter]...          copy the files of the matching photos to a folder",
+            "  verify <user> [--quick]                     check that photo files exist and are unchanged",
+            "  stats <user>                                print counts for the user's library",
+            "Filters: album:<name>  tag:<type>=<value>  from:<yyyy-MM-dd>  to:<yyyy-MM-dd>  caption:<text>");
+
+    /**
+     * Whether a command changed user data that hasn't been saved yet.
+     */
+    private static boolean modified;
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private PhotosCli() {
+    }
+
+    /**
+     * The main entry point for the command line.
+     * @param args The command and its arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE_TEXT);
+            System.exit(USAGE);
+        }
+        DataManager.initializeData(); // Only the album headers are read here
+        int status;
+        if (args[0].equals("batch")) {
+            status = args.length == 2 ? runBatch(args[1]) : usage("batch takes one file");
+        } else {
+            status = run(Arrays.asList(args));
+        }
+        if (modified) {
+            DataManager.saveUsersMap(); // One save for the whole command or batch
+        }
+        DataManager.flushSaves(); // Saves asked for in the background by imports end before the process does
+        System.exit(status);
+    }
+
+    /**
+     * Method to run every command of a batch file.
+     * Blank lines and lines starting with # are skipped. A failed command is reported with its line number
+     * and the batch goes on with the next line.
+     * @param fileName The batch file, or - for standard input.
+     * @return OK if every command worked, the status of the last failure otherwise.
+     */
+    private static int runBatch(String fileName) {
+        int status = OK;
+        try (BufferedReader reader = fileName.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(fileName), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> words = split(line);
+                int result = words == null ? usage("unbalanced quotes") : run(words);
+                if (result != OK) {
+                    System.err.println("Line " + lineNumber + " failed: " + line);
+                    status = result;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read batch file " + fileName + ": " + e.getMessage());
+            return FAILED;
+        }
+        return status;
+    }
+
+    /**
+     * Method to run one command.
+     * @param words The command followed by its arguments.
+     * @return The exit status of the command.
+     */
+    private static int run(List<String> words) {
+        String command = words.get(0).toLowerCase(Locale.ROOT);
+        List<String> args = words.subList(1, words.size());
+        switch (command) {
+            case "import":
+                return importPhotos(args);
+            case "tag":
+                return changeTag(args, true);
+            case "untag":
+                return changeTag(args, false);
+            case "search":
+                return search(args);
+            case "export":
+                return export(args);
+            case "verify":
+                return verify(args);
+            case "stats":
+                return stats(args);
+            default:
+                return usage("unknown command " + command);
+        }
+    }
+
+    /**
+     * Method for the import command: adds image files, or the images in folders, to an album.
+     * Uses the same importer as the application, so copies already in the album are skipped.
+     * @param args The user, the album and the files or folders.
+     * @return The exit status.
+     */
+    private static int importPhotos(List<String> args) {
+        if (args.size() < 3) {
+            return usage("import takes a user, an album and at least one file or folder");
+        }
+        User user = findUser(args.get(0));
+        if (user == null) {
+            return FAILED;
+        }
+        Album album = user.getAlbumByName(args.get(1));
+        if (album == null) {
+            album = new Album(args.get(1));
+            user.createAlbum(album);
+            modified = true;
+        }
+        List<File> sources = new ArrayList<>();
+        for (String path : args.subList(2, args.size())) {
+            sources.add(new File(path));
+        }
+        PhotoImporter.ImportResult result = new PhotoImporter(user, album).prepare(sources, null);
+        // The importer's commit also starts the background hashers and thumbnails for the user interface,
+        // the photos are added directly so the process can exit as soon as the data is saved
+        int added = album.addPhotos(result.getPhotos());
+        modified |= added > 0;
+        System.out.println("Imported " + added + " photos into " + album.getName()
+                + " (" + result.getDuplicates() + " duplicates, " + result.getFailed() + " failed)");
+        return OK;
+    }
+
+    /**
+     * Method for the tag and untag commands: adds a tag to, or removes it from, every matching photo.
+     * A photo in several albums is changed in all of them. A single-valued tag type is not added to
+     * a photo that already has a tag of that type. A new tag type is added to the user as multi-valued.
+     * The matches are changed as one edit.
+     * @param args The user, the tag as type=value and the filters.
+     * @param add True to add the tag, false to remove it.
+     * @return The exit status.
+     */
+    private static int changeTag(List<String> args, boolean add) {
+        if (args.size() < 2) {
+            return usage((add ? "tag" : "untag") + " takes a user and a tag");
+        }
+        User user = findUser(args.get(0));
+        Tag tag = parseTag(args.get(1));
+        SearchCursor cursor = user == null || tag == null ? null : searchOf(user, args.subList(2, args.size()));
+        if (cursor == null) {
+            return user == null ? FAILED : USAGE;
+        }
+        String tagType = findTagType(user, tag.getTagName());
+        if (tagType == null && add) {
+            tagType = tag.getTagName();
+            user.addTagType(tagType, Integer.MAX_VALUE);
+            modified = true;
+            System.out.println("Added tag type " + tagType);
+        }
+        // One edit for every match, applied to all copies and saved once with the rest of the command
+        PhotoEdit edit = new PhotoEdit();
+        if (add) {
+            edit.addTag(new Tag(tagType, tag.getTagValue()));
+        } else {
+            edit.removeTag(tag);
+        }
+        PhotoEdit.EditResult result = edit.apply(user, cursor.getAll());
+        int changed = result.getChanged();
+        int skipped = result.getSkipped();
+        modified |= changed > 0;
+        System.out.println((add ? "Tagged " : "Untagged ") + changed + " photos"
+                + (skipped > 0 ? " (" + skipped + " already have a " + tagType + ")" : ""));
+        return OK;
+    }
+
+    /**
+     * Method for the search command: prints the file of every matching photo, one per line.
+     * @param args The user and the filters.
+     * @return The exit status.
+     */
+    private static int search(List<String> args) {
+        if (args.isEmpty()) {
+            return usage("search takes a user");
+        }
+        User user = findUser(args.get(0));
+        if (user == null) {
+            return FAILED;
+        }
+        SearchCursor cursor = searchOf(user, args.subList(1, args.size()));
+        if (cursor == null) {
+            return USAGE;
+        }
+        for (Photo photo : cursor.getAll()) {
+            System.out.println(photo.getFilePath());
+        }
+        return OK;
+    }
+
+    /**
+     * Method for the export command: copies the files of the matching photos to a folder.
+     * Files with the same name get a number added, files that are missing are reported and skipped.
+     * @param args The user, the folder and the filters.
+     * @return The exit status, FAILED if any file could not be copied.
+     */
+    private static int export(List<String> args) {
+        if (args.size() < 2) {
+            return usage("export takes a user and a folder");
+        }
+        User user = findUser(args.get(0));
+        if (user == null) {
+            return FAILED;
+        }
+        SearchCursor cursor = searchOf(user, args.subList(2, args.size()));
+        if (cursor == null) {
+            return USAGE;
+        }
+        Path folder = Path.of(args.get(1));
+        int copied = 0;
+        int failed = 0;
+        try {
+            Files.createDirectories(folder);
+        } catch (IOException e) {
+            System.err.println("Failed to create " + folder + ": " + e.getMessage());
+            return FAILED;
+        }
+        for (Photo photo : cursor.getAll()) {
+            Path source = Path.of(photo.getFilePath());
+            try {
+                Files.copy(source, freeName(folder, source.getFileName().toString()));
+                copied++;
+            } catch (IOException e) {
+                System.err.println("Failed to copy " + source + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        System.out.println("Exported " + copied + " photos to " + folder + (failed > 0 ? " (" + failed + " failed)" : ""));
+        return failed > 0 ? FAILED : OK;
+    }
+
+    /**
+     * Method for the verify command: checks that every photo's file still exists and has not changed.
+     * A file has changed if its size or, unless --quick is given, its content hash differs from the one recorded.
+     * @param args The user and optionally --quick.
+     * @return The exit status, FAILED if any photo is missing or changed.
+     */
+    private static int verify(List<String> args) {
+        if (args.isEmpty() || args.size() > 2 || (args.size() == 2 && !args.get(1).equals("--quick"))) {
+            return usage("verify takes a user and optionally --quick");
+        }
+        User user = findUser(args.get(0));
+        if (user == null) {
+            return FAILED;
+        }
+        boolean quick = args.size() == 2;
+        Set<String> checked = new HashSet<>();
+        int missing = 0;
+        int changed = 0;
+        for (Photo photo : user.getAllPhotos()) {
+            if (!checked.add(photo.getFilePath())) {
+                continue; // The same file in another album
+            }
+            Path path = Path.of(photo.getFilePath());
+            if (!Files.isRegularFile(path)) {
+                System.out.println("MISSING " + path);
+                missing++;
+                continue;
+            }
+            try {
+                boolean sizeChanged = photo.getFileSize() > 0 && Files.size(path) != photo.getFileSize();
+                boolean hashChanged = !quick && !sizeChanged && photo.getContentHash() != null
+                        && !photo.getContentHash().equals(ContentHasher.hash(path));
+                if (sizeChanged || hashChanged) {
+                    System.out.println("CHANGED " + path);
+                    changed++;
+                }
+            } catch (IOException e) {
+                System.out.println("UNREADABLE " + path + ": " + e.getMessage());
+                missing++;
+            }
+        }
+        System.out.println("Checked " + checked.size() + " files: " + missing + " missing, " + changed + " changed");
+        return missing + changed > 0 ? FAILED : OK;
+    }
+
+    /**
+     * Method for the stats command: prints the albums, the number of photos, their size, the years they span
+     * and the most used tags. Everything but the tags comes from the album headers.
+     * @param args The user.
+     * @return The exit status.
+     */
+    private static int stats(List<String> args) {
+        if (args.size() != 1) {
+            return usage("stats takes a user");
+        }
+        User user = findUser(args.get(0));
+        if (user == null) {
+            return FAILED;
+        }
+        int photos = 0;
+        long bytes = 0;
+        for (Album album : user.getAlbums()) {
+            LocalDateTime earliest = album.getEarliestDate();
+            System.out.println(album.getName() + ": " + album.getNumPhotos() + " photos"
+                    + (earliest == null ? "" : ", " + earliest.toLocalDate() + " to " + album.getLatestDate().toLocalDate()));
+            photos += album.getNumPhotos();
+            bytes += album.getTotalBytes();
+        }
+        System.out.println(user.getAlbums().size() + " albums, " + photos + " photos, " + (bytes / 1024) + " KB");
+        DateHistogram timeline = user.getTimeline();
+        for (DateHistogram.Bucket year : timeline.getYears()) {
+            System.out.println("  " + year);
+        }
+        FacetCounts facets = user.getFacetCounts();
+        for (FacetCounts.Facet facet : facets.topOfEachType(5)) {
+            System.out.println("  " + facet);
+        }
+        return OK;
+    }
+
+    /**
+     * Helper method to build a search from filter arguments.
+     * Album filters are checked against the album headers, so albums that are left out are never read.
+     * @param user The user whose photos are searched.
+     * @param filters The filters, all of which a photo has to match.
+     * @return The search, or null if a filter was not understood.
+     */
+    private static SearchCursor searchOf(User user, List<String> filters) {
+        Set<String> albumNames = new HashSet<>();
+        Predicate<Photo> filter = photo -> true;
+        for (String argument : filters) {
+            int colon = argument.indexOf(':');
+            String kind = colon < 0 ? "" : argument.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = argument.substring(colon + 1);
+            switch (kind) {
+                case "album":
+                    albumNames.add(value.toLowerCase(Locale.ROOT));
+                    break;
+                case "tag":
+                    Tag tag = parseTag(value);
+                    if (tag == null) {
+                        return null;
+                    }
+                    filter = filter.and(photo -> findTag(photo, tag) != null);
+                    break;
+                case "from":
+                case "to":
+                    LocalDate date = parseDate(value);
+                    if (date == null) {
+                        return null;
+                    }
+                    if (kind.equals("from")) {
+                        LocalDateTime start = date.atStartOfDay();
+                        filter = filter.and(photo -> photo.getDate() != null && !photo.getDate().isBefore(start));
+                    } else {
+                        LocalDateTime end = date.atTime(LocalTime.MAX);
+                        filter = filter.and(photo -> photo.getDate() != null && !photo.getDate().isAfter(end));
+                    }
+                    break;
+                case "caption":
+                    String text = value.toLowerCase(Locale.ROOT);
+                    filter = filter.and(photo -> photo.getCaption() != null
+                            && photo.getCaption().toLowerCase(Locale.ROOT).contains(text));
+                    break;
+                default:
+                    usage("unknown filter " + argument);
+                    return null;
+            }
+        }
+        return SearchCursor.inAlbums(user,
+                album -> albumNames.isEmpty() || albumNames.contains(album.getName().toLowerCase(Locale.ROOT)), filter);
+    }
+
+    /**
+     * Helper method to find a user, reporting unknown users.
+     * @param username The username.
+     * @return The user, or null if there is no such user.
+     */
+    private static User findUser(String username) {
+        User user = DataManager.loadUserData(username);
+        if (user == null) {
+            System.err.println("Unknown user " + username);
+        }
+        return user;
+    }
+
+    /**
+     * Helper method to parse a tag written as type=value.
+     * @param text The tag.
+     * @return The tag, or null if it is not written as type=value.
+     */
+    private static Tag parseTag(String text) {
+        int equals = text.indexOf('=');
+        if (equals <= 0 || equals == text.length() - 1) {
+            usage("tags are written as type=value: " + text);
+            return null;
+        }
+        return new Tag(text.substring(0, equals).trim(), text.substring(equals + 1).trim());
+    }
+
+    /**
+     * Helper method to parse a date written as yyyy-MM-dd.
+     * @param text The date.
+     * @return The date, or null if it could not be parsed.
+     */
+    private static LocalDate parseDate(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            usage("dates are written as yyyy-MM-dd: " + text);
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to find one of the user's tag types, ignoring case like the rest of the application.
+     * @param user The user.
+     * @param tagType The tag type as typed.
+     * @return The tag type as the user has it, or null if the user has no such type.
+     */
+    private static String findTagType(User user, String tagType) {
+        for (Map.Entry<String, Integer> entry : user.getTagTypes().entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(tagType)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to find a photo's own copy of a tag, ignoring case.
+     * @param photo The photo.
+     * @param tag The tag.
+     * @return The photo's tag, or null if the photo doesn't have it.
+     */
+    private static Tag findTag(Photo photo, Tag tag) {
+        for (Tag existing : photo.getTags()) {
+            if (existing.getTagName().equalsIgnoreCase(tag.getTagName())
+                    && existing.getTagValue().equalsIgnoreCase(tag.getTagValue())) {
+                return existing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to find a file name that is not taken in a folder, adding a number before the extension if needed.
+     * @param folder The folder.
+     * @param fileName The name the file would like.
+     * @return A path in the folder that doesn't exist yet.
+     */
+    private static Path freeName(Path folder, String fileName) {
+        Path target = folder.resolve(fileName);
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int number = 2; Files.exists(target); number++) {
+            target = folder.resolve(base + " (" + number + ")" + extension);
+        }
+        return target;
+    }
+
+    /**
+     * Helper method to split a batch line into words. Words with spaces can be put in double quotes.
+     * @param line The line.
+     * @return The words, or null if a quote is not closed.
+     */
+    private static List<String> split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true; // "" is an empty word
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Helper method to report a command that was not understood.
+     * @param message What was wrong.
+     * @return USAGE, so callers can return it directly.
+     */
+    private static int usage(String message) {
+        System.err.println(message);
+        System.err.println(USAGE_TEXT);
+        return USAGE;
+    }
+}
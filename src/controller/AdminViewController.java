@@ -1,62 +1,183 @@
 package controller;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import model.DataManager;
-import model.User;
 import model.AdminService;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
+import model.ModelEvent;
+import model.UserSummary;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Pagination;
+import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import java.io.IOException;
-import java.util.Map;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Controller class for the admin view.
+ * The users are shown a page at a time, filtered, sorted and paged by the user directory, so the view opens at once
+ * however many users there are and no user is read to be shown. Sorting a column asks the directory for the users
+ * in that order instead of sorting the page.
  * @author ZB SL
  */
-public class AdminViewController {
+public class AdminViewController implements RoutedController {
 
     /**
-     * The TableView to display the list of users.
+     * The number of users on a page of the table.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * The format of the last login times.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /**
+     * The TableView to display one page of users, with their counts from the user directory.
      */
     @FXML
-    private TableView<User> userTableView;
+    private TableView<UserSummary> userTableView;
 
     /**
-     * Initializes the admin view.
-     * This method is called automatically after the fxml file has been loaded.
-     * It is used to initialize the view with the current users.
+     * The column of the table showing the usernames.
+     */
+    @FXML
+    private TableColumn<UserSummary, String> usernameColumn;
+
+    /**
+     * The column of the table showing the number of albums of each user.
+     */
+    @FXML
+    private TableColumn<UserSummary, String> albumsColumn;
+
+    /**
+     * The column of the table showing the number of photos of each user.
+     */
+    @FXML
+    private TableColumn<UserSummary, String> photosColumn;
+
+    /**
+     * The column of the table showing the total size of the photo files of each user.
+     */
+    @FXML
+    private TableColumn<UserSummary, String> sizeColumn;
+
+    /**
+     * The column of the table showing when each user last logged in.
+     */
+    @FXML
+    private TableColumn<UserSummary, String> lastLoginColumn;
+
+    /**
+     * The pages of the table, which shows the table as its page.
+     */
+    @FXML
+    private Pagination pagination;
+
+    /**
+     * Whether the view is shown, so changes to the filter while it is left don't load pages.
+     */
+    private boolean bound;
+
+    /**
+     * The field to find users by the start of their usernames.
+     */
+    @FXML
+    private TextField filterField;
+
+    /**
+     * Listener told about every change to the model, applies created and deleted users to the table.
+     */
+    private final Consumer<ModelEvent> modelListener = event -> {
+        if (Platform.isFxApplicationThread()) {
+            handleModelEvent(event);
+        } else {
+            Platform.runLater(() -> handleModelEvent(event));
+        }
+    };
+
+    /**
+     * Initializes the admin view, once, when its fxml file is loaded.
      */
     @FXML
     private void initialize() {
+        usernameColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getUsername()));
+        albumsColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().isKnown()
+                ? String.valueOf(cell.getValue().getAlbumCount()) : ""));
+        photosColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().isKnown()
+                ? String.valueOf(cell.getValue().getPhotoCount()) : ""));
+        sizeColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().isKnown()
+                ? formatSize(cell.getValue().getTotalBytes()) : ""));
+        lastLoginColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getLastLogin() == 0 ? "Never"
+                : DATE_FORMAT.format(Instant.ofEpochMilli(cell.getValue().getLastLogin()).atZone(ZoneId.systemDefault()))));
+        usernameColumn.setUserData(UserSummary.Sort.USERNAME);
+        albumsColumn.setUserData(UserSummary.Sort.ALBUMS);
+        photosColumn.setUserData(UserSummary.Sort.PHOTOS);
+        sizeColumn.setUserData(UserSummary.Sort.BYTES);
+        lastLoginColumn.setUserData(UserSummary.Sort.LAST_LOGIN);
+        // The directory sorts all users, the table only shows the page it gets back
+        userTableView.setSortPolicy(table -> {
+            if (bound) {
+                loadPage(pagination.getCurrentPageIndex());
+            }
+            return true;
+        });
+        pagination.setPageFactory(index -> {
+            if (bound) {
+                loadPage(index);
+            }
+            return userTableView; // The same table for every page, only its items change
+        });
+        // Each change of the filter is looked up in the user directory's sorted index
+        filterField.textProperty().addListener((observable, oldText, newText) -> {
+            if (bound) {
+                refreshUserListView();
+            }
+        });
+    }
+
+    /**
+     * Binds the admin view to the current users.
+     * This method is called each time the view is shown, the fxml file is only loaded once.
+     * It is used to initialize the view with the current users.
+     */
+    public void bind() {
+        bound = true;
         refreshUserListView();
+        ModelEvent.addListener(modelListener);
+    }
+
+    /**
+     * Unbinds the admin view when it is left, so it stops listening and lets go of the users.
+     */
+    @Override
+    public void unbind() {
+        bound = false;
+        ModelEvent.removeListener(modelListener);
+        userTableView.getItems().clear();
+        filterField.clear();
+        pagination.setCurrentPageIndex(0);
     }
     
     /**
      * Handles the logout button click event.
-     * Saves the user data and closes the current window.
-     * Opens the login window.
+     * Saves the user data and opens the login window in the current window.
      */
     @FXML
     private void handleLogout() {
-        // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
-
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
-        // Close the current admin window
-        Stage currentStage = (Stage) userTableView.getScene().getWindow();
-        currentStage.close();
-    
-        // Open the login window
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
+        // Open the login window, in place of the admin view
         openLoginWindow();
     }
 
@@ -66,13 +187,8 @@ public class AdminViewController {
      */
     @FXML
     private void handleQuit() {
-        // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
-    
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
         // Close the entire application
         Stage primaryStage = (Stage) userTableView.getScene().getWindow();
         primaryStage.close();
@@ -101,10 +217,7 @@ public class AdminViewController {
             if (!username.trim().isEmpty()) {
                 // Call the AdminService to create the user, which checks if the username is already in use
                 boolean success = AdminService.createUser(username);
-                if (success) {
-                    // Success, refresh the user list view
-                    refreshUserListView();
-                } else {
+                if (!success) { // On success the model event adds the user to the table
                     // Failure, show error dialog that the username is already in use
                     showErrorDialog("Failed to create new user. Cannot have repeat usernames.");
                 }
@@ -122,25 +235,24 @@ public class AdminViewController {
     @FXML
     private void handleDeleteSelectedUser() {
         // Get the selected user from the TableView using getSelectionModel().getSelectedItem() and store it in a variable
-        User selectedUser = userTableView.getSelectionModel().getSelectedItem();
+        UserSummary selected = userTableView.getSelectionModel().getSelectedItem();
+        String selectedUser = selected == null ? null : selected.getUsername();
         if (selectedUser == null) {
             showErrorDialog("No user selected.");
             return;
         }
-        if ("admin".equalsIgnoreCase(selectedUser.getUsername())) {
+        if ("admin".equalsIgnoreCase(selectedUser)) {
             showErrorDialog("Cannot delete the admin user.");
             return;
         }
         // Show a confirmation dialog using an Alert with AlertType.CONFIRMATION
-        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION, "Are you sure you want to delete the user " + selectedUser.getUsername() + "?", ButtonType.YES, ButtonType.NO);
+        Alert confirmAlert = new Alert(Alert.AlertType.CONFIRMATION, "Are you sure you want to delete the user " + selectedUser + "?", ButtonType.YES, ButtonType.NO);
         confirmAlert.setHeaderText("Confirm Deletion");
         // Use showAndWait() to wait for the user's response and capture the result in an Optional
         Optional<ButtonType> result = confirmAlert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.YES) {
-            boolean success = AdminService.deleteUser(selectedUser.getUsername());
-            if (success) {
-                refreshUserListView(); // Refresh the list view to reflect the changes
-            } else {
+            boolean success = AdminService.deleteUser(selectedUser); // The model event removes the user from the table
+            if (!success) {
                 showErrorDialog("Failed to delete the user."); // Should not happen
             }
         }
@@ -151,12 +263,7 @@ public class AdminViewController {
      */
     private void openLoginWindow() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
-            Parent root = loader.load();
-            Stage stage = new Stage();
-            stage.setTitle("Login");
-            stage.setScene(new Scene(root));
-            stage.show();
+            ViewRouter.show(ViewRouter.View.LOGIN, "Login", controller -> { });
         } catch (IOException e) {
             // Handle IOException, possibly with an error dialog
             showErrorDialog("Error opening login window: " + e.getMessage());
@@ -164,14 +271,70 @@ public class AdminViewController {
     }
 
     /**
-     * Refreshes the user list view with the current users.
+     * Refreshes the user list view with the current users whose usernames start with the filter:
+     * counts the pages, and loads the page shown, or the last page if there are fewer pages now.
      */
     private void refreshUserListView() {
-        userTableView.getItems().clear(); // Clear the existing items in the TableView
-        // Add all current users to the TableView using DataManager.getUsersMap().values().forEach() lambda expression consumer functional interface
-        DataManager.getUsersMap().values().forEach(user -> userTableView.getItems().add(user)); // Add all current users to the TableView
+        int count = AdminService.countUsers(filterField.getText());
+        int pages = Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+        int page = Math.min(pagination.getCurrentPageIndex(), pages - 1);
+        pagination.setPageCount(pages);
+        pagination.setCurrentPageIndex(page);
+        loadPage(page); // The page factory isn't called again if the page shown stays the same
+    }
+
+    /**
+     * Loads one page of users into the table, filtered and in the order of the sorted column, from the user directory.
+     * @param index The index of the page.
+     */
+    private void loadPage(int index) {
+        UserSummary.Sort sort = UserSummary.Sort.USERNAME;
+        boolean descending = false;
+        if (!userTableView.getSortOrder().isEmpty()) {
+            TableColumn<UserSummary, ?> column = userTableView.getSortOrder().get(0);
+            sort = (UserSummary.Sort) column.getUserData();
+            descending = column.getSortType() == TableColumn.SortType.DESCENDING;
+        }
+        // Replace the items of the TableView at once, one change for the whole page
+        userTableView.getItems().setAll(AdminService.pageUsers(filterField.getText(), sort, descending,
+                index * PAGE_SIZE, PAGE_SIZE));
+    }
+
+    /**
+     * Helper method to format a size in bytes for the table.
+     * @param bytes The size in bytes.
+     * @return The size in bytes, KB, MB or GB.
+     */
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        String[] units = {"KB", "MB", "GB", "TB"};
+        double size = bytes / 1024.0;
+        int unit = 0;
+        while (size >= 1024 && unit < units.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", size, units[unit]);
     }    
 
+    /**
+     * Applies a created or deleted user to the table, by loading the page shown again.
+     * Stops listening once the window is closed.
+     * @param event The change.
+     */
+    private void handleModelEvent(ModelEvent event) {
+        Window window = userTableView.getScene() == null ? null : userTableView.getScene().getWindow();
+        if (window != null && !window.isShowing()) {
+            ModelEvent.removeListener(modelListener);
+            return;
+        }
+        if (event.getType() == ModelEvent.Type.USER_ADDED || event.getType() == ModelEvent.Type.USER_REMOVED) {
+            refreshUserListView(); // One page from the directory, the user lands wherever the order puts it
+        }
+    }
+
     /**
      * Shows an error dialog with the specified message.
      * @param message The message to display in the dialog.
@@ -5,36 +5,58 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
+import javafx.geometry.Insets;
 import javafx.geometry.Pos;
-import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ChoiceDialog;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
-import javafx.scene.text.Text;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
+import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import javafx.util.Pair;
 import model.Album;
 import model.DataManager;
+import model.LibraryWatcher;
+import model.ModelEvent;
 import model.Photo;
+import model.PerceptualHasher;
+import model.PhotoEdit;
+import model.PhotoImporter;
+import model.PhotoOrder;
 import model.User;
 import model.Tag;
 
@@ -42,7 +64,35 @@ import model.Tag;
  * Controller class for the album view.
  * @author ZB SL
  */
-public class AlbumViewController {
+public class AlbumViewController implements RoutedController {
+
+    /**
+     * The largest number of differing perceptual hash bits for two photos to be shown as similar.
+     */
+    private static final int SIMILAR_PHOTO_DISTANCE = 10;
+
+    /**
+     * The number of photos loaded into the list at a time when the album is listed in its own order.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The photos whose caption or tags were changed in this view, copied to the same photos in other albums
+     * when the view is left. Identity set, since equal photos in other albums must not be mistaken for them.
+     */
+    private final Set<Photo> editedPhotos = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Listener told about every change to the model, including photos the library watcher updated on disk.
+     * Changes made on the JavaFX thread are applied right away, so the list is up to date when a handler returns.
+     */
+    private final Consumer<ModelEvent> modelListener = event -> {
+        if (Platform.isFxApplicationThread()) {
+            handleModelEvent(event);
+        } else {
+            Platform.runLater(() -> handleModelEvent(event));
+        }
+    };
 
     /**
      * The selected album for the view.
@@ -60,9 +110,29 @@ public class AlbumViewController {
     @FXML
     private ListView<Photo> photoListView;
 
+    /**
+     * The ComboBox for choosing the order the photos are listed in. No choice lists them in album order.
+     */
+    @FXML
+    private ComboBox<PhotoOrder> sortOrderBox;
+
+    /**
+     * Method to set up the album view once, after its FXML file has been loaded.
+     * The view is shown again for other albums, see setAlbumAndUser.
+     */
+    @FXML
+    private void initialize() {
+        // Set the custom cell for the photo list view, shared with the search and similar photo lists
+        // The custom layout displays the photo thumbnail, caption, file name and date
+        PhotoListCell.install(photoListView, this::loadNextPage);
+        // Several photos can be selected for the batch editor, the other buttons use the last one selected
+        photoListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        sortOrderBox.getItems().setAll(PhotoOrder.values());
+    }
+
     /**
      * Method to set the selected album and current user for the view.
-     * This method is called from the UserViewController when the user selects an album.
+     * This method is called from the UserViewController each time the user opens an album.
      * @param album The selected album.
      * @param user The current user.
      */
@@ -79,131 +149,207 @@ public class AlbumViewController {
      * This method is called when the album view is loaded.
      */
     private void initializeAlbumView() {
-        // Set the custom cell factory for the photo list view
-        // Works by setting the graphic of the ListCell to a custom layout (HBox with ImageView and Text)
-        // The custom layout displays the photo thumbnail and caption
-        // Lambda expression to create a new PhotoListCell for each item in the ListView
-        photoListView.setCellFactory(listView -> new PhotoListCell());
-        
         // Populate the photo list view with photos from the selected album
-        photoListView.getItems().setAll(selectedAlbum.getPhotos());
-    }
-
-    /**
-     * Custom ListCell class for displaying photos in the ListView.
-     * This class is used to customize the appearance of each photo in the ListView.
-     * Works by setting the graphic of the ListCell to a custom layout (HBox with ImageView and Text).
-     */
-    static class PhotoListCell extends ListCell<Photo> {
-
-        /**
-         * The layout for the custom ListCell.
-         * This layout contains an ImageView for the photo thumbnail and a Text component for the caption.
-         * The layout is an HBox with the ImageView and Text components.
-         */
-        private HBox content;
-
-        /**
-         * The text component for the photo caption.
-         */
-        private Text caption;
-
-        /**
-         * The image component for the photo thumbnail.
-         */
-        private ImageView image;
-
-        /**
-         * Constructor for the custom ListCell.
-         */
-        public PhotoListCell() {
-            super();
-            caption = new Text();
-            image = new ImageView();
-            content = new HBox(image, caption);
-            content.setSpacing(10); // Set spacing between image and caption
-        }
-
-        /**
-         * Method to update the item in the ListCell.
-         * This method is called whenever the item in the cell needs to be updated.
-         * @param item The Photo object to display.
-         * @param empty A boolean indicating if the cell is empty.
-         * If empty is true, the cell is empty and should not display any content.
-         * If empty is false, the cell should display the Photo object.
-         */
-        @Override
-        protected void updateItem(Photo item, boolean empty) {
-            // Call the super method to update the item in the cell first
-            super.updateItem(item, empty);
-
-            if (item != null && !empty) {
-                caption.setText(item.getCaption()); // Set the caption text
-                // Set the thumbnail image (scaled to 100x100) for the photo in the cell
-                image.setImage(item.getThumbnail());
-                // Set the content of the cell to the custom layout (HBox with ImageView and Text)
-                // This layout displays the photo thumbnail and caption
-                setGraphic(content);
-            } else {
-                setGraphic(null);
-            }
+        showAlbumPhotos();
+
+        // Apply changes to the album's photos to the list as they happen, including changes on disk
+        ModelEvent.addListener(modelListener);
+    }
+
+    /**
+     * Event handler for the sort order ComboBox.
+     * This method is called when the user picks an order, and lists the photos again in that order.
+     * The album's own order is not changed.
+     */
+    @FXML
+    private void handleSortOrder() {
+        if (selectedAlbum != null) { // The order is also reset while the view is left, see unbind
+            showAlbumPhotos();
+        }
+    }
+
+    /**
+     * Method to unbind the view when it is left, so it stops listening to the model and lets go of the album
+     * and its photos. The next album is listed in its own order again.
+     */
+    @Override
+    public void unbind() {
+        stopListening();
+        selectedAlbum = null;
+        currentUser = null;
+        editedPhotos.clear(); // Already copied to the other albums by the handler that left the view
+        sortOrderBox.setValue(null);
+        photoListView.getSelectionModel().clearSelection();
+        photoListView.getItems().clear();
+    }
+
+    /**
+     * Method to fill the photo list view with the album's photos in the chosen order.
+     * In the album's own order only the first page is listed, further pages are read from the album's file
+     * as the user scrolls, so a large album opens without reading all of its photos.
+     */
+    private void showAlbumPhotos() {
+        if (sortOrderBox.getValue() == null) {
+            photoListView.getItems().setAll(selectedAlbum.getPhotoPage(0, PAGE_SIZE));
+        } else {
+            photoListView.getItems().setAll(selectedAlbum.getPhotos(sortOrderBox.getValue()));
+        }
+    }
+
+    /**
+     * Method to load the next page of photos when the user scrolls to the end of the list.
+     * Sorted lists are complete already.
+     */
+    private void loadNextPage() {
+        int shown = photoListView.getItems().size();
+        if (sortOrderBox.getValue() != null || shown >= selectedAlbum.getNumPhotos()) {
+            return;
         }
+        photoListView.getItems().addAll(selectedAlbum.getPhotoPage(shown, PAGE_SIZE));
     }
 
     /**
      * Event handler for the "Add Photo" button.
      * This method is called when the user clicks the "Add Photo" button.
-     * It opens a FileChooser dialog to let the user select a photo to add to the album.
+     * It opens a FileChooser dialog to let the user select one or more photos to add to the album.
      * Only types of image files are allowed (e.g., BMP, GIF, JPG, PNG).
-     * The selected photo is added to the album and the photo list view is updated.
-     * If the user cancels the dialog or an error occurs, an error dialog is shown.
+     * A single photo is added directly, several photos are imported in the background with a progress dialog.
+     * The photo list view is updated once the photos are added.
      */
     @FXML
     private void handleAddPhoto() {
-        // Open a FileChooser dialog to select a photo file
+        // Open a FileChooser dialog to select photo files
         FileChooser fileChooser = new FileChooser();
         // Set the title
-        fileChooser.setTitle("Select Photo");
+        fileChooser.setTitle("Select Photos");
         // Set the initial directory to the user's home directory
         fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
         // Set the extension filters to allow only image files (BMP, GIF, JPG, JPEG, PNG)
         fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("Image Files", "*.bmp", "*.gif", "*.jpg", "*.jpeg", "*.png"));
-        // Show the dialog and wait for the user to select a file
-        File file = fileChooser.showOpenDialog(null);
-    
-        // Check if a file was selected
-        if (file != null) {
-            // Check if the photo is already in the current album
-            for (Photo photo : selectedAlbum.getPhotos()) {
-                if (photo.getFilePath().equals(file.getAbsolutePath())) {
-                    showErrorDialog("The photo is already in this album.");
-                    return;
-                }
+        // Show the dialog and wait for the user to select one or more files
+        List<File> files = fileChooser.showOpenMultipleDialog(null);
+
+        // Check if any file was selected
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        if (files.size() > 1) {
+            // Several files, import them all at once in the background
+            runImport(files);
+            return;
+        }
+
+        File file = files.get(0);
+        // Check if the photo is already in the current album, using the album's path index
+        if (selectedAlbum.containsPath(file.getAbsolutePath())) {
+            showErrorDialog("The photo is already in this album.");
+            return;
+        }
+        // Then in another album, only the albums whose saved keys hold the file are read
+        List<Photo> existingPhotos = currentUser.findPhotosByPath(file.getAbsolutePath());
+        if (!existingPhotos.isEmpty()) {
+            Alert warningAlert = new Alert(Alert.AlertType.WARNING, "This photo is already in another of your album(s). The copy added here will share its caption and tags. Continue?", ButtonType.OK, ButtonType.CANCEL);
+            warningAlert.setHeaderText("Photo Already Exists");
+            Optional<ButtonType> warningResult = warningAlert.showAndWait();
+            if (warningResult.isPresent() && warningResult.get() == ButtonType.CANCEL) {
+                return;
             }
-            // Check if the photo is already in another album for the current user
-            boolean photoExistsInOtherAlbum = false;
-            for (Album album : currentUser.getAlbums()) {
-                for (Photo photo : album.getPhotos()) {
-                    if (photo.getFilePath().equals(file.getAbsolutePath()) && !album.equals(selectedAlbum)) {
-                        Alert warningAlert = new Alert(Alert.AlertType.WARNING, "This photo is already in another of your album(s). Adding it here will overwrite the old tags and caption. Continue?", ButtonType.OK, ButtonType.CANCEL);
-                        warningAlert.setHeaderText("Photo Already Exists");
-                        Optional<ButtonType> warningResult = warningAlert.showAndWait();
-                        if (warningResult.isPresent() && warningResult.get() == ButtonType.CANCEL) {
-                            return;
-                        }
-                        photoExistsInOtherAlbum = true;
-                        break;
+        }
+
+        // If the photo does not exist in any other album or the user chose to proceed
+        Photo newPhoto = new Photo(file.getAbsolutePath());
+        if (!existingPhotos.isEmpty()) {
+            // Carry the caption and tags over from the existing copy, as a folder import does
+            newPhoto.setCaption(existingPhotos.get(0).getCaption());
+            newPhoto.setTags(new ArrayList<>(existingPhotos.get(0).getTags())); // Copy the tags
+        }
+        selectedAlbum.addPhoto(newPhoto); // The list is updated by the model event
+        DataManager.saveUserData(currentUser);
+    }
+
+    /**
+     * Event handler for the "Import Folder" button.
+     * This method is called when the user clicks the "Import Folder" button.
+     * It opens a DirectoryChooser dialog and imports every image file in the folder and its subfolders.
+     */
+    @FXML
+    private void handleImportFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select Folder to Import");
+        directoryChooser.setInitialDirectory(new File(System.getProperty("user.home")));
+        File folder = directoryChooser.showDialog(photoListView.getScene().getWindow());
+        if (folder != null) {
+            runImport(List.of(folder));
+        }
+    }
+
+    /**
+     * Method to import files and folders into the album in the background.
+     * Shows a progress dialog with a cancel button while the files are scanned.
+     * Nothing is added to the album if the import is cancelled.
+     * Once the scan completes, all photos are added and the user data is saved once.
+     * @param sources The files and folders to import.
+     */
+    private void runImport(List<File> sources) {
+        PhotoImporter importer = new PhotoImporter(currentUser, selectedAlbum);
+
+        // Task runs the prepare phase off the JavaFX thread and reports progress back to it
+        Task<PhotoImporter.ImportResult> importTask = new Task<>() {
+            @Override
+            protected PhotoImporter.ImportResult call() {
+                updateMessage("Scanning folders...");
+                return importer.prepare(sources, (done, total) -> {
+                    if (total >= 0) {
+                        updateProgress(done, total);
+                        updateMessage("Reading " + done + " of " + total + " photos...");
                     }
-                }
-                if (photoExistsInOtherAlbum) break;
+                });
             }
-    
-            // If the photo does not exist in any other album or the user chose to proceed
-            Photo newPhoto = new Photo(file.getAbsolutePath());
-            selectedAlbum.addPhoto(newPhoto);
-            photoListView.getItems().setAll(selectedAlbum.getPhotos());
-            DataManager.saveUserData(currentUser);
-        }
+        };
+
+        // Build the progress dialog, modal so the album can't be edited during the import
+        Stage progressStage = new Stage();
+        progressStage.initModality(Modality.APPLICATION_MODAL);
+        progressStage.setTitle("Importing Photos");
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(importTask.progressProperty());
+        Label progressLabel = new Label();
+        progressLabel.textProperty().bind(importTask.messageProperty());
+        Button cancelButton = new Button("Cancel");
+        cancelButton.setOnAction(e -> {
+            importer.cancel();
+            importTask.cancel();
+        });
+        VBox layout = new VBox(10, progressLabel, progressBar, cancelButton);
+        layout.setAlignment(Pos.CENTER);
+        layout.setPadding(new Insets(20));
+        progressStage.setScene(new Scene(layout));
+        progressStage.setOnCloseRequest(e -> {
+            importer.cancel();
+            importTask.cancel();
+        });
+
+        importTask.setOnSucceeded(e -> {
+            progressStage.close();
+            PhotoImporter.ImportResult result = importTask.getValue();
+            int added = importer.commit(result); // Adds all photos and saves once, the list is updated by the model event
+            showConfirmationDialog("Imported " + added + " photo(s). Skipped " + result.getDuplicates()
+                    + " already in your albums, " + result.getFailed() + " could not be read.");
+        });
+        importTask.setOnCancelled(e -> progressStage.close());
+        importTask.setOnFailed(e -> {
+            progressStage.close();
+            if (!(importTask.getException() instanceof CancellationException)) {
+                showErrorDialog("Error importing photos: " + importTask.getException().getMessage());
+            }
+        });
+
+        // Run the task on a daemon thread so it never keeps the application from exiting
+        Thread importThread = new Thread(importTask, "photo-import");
+        importThread.setDaemon(true);
+        importThread.start();
+        progressStage.show();
     }
 
     /**
@@ -235,12 +381,9 @@ public class AlbumViewController {
         Optional<ButtonType> result = confirmAlert.showAndWait();
 
         if (result.isPresent() && result.get() == ButtonType.YES) {
-            // Remove the photo from the album
+            // Remove the photo from the album, the model event removes it from the list view
             selectedAlbum.removePhoto(selectedPhoto);
 
-            // Update the photo list view
-            photoListView.getItems().remove(selectedPhoto);
-
             // Save the updated user data
             DataManager.saveUserData(currentUser);
         }
@@ -275,8 +418,8 @@ public class AlbumViewController {
 
         result.ifPresent(caption -> {
             // Set the new caption and update the ListView using a Consumer block lambda, we don't need to return anything
-            selectedPhoto.setCaption(caption);
-            photoListView.refresh();
+            selectedPhoto.setCaption(caption); // The model event redraws the photo's cell
+            editedPhotos.add(selectedPhoto);
 
             // Save the updated user data
             DataManager.saveUserData(currentUser);
@@ -319,6 +462,9 @@ public class AlbumViewController {
         ImageView imageView = new ImageView(image);
         imageView.setPreserveRatio(true); // Preserve the aspect ratio of the image
         imageView.setFitHeight(600); // Might be better to use a ScrollPane for large images but this will do for now
+        if (selectedPhoto.getMetadata() != null) {
+            imageView.setRotate(selectedPhoto.getMetadata().getRotationDegrees()); // Display upright according to the EXIF orientation
+        }
 
         // Create labels for the caption and date-time
         Label captionLabel = new Label("Caption: " + selectedPhoto.getCaption());
@@ -340,6 +486,46 @@ public class AlbumViewController {
         photoStage.show();
     }
 
+    /**
+     * Event handler for the "Find Similar" button.
+     * This method is called when the user clicks the "Find Similar" button.
+     * It shows the photos in all of the user's albums that look like the selected photo,
+     * including resized or recompressed copies of it, closest matches first.
+     * If no photo is selected, an error dialog is shown.
+     */
+    @FXML
+    private void handleFindSimilar() {
+        Photo selectedPhoto = photoListView.getSelectionModel().getSelectedItem();
+
+        if (selectedPhoto == null) {
+            showErrorDialog("Please select a photo to find similar photos.");
+            return;
+        }
+        // The background hasher may not have reached this photo yet, so hash it now if needed
+        if (!PerceptualHasher.ensureHash(selectedPhoto)) {
+            showErrorDialog("Could not load the selected photo.");
+            return;
+        }
+        List<Photo> similar = currentUser.findSimilarPhotos(selectedPhoto, SIMILAR_PHOTO_DISTANCE);
+        PerceptualHasher.hashInBackground(currentUser); // Albums read from disk for the search may have unhashed photos
+        if (similar.isEmpty()) {
+            showConfirmationDialog("No similar photos found.");
+            return;
+        }
+
+        // Show the matches in a list with thumbnails, like the album view
+        ListView<Photo> similarView = new ListView<>();
+        PhotoListCell.install(similarView);
+        similarView.getItems().setAll(similar);
+        VBox layout = new VBox(10, new Label(similar.size() + " similar photo(s) to " + selectedPhoto.getFilePath()), similarView);
+        layout.setPadding(new Insets(10));
+
+        Stage similarStage = new Stage();
+        similarStage.setTitle("Similar Photos");
+        similarStage.setScene(new Scene(layout, 500, 600));
+        similarStage.show();
+    }
+
     /**
      * Event handler for the "Add Tag" button.
      * This method is called when the user clicks the "Add Tag" button.
@@ -380,9 +566,8 @@ public class AlbumViewController {
             // Add tag to the photo
             Tag newTag = new Tag(tagType, tagValue);
             if (selectedPhoto.addTag(newTag)) { // Method returns true if tag was added successfully (no duplicates)
-                photoListView.refresh(); // Update the ListView to show the new tag
-                DataManager.saveUserData(currentUser); // Save changes
-                // Sync photo updates across all albums defensively
+                editedPhotos.add(selectedPhoto); // The model event redraws the photo's cell
+                // Sync photo updates across all albums defensively, this also saves the changes
                 synchronizePhotoUpdates();
             } else {
                 showErrorDialog("This tag already exists for the selected photo.");
@@ -549,9 +734,8 @@ public class AlbumViewController {
             for (Tag tag : tags) {
                 if ((tag.getTagName() + ": " + tag.getTagValue()).equals(selectedTagDescription)) {
                     selectedPhoto.deleteTag(tag);
-                    photoListView.refresh(); // Update ListView
-                    DataManager.saveUserData(currentUser); // Save changes
-                    // Sync photo updates across all albums
+                    editedPhotos.add(selectedPhoto); // The model event redraws the photo's cell
+                    // Sync photo updates across all albums, this also saves the changes
                     synchronizePhotoUpdates();
                     break;
                 }
@@ -559,6 +743,129 @@ public class AlbumViewController {
         }
     }
 
+    /**
+     * Event handler for the "Edit Selected" button.
+     * This method is called when the user clicks the "Edit Selected" button.
+     * It lets the user set a caption and add or remove tags on all selected photos at once.
+     * The changes are applied as one edit, to the photos and their copies in other albums,
+     * and the user data is saved once however many photos were selected.
+     */
+    @FXML
+    private void handleEditSelected() {
+        List<Photo> selectedPhotos = new ArrayList<>(photoListView.getSelectionModel().getSelectedItems());
+
+        if (selectedPhotos.isEmpty()) {
+            showErrorDialog("Please select one or more photos to edit.");
+            return;
+        }
+
+        PhotoEdit edit = showBatchEditDialog(selectedPhotos);
+        if (edit == null || edit.isEmpty()) {
+            return; // User canceled or didn't change anything
+        }
+
+        PhotoEdit.EditResult result = edit.apply(currentUser, selectedPhotos); // Each changed photo's cell is redrawn by its model event
+        DataManager.saveUserData(currentUser); // One save for the whole batch
+
+        if (result.getSkipped() > 0) {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Edit Selected");
+            alert.setHeaderText(null);
+            alert.setContentText("Edited " + result.getChanged() + " photos. " + result.getSkipped()
+                    + " tags were not added because the photo already has a value for a single-valued tag type.");
+            alert.showAndWait();
+        }
+    }
+
+    /**
+     * Method to show the dialog for editing several photos at once.
+     * The dialog has an optional caption, a list of tags to add built from a tag type and a value,
+     * and the tags found on the selected photos, of which the ones selected are removed.
+     * A tag type that doesn't exist yet is added to the user after asking for its multiplicity.
+     * @param selectedPhotos The photos being edited.
+     * @return The edit, or null if the user canceled or entered invalid input.
+     */
+    private PhotoEdit showBatchEditDialog(List<Photo> selectedPhotos) {
+        Map<String, Integer> tagTypes = currentUser.getTagTypes();
+
+        // Caption, only changed if the box is checked so captions aren't cleared by accident
+        CheckBox captionBox = new CheckBox("Set caption:");
+        TextField captionField = new TextField();
+        captionField.disableProperty().bind(captionBox.selectedProperty().not());
+
+        // Tags to add, the type box is editable so a new type can be typed in
+        ComboBox<String> typeBox = new ComboBox<>();
+        typeBox.getItems().setAll(tagTypes.keySet());
+        typeBox.setEditable(true);
+        typeBox.setPromptText("Tag type");
+        TextField valueField = new TextField();
+        valueField.setPromptText("Tag value");
+        ListView<Tag> addList = new ListView<>();
+        addList.setPrefHeight(100);
+        Button queueButton = new Button("Add to List");
+        queueButton.setOnAction(event -> {
+            String type = typeBox.getEditor().getText().trim();
+            String value = valueField.getText().trim();
+            if (!type.isEmpty() && !value.isEmpty()) {
+                addList.getItems().add(new Tag(type, value));
+                valueField.clear();
+            }
+        });
+
+        // Tags to remove, every tag found on the selected photos
+        ListView<Tag> removeList = new ListView<>();
+        removeList.setPrefHeight(100);
+        removeList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        Set<String> seenTags = new HashSet<>();
+        for (Photo photo : selectedPhotos) {
+            for (Tag tag : photo.getTags()) {
+                if (seenTags.add(tag.getTagName().toLowerCase() + "=" + tag.getTagValue().toLowerCase())) {
+                    removeList.getItems().add(tag);
+                }
+            }
+        }
+
+        VBox content = new VBox(10,
+                new HBox(10, captionBox, captionField),
+                new Label("Tags to add:"), new HBox(10, typeBox, valueField, queueButton), addList,
+                new Label("Tags to remove (select any number):"), removeList);
+        content.setPadding(new Insets(10));
+
+        Alert dialog = new Alert(Alert.AlertType.NONE, null, ButtonType.OK, ButtonType.CANCEL);
+        dialog.setTitle("Edit Selected");
+        dialog.setHeaderText("Edit " + selectedPhotos.size() + " selected photos");
+        dialog.getDialogPane().setContent(content);
+
+        Optional<ButtonType> response = dialog.showAndWait();
+        if (response.isEmpty() || response.get() != ButtonType.OK) {
+            return null;
+        }
+
+        PhotoEdit edit = new PhotoEdit();
+        if (captionBox.isSelected()) {
+            edit.setCaption(captionField.getText());
+        }
+        for (Tag tag : removeList.getSelectionModel().getSelectedItems()) {
+            edit.removeTag(tag);
+        }
+        for (Tag tag : addList.getItems()) {
+            // Use the existing spelling of the type, or add the type if it is new
+            String type = tagTypes.keySet().stream().filter(existingType -> existingType.equalsIgnoreCase(tag.getTagName()))
+                    .findFirst().orElse(null);
+            if (type == null) {
+                Integer multiplicity = askForMultiplicity(tag.getTagName());
+                if (multiplicity == null) {
+                    return null;
+                }
+                type = tag.getTagName();
+                tagTypes.put(type, multiplicity);
+                currentUser.setTagTypes(tagTypes);
+            }
+            edit.addTag(new Tag(type, tag.getTagValue()));
+        }
+        return edit;
+    }
+
     /**
      * Event handler for the "Copy Photo" button.
      * This method is called when the user clicks the "Copy Photo" button.
@@ -605,14 +912,12 @@ public class AlbumViewController {
                 return;
             }
     
-            if (destinationAlbum.getPhotos().contains(selectedPhoto)) {
+            if (destinationAlbum.containsSamePhoto(selectedPhoto)) {
                 showErrorDialog("The selected album already contains this photo.");
                 return;
             }
     
-            Photo photoCopy = new Photo(selectedPhoto.getFilePath()); // Create a new Photo object with the same file path
-            photoCopy.setCaption(selectedPhoto.getCaption()); // Copy the caption using the getCaption method
-            photoCopy.setTags(new ArrayList<>(selectedPhoto.getTags())); // Copy the tags using a new ArrayList and the getTags method
+            Photo photoCopy = new Photo(selectedPhoto); // Copy constructor copies the caption, tags and file information without reading the file again
             destinationAlbum.addPhoto(photoCopy);
     
             DataManager.saveUserData(currentUser);
@@ -680,7 +985,7 @@ public class AlbumViewController {
                 return;
             }
 
-            if (destinationAlbum.getPhotos().contains(selectedPhoto)) {
+            if (destinationAlbum.containsSamePhoto(selectedPhoto)) {
                 showErrorDialog("The selected album already contains this photo.");
                 return;
             }
@@ -690,8 +995,7 @@ public class AlbumViewController {
             // Remove the photo from the current album
             selectedAlbum.removePhoto(selectedPhoto);
 
-            DataManager.saveUserData(currentUser); // Only move from/to same user
-            photoListView.getItems().remove(selectedPhoto); // Update the photo list view
+            DataManager.saveUserData(currentUser); // Only move from/to same user, the model event updates the list view
             showConfirmationDialog("Photo moved successfully to " + selectedAlbumName + ".");
         }
     }
@@ -796,38 +1100,20 @@ public class AlbumViewController {
      * This method is called when the user clicks the "Back to Albums" button.
      * It saves the current user data and opens the UserView window.
      */
-    // not too important but the UserView is a diffrent sized window from this button then when logging in, once you notice cant un-notice. 
     @FXML
     private void handleBackToAlbums() {
 
         // Synchronize photo updates across all albums before going back to the albums view
         synchronizePhotoUpdates();
+        User viewUser = currentUser; // Kept, this view lets go of its user when it is left
 
-        // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
-
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
 
         try {
-            // Load the FXML file for the UserView
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserView.fxml"));
-            Parent root = loader.load();
-
-            // Get the controller for the UserView and set the current user
-            UserViewController userViewController = loader.getController();
-            userViewController.setCurrentUser(currentUser);
-
-            // Set up the scene and stage
-            Stage stage = (Stage) photoListView.getScene().getWindow();
-            stage.setTitle("Your Albums");
-            stage.setScene(new Scene(root));
-
-            // Show the UserView window
-            stage.show();
-
+            // Show the UserView in the same window, with the current user set in its controller
+            ViewRouter.show(ViewRouter.View.USER, "Your Albums",
+                    (UserViewController userViewController) -> userViewController.setCurrentUser(viewUser));
         } catch (IOException e) {
             e.printStackTrace();
             // Handle IOException, such as showing an error dialog
@@ -838,7 +1124,7 @@ public class AlbumViewController {
     /**
      * Event handler for the "Logout" button.
      * This method is called when the user clicks the "Logout" button.
-     * It saves the current user data, closes the album view window, and opens the login window.
+     * It saves the current user data and opens the login window in place of the album view.
      */
     @FXML
     private void handleLogout() {
@@ -848,26 +1134,143 @@ public class AlbumViewController {
         // Save the current state before logging out
         DataManager.saveUserData(currentUser);
 
-        // Close the current album view window
-        Stage currentStage = (Stage) photoListView.getScene().getWindow();
-        currentStage.close();
+        LibraryWatcher.stop(); // Stop watching the photo files of the user logging out
 
         // Open the login window
         openLoginWindow();
     }
 
+    /**
+     * Method to apply a change to the model to the photo list, touching only the rows it affects.
+     * Photos added to the album are inserted, removed photos are removed, and photos whose caption, tags or file
+     * changed, one at a time or in a batch edit, have only their own cells redrawn. Stops listening once the window is closed.
+     * @param event The change.
+     */
+    private void handleModelEvent(ModelEvent event) {
+        Window window = photoListView.getScene() == null ? null : photoListView.getScene().getWindow();
+        if (window != null && !window.isShowing()) {
+            stopListening();
+            return;
+        }
+        switch (event.getType()) {
+            case PHOTOS_ADDED:
+                if (event.getAlbum() == selectedAlbum) {
+                    showAddedPhotos(event.getPhotos(), event.getIndex());
+                }
+                break;
+            case PHOTO_REMOVED:
+                if (event.getAlbum() == selectedAlbum) {
+                    photoListView.getItems().remove(event.getPhoto());
+                }
+                break;
+            case PHOTOS_REORDERED:
+                if (event.getAlbum() == selectedAlbum && sortOrderBox.getValue() == null) {
+                    showAlbumPhotos();
+                }
+                break;
+            case CAPTION_CHANGED:
+            case TAGS_CHANGED:
+            case FILE_CHANGED:
+            case PHOTOS_CHANGED:
+                updatePhotoCells(event.getPhotos());
+                break;
+            default:
+                break; // Album and user changes don't show in this view
+        }
+    }
+
+    /**
+     * Helper method to list photos just added to the album.
+     * In the album's own order they are appended if the list already shows the end of the album, otherwise
+     * they are listed when the user scrolls down to them. In a sorted list each is inserted where it belongs.
+     * @param photos The photos added.
+     * @param index The index in the album of the first photo added.
+     */
+    private void showAddedPhotos(List<Photo> photos, int index) {
+        List<Photo> items = photoListView.getItems();
+        if (sortOrderBox.getValue() == null) {
+            if (index == items.size()) {
+                items.addAll(photos);
+            }
+            return;
+        }
+        Comparator<Photo> comparator = sortOrderBox.getValue().comparator();
+        for (Photo photo : photos) {
+            items.add(sortedPosition(items, photo, comparator), photo);
+        }
+    }
+
+    /**
+     * Helper method to redraw the cells of photos that changed. The listed photos are indexed by id in one pass,
+     * so a batch edit of k photos costs O(n + k) instead of searching the list for each photo.
+     * In a sorted list, if a change put a photo out of order the list is sorted again once for the whole batch,
+     * otherwise the list is only told that the rows changed.
+     * @param photos The photos that changed.
+     */
+    private void updatePhotoCells(List<Photo> photos) {
+        List<Photo> items = photoListView.getItems();
+        Map<Long, Integer> indexById = new HashMap<>(items.size() * 2);
+        for (int i = 0; i < items.size(); i++) {
+            indexById.put(items.get(i).getId(), i);
+        }
+        PhotoOrder order = sortOrderBox.getValue();
+        Comparator<Photo> comparator = order == null ? null : order.comparator();
+        boolean outOfOrder = false;
+        for (Photo photo : photos) {
+            Integer index = indexById.get(photo.getId());
+            if (index == null || items.get(index) != photo) {
+                continue; // Not listed, for example a copy in another album or a photo on a later page
+            }
+            if (comparator != null && !outOfOrder) {
+                outOfOrder = (index > 0 && comparator.compare(items.get(index - 1), photo) > 0)
+                        || (index < items.size() - 1 && comparator.compare(photo, items.get(index + 1)) > 0);
+            }
+            if (!outOfOrder) {
+                items.set(index, photo); // Replacing the row with itself redraws just that cell
+            }
+        }
+        if (outOfOrder) {
+            // A stable sort, so photos that compare equal keep their places
+            FXCollections.sort(photoListView.getItems(), comparator);
+            photoListView.refresh(); // Redraws the rows that changed but kept their place
+        }
+    }
+
+    /**
+     * Helper method to find where a photo belongs in a sorted list, after the photos that compare equal to it.
+     * @param items The sorted list.
+     * @param photo The photo.
+     * @param comparator The order of the list.
+     * @return The index to insert the photo at.
+     */
+    private static int sortedPosition(List<Photo> items, Photo photo, Comparator<Photo> comparator) {
+        int low = 0;
+        int high = items.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(items.get(middle), photo) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Helper method to stop listening to model events, once the view is left or its window is closed.
+     */
+    private void stopListening() {
+        ModelEvent.removeListener(modelListener);
+    }
+
     /**
      * Method to open the login window.
      * This method is called when the user logs out.
      */
     private void openLoginWindow() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
-            Parent root = loader.load();
-            Stage stage = new Stage();
-            stage.setTitle("Login");
-            stage.setScene(new Scene(root));
-            stage.show();
+            ViewRouter.show(ViewRouter.View.LOGIN, "Login", controller -> { });
         } catch (IOException e) {
             // Handle IOException, possibly with an error dialog
             showErrorDialog("Error opening login window: " + e.getMessage());
@@ -890,22 +1293,20 @@ public class AlbumViewController {
      * Method to synchronize photo updates across all albums.
      * This method is called when the user logs out, quits, or goes back to the user view from the album view.
      * It updates the captions and tags of photos in other albums when they are changed in the current album.
+     * Only the photos edited in this view are copied, found through the albums' path indexes, so an album
+     * on disk is only read if its saved keys say it holds a copy of an edited photo.
      */
     private void synchronizePhotoUpdates() {
-        for (Photo photo : selectedAlbum.getPhotos()) {
-            String currentPhotoPath = photo.getFilePath();
-            for (Album album : currentUser.getAlbums()) {
-                if (!album.equals(selectedAlbum)) { // Skip the current album
-                    for (Photo otherPhoto : album.getPhotos()) {
-                        if (otherPhoto.getFilePath().equals(currentPhotoPath)) {
-                            // Found a matching photo in another album, update its caption and tags
-                            otherPhoto.setCaption(photo.getCaption());
-                            otherPhoto.setTags(new ArrayList<>(photo.getTags())); // Copy the tags
-                        }
-                    }
+        for (Photo photo : editedPhotos) {
+            for (Photo otherPhoto : currentUser.findPhotosByPath(photo.getFilePath())) {
+                if (otherPhoto != photo) {
+                    // Found a matching photo in another album, update its caption and tags
+                    otherPhoto.setCaption(photo.getCaption());
+                    otherPhoto.setTags(new ArrayList<>(photo.getTags())); // Copy the tags
                 }
             }
         }
+        editedPhotos.clear();
         DataManager.saveUserData(currentUser); // Save changes to user data
     }
 }
@@ -2,12 +2,8 @@ package controller;
 
 import java.io.IOException;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TextField;
-import javafx.stage.Stage;
 import model.DataManager;
 import model.User;
 
@@ -15,7 +11,7 @@ import model.User;
  * Controller class for the LoginView FXML file.
  * @author ZB SL
  */
-public class LoginController {
+public class LoginController implements RoutedController {
 
     /**
      * The TextField for the username input.
@@ -42,11 +38,13 @@ public class LoginController {
 
         if ("admin".equals(username.toLowerCase())) {
             // Handle admin login
+            DataManager.recordLogin("admin"); // Shown in the admin view's last login column
             openAdminView();
         } else {
-            User user = DataManager.loadUserData(username);
+            User user = DataManager.loadUserData(username); // Found in any case, waits only for this user if the data is still loading
             if (user != null) {
                 // User exists, proceed with login
+                DataManager.recordLogin(user.getUsername());
                 openUserView(user);
             } else {
                 // Handle case where user doesn't exist, maybe show an error or create a new user
@@ -58,21 +56,12 @@ public class LoginController {
     /**
      * Method to open the AdminView.
      * This method is called when the user logs in as an admin.
-     * It loads the AdminView FXML file and sets it to the current stage.
+     * It shows the AdminView in the current stage.
      */
     private void openAdminView() {
         try {
-            // Load the FXML file for the AdminView
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AdminView.fxml"));
-            Parent root = loader.load();
-
-            // Get the current stage (from the login button, for example)
-            Stage currentStage = (Stage) usernameField.getScene().getWindow();
-
-            // Set the admin view to the current stage
-            currentStage.setTitle("Admin Dashboard");
-            currentStage.setScene(new Scene(root, 800, 600));
-            currentStage.show();
+            // Show the admin view in the current stage, bound to the current users
+            ViewRouter.show(ViewRouter.View.ADMIN, "Admin Dashboard", AdminViewController::bind);
         } catch (IOException e) {
             e.printStackTrace();
             // Handle IOException, such as showing an error dialog
@@ -82,35 +71,28 @@ public class LoginController {
     /**
      * Method to open the UserView.
      * This method is called when the user logs in as a general user.
-     * It loads the UserView FXML file, sets the current user in the UserViewController,
-     * and sets the UserView to the current stage.
+     * It sets the current user in the UserViewController and shows the UserView in the current stage.
      * @param user The user object for the current user.
      */
     private void openUserView(User user) {
         try {
-            // Load the FXML file for the UserView
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserView.fxml"));
-            Parent root = loader.load();
-
-            // Get the UserViewController from the loader
-            UserViewController userViewController = loader.getController();
-            
-            // Set the current user in the UserViewController
-            userViewController.setCurrentUser(user);
-
-            // Get the current stage (from the login button, for example)
-            Stage currentStage = (Stage) usernameField.getScene().getWindow();
-
-            // Set the user view to the current stage
-            currentStage.setTitle("User Dashboard");
-            currentStage.setScene(new Scene(root, 800, 600));
-            currentStage.show();
+            // Show the user view in the current stage, with the current user set in the UserViewController
+            ViewRouter.show(ViewRouter.View.USER, "User Dashboard",
+                    (UserViewController userViewController) -> userViewController.setCurrentUser(user));
         } catch (IOException e) {
             // Show an error dialog if an IOException occurs
            showErrorDialog("An error occurred while opening the UserView.");
         }
     }
 
+    /**
+     * Method to clear the login form when the login view is left, so it is empty the next time it is shown.
+     */
+    @Override
+    public void unbind() {
+        usernameField.clear();
+    }
+
     /**
      * Method to show an error dialog.
      * This method is called when an error occurs, such as an empty username.
@@ -0,0 +1,165 @@
+package controller;
+
+import java.io.File;
+import java.time.format.DateTimeFormatter;
+import javafx.application.Platform;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import model.Photo;
+import model.ThumbnailCache;
+
+/**
+ * Custom ListCell class for displaying photos in the album, search and similar photo lists.
+ * Each row shows the photo thumbnail with the caption and a short line with the file name and date.
+ * Thumbnails come from the ThumbnailCache: cached ones are shown right away, others are decoded on a
+ * background thread and shown when ready, so scrolling never waits for a file to be read.
+ * @author ZB SL
+ */
+public class PhotoListCell extends ListCell<Photo> {
+
+    /**
+     * The spacing between the thumbnail and the text, and above and below each row.
+     */
+    private static final int SPACING = 10;
+
+    /**
+     * The format of the date shown under the caption.
+     */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    /**
+     * The layout for the custom ListCell.
+     * This layout contains an ImageView for the photo thumbnail and the caption and details text.
+     */
+    private final HBox content;
+
+    /**
+     * The text component for the photo caption.
+     */
+    private final Text caption;
+
+    /**
+     * The text component for the file name and date of the photo.
+     */
+    private final Text details;
+
+    /**
+     * The image component for the photo thumbnail.
+     */
+    private final ImageView image;
+
+    /**
+     * Called when the last row of the list is shown, to load more rows. May be null.
+     */
+    private final Runnable onLastRowShown;
+
+    /**
+     * Constructor for the custom ListCell.
+     */
+    public PhotoListCell() {
+        this(null);
+    }
+
+    /**
+     * Constructor for the custom ListCell that loads more rows when the end of the list is reached.
+     * @param onLastRowShown Called on the JavaFX thread when the last row of the list is shown, may be null.
+     */
+    public PhotoListCell(Runnable onLastRowShown) {
+        super();
+        this.onLastRowShown = onLastRowShown;
+        caption = new Text();
+        details = new Text();
+        image = new ImageView();
+        // Reserve the thumbnail's space even while it loads, so rows don't change height
+        image.setFitWidth(ThumbnailCache.THUMBNAIL_WIDTH);
+        image.setFitHeight(ThumbnailCache.THUMBNAIL_HEIGHT);
+        image.setPreserveRatio(true);
+        content = new HBox(image, new VBox(5, caption, details));
+        content.setSpacing(SPACING); // Set spacing between image and text
+    }
+
+    /**
+     * Method to set up a list view to display photos with this cell.
+     * All rows have the same height, so the list view doesn't have to measure every row while scrolling.
+     * @param listView The list view.
+     */
+    public static void install(ListView<Photo> listView) {
+        install(listView, null);
+    }
+
+    /**
+     * Method to set up a list view to display photos with this cell, loading more rows as the user scrolls.
+     * @param listView The list view.
+     * @param onLastRowShown Called on the JavaFX thread when the last row of the list is shown, may be null.
+     */
+    public static void install(ListView<Photo> listView, Runnable onLastRowShown) {
+        // Lambda expression to create a new PhotoListCell for each visible row of the ListView
+        listView.setCellFactory(view -> new PhotoListCell(onLastRowShown));
+        listView.setFixedCellSize(ThumbnailCache.THUMBNAIL_HEIGHT + SPACING);
+    }
+
+    /**
+     * Method to update the item in the ListCell.
+     * This method is called whenever the item in the cell needs to be updated, cells are reused as the list scrolls.
+     * @param item The Photo object to display.
+     * @param empty A boolean indicating if the cell is empty.
+     * If empty is true, the cell is empty and should not display any content.
+     * If empty is false, the cell should display the Photo object.
+     */
+    @Override
+    protected void updateItem(Photo item, boolean empty) {
+        // Call the super method to update the item in the cell first
+        super.updateItem(item, empty);
+
+        if (item == null || empty) {
+            image.setImage(null);
+            setGraphic(null);
+            return;
+        }
+        updateText(item);
+        image.setImage(null); // Don't show the previous photo's thumbnail while this one loads
+        // The request is dropped if the cell has moved on to another photo before it runs
+        ThumbnailCache.getThumbnailAsync(item, () -> getItem() == item, thumbnail -> {
+            if (Platform.isFxApplicationThread()) {
+                showThumbnail(item, thumbnail);
+            } else {
+                Platform.runLater(() -> showThumbnail(item, thumbnail));
+            }
+        });
+        // Set the content of the cell to the custom layout (HBox with ImageView and text)
+        setGraphic(content);
+
+        if (onLastRowShown != null && getListView() != null && getIndex() == getListView().getItems().size() - 1) {
+            // Load more rows after the current layout pass, the items can't change in the middle of it
+            Platform.runLater(onLastRowShown);
+        }
+    }
+
+    /**
+     * Helper method to show a loaded thumbnail, if the cell still displays the photo it was loaded for.
+     * @param item The photo the thumbnail was loaded for.
+     * @param thumbnail The thumbnail, or null if the file could not be read.
+     */
+    private void showThumbnail(Photo item, Image thumbnail) {
+        if (getItem() != item) {
+            return; // The cell was reused for another photo in the meantime
+        }
+        image.setImage(thumbnail);
+        updateText(item); // Loading may have found the file missing
+    }
+
+    /**
+     * Helper method to set the caption and details text for a photo.
+     * @param item The photo.
+     */
+    private void updateText(Photo item) {
+        // Flag photos whose file can no longer be found
+        caption.setText(item.isMissing() ? item.getCaption() + " (file missing)" : item.getCaption());
+        details.setText(new File(item.getFilePath()).getName() + "  " + item.getDate().format(DATE_FORMAT));
+    }
+}
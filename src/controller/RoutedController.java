@@ -0,0 +1,16 @@
+package controller;
+
+/**
+ * Interface for the controllers of views shown by the ViewRouter. A view is loaded once and shown again and again,
+ * so its controller is bound to what it shows each time it is shown, with the method the view already had for that,
+ * and unbound each time it is left.
+ * @author ZB SL
+ */
+interface RoutedController {
+
+    /**
+     * Method called when the view is left, to stop listening to the model, close anything the view still reads,
+     * and let go of the user, album and photos it showed, so the next time it is shown it starts out empty.
+     */
+    void unbind();
+}
@@ -1,37 +1,39 @@
 package controller;
 
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.DatePicker;
+import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
 import javafx.stage.Stage;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ComboBox;
 import model.Album;
 import model.DataManager;
+import model.FacetCounts;
+import model.LibraryWatcher;
 import model.Photo;
+import model.PhotoOrder;
+import model.SearchCursor;
+import model.Tag;
 import model.User;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * SearchViewController class for the search view.
  * @author ZB SL
  */
-public class SearchViewController {
+public class SearchViewController implements RoutedController {
 
     /**
      * The DatePicker for the start date of the search.
@@ -81,19 +83,102 @@ public class SearchViewController {
     @FXML
     private ListView<Photo> searchResultsView;
 
+    /**
+     * The ComboBox for choosing the order of the search results. No choice lists them in album order.
+     */
+    @FXML
+    private ComboBox<PhotoOrder> sortOrderBox;
+
     /**
      * The current user logged in.
      */
     private User currentUser;
 
+    /**
+     * The number of search results loaded into the list at a time.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The cursor over the results of the last search, or null if there is no search.
+     * Results are loaded from it a page at a time as the user scrolls down the list.
+     */
+    private SearchCursor searchCursor;
+
+    /**
+     * The condition of the last search, kept so the results can be listed again in another order.
+     */
+    private Predicate<Photo> searchFilter;
+
+    /**
+     * The tags of the last search, used to rank results by tag relevance.
+     */
+    private List<Tag> searchTags = new ArrayList<>();
+
+    /**
+     * The number of values of each tag type shown in the facet panel.
+     */
+    private static final int FACETS_PER_TYPE = 20;
+
+    /**
+     * The tags picked in the facet panel to narrow down the current search, all of which a result must have.
+     */
+    private final List<Tag> facetFilters = new ArrayList<>();
+
+    /**
+     * Counts the facet computations started, so the results of an older one are ignored if it finishes late.
+     */
+    private long facetGeneration;
+
+    /**
+     * The ListView with the tag facets of the current results, clicking one narrows the results down to it.
+     */
+    @FXML
+    private ListView<FacetCounts.Facet> facetListView;
+
+    /**
+     * The Label listing the facet filters in use.
+     */
+    @FXML
+    private Label facetFiltersLabel;
+
+    /**
+     * Method to set up the search view once, after its FXML file has been loaded.
+     * The view is shown again each time the user searches, see initialize with the current user.
+     */
+    @FXML
+    private void initialize() {
+        tagSearchType.setItems(FXCollections.observableArrayList("Single", "Conjunctive", "Disjunctive"));
+        sortOrderBox.setItems(FXCollections.observableArrayList(PhotoOrder.values()));
+        // Clicking a facet narrows the results down to photos with that tag
+        facetListView.setOnMouseClicked(event -> handleFacetSelected());
+        // Show results with thumbnails like the album view, instead of each photo's toString
+        // The next page of results is loaded when the user scrolls to the last one
+        PhotoListCell.install(searchResultsView, this::loadNextPage);
+    }
+
     /**
      * Method to initialize the SearchViewController with the current user.
-     * This method is called from the UserViewController to pass the current user.
+     * This method is called from the UserViewController to pass the current user, each time the view is shown.
      * @param currentUser The current user logged in.
      */
     public void initialize(User currentUser) {
         this.currentUser = currentUser;
-        tagSearchType.setItems(FXCollections.observableArrayList("Single", "Conjunctive", "Disjunctive"));
+        showUserFacets();
+    }
+
+    /**
+     * Method to unbind the view when it is left, so the next search starts out empty and the view lets go
+     * of the user and the results. The search still open is closed, so its snapshot is released.
+     */
+    @Override
+    public void unbind() {
+        clearSearch();
+        sortOrderBox.setValue(null); // No search is shown, so this lists nothing again
+        facetGeneration++; // A facet count still running is ignored
+        facetListView.getItems().clear();
+        facetFiltersLabel.setText("");
+        currentUser = null;
     }
 
     /**
@@ -118,25 +203,12 @@ public class SearchViewController {
         LocalDateTime startDateTime = startDate.atStartOfDay();
         LocalDateTime endDateTime = endDate.atTime(LocalTime.MAX);
 
-        Set<Photo> matchingPhotosSet = new HashSet<>(); // set to avoid duplicates
-
-        for (Album album : currentUser.getAlbums()) {
-            for (Photo photo : album.getPhotos()) {
-                LocalDateTime photoDate = photo.getDate();
-                if ((photoDate.isEqual(startDateTime) || photoDate.isAfter(startDateTime)) &&
-                    (photoDate.isEqual(endDateTime) || photoDate.isBefore(endDateTime))) { // In the specified date range
-                    matchingPhotosSet.add(photo);
-                }
-            }
-        }
-
-        List<Photo> matchingPhotos = new ArrayList<>(matchingPhotosSet); // Convert the Set to a List for ListView
-
-        if (matchingPhotos.isEmpty()) {
-            showErrorDialog("No photos found in the specified date range.");
-        } else {
-            searchResultsView.getItems().setAll(matchingPhotos); // Update the list view with the matching photos
-        }
+        // Results are found lazily, one page at a time, photos in several albums are only listed once
+        startSearch(photo -> {
+            LocalDateTime photoDate = photo.getDate();
+            return (photoDate.isEqual(startDateTime) || photoDate.isAfter(startDateTime)) &&
+                (photoDate.isEqual(endDateTime) || photoDate.isBefore(endDateTime)); // In the specified date range
+        }, new ArrayList<>(), "No photos found in the specified date range.");
     }
 
     /**
@@ -192,47 +264,184 @@ public class SearchViewController {
             }
         }
 
-        Set<Photo> matchingPhotosSet = new HashSet<>(); // Use a Set to avoid duplicates
-
-        for (Album album : currentUser.getAlbums()) {
-            for (Photo photo : album.getPhotos()) {
-                boolean matches = false; // Flag to determine if the photo matches the criteria
-
-                switch (searchType) {
-                    case "Single":
-                        // Either tag1 or tag2 must match but not both
-                        boolean matchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
-                        boolean matchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
-                        matches = (matchesTag1 && !matchesTag2) || (!matchesTag1 && matchesTag2); // Use logical XOR for single search
-                        break;
-                    case "Conjunctive":
-                        // Both tags must match
-                        boolean conMatchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
-                        boolean conMatchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
-                        matches = conMatchesTag1 && conMatchesTag2; // Use logical AND for conjunctive search
-                        break;
-                    case "Disjunctive":
-                        // Disjunctive search logic...
-                        boolean disMatchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
-                        boolean disMatchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
-                        matches = disMatchesTag1 || disMatchesTag2; // Use logical OR for disjunctive search
-                        break;
-                }
+        // The searched tags, for ranking the results by tag relevance
+        List<Tag> tags = new ArrayList<>();
+        if (!tag1Type.isEmpty() && !tag1Value.isEmpty()) {
+            tags.add(new Tag(tag1Type, tag1Value));
+        }
+        if (!tag2Type.isEmpty() && !tag2Value.isEmpty()) {
+            tags.add(new Tag(tag2Type, tag2Value));
+        }
+
+        // Results are found lazily, one page at a time, photos in several albums are only listed once
+        startSearch(photo -> {
+            boolean matches = false; // Flag to determine if the photo matches the criteria
+
+            switch (searchType) {
+                case "Single":
+                    // Either tag1 or tag2 must match but not both
+                    boolean matchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
+                    boolean matchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
+                    matches = (matchesTag1 && !matchesTag2) || (!matchesTag1 && matchesTag2); // Use logical XOR for single search
+                    break;
+                case "Conjunctive":
+                    // Both tags must match
+                    boolean conMatchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
+                    boolean conMatchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
+                    matches = conMatchesTag1 && conMatchesTag2; // Use logical AND for conjunctive search
+                    break;
+                case "Disjunctive":
+                    // Disjunctive search logic...
+                    boolean disMatchesTag1 = matchesTagCriteria(photo, tag1Type, tag1Value);
+                    boolean disMatchesTag2 = matchesTagCriteria(photo, tag2Type, tag2Value);
+                    matches = disMatchesTag1 || disMatchesTag2; // Use logical OR for disjunctive search
+                    break;
+            }
+            return matches;
+        }, tags, "No photos found matching the specified tag criteria.");
+    }
 
-                if (matches) {
-                    matchingPhotosSet.add(photo); // Add photo to the set if it matches the criteria
+    /**
+     * Method to start a new search, dropping the facet filters of the previous one.
+     * @param filter The condition a photo has to meet to be a result.
+     * @param tags The searched tags, used to rank results by tag relevance.
+     * @param noResultsMessage The message shown if there are no results.
+     */
+    private void startSearch(Predicate<Photo> filter, List<Tag> tags, String noResultsMessage) {
+        facetFilters.clear();
+        showResults(filter, tags, noResultsMessage);
+    }
+
+    /**
+     * Method to show the results of a search, in the order chosen in the sort ComboBox, narrowed down by the facet filters.
+     * Only the first page of results is looked up here, later pages are loaded as the user scrolls.
+     * The facets of the results are counted in the background.
+     * @param filter The condition a photo has to meet to be a result.
+     * @param tags The searched tags, used to rank results by tag relevance.
+     * @param noResultsMessage The message shown if there are no results.
+     */
+    private void showResults(Predicate<Photo> filter, List<Tag> tags, String noResultsMessage) {
+        // A result must also have every tag picked in the facet panel
+        List<Tag> required = new ArrayList<>(facetFilters);
+        Predicate<Photo> combined = photo -> {
+            if (!filter.test(photo)) {
+                return false;
+            }
+            for (Tag tag : required) {
+                if (!matchesTagCriteria(photo, tag.getTagName(), tag.getTagValue())) {
+                    return false;
                 }
             }
+            return true;
+        };
+        SearchCursor cursor = new SearchCursor(currentUser, combined, sortOrderBox.getValue(), tags);
+        List<Photo> firstPage = cursor.nextPage(PAGE_SIZE);
+        if (firstPage.isEmpty()) {
+            showErrorDialog(noResultsMessage);
+            return;
+        }
+        searchFilter = filter;
+        searchTags = tags;
+        if (searchCursor != null) {
+            searchCursor.close(); // The results it was still reading are replaced
         }
+        searchCursor = cursor;
+        searchResultsView.getItems().setAll(firstPage); // Update the list view with the first matching photos
+        searchResultsView.scrollTo(0);
+        updateFacets(combined);
+    }
+
+    /**
+     * Method to count the facets of the current results on a background thread and show them in the facet panel.
+     * Counting needs every result, not just the pages shown, so it is kept off the JavaFX thread.
+     * @param filter The condition the results meet.
+     */
+    private void updateFacets(Predicate<Photo> filter) {
+        long generation = ++facetGeneration;
+        facetFiltersLabel.setText(facetFilters.isEmpty() ? "" : "Filtered by: " + facetFilters);
+        User user = currentUser;
+        Task<FacetCounts> task = new Task<FacetCounts>() {
+            @Override
+            protected FacetCounts call() {
+                return FacetCounts.of(new SearchCursor(user, filter).getAll());
+            }
+        };
+        task.setOnSucceeded(event -> {
+            if (generation == facetGeneration) { // Ignore a late result of an older search
+                facetListView.getItems().setAll(task.getValue().topOfEachType(FACETS_PER_TYPE));
+            }
+        });
+        Thread thread = new Thread(task, "facet-counter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method to show the tag facets of all of the user's photos, when there is no search.
+     * Read from the albums' running tag counts, so no photos are scanned.
+     */
+    private void showUserFacets() {
+        facetGeneration++;
+        facetFiltersLabel.setText("");
+        facetListView.getItems().setAll(currentUser.getFacetCounts().topOfEachType(FACETS_PER_TYPE));
+    }
 
-        List<Photo> matchingPhotos = new ArrayList<>(matchingPhotosSet); // Convert the Set to a List
+    /**
+     * Method to handle clicking a facet in the facet panel.
+     * It narrows the current results down to photos with the facet's tag, or all photos if there is no search.
+     */
+    private void handleFacetSelected() {
+        FacetCounts.Facet facet = facetListView.getSelectionModel().getSelectedItem();
+        if (facet == null) {
+            return;
+        }
+        facetFilters.add(facet.toTag());
+        if (searchFilter == null) {
+            // No search yet, so browse all photos with the tag
+            showResults(photo -> true, new ArrayList<>(), "No photos found.");
+        } else {
+            showResults(searchFilter, searchTags, "No photos found.");
+        }
+    }
 
-        // Update searchResultsView with matchingPhotos...
-        if (matchingPhotos.isEmpty()) {
-            showErrorDialog("No photos found matching the specified tag criteria.");
+    /**
+     * Method to handle the "Clear Filters" button of the facet panel.
+     * It drops the facet filters and shows the current search's results again.
+     */
+    @FXML
+    private void handleClearFacets() {
+        facetFilters.clear();
+        if (searchFilter != null) {
+            showResults(searchFilter, searchTags, "No photos found.");
         } else {
-            searchResultsView.getItems().setAll(matchingPhotos);
+            showUserFacets();
+        }
+    }
+
+    /**
+     * Method to handle choosing the order of the search results.
+     * This method is called when the user picks an order in the sort ComboBox, and lists the last search's results again.
+     */
+    @FXML
+    private void handleSortOrder() {
+        if (searchFilter != null) {
+            showResults(searchFilter, searchTags, "No photos found.");
+        }
+    }
+
+    /**
+     * Method to load the next page of search results into the list.
+     * This method is called when the user scrolls to the last result loaded so far.
+     */
+    private void loadNextPage() {
+        if (searchCursor == null || !searchCursor.hasMore()) {
+            return;
+        }
+        // Only load the page that follows what the list shows, in case this is called twice for the same row
+        if (searchCursor.getReadCount() != searchResultsView.getItems().size()) {
+            return;
         }
+        searchResultsView.getItems().addAll(searchCursor.nextPage(PAGE_SIZE));
     }
 
     /**
@@ -287,11 +496,9 @@ public class SearchViewController {
                 return;
             }
 
-            // Create the new album and add the photos from the search results
+            // Create the new album and add all photos from the search results, not just the pages loaded so far
             Album newAlbum = new Album(albumName);
-            for (Photo photo : searchResultsView.getItems()) {
-                newAlbum.addPhoto(photo);
-            }
+            newAlbum.addPhotos(searchCursor.getAll());
 
             // Add the new album to the user's list
             currentUser.createAlbum(newAlbum);
@@ -319,6 +526,16 @@ public class SearchViewController {
      */
     @FXML
     private void handleClear() {
+        clearSearch();
+
+        // Show the facets of all photos again
+        showUserFacets();
+    }
+
+    /**
+     * Helper method to reset the search fields and clear the results, closing the search.
+     */
+    private void clearSearch() {
         // Reset date pickers
         startDatePicker.setValue(null);
         endDatePicker.setValue(null);
@@ -331,28 +548,27 @@ public class SearchViewController {
         tagSearchType.setValue(null); // Reset the ComboBox selection
 
         // Clear the search results
+        if (searchCursor != null) {
+            searchCursor.close();
+        }
+        searchCursor = null;
+        searchFilter = null;
         searchResultsView.getItems().clear();
+        facetFilters.clear();
     }
 
     /**
      * Method to handle logging out.
      * This method is called when the user clicks the "Logout" button.
-     * It saves the user data and closes the current window, then opens the login window.
+     * It saves the user data and opens the login window in the current window.
      */
     @FXML
     private void handleLogout() {
-    // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
+        LibraryWatcher.stop(); // Stop watching the photo files of the user logging out
 
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
-        // Close the current user window
-        Stage currentStage = (Stage) searchResultsView.getScene().getWindow();
-        currentStage.close();
-    
-        // Open the login window
+        // Open the login window, in place of the search view
         openLoginWindow();
     }
 
@@ -364,13 +580,8 @@ public class SearchViewController {
     @FXML
     private void handleQuit() {
         // Logic to handle quit action
-        // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
-
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
         // Close the entire application
         Stage stage = (Stage) searchResultsView.getScene().getWindow();
         stage.close();
@@ -379,29 +590,16 @@ public class SearchViewController {
     /**
      * Method to handle returning to the UserView.
      * This method is called when the user clicks the "Back" button.
-     * It loads the UserView and sets the current user, then displays the new stage.
-     * It closes the current SearchView window.
+     * It shows the UserView in place of the SearchView and sets the current user.
      */
     @FXML
     private void handleBackToUserView() {
         // Logic for returning to the UserView
+        User user = currentUser; // Kept, this view lets go of its user when it is left
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/UserView.fxml"));
-            Parent root = loader.load();
-
-            // Get the controller for UserView and set the current user
-            UserViewController controller = loader.getController();
-            controller.setCurrentUser(currentUser);
-
-            // Create and display the new stage
-            Stage stage = new Stage();
-            stage.setTitle("Your Albums");
-            stage.setScene(new Scene(root));
-            stage.show();
-
-            // Close the current SearchView window
-            Stage currentStage = (Stage) searchResultsView.getScene().getWindow();
-            currentStage.close();
+            // Show the UserView in the same window, with the current user set in its controller
+            ViewRouter.show(ViewRouter.View.USER, "Your Albums",
+                    (UserViewController controller) -> controller.setCurrentUser(user));
         } catch (IOException e) {
             // Handle IOException, such as showing an error dialog
             showErrorDialog("Error returning to user view: " + e.getMessage());
@@ -423,16 +621,11 @@ public class SearchViewController {
     /**
      * Method to open the login window.
      * This method is called when the user logs out.
-     * It loads the LoginView FXML file and displays the login window.
+     * It shows the LoginView in the current window.
      */
     private void openLoginWindow() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
-            Parent root = loader.load();
-            Stage stage = new Stage();
-            stage.setTitle("Login");
-            stage.setScene(new Scene(root));
-            stage.show();
+            ViewRouter.show(ViewRouter.View.LOGIN, "Login", controller -> { });
         } catch (IOException e) {
             // Handle IOException, possibly with an error dialog
             showErrorDialog("Error opening login window: " + e.getMessage());
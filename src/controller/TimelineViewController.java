@@ -0,0 +1,259 @@
+package controller;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.List;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import model.DateHistogram;
+import model.Photo;
+import model.PhotoOrder;
+import model.SearchCursor;
+import model.User;
+
+/**
+ * Controller class for the TimelineView FXML file.
+ * Shows how many photos the user has per year, and per month and day after clicking into a year and a month.
+ * The counts come from the albums' running date histograms, so the timeline opens without scanning any photos.
+ * Clicking a bucket lists its photos in date order, a page at a time.
+ * @author ZB SL
+ */
+public class TimelineViewController {
+
+    /**
+     * The number of photos loaded into the list at a time.
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * The width of the bar of the bucket with the most photos, in pixels.
+     */
+    private static final double BAR_WIDTH = 150;
+
+    /**
+     * The ListView of the buckets at the level being shown, with one bar per year, month or day.
+     */
+    @FXML
+    private ListView<DateHistogram.Bucket> bucketListView;
+
+    /**
+     * The ListView of the photos in the selected bucket.
+     */
+    @FXML
+    private ListView<Photo> photoListView;
+
+    /**
+     * The Label showing the level being shown, such as the year whose months are listed.
+     */
+    @FXML
+    private Label levelLabel;
+
+    /**
+     * The Label showing the selected bucket and its number of photos.
+     */
+    @FXML
+    private Label rangeLabel;
+
+    /**
+     * The Button to go back up from days to months or from months to years.
+     */
+    @FXML
+    private Button upButton;
+
+    /**
+     * The current user logged in.
+     */
+    private User currentUser;
+
+    /**
+     * The user's photo counts by year, month and day.
+     */
+    private DateHistogram timeline;
+
+    /**
+     * The year whose months or days are shown, or null if the years are shown.
+     */
+    private Year shownYear;
+
+    /**
+     * The month whose days are shown, or null if the years or months are shown.
+     */
+    private YearMonth shownMonth;
+
+    /**
+     * The largest count of the buckets being shown, used to scale the bars.
+     */
+    private int maxCount;
+
+    /**
+     * The cursor over the photos of the selected bucket, or null if no bucket is selected.
+     */
+    private SearchCursor rangeCursor;
+
+    /**
+     * Method to initialize the controller with the current user.
+     * @param user The current user.
+     */
+    public void initialize(User user) {
+        this.currentUser = user;
+        this.timeline = user.getTimeline();
+        // Lambda expression to create a bar cell for each visible bucket
+        bucketListView.setCellFactory(listView -> new BucketCell());
+        bucketListView.setOnMouseClicked(event -> handleBucketSelected());
+        PhotoListCell.install(photoListView, this::loadNextPage);
+        showLevel();
+    }
+
+    /**
+     * Event handler for the up button.
+     * Goes back from the days of a month to the months of its year, or from the months to the years.
+     */
+    @FXML
+    private void handleUp() {
+        if (shownMonth != null) {
+            shownMonth = null;
+        } else {
+            shownYear = null;
+        }
+        showLevel();
+    }
+
+    /**
+     * Event handler for the refresh button.
+     * Reads the counts again, after photos were added, removed or redated while the timeline was open.
+     */
+    @FXML
+    private void handleRefresh() {
+        timeline = currentUser.getTimeline();
+        showLevel();
+    }
+
+    /**
+     * Method to handle a click on a bucket.
+     * Lists the photos of the bucket and, for a year or a month, opens the level below it.
+     */
+    private void handleBucketSelected() {
+        DateHistogram.Bucket bucket = bucketListView.getSelectionModel().getSelectedItem();
+        if (bucket == null) {
+            return;
+        }
+        showPhotos(bucket);
+        if (shownYear == null) {
+            shownYear = Year.from(bucket.getStart());
+            showLevel();
+        } else if (shownMonth == null) {
+            shownMonth = YearMonth.from(bucket.getStart());
+            showLevel();
+        }
+    }
+
+    /**
+     * Helper method to show the buckets of the current level: the years, the months of a year or the days of a month.
+     */
+    private void showLevel() {
+        List<DateHistogram.Bucket> buckets;
+        if (shownMonth != null) {
+            buckets = timeline.getDays(shownMonth);
+            levelLabel.setText("Days of " + shownMonth);
+        } else if (shownYear != null) {
+            buckets = timeline.getMonths(shownYear);
+            levelLabel.setText("Months of " + shownYear);
+        } else {
+            buckets = timeline.getYears();
+            levelLabel.setText("All years (" + timeline.getTotal() + " photos)");
+        }
+        maxCount = 1;
+        for (DateHistogram.Bucket bucket : buckets) {
+            maxCount = Math.max(maxCount, bucket.getCount());
+        }
+        upButton.setDisable(shownYear == null);
+        bucketListView.getItems().setAll(buckets);
+    }
+
+    /**
+     * Helper method to list the photos of a bucket, oldest first.
+     * Albums outside the bucket's dates are skipped and the photos are loaded a page at a time.
+     * @param bucket The bucket.
+     */
+    private void showPhotos(DateHistogram.Bucket bucket) {
+        LocalDateTime start = bucket.getStart().atStartOfDay();
+        LocalDateTime end = bucket.getEnd().atTime(LocalTime.MAX);
+        rangeCursor = SearchCursor.inDateRange(currentUser, start, end, PhotoOrder.DATE_ASCENDING);
+        rangeLabel.setText(bucket.toString());
+        photoListView.getItems().setAll(rangeCursor.nextPage(PAGE_SIZE));
+        photoListView.scrollTo(0);
+    }
+
+    /**
+     * Method to load the next page of photos when the user scrolls to the end of the list.
+     */
+    private void loadNextPage() {
+        if (rangeCursor == null || !rangeCursor.hasMore()) {
+            return;
+        }
+        // Only load the page that follows what the list shows, in case this is called twice for the same row
+        if (rangeCursor.getReadCount() != photoListView.getItems().size()) {
+            return;
+        }
+        photoListView.getItems().addAll(rangeCursor.nextPage(PAGE_SIZE));
+    }
+
+    /**
+     * Custom ListCell class for a bucket, shown as its name, a bar scaled to its number of photos, and the number.
+     */
+    private class BucketCell extends ListCell<DateHistogram.Bucket> {
+
+        /**
+         * The name of the bucket.
+         */
+        private final Label name = new Label();
+
+        /**
+         * The bar showing the number of photos.
+         */
+        private final Rectangle bar = new Rectangle(0, 12, Color.STEELBLUE);
+
+        /**
+         * The number of photos.
+         */
+        private final Label count = new Label();
+
+        /**
+         * The layout of the cell.
+         */
+        private final HBox content = new HBox(10, name, bar, count);
+
+        /**
+         * Constructor for the bucket cell.
+         */
+        BucketCell() {
+            name.setMinWidth(80);
+        }
+
+        /**
+         * Method to update the bucket shown in the cell.
+         * @param bucket The bucket.
+         * @param empty True if the cell is empty.
+         */
+        @Override
+        protected void updateItem(DateHistogram.Bucket bucket, boolean empty) {
+            super.updateItem(bucket, empty);
+            if (empty || bucket == null) {
+                setGraphic(null);
+                return;
+            }
+            name.setText(bucket.getLabel());
+            bar.setWidth(Math.max(1, BAR_WIDTH * bucket.getCount() / maxCount));
+            count.setText(Integer.toString(bucket.getCount()));
+            setGraphic(content);
+        }
+    }
+}
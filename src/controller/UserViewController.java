@@ -1,29 +1,71 @@
 package controller;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Insets;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextInputDialog;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 import model.Album;
+import model.ContentHasher;
 import model.DataManager;
+import model.LibraryWatcher;
+import model.ModelEvent;
+import model.PerceptualHasher;
+import model.Photo;
+import model.ThumbnailCache;
 import model.User;
 
 /**
  * Controller class for the UserView FXML file.
  * @author ZB SL
  */
-public class UserViewController {
+public class UserViewController implements RoutedController {
+
+    /**
+     * The largest number of differing perceptual hash bits for two photos to be reported as near duplicates.
+     */
+    private static final int NEAR_DUPLICATE_DISTANCE = 4;
+
+    /**
+     * Listener told by the library watcher when photos change on disk, refreshes the albums table on the JavaFX thread.
+     */
+    private final Consumer<List<Photo>> libraryListener = photos -> Platform.runLater(this::handleLibraryChange);
+
+    /**
+     * Listener told about every change to the model, applies album changes to the albums table on the JavaFX thread.
+     */
+    private final Consumer<ModelEvent> modelListener = event -> {
+        if (Platform.isFxApplicationThread()) {
+            handleModelEvent(event);
+        } else {
+            Platform.runLater(() -> handleModelEvent(event));
+        }
+    };
 
     /**
      * The TableView to display the user's albums.
@@ -41,7 +83,7 @@ public class UserViewController {
      * The TableColumn for the number of photos in the album.
      */
     @FXML
-    private TableColumn<Album, Integer> numPhotosColumn;
+    private TableColumn<Album, Number> numPhotosColumn;
 
     /**
      * The TableColumn for the date range of photos in the album.
@@ -50,6 +92,18 @@ public class UserViewController {
     @FXML
     private TableColumn<Album, String> dateRangeColumn;
 
+    /**
+     * The TableColumn for the album preview, the album's cover or a mosaic of its first photos.
+     */
+    @FXML
+    private TableColumn<Album, List<String>> previewColumn;
+
+    /**
+     * The CheckBox to show a 2x2 mosaic of each album's first photos instead of its cover.
+     */
+    @FXML
+    private CheckBox mosaicPreviewBox;
+
     /**
      * The current user logged in.
      */
@@ -63,16 +117,21 @@ public class UserViewController {
     @FXML
     public void initialize() {
         // Set the cell value factories for the table columns
-        albumNameColumn.setCellValueFactory(new PropertyValueFactory<>("name"));
-        numPhotosColumn.setCellValueFactory(new PropertyValueFactory<>("numPhotos"));
-        dateRangeColumn.setCellValueFactory(new PropertyValueFactory<>("dateRange"));
+        // The number of photos and date range come from each album's observable aggregates, so rendering a row
+        // doesn't scan the album's photos and the table updates by itself when they change
+        albumNameColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getName()));
+        numPhotosColumn.setCellValueFactory(cell -> cell.getValue().numPhotosProperty());
+        dateRangeColumn.setCellValueFactory(cell -> cell.getValue().dateRangeProperty());
+        // Previews are composed from cached thumbnails in the background, so the table never decodes a photo itself
+        previewColumn.setCellValueFactory(cell -> cell.getValue().previewPathsProperty());
+        previewColumn.setCellFactory(column -> new AlbumPreviewCell());
 
         // No need to populate the table here, as setCurrentUser will be called after the controller is initialized
     }
 
     /**
      * Sets the current user for the controller.
-     * This method is called from the LoginController after the user has logged in.
+     * This method is called each time the view is shown, for example after the user has logged in.
      * It populates the albums table with the user's albums.
      *
      * @param currentUser The current user logged in.
@@ -80,6 +139,24 @@ public class UserViewController {
     public void setCurrentUser(User currentUser) {
         this.currentUser = currentUser;
         populateAlbumsTable(); // This will populate the table once the current user is set
+        // Albums are read from disk when first opened, so these only cover the albums already in memory for now
+        ContentHasher.hashInBackground(currentUser); // Fingerprint any photos that don't have a content hash yet
+        PerceptualHasher.hashInBackground(currentUser); // Same for the perceptual hashes used to find similar photos
+        LibraryWatcher.start(currentUser); // Keep the photos in sync with their files on disk
+        LibraryWatcher.addListener(libraryListener);
+        ModelEvent.addListener(modelListener); // Keeps the table in step with albums created, deleted or renamed
+    }
+
+    /**
+     * Unbinds the view when it is left, so it stops listening to the model and the library watcher
+     * and lets go of the user and its albums.
+     */
+    @Override
+    public void unbind() {
+        LibraryWatcher.removeListener(libraryListener);
+        ModelEvent.removeListener(modelListener);
+        albumsTableView.getItems().clear();
+        currentUser = null;
     }
 
     /**
@@ -100,23 +177,15 @@ public class UserViewController {
     /**
      * Event handler for the logout button.
      * This method is called when the user clicks the logout button.
-     * It saves the user data and closes the current window.
-     * It then opens the login window.
+     * It saves the user data and opens the login window in the current window.
      */
     @FXML
     private void handleLogout() {
-    // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
+        LibraryWatcher.stop(); // Stop watching the photo files of the user logging out
 
-        // Iterate over the map and save each user's data, safer than just saving one user in case tags edited etc for sync.
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
-        // Close the current user window
-        Stage currentStage = (Stage) albumsTableView.getScene().getWindow();
-        currentStage.close();
-    
-        // Open the login window
+        // Open the login window, in place of the user view
         openLoginWindow();
     }
 
@@ -129,13 +198,8 @@ public class UserViewController {
     private void handleQuit() {
         // Logic to handle quit action
         // Example: Save any changes and close the application
-        // Retrieve the map of users
-        Map<String, User> usersMap = DataManager.getUsersMap();
-
-        // Iterate over the map and save each user's data
-        for (User user : usersMap.values()) {
-            DataManager.saveUserData(user);
-        }
+        // Save the users in memory, the others are already in the user data file as they are
+        DataManager.saveInBackground();
         // Close the entire application
         Stage stage = (Stage) albumsTableView.getScene().getWindow();
         stage.close();
@@ -173,10 +237,7 @@ public class UserViewController {
 
             // Create the new album and add it to the user's list of albums
             Album newAlbum = new Album(albumName.trim());
-            currentUser.createAlbum(newAlbum); // createAlbum method adds the album to the user's list too
-
-            // Update the TableView to reflect the new album
-            populateAlbumsTable();
+            currentUser.createAlbum(newAlbum); // createAlbum method adds the album to the user's list too, the model event adds it to the table
         });
     }
 
@@ -205,10 +266,7 @@ public class UserViewController {
 
         if (result.isPresent() && result.get() == ButtonType.YES) {
             // Remove the selected album from the user's list of albums
-            currentUser.deleteAlbum(selectedAlbum); // Assuming deleteAlbum method removes the album from the user's list
-
-            // Update the TableView to reflect the album deletion
-            populateAlbumsTable();
+            currentUser.deleteAlbum(selectedAlbum); // Removes the album from the user's list, the model event removes it from the table
         }
     }
 
@@ -247,10 +305,7 @@ public class UserViewController {
             if (!renameSuccess) {
                 // If renaming was not successful, it means there was a name conflict
                 showErrorDialog("An album with this name already exists.");
-            } else {
-                // Rename was successful, update the TableView to reflect the name change
-                populateAlbumsTable();
-            }
+            } // Otherwise the model event redraws the album's row with its new name
         });        
     }
 
@@ -271,27 +326,15 @@ public class UserViewController {
         }
 
         // Navigate to the AlbumView, passing the selected album and the current user
+        User user = currentUser; // Kept, this view lets go of its user when it is left
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/AlbumView.fxml"));
-            Parent root = loader.load();
-
-            // Get the controller for AlbumView and set the album and user
-            AlbumViewController controller = loader.getController();
-            controller.setAlbumAndUser(selectedAlbum, currentUser);
-
-            // Create and display the new stage
-            Stage stage = new Stage();
-            stage.setTitle("Album: " + selectedAlbum.getName());
-            stage.setScene(new Scene(root));
-            stage.show();
-
-            // Close the current UserView window
-            Stage currentStage = (Stage) albumsTableView.getScene().getWindow();
-            currentStage.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-                showErrorDialog("Error opening album view: " + e.getMessage());
-            }
+            // Show the AlbumView in place of this view, with the album and user set in its controller
+            ViewRouter.show(ViewRouter.View.ALBUM, "Album: " + selectedAlbum.getName(),
+                    (AlbumViewController controller) -> controller.setAlbumAndUser(selectedAlbum, user));
+        } catch (IOException e) {
+            e.printStackTrace();
+            showErrorDialog("Error opening album view: " + e.getMessage());
+        }
     }
 
     /**
@@ -301,44 +344,159 @@ public class UserViewController {
      */
     @FXML
     private void handleSearchPhotos() {
+        User user = currentUser; // Kept, this view lets go of its user when it is left
         try {
-            // Load the FXML file for the SearchView, we'll handle search functionality in a separate controller/view
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/SearchView.fxml"));
-            Parent root = loader.load();
+            // Show the SearchView in place of this view, we'll handle search functionality in a separate controller/view
+            ViewRouter.show(ViewRouter.View.SEARCH, "Search Photos",
+                    (SearchViewController searchViewController) -> searchViewController.initialize(user));
+        } catch (IOException e) {
+            e.printStackTrace();
+            showErrorDialog("Error opening search view: " + e.getMessage());
+        }
+    }
 
-            // Get the controller for the SearchView and pass the current user
-            SearchViewController searchViewController = loader.getController();
-            searchViewController.initialize(currentUser);
+    /**
+     * Event handler for the duplicate report button.
+     * This method is called when the user clicks the duplicate report button.
+     * It shows the groups of near duplicate photos across all of the user's albums, such as resized
+     * or recompressed copies of the same picture, largest groups first.
+     * Photos still being hashed in the background are not included yet.
+     */
+    @FXML
+    private void handleDuplicateReport() {
+        List<List<Photo>> groups = currentUser.findNearDuplicates(NEAR_DUPLICATE_DISTANCE);
+        PerceptualHasher.hashInBackground(currentUser); // Albums read from disk for the report may have unhashed photos
+        if (groups.isEmpty()) {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Duplicate Report");
+            alert.setHeaderText(null);
+            alert.setContentText("No near duplicate photos found.");
+            alert.showAndWait();
+            return;
+        }
 
-            // Set up the scene and stage for the search view
-            Stage searchStage = new Stage();
-            searchStage.setTitle("Search Photos");
-            searchStage.setScene(new Scene(root));
-            searchStage.show();
+        // One row per group, with a thumbnail and the path of each photo in the group
+        ListView<List<Photo>> reportView = new ListView<>();
+        reportView.setCellFactory(listView -> new ListCell<List<Photo>>() {
+            @Override
+            protected void updateItem(List<Photo> group, boolean empty) {
+                super.updateItem(group, empty);
+                if (empty || group == null) {
+                    setGraphic(null);
+                    return;
+                }
+                HBox row = new HBox(10);
+                for (Photo photo : group) {
+                    ImageView thumbnail = new ImageView(photo.getThumbnail());
+                    VBox entry = new VBox(5, thumbnail, new Text(new File(photo.getFilePath()).getName()));
+                    row.getChildren().add(entry);
+                }
+                setGraphic(row);
+            }
+        });
+        reportView.getItems().setAll(groups);
+        VBox layout = new VBox(10, new Label(groups.size() + " group(s) of near duplicate photos"), reportView);
+        layout.setPadding(new Insets(10));
+
+        Stage reportStage = new Stage();
+        reportStage.setTitle("Duplicate Report");
+        reportStage.setScene(new Scene(layout, 700, 600));
+        reportStage.show();
+    }
 
-            // Close the current UserView window
-            Stage currentStage = (Stage) albumsTableView.getScene().getWindow();
-            currentStage.close();
+    /**
+     * Event handler for the mosaic previews CheckBox.
+     * Redraws the previews as mosaics or covers.
+     */
+    @FXML
+    private void handleMosaicPreviews() {
+        albumsTableView.refresh();
+    }
 
+    /**
+     * Event handler for the timeline button.
+     * This method is called when the user clicks the timeline button.
+     * It opens the timeline in a separate window, next to the albums table.
+     */
+    @FXML
+    private void handleTimeline() {
+        try {
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/TimelineView.fxml"));
+            Parent root = loader.load();
+
+            // Get the controller for the TimelineView and pass the current user
+            TimelineViewController timelineViewController = loader.getController();
+            timelineViewController.initialize(currentUser);
+
+            Stage timelineStage = new Stage();
+            timelineStage.setTitle("Timeline");
+            timelineStage.setScene(new Scene(root, 900, 600));
+            timelineStage.show();
         } catch (IOException e) {
             e.printStackTrace();
-            showErrorDialog("Error opening search view: " + e.getMessage());
+            showErrorDialog("Error opening timeline: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to refresh the albums table after the library watcher updated photos, for example when a file
+     * was edited or deleted outside the application. Stops listening once the window is closed.
+     */
+    private void handleLibraryChange() {
+        Window window = albumsTableView.getScene() == null ? null : albumsTableView.getScene().getWindow();
+        if (window != null && !window.isShowing()) {
+            LibraryWatcher.removeListener(libraryListener);
+            return;
+        }
+        albumsTableView.refresh(); // Redraws dates, thumbnails and missing flags
+    }
+
+    /**
+     * Method to apply a change to the model to the albums table, touching only the row it affects.
+     * Stops listening once the window is closed.
+     * @param event The change.
+     */
+    private void handleModelEvent(ModelEvent event) {
+        Window window = albumsTableView.getScene() == null ? null : albumsTableView.getScene().getWindow();
+        if (window != null && !window.isShowing()) {
+            ModelEvent.removeListener(modelListener);
+            return;
+        }
+        List<Album> items = albumsTableView.getItems();
+        switch (event.getType()) {
+            case ALBUM_ADDED:
+                if (event.getUser() == currentUser) {
+                    items.add(event.getAlbum());
+                }
+                break;
+            case ALBUM_REMOVED:
+                if (event.getUser() == currentUser) {
+                    items.remove(event.getAlbum());
+                }
+                break;
+            case ALBUM_RENAMED:
+                int index = items.indexOf(event.getAlbum());
+                if (index >= 0) {
+                    items.set(index, event.getAlbum()); // Replacing the row with itself redraws just that row
+                }
+                break;
+            case ALBUM_UPDATED:
+                // The row's cells are bound to the album's properties, which only change here on the JavaFX thread
+                event.getAlbum().updateProperties();
+                break;
+            default:
+                break;
         }
     }
 
     /**
      * Method to open the login window.
      * This method is called when the user logs out.
-     * It loads the LoginView FXML file and sets it to a new stage.
+     * It shows the LoginView in the current stage.
      */
     private void openLoginWindow() {
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/LoginView.fxml"));
-            Parent root = loader.load();
-            Stage stage = new Stage();
-            stage.setTitle("Login");
-            stage.setScene(new Scene(root));
-            stage.show();
+            ViewRouter.show(ViewRouter.View.LOGIN, "Login", controller -> { });
         } catch (IOException e) {
             // Handle IOException, possibly with an error dialog
             showErrorDialog("Error opening login window: " + e.getMessage());
@@ -358,4 +516,61 @@ public class UserViewController {
         alert.setContentText(message);
         alert.showAndWait();
     } 
+
+    /**
+     * Custom TableCell class for the album preview column.
+     * The preview is requested from the ThumbnailCache, which answers right away if it has it and otherwise
+     * composes it on a background thread. The cell shows it only if it still shows the same album by then.
+     */
+    private class AlbumPreviewCell extends TableCell<Album, List<String>> {
+
+        /**
+         * The image component for the preview.
+         */
+        private final ImageView preview = new ImageView();
+
+        /**
+         * Constructor for the preview cell.
+         */
+        AlbumPreviewCell() {
+            // Reserve the preview's space even while it loads, so rows don't change height
+            preview.setFitWidth(ThumbnailCache.PREVIEW_SIZE);
+            preview.setFitHeight(ThumbnailCache.PREVIEW_SIZE);
+        }
+
+        /**
+         * Method to update the preview shown in the cell.
+         * @param previewPaths The file paths of the album's first photos.
+         * @param empty True if the cell is empty.
+         */
+        @Override
+        protected void updateItem(List<String> previewPaths, boolean empty) {
+            super.updateItem(previewPaths, empty);
+            preview.setImage(null);
+            if (empty || previewPaths == null) {
+                setGraphic(null);
+                return;
+            }
+            setGraphic(preview);
+            ThumbnailCache.getAlbumPreviewAsync(previewPaths, mosaicPreviewBox.isSelected(), () -> getItem() == previewPaths,
+                    image -> {
+                        if (Platform.isFxApplicationThread()) {
+                            showPreview(previewPaths, image);
+                        } else {
+                            Platform.runLater(() -> showPreview(previewPaths, image));
+                        }
+                    });
+        }
+
+        /**
+         * Helper method to show a composed preview, if the cell still shows the album it was composed for.
+         * @param previewPaths The file paths the preview was composed from.
+         * @param image The preview, or null if none of the photos could be read.
+         */
+        private void showPreview(List<String> previewPaths, Image image) {
+            if (getItem() == previewPaths) {
+                preview.setImage(image);
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package controller;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.layout.Region;
+import javafx.stage.Stage;
+
+/**
+ * Class to show the views of the Photos application, one at a time, in the application's one window.
+ * Each view's FXML file is parsed the first time the view is shown, and its root and controller are kept.
+ * Going to a view swaps the root of the window's scene, so no FXML is parsed again, no controller is created
+ * and no window is opened or closed. The view left is unbound first, see RoutedController, then the view shown
+ * is bound to the user or album it shows. Windows that sit next to the main one, such as the timeline,
+ * are opened by their views as before.
+ * Must only be used on the JavaFX thread.
+ * @author ZB SL
+ */
+public final class ViewRouter {
+
+    /**
+     * The views shown in the main window.
+     */
+    public enum View {
+        /** The login view. */
+        LOGIN("/view/LoginView.fxml", -1, -1),
+        /** The admin view with the list of users. */
+        ADMIN("/view/AdminView.fxml", 800, 600),
+        /** The user view with the list of albums. */
+        USER("/view/UserView.fxml", 800, 600),
+        /** The album view with the photos of one album. */
+        ALBUM("/view/AlbumView.fxml", -1, -1),
+        /** The search view. */
+        SEARCH("/view/SearchView.fxml", -1, -1);
+
+        /**
+         * The FXML file of the view.
+         */
+        private final String fxml;
+
+        /**
+         * The width the view asks for, or -1 to take the width of its contents.
+         */
+        private final double width;
+
+        /**
+         * The height the view asks for, or -1 to take the height of its contents.
+         */
+        private final double height;
+
+        /**
+         * Constructor for a view.
+         * @param fxml The FXML file of the view.
+         * @param width The width the view asks for, or -1.
+         * @param height The height the view asks for, or -1.
+         */
+        View(String fxml, double width, double height) {
+            this.fxml = fxml;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * A view whose FXML file was parsed: its root and its controller.
+     */
+    private static final class Loaded {
+
+        /**
+         * The root of the view.
+         */
+        private final Parent root;
+
+        /**
+         * The controller of the view.
+         */
+        private final Object controller;
+
+        /**
+         * Constructor for a parsed view.
+         * @param root The root of the view.
+         * @param controller The controller of the view.
+         */
+        private Loaded(Parent root, Object controller) {
+            this.root = root;
+            this.controller = controller;
+        }
+    }
+
+    /**
+     * The views parsed so far.
+     */
+    private static final Map<View, Loaded> loaded = new EnumMap<>(View.class);
+
+    /**
+     * The application's window.
+     */
+    private static Stage stage;
+
+    /**
+     * The view shown in the window, null before the first one.
+     */
+    private static View current;
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ViewRouter() {
+    }
+
+    /**
+     * Method to show the login view in the application's window, when the application starts.
+     * @param primaryStage The application's window.
+     * @throws IOException If the login view could not be loaded.
+     */
+    public static void start(Stage primaryStage) throws IOException {
+        stage = primaryStage;
+        show(View.LOGIN, "Login", controller -> { });
+        stage.show();
+    }
+
+    /**
+     * Method to show a view in the application's window instead of the view shown now.
+     * @param view The view.
+     * @param title The title of the window.
+     * @param bind Binds the view's controller to what it shows, before the view appears.
+     * @param <C> The type of the view's controller.
+     * @return The view's controller.
+     * @throws IOException If the view's FXML file could not be parsed, the first time the view is shown.
+     */
+    @SuppressWarnings("unchecked")
+    public static <C> C show(View view, String title, Consumer<C> bind) throws IOException {
+        Loaded target = load(view);
+        if (current != null && loaded.get(current).controller instanceof RoutedController) {
+            ((RoutedController) loaded.get(current).controller).unbind(); // Also when the same view is shown again
+        }
+        current = view;
+        // Unsafe cast, but each view's controller is named by its own FXML file
+        C controller = (C) target.controller;
+        bind.accept(controller);
+        if (stage.getScene() == null) {
+            stage.setScene(new Scene(target.root));
+        } else {
+            stage.getScene().setRoot(target.root); // The scene and window stay, only their contents change
+        }
+        stage.setTitle(title);
+        if (!stage.isMaximized() && !stage.isFullScreen()) {
+            stage.sizeToScene(); // Each view opens at its own size, as it did in a window of its own
+        }
+        return controller;
+    }
+
+    /**
+     * Helper method to get a view, parsing its FXML file the first time.
+     * @param view The view.
+     * @return The root and controller of the view.
+     * @throws IOException If the FXML file could not be parsed.
+     */
+    private static Loaded load(View view) throws IOException {
+        Loaded found = loaded.get(view);
+        if (found == null) {
+            FXMLLoader loader = new FXMLLoader(ViewRouter.class.getResource(view.fxml));
+            Parent root = loader.load();
+            if (view.width > 0 && root instanceof Region) {
+                ((Region) root).setPrefSize(view.width, view.height);
+            }
+            found = new Loaded(root, loader.getController());
+            loaded.put(view, found);
+        }
+        return found;
+    }
+}
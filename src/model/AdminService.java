@@ -1,8 +1,6 @@
 package model;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Service class for the admin user. This class provides methods to list all users, create a new user, and delete an existing user.
@@ -12,43 +10,73 @@ public class AdminService {
 
     /**
      * Method to list all users in the application.
-     * @return A list of all users in the application.
+     * Only the usernames are listed, from the user directory, so no user is read to list it.
+     * @return The usernames of all users in the application, sorted without regard to case.
      */
-    public List<User> listUsers() {
-        // Get the users map from the data manager
-        Map<String, User> userMap = DataManager.getUsersMap();
-        return new ArrayList<>(userMap.values()); // Convert map values to a list and return
+    public static List<String> listUsers() {
+        return DataManager.getUsernames();
+    }
+
+    /**
+     * Method to list the users whose usernames start with a prefix, without regard to case.
+     * @param prefix The prefix, empty for every user.
+     * @param limit The most usernames to list.
+     * @return The usernames, sorted without regard to case.
+     */
+    public static List<String> searchUsers(String prefix, int limit) {
+        return DataManager.searchUsernames(prefix, limit);
+    }
+
+    /**
+     * Method to get one page of the users whose usernames start with a prefix, without regard to case, in an order.
+     * The users are filtered, sorted and paged in the user directory, and no user is read, so a page takes as long
+     * as it has users, however many users there are.
+     * @param prefix The prefix, empty for every user.
+     * @param sort The order.
+     * @param descending Whether the order is reversed.
+     * @param offset The number of users before the page.
+     * @param limit The most users on the page.
+     * @return The summaries of the users on the page.
+     */
+    public static List<UserSummary> pageUsers(String prefix, UserSummary.Sort sort, boolean descending, int offset, int limit) {
+        return DataManager.pageUsers(prefix, sort, descending, offset, limit);
+    }
+
+    /**
+     * Method to count the users whose usernames start with a prefix, without regard to case.
+     * @param prefix The prefix, empty for every user.
+     * @return The number of users.
+     */
+    public static int countUsers(String prefix) {
+        return DataManager.countUsers(prefix);
     }
 
     /**
      * Method to create a new user.
+     * The username is checked against the user directory without regard to case, in constant time,
+     * and only the directory file is written, see DataManager.addUser.
      * @param newUsername The username of the new user.
      * @return True if the user was created successfully, false if the user already exists.
      */
     public static boolean createUser(String newUsername) {
-        // Convert the username to lowercase
-        String newUsernameLower = newUsername.toLowerCase();
-        // Iterate over the existing usernames to check for a case-insensitive match
-        for (String existingUsername : DataManager.getUsersMap().keySet()) {
-            if (existingUsername.toLowerCase().equals(newUsernameLower)) {
-                return false; // Found a case-insensitive match, user already exists
-            }
-        }
         User newUser = new User(newUsername);
-        DataManager.saveUserData(newUser);
+        if (!DataManager.addUser(newUser)) {
+            return false; // Found a case-insensitive match, user already exists
+        }
+        ModelEvent.publish(ModelEvent.Type.USER_ADDED, newUser, null);
         return true;
     }
 
     /**
      * Method to delete a user.
-     * @param usernameToDelete The username of the user to delete.
+     * Only the directory file is written, the user's data is left out of the user data file by the next save.
+     * @param usernameToDelete The username of the user to delete, in any case.
      * @return True if the user was deleted successfully, false if the user doesn't exist.
      */
     public static boolean deleteUser(String usernameToDelete) {
-        Map<String, User> usersMap = DataManager.getUsersMap();
-        if (usersMap.containsKey(usernameToDelete)) {
-            usersMap.remove(usernameToDelete);
-            DataManager.saveUsersMap();
+        User removed = DataManager.removeUser(usernameToDelete); // Not read from the user data file to be deleted
+        if (removed != null) {
+            ModelEvent.publish(ModelEvent.Type.USER_REMOVED, removed, null);
             return true;
         }
         return false;
@@ -1,14 +1,42 @@
 package model;
 
 import java.util.ArrayList;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.io.Serializable;
-import java.util.Objects;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
 
 /**
  * Class to represent an album in the Photos application.
  * An album has a name, a list of photos, and metadata including the date created and date last modified.
+ * The photos are stored in the album's own file by the AlbumStore and only read when they are first needed.
+ * Until then the album answers from a small header saved with the user: the number of photos, the date range,
+ * the total size, the cover, the counts by date and the keys of its files and contents, see PhotoKeys.
+ * Lookups by file path, size or content only read the album's file if the album holds a match.
+ * Once the album belongs to a user, changes to its photo list take the user's write lock, see User.getLock,
+ * and then the album's own monitor. Events are published after both are released.
  * @author ZB SL
  */
 public class Album implements Serializable {
@@ -18,15 +46,82 @@ public class Album implements Serializable {
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The id of the album, used for equality. Never changes once set, even when the album is renamed or edited.
+     */
+    private long id;
+
     /**
      * The name of the album.
      */
     private String name;
 
     /**
-     * The list of photos in the album.
+     * The list of photos in the album, or null until they are read from the album's file.
+     * Saved in the album's own file, this field is always written as null to the user data file.
+     * Albums saved before album files existed still have their photos here when read.
+     * Replaced by a changed copy instead of being changed while an open snapshot can see it, see Snapshot.
+     */
+    private volatile ArrayList<Photo> photos;
+
+    /**
+     * The photo lists of the album that open snapshots can still see. Not persisted.
+     */
+    private transient History<ArrayList<Photo>> photoHistory;
+
+    /**
+     * The names and modification dates of the album that open snapshots can still see, versioned with the photo list
+     * so a save writes the header of the album as it was with the photos it writes. Not persisted.
+     */
+    private transient History<Details> detailsHistory;
+
+    /**
+     * The key of the file the album's photos are stored in, see AlbumStore. Null until the album is first saved.
+     */
+    private String storageKey;
+
+    /**
+     * The number of photos in the album when it was last saved, used while the photos are not loaded.
+     */
+    private int savedPhotoCount;
+
+    /**
+     * The date of the earliest photo when the album was last saved, used while the photos are not loaded.
+     */
+    private LocalDateTime savedEarliestDate;
+
+    /**
+     * The date of the latest photo when the album was last saved, used while the photos are not loaded.
+     */
+    private LocalDateTime savedLatestDate;
+
+    /**
+     * The number of photos shown in an album's mosaic preview.
+     */
+    public static final int PREVIEW_PHOTOS = 4;
+
+    /**
+     * The file paths of the album's first photos when it was last saved, used for its cover and mosaic preview.
      */
-    private ArrayList<Photo> photos;
+    private ArrayList<String> previewPaths;
+
+    /**
+     * The keys of the file paths, sizes and contents of the photos when the album was last saved,
+     * used to answer lookups while the photos are not loaded. Null for albums saved before they were kept,
+     * in which case they are counted from the album's file the first time they are needed.
+     */
+    private PhotoKeys savedKeys;
+
+    /**
+     * The chunks of photos read to show pages of the album before all of its photos were needed, by chunk index.
+     * Kept so the same photo objects are used once the whole album is read. Not persisted.
+     */
+    private transient Map<Integer, List<Photo>> loadedChunks;
+
+    /**
+     * Whether reading the album's file failed, in which case the album must not be saved over it. Not persisted.
+     */
+    private transient boolean loadFailed;
 
     /**
      * The date the album was created.
@@ -38,11 +133,97 @@ public class Album implements Serializable {
      */
     private LocalDateTime dateModified;
 
+    /**
+     * Counter shared by all albums, used to stamp each change to an album's photo list.
+     */
+    private static final AtomicLong MOD_COUNTER = new AtomicLong();
+
+    /**
+     * Stamp of the last change to this album's photo list, taken from MOD_COUNTER.
+     * Used by the user's similarity index to know when it has to be rebuilt. Not persisted.
+     */
+    private transient long modStamp;
+
+    /**
+     * Running count of the photos in the album by date, so the earliest and latest dates are the first and last keys.
+     * A sorted multiset rather than just the two dates, so removing a photo doesn't need a rescan.
+     * Null until the aggregates are first needed. Not persisted.
+     */
+    private transient TreeMap<LocalDateTime, Integer> dateCounts;
+
+    /**
+     * Running count of the photos in the album by tag type and value, for faceted browsing. Not persisted.
+     */
+    private transient FacetCounts facets;
+
+    /**
+     * Running index of the photos in the album by file path, size and content hash. Not persisted.
+     */
+    private transient PhotoIndex photoIndex;
+
+    /**
+     * Count of the photos in the album by year, month and day as they were last saved, counted by store.
+     * Saved with the album header, so the timeline doesn't need the photos to be loaded.
+     */
+    private DateHistogram timeline;
+
+    /**
+     * Total of the file sizes of the photos in the album as they were last saved, in bytes. Saved with the album header.
+     */
+    private long totalBytes;
+
+    /**
+     * Running count of the photos in the album by year, month and day, built with the other aggregates once the
+     * photos are read. Not persisted: the header keeps the saved count, so edits made after a save's snapshot
+     * never reach the header it writes.
+     */
+    private transient DateHistogram runningTimeline;
+
+    /**
+     * Running total of the file sizes of the photos in the album, in bytes. Not persisted, see runningTimeline.
+     */
+    private transient long runningBytes;
+
+    /**
+     * Observable number of photos for the albums table, created when the table first asks for it. Not persisted.
+     */
+    private transient IntegerProperty numPhotosProperty;
+
+    /**
+     * Observable date range for the albums table, created when the table first asks for it. Not persisted.
+     */
+    private transient StringProperty dateRangeProperty;
+
+    /**
+     * Observable preview photo paths for the albums table, created when the table first asks for it. Not persisted.
+     */
+    private transient ObjectProperty<List<String>> previewPathsProperty;
+
+    /**
+     * The number of batch edits in progress on the album's photos. While above zero the change of the aggregates
+     * is not published for each photo, only once after the last batch ends. Not persisted.
+     */
+    private transient int batchDepth;
+
+    /**
+     * Whether the aggregates changed and the change still has to be published. Not persisted.
+     */
+    private transient boolean aggregatesChanged;
+
+    /**
+     * The user the album belongs to, whose lock is taken while the album changes.
+     * Set when the album is added to the user or the user is read. Null for an album not added to a user yet. Not persisted.
+     */
+    private transient volatile User owner;
+
    /**
     * Constructor that takes only the name of the album.
     * @param name The name of the album.
     */
     public Album(String name) {
+        this.id = EntityId.next();
+        this.photoHistory = new History<>();
+        this.detailsHistory = new History<>();
         this.name = name;
         this.photos = new ArrayList<Photo>();
         this.dateCreated = LocalDateTime.now();
@@ -55,18 +236,32 @@ public class Album implements Serializable {
      * @param photos The list of photos to add to the album.
      */
     public Album(String name, java.util.ArrayList<Photo> photos) {
+        this.id = EntityId.next();
+        this.photoHistory = new History<>();
+        this.detailsHistory = new History<>();
         this.name = name;
         this.photos = new ArrayList<>(photos); // make a copy of the list
         this.dateCreated = LocalDateTime.now();
         this.dateModified = LocalDateTime.now();
     }
 
+    /**
+     * Getter for id.
+     * @return The id of the album.
+     */
+    public long getId() {
+        return id;
+    }
+
     /**
      * Getter for name.
      * @return The name of the album.
      */
     public String getName() {
-        return name;
+        if (ModelVersion.readVersion() < 0) {
+            return name; // Not reading a snapshot, the usual case
+        }
+        return seenDetails().name;
     }
 
     /**
@@ -74,15 +269,148 @@ public class Album implements Serializable {
      * @param name The new name of the album.
      */
     public void setName(String name) {
-        this.name = name;
+        boolean renamed;
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                renamed = !name.equals(this.name);
+                if (renamed) {
+                    changeDetails(name, dateModified);
+                }
+            }
+        } finally {
+            endEdit(lock);
+        }
+        if (renamed) {
+            ModelEvent.publish(ModelEvent.Type.ALBUM_RENAMED, null, this);
+        }
     }
 
     /**
      * Getter for photos.
+     * Code reading a snapshot gets the list as it was when the snapshot was opened.
      * @return The list of photos in the album.
      */
     public ArrayList<Photo> getPhotos() {
-        return photos;
+        ModelVersion.settle(owner); // A snapshot sees a change to the album whole
+        ensureLoaded();
+        ArrayList<Photo> current = photos; // Read before the history, see History
+        ArrayList<Photo> seen = photoHistory.at(current);
+        return seen != null ? seen : new ArrayList<>(); // The album didn't have photos yet
+    }
+
+    /**
+     * Method to copy the album's photo list while no change to the user's albums is being made.
+     * Background readers such as searches iterate the copy, so they never see a change half made
+     * and never hold the lock for longer than the copy takes.
+     * @return A copy of the photo list, in the album's order.
+     */
+    public List<Photo> getPhotosSnapshot() {
+        User user = owner;
+        Lock lock = user != null ? user.getLock().readLock() : null;
+        if (lock != null) {
+            lock.lock();
+        }
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                return new ArrayList<>(photos);
+            }
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Method to get a page of the album's photos, in the album's order.
+     * If the photos are not loaded yet only the chunks of the album file holding the page are read,
+     * so showing the start of a large album doesn't read all of it.
+     * @param offset The index of the first photo of the page.
+     * @param limit The largest number of photos in the page.
+     * @return The photos of the page, fewer than the limit (or none) at the end of the album.
+     */
+    public synchronized List<Photo> getPhotoPage(int offset, int limit) {
+        if (photos != null || storageKey == null) {
+            ensureLoaded();
+            int end = Math.min(photos.size(), offset + limit);
+            return offset >= end ? new ArrayList<>() : new ArrayList<>(photos.subList(offset, end));
+        }
+        if (loadedChunks == null) {
+            loadedChunks = new HashMap<>();
+        }
+        List<Photo> page = new ArrayList<>();
+        int end = Math.min(savedPhotoCount, offset + limit);
+        int index = offset;
+        try {
+            while (index < end) {
+                int chunk = index / AlbumStore.CHUNK_SIZE;
+                List<Photo> photosOfChunk = loadedChunks.get(chunk);
+                if (photosOfChunk == null) {
+                    photosOfChunk = AlbumStore.readChunk(storageKey, chunk);
+                    loadedChunks.put(chunk, photosOfChunk);
+                }
+                int chunkStart = chunk * AlbumStore.CHUNK_SIZE;
+                int to = Math.min(photosOfChunk.size(), end - chunkStart);
+                if (index - chunkStart >= to) {
+                    break; // The file has fewer photos than the header says
+                }
+                page.addAll(photosOfChunk.subList(index - chunkStart, to));
+                index = chunkStart + to;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read photos of album " + name + ": " + e.getMessage());
+        }
+        return page;
+    }
+
+    /**
+     * Method to check if the album's photos are in memory.
+     * Background work over all photos, such as hashing and file watching, only looks at loaded albums.
+     * @return True if the photos have been read from the album's file, or the album was never saved.
+     */
+    public synchronized boolean isLoaded() {
+        return photos != null;
+    }
+
+    /**
+     * Getter for cover path.
+     * @return The file path of the album's first photo, or null if the album is empty.
+     */
+    public synchronized String getCoverPath() {
+        List<String> paths = getPreviewPaths();
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    /**
+     * Method to get the file paths of the photos shown in the album's preview: the first one is the cover,
+     * and up to PREVIEW_PHOTOS of them make up the mosaic.
+     * Read from the saved header if the photos are not loaded, so the albums table never reads an album file.
+     * @return The file paths, empty if the album is empty.
+     */
+    public synchronized List<String> getPreviewPaths() {
+        if (photos == null) {
+            return previewPaths == null ? new ArrayList<>() : new ArrayList<>(previewPaths);
+        }
+        List<String> paths = new ArrayList<>(PREVIEW_PHOTOS);
+        for (int i = 0; i < photos.size() && i < PREVIEW_PHOTOS; i++) {
+            paths.add(photos.get(i).getFilePath());
+        }
+        return paths;
+    }
+
+    /**
+     * Method to get the preview photo paths as an observable property, used by the albums table.
+     * The property changes when asked for or updated by updateProperties after the album's first photos changed,
+     * so the preview is redrawn.
+     * @return The preview paths property.
+     */
+    public synchronized ObjectProperty<List<String>> previewPathsProperty() {
+        if (previewPathsProperty == null) {
+            previewPathsProperty = new SimpleObjectProperty<>(this, "previewPaths", getPreviewPaths());
+        } else if (!getPreviewPaths().equals(previewPathsProperty.get())) {
+            previewPathsProperty.set(getPreviewPaths());
+        }
+        return previewPathsProperty;
     }
   
     /** 
@@ -98,7 +426,10 @@ public class Album implements Serializable {
      * @return The date the album was last modified.
      */
     public LocalDateTime getDateModified() {
-        return dateModified;
+        if (ModelVersion.readVersion() < 0) {
+            return dateModified;
+        }
+        return seenDetails().dateModified;
     }
 
     /**
@@ -106,35 +437,153 @@ public class Album implements Serializable {
      * @param dateModified The new date the album was last modified.
      */
     public void setDateModified(LocalDateTime dateModified) {
-        this.dateModified = dateModified;
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                changeDetails(name, dateModified);
+            }
+        } finally {
+            endEdit(lock);
+        }
     }
 
     /**
      * Method to add a photo to the album.
      * @param photo The photo to add to the album.
-     * @return True if the photo was added successfully, false if the photo is already in the album.
+     * @return True if the photo was added successfully, false if the photo or a copy of it is already in the album.
      */
     public boolean addPhoto(Photo photo) {
-        // Check if the photo is already in the album.
-        if (photos.contains(photo)) {
-            return false;
+        int index;
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                // Check if the photo or a copy of it is already in the album.
+                if (containsSamePhoto(photo)) {
+                    return false;
+                }
+                writablePhotos().add(photo);
+                index = photos.size() - 1;
+                changeDetails(name, LocalDateTime.now());
+                modStamp = nextModStamp();
+                addToAggregates(photo);
+                publishAggregates();
+            }
+        } finally {
+            endEdit(lock);
         }
-        photos.add(photo);
-        dateModified = LocalDateTime.now();
+        ModelEvent.publish(ModelEvent.Type.PHOTOS_ADDED, this, Collections.singletonList(photo), index);
+        publishAggregatesChanged();
         return true;
     }
 
+    /**
+     * Method to add several photos to the album at once.
+     * Duplicates are detected with a hash set of content keys, so adding n photos takes O(n) instead of O(n^2).
+     * @param newPhotos The photos to add to the album.
+     * @return The number of photos added, photos already in the album (or copies of them) are skipped.
+     */
+    public int addPhotos(Collection<Photo> newPhotos) {
+        int added = 0;
+        int first;
+        List<Photo> addedPhotos = new ArrayList<>();
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                Set<String> existing = new HashSet<>();
+                for (Photo photo : photos) {
+                    existing.add(photo.contentKey());
+                }
+                first = photos.size();
+                ArrayList<Photo> writable = null;
+                for (Photo photo : newPhotos) {
+                    if (existing.add(photo.contentKey())) { // add returns false if the photo is already in the album
+                        if (writable == null) {
+                            writable = writablePhotos(); // Only copied if a snapshot sees the list and a photo is added
+                            writable.ensureCapacity(writable.size() + newPhotos.size());
+                        }
+                        writable.add(photo);
+                        addToAggregates(photo);
+                        addedPhotos.add(photo);
+                        added++;
+                    }
+                }
+                if (added > 0) {
+                    changeDetails(name, LocalDateTime.now());
+                    modStamp = nextModStamp();
+                    publishAggregates();
+                }
+            }
+        } finally {
+            endEdit(lock);
+        }
+        if (added > 0) {
+            // The new photos are the last ones of the album, so one event covers them all
+            ModelEvent.publish(ModelEvent.Type.PHOTOS_ADDED, this, addedPhotos, first);
+            publishAggregatesChanged();
+        }
+        return added;
+    }
+
     /**
      * Method to remove a photo from the album.
      * @param photo The photo to remove from the album.
      */
     public void removePhoto(Photo photo) {
-        // Check if the photo is in the album.
-        if (!photos.contains(photo)) {
-            return;
+        int index;
+        Photo removed;
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                // Check if the photo is in the album.
+                index = photos.indexOf(photo);
+                if (index < 0) {
+                    return;
+                }
+                removed = writablePhotos().remove(index);
+                changeDetails(name, LocalDateTime.now());
+                modStamp = nextModStamp();
+                removeFromAggregates(removed);
+                publishAggregates();
+            }
+        } finally {
+            endEdit(lock);
         }
-        photos.remove(photo);
-        dateModified = LocalDateTime.now();
+        ModelEvent.publish(ModelEvent.Type.PHOTO_REMOVED, this, Collections.singletonList(removed), index);
+        publishAggregatesChanged();
+    }
+
+    /**
+     * Method to check if the album has a photo, or a copy of it, of the same file taken at the same date.
+     * @param photo The photo to look for.
+     * @return True if a photo in the album has the same content as the given one.
+     */
+    public synchronized boolean containsSamePhoto(Photo photo) {
+        for (Photo existing : getPhotos()) {
+            if (existing.hasSameContent(photo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to get the stamp of the last change to the photo list of this album.
+     * @return The modification stamp, larger values are more recent changes.
+     */
+    long getModStamp() {
+        return modStamp;
+    }
+
+    /**
+     * Method to take a new modification stamp, larger than every stamp taken before.
+     * Used by the user to stamp changes to its album list on the same scale as album changes.
+     * @return The new stamp.
+     */
+    static long nextModStamp() {
+        return MOD_COUNTER.incrementAndGet();
     }
 
     /**
@@ -142,7 +591,7 @@ public class Album implements Serializable {
      * @return The list of photos in the album.
      */
     public ArrayList<Photo> getPhotoList() {
-        return photos;
+        return getPhotos();
     }
 
     /**
@@ -157,33 +606,709 @@ public class Album implements Serializable {
      * Method to get the number of photos in the album.
      * @return The number of photos in the album.
      */
-    public int getNumPhotos() {
-        return photos.size();
+    public synchronized int getNumPhotos() {
+        return photos != null ? photos.size() : savedPhotoCount;
+    }
+
+    /**
+     * Getter for the number of photos as written in the album header by the last save, or as read with it.
+     * @return The saved number of photos.
+     */
+    synchronized int getSavedPhotoCount() {
+        return savedPhotoCount;
+    }
+
+    /**
+     * Getter for the total size of the photos as written in the album header by the last save, or as read with it.
+     * @return The saved total size in bytes.
+     */
+    synchronized long getSavedTotalBytes() {
+        return totalBytes;
     }
 
     /**
      * Method to get the date range of the photos in the album.
+     * Read from the running aggregates, or the saved header if the photos are not loaded, so no photos are scanned.
      * @return A string containing the earliest and latest dates of the photos in the album.
      */
-    public String getDateRange() {
-        if (photos.isEmpty()) {
+    public synchronized String getDateRange() {
+        LocalDateTime earliest = getEarliestDate();
+        if (earliest == null) {
             return "N/A";
         }
-        LocalDateTime earliest = photos.get(0).getDate(); // initialize to first photo
-        LocalDateTime latest = photos.get(0).getDate(); // initialize to first photo
-        for (Photo p : photos) {
-            if (p.getDate().isBefore(earliest)) {
-                earliest = p.getDate();
+        return "Earliest: " + earliest + "\nLatest: " + getLatestDate(); // String representation of the date range
+    }
+
+    /**
+     * Method to get the date of the earliest photo in the album.
+     * @return The earliest date, or null if the album has no photos.
+     */
+    public synchronized LocalDateTime getEarliestDate() {
+        if (photos == null) {
+            return savedEarliestDate;
+        }
+        ensureAggregates();
+        return dateCounts.isEmpty() ? null : dateCounts.firstKey();
+    }
+
+    /**
+     * Method to get the date of the latest photo in the album.
+     * @return The latest date, or null if the album has no photos.
+     */
+    public synchronized LocalDateTime getLatestDate() {
+        if (photos == null) {
+            return savedLatestDate;
+        }
+        ensureAggregates();
+        return dateCounts.isEmpty() ? null : dateCounts.lastKey();
+    }
+
+    /**
+     * Method to get the total size of the photo files in the album.
+     * @return The total size in bytes, counting photos of unknown size as 0.
+     */
+    public synchronized long getTotalBytes() {
+        if (photos == null) {
+            return totalBytes; // As saved with the header
+        }
+        ensureAggregates();
+        return runningBytes;
+    }
+
+    /**
+     * Method to get the most common values of a tag type in the album, for example the top 20 people.
+     * @param tagType The tag type.
+     * @param limit The largest number of values wanted.
+     * @return The most common values with their number of photos, most photos first.
+     */
+    public synchronized List<FacetCounts.Facet> getTopTagValues(String tagType, int limit) {
+        ensureAggregates();
+        return facets.top(tagType, limit);
+    }
+
+    /**
+     * Method to add the album's tag counts to a set of counts, for example the user-wide counts.
+     * @param total The counts to add to.
+     */
+    public synchronized void addFacetsTo(FacetCounts total) {
+        ensureAggregates();
+        total.addAll(facets);
+    }
+
+    /**
+     * Method to add the album's photo counts by date to a histogram, for example the user's timeline.
+     * @param total The histogram to add to.
+     */
+    public synchronized void addTimelineTo(DateHistogram total) {
+        if (photos != null) {
+            ensureAggregates();
+            total.addAll(runningTimeline);
+        } else if (timeline != null) { // Null for an album that was never saved
+            total.addAll(timeline);
+        }
+    }
+
+    /**
+     * Method to get the number of photos as an observable property, used by the albums table.
+     * The property is brought up to date when asked for, and by updateProperties as photos are added and removed.
+     * @return The number of photos property.
+     */
+    public synchronized IntegerProperty numPhotosProperty() {
+        if (numPhotosProperty == null) {
+            numPhotosProperty = new SimpleIntegerProperty(this, "numPhotos", getNumPhotos());
+        } else {
+            numPhotosProperty.set(getNumPhotos()); // Events may have been missed while no table showed the album
+        }
+        return numPhotosProperty;
+    }
+
+    /**
+     * Method to get the date range as an observable property, used by the albums table.
+     * The property is brought up to date when asked for, and by updateProperties as photos are added and removed
+     * and their dates change.
+     * @return The date range property.
+     */
+    public synchronized StringProperty dateRangeProperty() {
+        if (dateRangeProperty == null) {
+            dateRangeProperty = new SimpleStringProperty(this, "dateRange", getDateRange());
+        } else {
+            dateRangeProperty.set(getDateRange());
+        }
+        return dateRangeProperty;
+    }
+
+    /**
+     * Method to take a photo out of the aggregates before its date, size, tags or file path change.
+     * Called by the photo itself.
+     * @param photo The photo about to change.
+     */
+    synchronized void excludeFromAggregates(Photo photo) {
+        if (dateCounts != null) {
+            subtract(photo);
+        }
+    }
+
+    /**
+     * Method to put a photo back into the aggregates after its date, size, tags or file path changed.
+     * Called by the photo itself.
+     * @param photo The photo that changed.
+     */
+    synchronized void includeInAggregates(Photo photo) {
+        if (dateCounts != null) {
+            add(photo);
+            publishAggregates();
+        }
+    }
+
+    /**
+     * Method to index a photo under its new content hash, once it is computed or after it was cleared.
+     * Called by the photo itself.
+     * @param photo The photo.
+     * @param oldHash The content hash the photo had before, may be null.
+     */
+    synchronized void contentHashChanged(Photo photo, String oldHash) {
+        if (photoIndex != null) {
+            photoIndex.contentChanged(photo, oldHash);
+        }
+    }
+
+    /**
+     * Method to find the photos of the album that reference a file path.
+     * While the photos are on disk the saved keys are looked at first, so the album is only read if it holds the file.
+     * @param path The file path.
+     * @return The photos referencing the file, empty if there are none.
+     */
+    synchronized List<Photo> findPhotosByPath(String path) {
+        if (!containsPath(path)) {
+            return Collections.emptyList();
+        }
+        ensureAggregates();
+        return photoIndex.byPath(path);
+    }
+
+    /**
+     * Method to find the photos of the album with a file size.
+     * While the photos are on disk the saved keys are looked at first, so the album is only read if it holds the size.
+     * @param size The file size in bytes.
+     * @return The photos with that size, empty if there are none.
+     */
+    synchronized List<Photo> findPhotosBySize(long size) {
+        if (!containsSize(size)) {
+            return Collections.emptyList();
+        }
+        ensureAggregates();
+        return photoIndex.bySize(size);
+    }
+
+    /**
+     * Method to find the photos of the album with a content hash.
+     * While the photos are on disk the saved keys are looked at first, so the album is only read if it holds the content.
+     * @param contentHash The content hash.
+     * @return The photos with that content, empty if there are none.
+     */
+    synchronized List<Photo> findPhotosByContent(String contentHash) {
+        if (!containsContent(contentHash)) {
+            return Collections.emptyList();
+        }
+        ensureAggregates();
+        return photoIndex.byContent(contentHash);
+    }
+
+    /**
+     * Method to check if a photo of the album references a file path, without reading the album's file.
+     * @param path The file path.
+     * @return True if a photo references it. For an album on disk, true may rarely be a different path with the same key.
+     */
+    public synchronized boolean containsPath(String path) {
+        if (photos == null) {
+            return getSavedKeys().hasPath(path);
+        }
+        ensureAggregates();
+        return photoIndex.hasPath(path);
+    }
+
+    /**
+     * Method to check if a photo of the album has a file size, without reading the album's file.
+     * @param size The file size in bytes.
+     * @return True if a photo has that size.
+     */
+    synchronized boolean containsSize(long size) {
+        if (photos == null) {
+            return getSavedKeys().hasSize(size);
+        }
+        ensureAggregates();
+        return photoIndex.hasSize(size);
+    }
+
+    /**
+     * Method to check if a photo of the album has a content hash, without reading the album's file.
+     * @param contentHash The content hash.
+     * @return True if a photo has that content. For an album on disk, true may rarely be another content with the same key.
+     */
+    synchronized boolean containsContent(String contentHash) {
+        if (photos == null) {
+            return getSavedKeys().hasContent(contentHash);
+        }
+        ensureAggregates();
+        return photoIndex.hasContent(contentHash);
+    }
+
+    /**
+     * Method to check if every photo of the album has a known size and a content hash, without reading the album's file.
+     * Until then lookups by size and content may miss a copy, see findIncompletePhotos.
+     * @return True if lookups by size and content find every photo of the album.
+     */
+    synchronized boolean isContentComplete() {
+        if (photos == null) {
+            return getSavedKeys().isComplete();
+        }
+        ensureAggregates();
+        return photoIndex.isComplete();
+    }
+
+    /**
+     * Method to find the photos of the album of unknown size or not hashed yet, reading the album if needed.
+     * Photos saved before sizes and hashes were kept are among them until they are hashed, see ContentHasher.ensureHash.
+     * @return The photos, empty if every photo has a size and a content hash.
+     */
+    synchronized List<Photo> findIncompletePhotos() {
+        ensureAggregates();
+        return photoIndex.incomplete();
+    }
+
+    /**
+     * Method to get the folders holding the album's photos, without reading the album's file.
+     * Used by the library watcher to watch an album whose photos are not loaded.
+     * @return The folders, as last saved if the photos are not loaded.
+     */
+    synchronized List<String> getDirectories() {
+        if (photos == null) {
+            return getSavedKeys().getDirectories();
+        }
+        Set<String> directories = new TreeSet<>(); // Sorted and without repeats, as saved
+        for (Photo photo : photos) {
+            Path parent = Paths.get(photo.getFilePath()).getParent();
+            if (parent != null) {
+                directories.add(parent.toString());
+            }
+        }
+        return new ArrayList<>(directories);
+    }
+
+    /**
+     * Getter for saved keys, used while the photos are not loaded.
+     * An album saved before the keys, or the folders in them, were kept has them counted from its file the first time,
+     * without keeping the photos, and saved with the header from then on.
+     * @return The keys of the photos as last saved.
+     */
+    synchronized PhotoKeys getSavedKeys() {
+        if (savedKeys == null || savedKeys.getDirectories() == null) {
+            List<Photo> saved = Collections.emptyList();
+            if (storageKey != null) {
+                try {
+                    saved = AlbumStore.readAll(storageKey, loadedChunks == null ? Collections.emptyMap() : loadedChunks);
+                } catch (IOException e) {
+                    System.err.println("Failed to read photos of album " + name + ": " + e.getMessage());
+                }
             }
-            if (p.getDate().isAfter(latest)) {
-                latest = p.getDate();
+            savedKeys = PhotoKeys.of(saved);
+        }
+        return savedKeys;
+    }
+
+    /**
+     * Method to start a batch edit of the album's photos, so the albums table is updated once for the whole batch.
+     * Every call must be followed by a call to endBatch.
+     */
+    synchronized void beginBatch() {
+        batchDepth++;
+    }
+
+    /**
+     * Method to end a batch edit. A change of the aggregates during the batch is published by publishAggregatesChanged
+     * once the caller has released its locks.
+     */
+    synchronized void endBatch() {
+        if (batchDepth > 0) {
+            batchDepth--;
+        }
+    }
+
+    /**
+     * Method to publish an ALBUM_UPDATED event if the aggregates changed since the last one, unless a batch edit is
+     * still in progress. Called after the edit that changed them has released its locks, like the other events.
+     */
+    void publishAggregatesChanged() {
+        synchronized (this) {
+            if (!aggregatesChanged || batchDepth > 0) {
+                return;
             }
+            aggregatesChanged = false;
+        }
+        ModelEvent.publish(ModelEvent.Type.ALBUM_UPDATED, null, this);
+    }
+
+    /**
+     * Method to bring the observable properties up to date with the aggregates, if the table has asked for them.
+     * JavaFX properties bound to the table must only change on the JavaFX thread, so this is called by the view
+     * on that thread when it gets an ALBUM_UPDATED event.
+     */
+    public void updateProperties() {
+        int numPhotos;
+        String dateRange;
+        List<String> previewPaths;
+        synchronized (this) {
+            if (numPhotosProperty == null && dateRangeProperty == null && previewPathsProperty == null) {
+                return;
+            }
+            numPhotos = getNumPhotos();
+            dateRange = getDateRange();
+            previewPaths = getPreviewPaths();
+        }
+        // Set without holding the album's monitor, since the table redraws the row right away
+        if (numPhotosProperty != null) {
+            numPhotosProperty.set(numPhotos);
+        }
+        if (dateRangeProperty != null) {
+            dateRangeProperty.set(dateRange);
+        }
+        // Only replaced if the first photos actually changed, so the preview isn't redrawn for nothing
+        if (previewPathsProperty != null && !previewPaths.equals(previewPathsProperty.get())) {
+            previewPathsProperty.set(previewPaths);
+        }
+    }
+
+    /**
+     * Helper method to build the aggregates in one pass over the photos, the first time they are needed.
+     * Each photo is told about the album so it can report later changes.
+     */
+    private void ensureAggregates() {
+        if (dateCounts != null) {
+            return;
+        }
+        ensureLoaded();
+        dateCounts = new TreeMap<>();
+        facets = new FacetCounts();
+        photoIndex = new PhotoIndex();
+        runningTimeline = new DateHistogram();
+        runningBytes = 0;
+        for (Photo photo : photos) {
+            add(photo);
+            photo.addOwner(this);
         }
-        return "Earliest: " + earliest + "\nLatest: " + latest; // String representation of the date range
     }
 
     /**
-     * Method to check for equality between two albums
+     * Helper method to count a photo newly added to the album, if the aggregates have been built.
+     * @param photo The photo.
+     */
+    private synchronized void addToAggregates(Photo photo) {
+        if (dateCounts != null) {
+            add(photo);
+            photo.addOwner(this);
+        }
+    }
+
+    /**
+     * Helper method to stop counting a photo removed from the album, if the aggregates have been built.
+     * @param photo The photo.
+     */
+    private synchronized void removeFromAggregates(Photo photo) {
+        if (dateCounts != null) {
+            subtract(photo);
+            photo.removeOwner(this);
+        }
+    }
+
+    /**
+     * Helper method to add a photo's date, size and tags to the aggregates.
+     * @param photo The photo.
+     */
+    private void add(Photo photo) {
+        if (photo.getDate() != null) {
+            dateCounts.merge(photo.getDate(), 1, Integer::sum);
+        }
+        runningTimeline.add(photo.getDate());
+        facets.add(photo);
+        photoIndex.add(photo);
+        runningBytes += photo.getFileSize();
+    }
+
+    /**
+     * Helper method to take a photo's date, size and tags out of the aggregates.
+     * Counts that drop to zero are removed, so the first and last dates stay correct.
+     * @param photo The photo.
+     */
+    private void subtract(Photo photo) {
+        if (photo.getDate() != null) {
+            // Returning null from the merge function removes the entry
+            dateCounts.merge(photo.getDate(), -1, (count, minus) -> count + minus == 0 ? null : count + minus);
+        }
+        runningTimeline.subtract(photo.getDate());
+        facets.subtract(photo);
+        photoIndex.remove(photo);
+        runningBytes -= photo.getFileSize();
+    }
+
+    /**
+     * Method to encode the album's photos for its file, if they are in memory, and update the saved header.
+     * Albums whose photos were never read are unchanged and are skipped.
+     * Called by the DataManager while it reads a snapshot, before the user data file is encoded: the photos and the
+     * header are those of the snapshot, so edits made meanwhile are left for the next save.
+     * The file itself is written by the DataManager afterwards.
+     * @param files The album files to write, by storage key. The album's file is added to it.
+     * @return True if the album's file is up to date or was encoded, false if it could not be encoded.
+     */
+    boolean store(Map<String, byte[]> files) {
+        String key;
+        List<Photo> saved;
+        synchronized (this) {
+            if (photos == null && loadedChunks == null) {
+                return true; // Nothing was read, so nothing can have changed
+            }
+            // Pages read on their own may have been edited, the whole album is written out
+            ensureLoaded();
+            if (loadFailed) {
+                return false; // Don't replace a file we could not read with what little we have
+            }
+            if (storageKey == null) {
+                storageKey = AlbumStore.newKey();
+            }
+            key = storageKey;
+            saved = getPhotos(); // As seen by the snapshot, never changed, so it is read without the monitor
+        }
+        try {
+            files.put(key, AlbumStore.encode(saved));
+        } catch (IOException e) {
+            System.err.println("Failed to save photos of album " + name + ": " + e.getMessage());
+            return false;
+        }
+        // The running aggregates are those of the current photos, the header is counted from the saved ones
+        DateHistogram histogram = new DateHistogram();
+        long bytes = 0;
+        LocalDateTime earliest = null;
+        LocalDateTime latest = null;
+        ArrayList<String> preview = new ArrayList<>(PREVIEW_PHOTOS);
+        for (Photo photo : saved) {
+            LocalDateTime date = photo.getDate();
+            histogram.add(date);
+            bytes += photo.getFileSize();
+            if (date != null && (earliest == null || date.isBefore(earliest))) {
+                earliest = date;
+            }
+            if (date != null && (latest == null || date.isAfter(latest))) {
+                latest = date;
+            }
+            if (preview.size() < PREVIEW_PHOTOS) {
+                preview.add(photo.getFilePath());
+            }
+        }
+        synchronized (this) {
+            savedPhotoCount = saved.size();
+            savedEarliestDate = earliest;
+            savedLatestDate = latest;
+            previewPaths = preview;
+            savedKeys = PhotoKeys.of(saved);
+            timeline = histogram;
+            totalBytes = bytes;
+        }
+        return true;
+    }
+
+    /**
+     * Getter for storage key.
+     * @return The key of the album's file, or null if the album was never saved.
+     */
+    synchronized String getStorageKey() {
+        return storageKey;
+    }
+
+    /**
+     * Helper method to read the album's photos from its file the first time they are needed.
+     * Chunks already read for pages are reused, so the photo objects shown in those pages stay the same.
+     * If the file can't be read the album is left empty and is not saved, so the file isn't lost.
+     */
+    private synchronized void ensureLoaded() {
+        if (photos != null) {
+            return;
+        }
+        if (storageKey == null) {
+            photos = new ArrayList<>(); // Never saved, so there is nothing to read
+            return;
+        }
+        try {
+            photos = AlbumStore.readAll(storageKey, loadedChunks == null ? Collections.emptyMap() : loadedChunks);
+        } catch (IOException e) {
+            System.err.println("Failed to read photos of album " + name + ": " + e.getMessage());
+            photos = new ArrayList<>();
+            loadFailed = true;
+        }
+        loadedChunks = null;
+        // Stamp the album so the user's similarity index and the library watcher pick up the photos just read
+        modStamp = nextModStamp();
+    }
+
+    /**
+     * Setter for owner, called by the user the album is added to or read with.
+     * @param owner The user the album belongs to.
+     */
+    void setOwner(User owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Helper method to start a change: the owner's write lock is taken, so readers holding its read lock never
+     * see the change half made, and the change is stamped with the current version for snapshots.
+     * Every call must be followed by a call to endEdit.
+     * @return The lock taken, or null if the album doesn't belong to a user yet.
+     */
+    private Lock lockForEdit() {
+        User user = owner;
+        Lock lock = null;
+        if (user != null) { // Otherwise not shared with anyone yet
+            lock = user.getLock().writeLock();
+            lock.lock();
+        }
+        ModelVersion.beginChange(user);
+        return lock;
+    }
+
+    /**
+     * Helper method to end a change started by lockForEdit.
+     * @param lock The lock taken by lockForEdit, may be null.
+     */
+    private static void endEdit(Lock lock) {
+        ModelVersion.endChange();
+        unlock(lock);
+    }
+
+    /**
+     * Helper method to change the name or modification date during a change, holding the album's monitor.
+     * The old ones are kept for the open snapshots that can see them.
+     * @param newName The new name.
+     * @param newDateModified The new modification date.
+     */
+    private void changeDetails(String newName, LocalDateTime newDateModified) {
+        detailsHistory.beforeChange(new Details(name, dateModified));
+        name = newName;
+        dateModified = newDateModified;
+    }
+
+    /**
+     * Helper method to get the name and modification date as the current thread should see them.
+     * @return The name and modification date, as they were at the snapshot the thread reads.
+     */
+    private Details seenDetails() {
+        ModelVersion.settle(owner);
+        synchronized (this) {
+            Details current = new Details(name, dateModified);
+            Details seen = detailsHistory.at(current);
+            return seen != null ? seen : current; // The album was created after the snapshot
+        }
+    }
+
+    /**
+     * Helper method to get the photo list to change, during a change.
+     * If an open snapshot can see the list, the list is kept for it and replaced by a copy, which is returned.
+     * @return The photo list, which may be changed in place.
+     */
+    private ArrayList<Photo> writablePhotos() {
+        ensureLoaded();
+        if (photoHistory.beforeChange(photos)) {
+            photos = new ArrayList<>(photos);
+        }
+        return photos;
+    }
+
+    /**
+     * Helper method to release a lock taken by getPhotosSnapshot.
+     * @param lock The lock, may be null.
+     */
+    private static void unlock(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Method to write the album to the user data file.
+     * The photos are kept in the album's own file, so only the header fields are written here.
+     * @param out The stream to write to.
+     * @throws IOException If the album could not be written.
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        // The name and date as seen by the save's snapshot, the rest of the header was counted by store from its photos
+        Details details = seenDetails();
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("name", details.name);
+        fields.put("photos", null); // Stored by the AlbumStore
+        fields.put("dateCreated", dateCreated);
+        fields.put("dateModified", details.dateModified);
+        fields.put("storageKey", storageKey);
+        fields.put("savedPhotoCount", savedPhotoCount);
+        fields.put("savedEarliestDate", savedEarliestDate);
+        fields.put("savedLatestDate", savedLatestDate);
+        fields.put("previewPaths", previewPaths);
+        fields.put("savedKeys", savedKeys);
+        fields.put("timeline", timeline);
+        fields.put("totalBytes", totalBytes);
+        out.writeFields();
+    }
+
+    /**
+     * Method to read the album from the user data file, giving albums saved before ids existed an id of their own.
+     * @param in The stream to read from.
+     * @throws IOException If the album could not be read.
+     * @throws ClassNotFoundException If a class of the album's fields could not be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (id == 0) {
+            id = EntityId.next(); // Saved with the user data the next time it is written
+        }
+        photoHistory = new History<>();
+        detailsHistory = new History<>();
+    }
+
+    /**
+     * Helper method to note that the aggregates or the first photos changed, so an ALBUM_UPDATED event is published
+     * once the edit has released its locks. Also called after the album's order changes, since the preview shows the
+     * first photos. Nothing is noted when nobody listens, for example on the command line.
+     */
+    private synchronized void publishAggregates() {
+        if (ModelEvent.hasListeners()) {
+            aggregatesChanged = true;
+        }
+    }
+
+    /**
+     * Method to check if another album has the same name, dates and photos, whatever its id.
+     * Reads the photos of both albums.
+     * @param other The album to compare to.
+     * @return True if the albums have the same name and dates and photos with the same content in the same order.
+     */
+    public boolean hasSameContent(Album other) {
+        if (other == null || !name.equals(other.name) || !dateCreated.equals(other.dateCreated)
+                || !dateModified.equals(other.dateModified)) {
+            return false;
+        }
+        List<Photo> mine = getPhotos();
+        List<Photo> theirs = other.getPhotos();
+        if (mine.size() != theirs.size()) {
+            return false;
+        }
+        for (int i = 0; i < mine.size(); i++) {
+            if (!mine.get(i).hasSameContent(theirs.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method to check for equality between two albums.
+     * Albums are equal if they have the same id, so comparing albums never reads their photos.
      * @return True if the albums are equal, false otherwise.
      */
     @Override
@@ -194,8 +1319,7 @@ public class Album implements Serializable {
         if (!(o instanceof Album)) {
             return false;
         }
-        Album a = (Album) o;
-        return name.equals(a.getName()) && photos.equals(a.getPhotos()) && dateCreated.equals(a.getDateCreated()) && dateModified.equals(a.getDateModified());
+        return id == ((Album) o).id;
     }
 
     /**
@@ -204,7 +1328,7 @@ public class Album implements Serializable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(name, photos, dateCreated, dateModified);
+        return Long.hashCode(id);
     }
 
     /**
@@ -213,7 +1337,7 @@ public class Album implements Serializable {
      */
     @Override
     public String toString() {
-        return "Album name: " + name + "\nDate created: " + dateCreated + "\nDate last modified: " + dateModified + "\nNumber of photos: " + photos.size();
+        return "Album name: " + name + "\nDate created: " + dateCreated + "\nDate last modified: " + dateModified + "\nNumber of photos: " + getNumPhotos();
     }
 
     /** 
@@ -221,41 +1345,69 @@ public class Album implements Serializable {
      * This method uses a custom comparator to sort the photos by date.
      */
     public void sortPhotosByDate() {
-        photos.sort(new Comparator<Photo>() {
-            @Override
-            public int compare(Photo p1, Photo p2) {
-                return p1.getDate().compareTo(p2.getDate());
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                writablePhotos().sort(new Comparator<Photo>() {
+                    @Override
+                    public int compare(Photo p1, Photo p2) {
+                        return p1.getDate().compareTo(p2.getDate());
+                    }
+                });
+                publishAggregates(); // The cover may have changed
             }
-        });
+        } finally {
+            endEdit(lock);
+        }
+        ModelEvent.publish(ModelEvent.Type.PHOTOS_REORDERED, this, Collections.emptyList(), -1);
+        publishAggregatesChanged();
     }
 
     /**
      * Method to sort the photos in the album by tags.
-     * This method uses a custom comparator to sort the photos by tags.
+     * The tags of each photo are turned into a string once up front, instead of twice per comparison.
      */
     public void sortPhotosByTags() {
-        photos.sort(new Comparator<Photo>() {
-            @Override
-            public int compare(Photo p1, Photo p2) {
-                return p1.getTags().toString().compareTo(p2.getTags().toString());
+        Lock lock = lockForEdit();
+        try {
+            synchronized (this) {
+                ensureLoaded();
+                Map<Photo, String> tagStrings = new IdentityHashMap<>();
+                for (Photo photo : photos) {
+                    tagStrings.put(photo, photo.getTags().toString());
+                }
+                writablePhotos().sort(Comparator.comparing(tagStrings::get));
+                publishAggregates(); // The cover may have changed
             }
-        });
+        } finally {
+            endEdit(lock);
+        }
+        ModelEvent.publish(ModelEvent.Type.PHOTOS_REORDERED, this, Collections.emptyList(), -1);
+        publishAggregatesChanged();
+    }
+
+    /**
+     * Method to get the photos in the album in a given order, without changing the album's own order.
+     * @param order The order, or null for the album's own order.
+     * @return A new list with the photos of the album in the order.
+     */
+    public List<Photo> getPhotos(PhotoOrder order) {
+        List<Photo> snapshot = getPhotosSnapshot();
+        if (order == null) {
+            return snapshot;
+        }
+        return order.sort(snapshot, Collections.emptyList());
     }
 
     /**
      * Method to get all tags in the album.
+     * Read from the album's tag counts, so duplicates are already merged and no photos are scanned.
      * @return A list of all tags in the album.
      */
-    public ArrayList<Tag> getAllTags() {
-        ArrayList<Tag> allTags = new ArrayList<>();
-        for (Photo p : photos) {
-            for (Tag t : p.getTags()) {
-                if (!allTags.contains(t)) { // check if tag is already in the list in case of duplicates
-                    allTags.add(t);
-                }
-            }
-        }
-        return allTags;
+    public synchronized ArrayList<Tag> getAllTags() {
+        ensureAggregates();
+        return new ArrayList<>(facets.getTags());
     }
 
     /**
@@ -265,7 +1417,7 @@ public class Album implements Serializable {
      */
     public ArrayList<Photo> getPhotosWithTag(Tag tag) {
         ArrayList<Photo> photosWithTag = new ArrayList<>();
-        for (Photo p : photos) {
+        for (Photo p : getPhotos()) {
             if (p.getTags().contains(tag)) {
                 photosWithTag.add(p);
             }
@@ -281,11 +1433,37 @@ public class Album implements Serializable {
      */
     public ArrayList<Photo> getPhotosInDateRange(LocalDateTime startDate, LocalDateTime endDate) {
         ArrayList<Photo> photosInDateRange = new ArrayList<>();
-        for (Photo p : photos) {
+        for (Photo p : getPhotos()) {
             if (p.getDate().isAfter(startDate) && p.getDate().isBefore(endDate)) {
                 photosInDateRange.add(p);
             }
         }
         return photosInDateRange;
     }
+
+    /**
+     * Class to hold the name and modification date of the album together, as kept for snapshots.
+     */
+    private static final class Details {
+
+        /**
+         * The name of the album.
+         */
+        private final String name;
+
+        /**
+         * The date the album was last modified.
+         */
+        private final LocalDateTime dateModified;
+
+        /**
+         * Constructor for the details.
+         * @param name The name of the album.
+         * @param dateModified The date the album was last modified.
+         */
+        private Details(String name, LocalDateTime dateModified) {
+            this.name = name;
+            this.dateModified = dateModified;
+        }
+    }
 }
@@ -0,0 +1,268 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Class to store the photos of each album in a file of its own for the Photos application.
+ * The user data file only keeps a small header for each album (name, number of photos, dates, cover),
+ * so logging in doesn't read any photos. An album's photos are read the first time they are needed.
+ * Photos are written in chunks of CHUNK_SIZE, each serialized on its own, with a table of chunk positions
+ * at the start of the file, so one page of an album can be read without reading the rest.
+ * Files are written to a temporary file first and then moved into place, so a failed save never leaves
+ * a half written album behind.
+ * @author ZB SL
+ */
+public class AlbumStore {
+
+    /**
+     * The number of photos in each chunk of an album file.
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * The directory where album files are stored, inside the data directory.
+     */
+    private static final String ALBUM_DIR = "data" + File.separator + "albums";
+
+    /**
+     * Number at the start of every album file, to recognize the format.
+     */
+    private static final int MAGIC = 0x50414C42; // "PALB"
+
+    /**
+     * Version of the album file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the fixed part of the file header: magic, version, chunk size, number of photos and number of chunks.
+     */
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+    /**
+     * The size of each entry of the chunk table: the position and the length of the chunk.
+     */
+    private static final int TABLE_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private AlbumStore() {
+    }
+
+    /**
+     * Method to create the key of a new album file.
+     * @return A new random key.
+     */
+    static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Method to build the contents of an album file in memory, without touching the disk.
+     * The DataManager encodes albums while the user's edits are held back, and writes the files once they can go on.
+     * @param photos The photos of the album, in order.
+     * @return The contents of the album file.
+     * @throws IOException If a photo could not be serialized.
+     */
+    static byte[] encode(List<Photo> photos) throws IOException {
+        int chunkCount = (photos.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        byte[][] chunks = new byte[chunkCount][];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int from = chunk * CHUNK_SIZE;
+            chunks[chunk] = serialize(new ArrayList<>(photos.subList(from, Math.min(photos.size(), from + CHUNK_SIZE))));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(CHUNK_SIZE);
+        out.writeInt(photos.size());
+        out.writeInt(chunkCount);
+        // The chunks follow the chunk table, so their positions are known before they are written
+        long position = HEADER_SIZE + (long) chunkCount * TABLE_ENTRY_SIZE;
+        for (byte[] chunk : chunks) {
+            out.writeLong(position);
+            out.writeInt(chunk.length);
+            position += chunk.length;
+        }
+        for (byte[] chunk : chunks) {
+            out.write(chunk);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Method to write an album file built by encode, replacing any earlier version.
+     * @param key The key of the album file.
+     * @param contents The contents of the album file.
+     * @throws IOException If the file could not be written.
+     */
+    static void write(String key, byte[] contents) throws IOException {
+        File directory = new File(ALBUM_DIR);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        replace(new File(directory, key + ".tmp"), fileOf(key), contents);
+    }
+
+    /**
+     * Method to write a file through a temporary file that is then moved into place,
+     * so a failed write never leaves a half written file behind.
+     * @param temp The temporary file, in the same directory as the file.
+     * @param file The file to replace.
+     * @param contents The new contents of the file.
+     * @throws IOException If the file could not be written.
+     */
+    static void replace(File temp, File file, byte[] contents) throws IOException {
+        Files.write(temp.toPath(), contents);
+        moveIntoPlace(temp, file);
+    }
+
+    /**
+     * Method to move a temporary file that was written in full into place, replacing the file.
+     * @param temp The temporary file, in the same directory as the file.
+     * @param file The file to replace.
+     * @throws IOException If the file could not be moved.
+     */
+    static void moveIntoPlace(File temp, File file) throws IOException {
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Method to read one chunk of photos from an album file.
+     * @param key The key of the album file.
+     * @param chunk The index of the chunk, photo index divided by CHUNK_SIZE.
+     * @return The photos of the chunk, empty if the album has fewer chunks.
+     * @throws IOException If the file could not be read or is not an album file.
+     */
+    static List<Photo> readChunk(String key, int chunk) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(fileOf(key), "r")) {
+            int chunkCount = readHeader(in, key);
+            if (chunk < 0 || chunk >= chunkCount) {
+                return Collections.emptyList();
+            }
+            return readChunk(in, chunk);
+        }
+    }
+
+    /**
+     * Method to read all photos of an album file.
+     * Chunks that were already read are taken as they are, so their photo objects stay the same.
+     * @param key The key of the album file.
+     * @param readChunks The chunks already read, by chunk index.
+     * @return The photos of the album, in order.
+     * @throws IOException If the file could not be read or is not an album file.
+     */
+    static ArrayList<Photo> readAll(String key, Map<Integer, List<Photo>> readChunks) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(fileOf(key), "r")) {
+            int chunkCount = readHeader(in, key);
+            ArrayList<Photo> photos = new ArrayList<>(chunkCount * CHUNK_SIZE);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                List<Photo> photosOfChunk = readChunks.get(chunk);
+                photos.addAll(photosOfChunk != null ? photosOfChunk : readChunk(in, chunk));
+            }
+            return photos;
+        }
+    }
+
+    /**
+     * Method to delete the album files that no album refers to any more, for example after an album or user was deleted.
+     * @param keys The keys of the album files still in use.
+     */
+    static void deleteUnused(Set<String> keys) {
+        File[] files = new File(ALBUM_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".dat") && !keys.contains(name.substring(0, name.length() - ".dat".length()))) {
+                if (!file.delete()) {
+                    System.err.println("Failed to delete unused album file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to check the header of an album file.
+     * @param in The file, positioned at the start.
+     * @param key The key of the album file, for error messages.
+     * @return The number of chunks in the file.
+     * @throws IOException If the file is not an album file in a supported format.
+     */
+    private static int readHeader(RandomAccessFile in, String key) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != CHUNK_SIZE) {
+            throw new IOException("Unsupported album file " + key);
+        }
+        in.readInt(); // Number of photos, the album header has its own copy
+        return in.readInt();
+    }
+
+    /**
+     * Helper method to read one chunk, using the chunk table to find it.
+     * @param in The file.
+     * @param chunk The index of the chunk, which must exist.
+     * @return The photos of the chunk.
+     * @throws IOException If the chunk could not be read.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Photo> readChunk(RandomAccessFile in, int chunk) throws IOException {
+        in.seek(HEADER_SIZE + (long) chunk * TABLE_ENTRY_SIZE);
+        long position = in.readLong();
+        byte[] bytes = new byte[in.readInt()];
+        in.seek(position);
+        in.readFully(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            // Unsafe cast, but each chunk is written by this class as a list of photos
+            return (List<Photo>) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Class not found while reading album chunk: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Helper method to serialize one chunk of photos.
+     * @param photos The photos of the chunk.
+     * @return The serialized chunk.
+     * @throws IOException If a photo could not be serialized.
+     */
+    private static byte[] serialize(ArrayList<Photo> photos) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(photos);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Helper method to get the file of an album.
+     * @param key The key of the album file.
+     * @return The file.
+     */
+    private static File fileOf(String key) {
+        return new File(ALBUM_DIR, key + ".dat");
+    }
+}
@@ -0,0 +1,251 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class to compute content fingerprints of photo files for the Photos application.
+ * The full content hash is a SHA-256 of the whole file, read in large blocks through a FileChannel.
+ * A cheap pre-hash of the file size plus its first and last blocks is used to rule out most
+ * candidate duplicates before any file has to be read in full.
+ * Missing content hashes and sizes of a user's photos are filled in on background threads, including those of
+ * albums still on disk that were saved before every photo had them, so lookups by content find every copy.
+ * @author ZB SL
+ */
+public class ContentHasher {
+
+    /**
+     * The size of the buffer used to stream files through the digest.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The number of bytes read from each end of a file for the pre-hash.
+     */
+    private static final int PRE_HASH_BLOCK = 8 * 1024;
+
+    /**
+     * Reusable read buffer per thread. Direct buffers let the channel read without an extra copy.
+     */
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * The background threads used to hash photos that don't have a content hash yet.
+     * Hashing is mostly disk bound, so two threads are enough and keep the UI responsive.
+     */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "content-hasher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * The photos currently queued for background hashing, so a photo is never queued twice.
+     */
+    private static final Set<Photo> queued = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+    /**
+     * The albums on disk currently queued to have their missing hashes filled in, so an album is never queued twice.
+     */
+    private static final Set<Album> queuedAlbums = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ContentHasher() {
+    }
+
+    /**
+     * Method to compute the content hash of a file.
+     * @param path The path of the file.
+     * @return The content hash as a lowercase hex string.
+     * @throws IOException If the file could not be read.
+     */
+    public static String hash(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = buffers.get();
+        // Try-with-resources to automatically close the channel
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer); // Consumes the buffer
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Method to compute the pre-hash of a file from its size and its first and last blocks.
+     * Two files with different pre-hashes always have different content. Files with equal pre-hashes
+     * must still be compared with the full content hash.
+     * @param path The path of the file.
+     * @return The pre-hash as a lowercase hex string.
+     * @throws IOException If the file could not be read.
+     */
+    public static String preHash(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+            readBlock(channel, 0, buffer, digest);
+            if (size > PRE_HASH_BLOCK) {
+                readBlock(channel, Math.max(PRE_HASH_BLOCK, size - PRE_HASH_BLOCK), buffer, digest);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Method to make sure a photo has a content hash, computing it if needed.
+     * A size of 0 is taken as unknown, photos saved before sizes were tracked read back with it,
+     * so the file size is recorded at the same time and the photo can be found by size.
+     * @param photo The photo.
+     * @return The content hash, or null if the file could not be read.
+     */
+    public static String ensureHash(Photo photo) {
+        String contentHash = photo.getContentHash();
+        if (contentHash != null && photo.getFileSize() > 0) {
+            return contentHash;
+        }
+        try {
+            Path path = Path.of(photo.getFilePath());
+            if (photo.getFileSize() <= 0) {
+                photo.setFileSize(Files.size(path));
+            }
+            if (contentHash == null) {
+                contentHash = hash(path);
+                photo.setContentHash(contentHash);
+            }
+            return contentHash;
+        } catch (IOException e) {
+            System.err.println("Failed to hash " + photo.getFilePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Method to compute the missing content hashes and sizes of a user's photos on the background threads.
+     * The photos in memory are hashed first. Then each album on disk whose saved keys say some photos have no size
+     * or hash is read and hashed, one at a time, and saved, so this happens once per album.
+     * Each hash is added to the content indexes of the photo's albums as soon as it is known.
+     * The hashes of photos in memory are saved with the user data the next time it is saved. The method returns immediately.
+     * @param user The user.
+     */
+    public static void hashInBackground(User user) {
+        List<Photo> missing = new ArrayList<>();
+        for (Photo photo : user.getLoadedPhotos()) {
+            if (PhotoIndex.isIncomplete(photo.getFileSize(), photo.getContentHash()) && queued.add(photo)) {
+                missing.add(photo);
+            }
+        }
+        for (Photo photo : missing) {
+            executor.execute(() -> {
+                try {
+                    ensureHash(photo); // The photo's albums index the hash as it is set
+                } finally {
+                    queued.remove(photo);
+                }
+            });
+        }
+        for (Album album : user.getAlbums()) {
+            if (!album.isLoaded() && queuedAlbums.add(album)) {
+                executor.execute(() -> {
+                    try {
+                        hashStoredAlbum(album);
+                    } finally {
+                        queuedAlbums.remove(album);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Helper method to fill in the missing hashes and sizes of an album on disk.
+     * Its saved keys are looked at first, so an album whose photos all have them is not read.
+     * @param album The album.
+     */
+    private static void hashStoredAlbum(Album album) {
+        if (album.isLoaded() || album.isContentComplete()) {
+            return; // Loaded meanwhile, its photos are hashed with the others, or nothing to do
+        }
+        List<Photo> incomplete = album.findIncompletePhotos(); // Reads the album
+        for (Photo photo : incomplete) {
+            if (queued.add(photo)) {
+                try {
+                    ensureHash(photo);
+                } finally {
+                    queued.remove(photo);
+                }
+            }
+        }
+        if (!incomplete.isEmpty()) {
+            DataManager.saveInBackground(); // Saved with complete keys, so the album isn't read for this again
+        }
+    }
+
+    /**
+     * Helper method to feed one block of a file into a digest.
+     * @param channel The file channel.
+     * @param position The position of the block in the file.
+     * @param buffer The buffer to read into.
+     * @param digest The digest to update.
+     * @throws IOException If the file could not be read.
+     */
+    private static void readBlock(FileChannel channel, long position, ByteBuffer buffer, MessageDigest digest) throws IOException {
+        buffer.clear();
+        buffer.limit(PRE_HASH_BLOCK);
+        while (buffer.hasRemaining()) {
+            // Positional reads don't move the channel position, so loop until the block is full or the file ends
+            int read = channel.read(buffer, position + buffer.position());
+            if (read == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
+    }
+
+    /**
+     * Helper method to create a new digest.
+     * @return A SHA-256 message digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method to convert bytes to a lowercase hex string.
+     * @param bytes The bytes to convert.
+     * @return The hex string.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -1,13 +1,39 @@
 package model;
 
 import java.io.*;
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Class to manage data for the Photos application.
  * This class is responsible for saving and loading user data, albums, and photos.
  * It uses serialization to save and load data from disk.
+ * The photos of each album are kept in a file of their own by the AlbumStore, and each user in a block of its own
+ * by the UserStore, so a user can be read without reading the others.
+ * Only the users in use are kept in memory: the user logged in and the few users loaded most recently.
+ * The others stay in the user data file, whose table lists every user, and are read again when they are loaded.
+ * Which users exist is kept in the user directory, in a file of its own, see UserDirectory,
+ * so creating and deleting users writes only that file.
+ * The user map can be used from any thread. Saves read a snapshot of the data, see Snapshot, so a save never
+ * catches a change half made and never holds up edits, and the application saves on a background thread.
  * @author ZB SL
  */
 public class DataManager {
@@ -26,87 +52,670 @@ public class DataManager {
      */
     private static final String USER_MAP_FILE = "users.dat";
 
+    /**
+     * The file name for the user directory file, which lists the users apart from their data, see UserDirectory.
+     */
+    private static final String DIRECTORY_FILE = "directory.dat";
+
+    /**
+     * The number of users loaded most recently that are kept in memory after a save, besides users added since.
+     */
+    private static final int RESIDENT_USERS = 4;
+
     /** 
-     * The in-memory map of users.
+     * The in-memory map of users, the users that were loaded or added and not put back in the user data file.
      * This map stores the usernames as keys and the corresponding user objects as values.
+     * A concurrent map, so background work can look users up while the admin adds or deletes them.
+     */
+    private static final Map<String, User> usersMap = new ConcurrentHashMap<>(); // In-memory storage of users from string to user object
+
+    /**
+     * The users that are only in the user data file, by username, with where their blocks are in it.
+     * Users whose blocks are damaged stay here, and their blocks are copied as they are on every save,
+     * so a damaged user is never lost for good by saving the others. A user is never in both maps.
+     */
+    private static final Map<String, UserStore.Location> storedUsers = new ConcurrentHashMap<>();
+
+    /**
+     * The directory of the users, which says which users exist and finds them without regard to case.
+     * A user in the user data file that isn't in the directory was deleted, and is left out of the file on the next save.
+     * A user in the directory that is in neither map was created and not saved before the application ended,
+     * and starts out empty when it is loaded. Replaced once when the data is loaded.
+     */
+    private static volatile UserDirectory userDirectory = new UserDirectory(null);
+
+    /**
+     * The usernames of the users loaded most recently, least recent first, kept in memory after saves.
+     * Guarded by its own monitor.
+     */
+    private static final Map<String, Boolean> recentUsers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RESIDENT_USERS;
+        }
+    };
+
+    /**
+     * Lock held for the whole of a save, so two saves never write the files at the same time.
+     */
+    private static final Object SAVE_LOCK = new Object();
+
+    /**
+     * Lock held to move a user between the two maps, so a user is always in one of them while it exists,
+     * and is read from the file by one thread only.
      */
-    private static Map<String, User> usersMap = new HashMap<>(); // In-memory storage of users from string to user object
+    private static final Object RELOAD_LOCK = new Object();
 
     /**
-     * Initializes the user data by loading the user map from disk.
+     * Lock on the user data file: read to read a user from it, written to replace it and the locations that go with it,
+     * so a user is never read from a file its location doesn't belong to.
+     */
+    private static final ReentrantReadWriteLock STORE_LOCK = new ReentrantReadWriteLock();
+
+    /**
+     * The thread background saves run on. A daemon thread, the application waits for it with flushSaves before exiting.
+     */
+    private static final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "data-saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Whether a background save has been asked for and hasn't started yet, so saves asked for meanwhile are merged into it.
+     */
+    private static final AtomicBoolean savePending = new AtomicBoolean();
+
+    /**
+     * The background load of the user data and of the setup run after it, completed at once if the data was loaded
+     * with initializeData. Code that needs every user waits for it, see getUsernames.
+     */
+    private static volatile CompletableFuture<Void> loaded = CompletableFuture.completedFuture(null);
+
+    /**
+     * The background read of the table of the user data file, completed as soon as every user is known,
+     * before the setup runs. Lets loadUserData wait for the table only.
+     */
+    private static volatile CompletableFuture<Void> directoryLoaded = CompletableFuture.completedFuture(null);
+
+    /**
+     * Initializes the user data by reading the table of the user data file. Nothing is written,
+     * so a command that only reads leaves the data folder as it was.
      */
     public static void initializeData() {
         loadUsersMap(); // Load the users map from disk
+        verifyStoredUsers();
+    }
+
+    /**
+     * Initializes the user data by reading the table of the user data file on a background thread, and returns at once,
+     * so the application's window can open while the data loads. Then the setup is run on the same thread with the
+     * user map, for example to add default users, and the users it added are saved in one write.
+     * Until then, loadUserData waits only for the table, and getUsernames waits for everything.
+     * The blocks of the users are checked last, without holding anyone up.
+     * @param setup The setup run after loading, given the map of users in memory. It checks users with userExists.
+     */
+    public static void initializeDataInBackground(Consumer<Map<String, User>> setup) {
+        CompletableFuture<Void> directory = new CompletableFuture<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        directoryLoaded = directory;
+        loaded = done;
+        Thread thread = new Thread(() -> {
+            try {
+                try {
+                    loadUsersMap();
+                } finally {
+                    directory.complete(null); // Also if the file couldn't be read, so no one waits for it forever
+                }
+                int before = usersMap.size();
+                setup.accept(usersMap); // Given the map itself, getUsernames would wait for this setup to end
+                if (usersMap.size() != before) {
+                    for (String username : usersMap.keySet()) {
+                        userDirectory.add(username); // Does nothing for users already in the directory
+                    }
+                    saveInBackground(); // One write for every user the setup added
+                }
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+                return;
+            }
+            done.complete(null);
+            countUnknownUsers(verifyStoredUsers());
+        }, "data-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Waits for the user data to be loaded, if it is being loaded in the background, and for the setup run after it.
+     */
+    public static void awaitLoaded() {
+        try {
+            loaded.join();
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("Failed to load user data: " + e.getMessage());
+        }
     }
 
     /**
      * Saves user data to disk.
+     * The user is added to the user map at once and the data is saved in the background, see saveInBackground.
      * @param user The user to save.
      */
     public static void saveUserData(User user) {
-        checkAndCreateDataDir(); // Ensure the data directory exists already or create it
-        usersMap.put(user.getUsername(), user); // Update the in-memory map
-        saveUsersMap(); // Save the user map to disk
+        userDirectory.add(user.getUsername()); // Does nothing for users already in the directory
+        synchronized (RELOAD_LOCK) {
+            usersMap.put(user.getUsername(), user); // Update the in-memory map
+            storedUsers.remove(user.getUsername()); // The user in memory replaces its block on the next save
+        }
+        touch(user.getUsername());
+        saveInBackground(); // Save the user map to disk
+    }
+
+    /**
+     * Saves the user map to disk on a background thread, so the caller doesn't wait for the files to be written.
+     * Saves asked for while one is waiting to start are merged into it, so a burst of edits is saved once.
+     */
+    public static void saveInBackground() {
+        if (savePending.compareAndSet(false, true)) {
+            saver.execute(() -> {
+                savePending.set(false); // Edits from here on need another save
+                saveUsersMap();
+            });
+        }
+    }
+
+    /**
+     * Waits for the background saves asked for so far to finish, for example before the application exits.
+     */
+    public static void flushSaves() {
+        try {
+            saver.submit(() -> { }).get(); // Runs after every save queued before it
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Failed to wait for saves: " + e.getMessage());
+        }
     }
 
     /**
      * Loads user data from disk.
-     * @param username The username of the user to load.
-     * @return The user object loaded from disk.
+     * The user is found in the directory without regard to case, so "Stock" loads the user "stock".
+     * A user in memory is returned as it is, a user only in the user data file is read from its block and kept in memory.
+     * Either way it becomes the most recently loaded user, so it stays in memory while it is in use.
+     * @param username The username of the user to load, in any case.
+     * @return The user object loaded from disk, or null if there is no such user or its data is damaged.
      */
     public static User loadUserData(String username) {
-        return usersMap.get(username); // Retrieve the user from the in-memory map using the username as the key
+        awaitDirectory(); // Only the table, not the other users, if the data is still loading
+        String found = userDirectory.find(username);
+        if (found == null && !loaded.isDone()) {
+            awaitLoaded(); // Not in the directory, the setup may still add it
+            found = userDirectory.find(username);
+        }
+        if (found == null) {
+            return null;
+        }
+        User user = usersMap.get(found);
+        if (user == null) {
+            synchronized (RELOAD_LOCK) {
+                user = usersMap.get(found); // Another thread may have read it meanwhile
+                if (user == null && storedUsers.containsKey(found)) {
+                    user = readStoredUser(found); // Null if its data is damaged
+                } else if (user == null && userDirectory.find(found) != null) {
+                    // Created and never saved, so there was nothing in it to save
+                    user = new User(found);
+                    usersMap.put(found, user);
+                }
+            }
+        }
+        if (user != null) {
+            touch(found);
+        }
+        return user; // Retrieve the user from the in-memory map using the username as the key
+    }
+
+    /**
+     * Method to check if a user exists, without regard to case and without reading it.
+     * @param username The username, in any case.
+     * @return True if the user exists, also if its data is damaged.
+     */
+    public static boolean userExists(String username) {
+        awaitDirectory();
+        return userDirectory.find(username) != null;
+    }
+
+    /**
+     * Method to get the usernames of every user, from the directory, without reading any user.
+     * Waits for the user data to be loaded first, if it is being loaded in the background.
+     * @return The usernames, sorted without regard to case.
+     */
+    public static List<String> getUsernames() {
+        awaitLoaded();
+        return userDirectory.list();
     }
-    
+
+    /**
+     * Method to get the usernames starting with a prefix, without regard to case, from the directory.
+     * Waits for the user data to be loaded first, if it is being loaded in the background.
+     * @param prefix The prefix, empty for every user.
+     * @param limit The most usernames to get.
+     * @return The usernames, sorted without regard to case.
+     */
+    public static List<String> searchUsernames(String prefix, int limit) {
+        awaitLoaded();
+        return userDirectory.search(prefix, limit);
+    }
+
+    /**
+     * Method to get one page of the users starting with a prefix, without regard to case, in an order, from the directory.
+     * No user is read, the counts of each user are those recorded by its last save.
+     * Waits for the user data to be loaded first, if it is being loaded in the background.
+     * @param prefix The prefix, empty for every user.
+     * @param sort The order.
+     * @param descending Whether the order is reversed.
+     * @param offset The number of users before the page.
+     * @param limit The most users on the page.
+     * @return The summaries of the users on the page.
+     */
+    public static List<UserSummary> pageUsers(String prefix, UserSummary.Sort sort, boolean descending, int offset, int limit) {
+        awaitLoaded();
+        return userDirectory.page(prefix, sort, descending, offset, limit);
+    }
+
+    /**
+     * Method to count the users starting with a prefix, without regard to case, from the directory.
+     * Waits for the user data to be loaded first, if it is being loaded in the background.
+     * @param prefix The prefix, empty for every user.
+     * @return The number of users.
+     */
+    public static int countUsers(String prefix) {
+        awaitLoaded();
+        return userDirectory.count(prefix);
+    }
+
+    /**
+     * Method to record that a user logged in, in the directory.
+     * @param username The username, in any case.
+     */
+    public static void recordLogin(String username) {
+        awaitDirectory();
+        userDirectory.recordLogin(username, System.currentTimeMillis());
+    }
+
     /**
-     * Returns the in-memory map of users.
-     * @return The map of users.
+     * Method to add a new user, with nothing in it yet. Only the directory file is written, the user's data is
+     * written by the next save, and until then there is nothing in it that would be lost.
+     * @param user The new user.
+     * @return True if the user was added, false if a user with the same username in any case exists.
+     */
+    public static boolean addUser(User user) {
+        awaitLoaded(); // The setup may still add users
+        if (!userDirectory.add(user.getUsername())) {
+            return false;
+        }
+        synchronized (RELOAD_LOCK) {
+            usersMap.put(user.getUsername(), user);
+            storedUsers.remove(user.getUsername()); // The block of a user deleted with this username, if not saved since
+        }
+        return true;
+    }
+
+    /**
+     * Method to remove a user, without regard to case and without reading it. Only the directory file is written,
+     * the user's data is left out of the user data file by the next save, and is never loaded again.
+     * @param username The username of the user to remove, in any case.
+     * @return The user if it was in memory, a new user with the same username standing for it if it was only
+     *         in the file, or null if there is no such user.
+     */
+    public static User removeUser(String username) {
+        awaitDirectory();
+        String found;
+        User removed;
+        synchronized (RELOAD_LOCK) {
+            found = userDirectory.remove(username);
+            if (found == null) {
+                return null;
+            }
+            removed = usersMap.remove(found);
+            storedUsers.remove(found);
+        }
+        synchronized (recentUsers) {
+            recentUsers.remove(found);
+        }
+        if (removed == null) {
+            removed = new User(found); // Reading the user only to delete it would be wasted
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the in-memory map of users, the users loaded or added and not put back in the user data file.
+     * Waits for the user data to be loaded first, if it is being loaded in the background.
+     * Users only in the file are not in it, see getUsernames and loadUserData.
+     * @return The map of users in memory.
      */
     public static Map<String, User> getUsersMap() {
+        awaitLoaded();
         return usersMap;
     }
 
     /**
      * Saves the user map to disk.
+     * A snapshot of the data is opened first, which copies nothing. The photos of each album that was read or changed
+     * are encoded for the album's own file, then each user in memory with its album headers in a block of its own,
+     * all as seen by the snapshot, so the saved data is consistent while edits go on. The album files are written first,
+     * then the user data file is written anew, with the blocks of the users not in memory copied from the old one,
+     * and replaces it. Album files no album refers to any more are deleted last.
+     * If an album file can't be written the user map is not replaced, so it never refers to a file that is missing.
+     * If nothing was changed while saving, the users in memory that weren't loaded recently are let go of,
+     * since the file now holds them as they are.
      */
     public static void saveUsersMap() {
-        // Try-with-resources to automatically close the stream
-        // ObjectOutputStream is used to write objects to a file
-        // FileOutputStream is used to write bytes to a file
-        // The file path is obtained using the helper method getUsersMapFilePath()
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(getUsersMapFilePath()))) {
-            oos.writeObject(usersMap);
-        } catch (IOException e) {
-            // Handle the exception, e.g., log it or show an error message
-            System.err.println("Failed to save user data: " + e.getMessage());
+        awaitLoaded(); // Users still being loaded would be left out of the file
+        synchronized (SAVE_LOCK) {
+            checkAndCreateDataDir();
+            long changesBefore = ModelVersion.changesBegun(); // Before the snapshot, which doesn't wait for changes
+            boolean idleBefore = ModelVersion.changesEnded() == changesBefore; // No change half seen by the snapshot
+            Map<String, User> users;
+            Map<String, UserStore.Location> stored;
+            synchronized (RELOAD_LOCK) {
+                users = new TreeMap<>(usersMap);
+                stored = new HashMap<>(storedUsers);
+            }
+            Map<String, byte[]> albumFiles = new LinkedHashMap<>();
+            List<UserSummary> counts = new ArrayList<>();
+            Map<String, UserStore.Block> blocks;
+            try (Snapshot snapshot = Snapshot.open()) {
+                blocks = snapshot.read(() -> {
+                    Map<String, UserStore.Block> encoded = new HashMap<>();
+                    try {
+                        for (User user : users.values()) {
+                            for (Album album : user.getAlbums()) {
+                                album.store(albumFiles); // Skips albums whose photos were never read
+                            }
+                            encoded.put(user.getUsername(), UserStore.encode(user));
+                            // From the headers just counted by store, so they match the photos written
+                            counts.add(UserSummary.unknown(user.getUsername()).withSavedCountsOf(user));
+                        }
+                        return encoded;
+                    } catch (IOException e) {
+                        System.err.println("Failed to save user data: " + e.getMessage());
+                        return null;
+                    }
+                });
+            }
+            if (blocks == null) {
+                return;
+            }
+            for (Map.Entry<String, byte[]> file : albumFiles.entrySet()) {
+                try {
+                    AlbumStore.write(file.getKey(), file.getValue());
+                } catch (IOException e) {
+                    System.err.println("Failed to save album file " + file.getKey() + ": " + e.getMessage());
+                    return; // The old user map still matches the album files it refers to
+                }
+            }
+            Map<String, UserStore.Location> written;
+            try {
+                File target = new File(getUsersMapFilePath());
+                File temp = new File(DATA_DIR, USER_MAP_FILE + ".tmp");
+                written = UserStore.write(temp, target, blocks, stored);
+                STORE_LOCK.writeLock().lock();
+                try {
+                    AlbumStore.moveIntoPlace(temp, target);
+                    // Users deleted or read while saving are no longer here, so they are left as they are
+                    storedUsers.replaceAll((username, location) -> written.getOrDefault(username, location));
+                } finally {
+                    STORE_LOCK.writeLock().unlock();
+                }
+            } catch (IOException e) {
+                // Handle the exception, e.g., log it or show an error message
+                System.err.println("Failed to save user data: " + e.getMessage());
+                return; // The old user map may still refer to album files, keep them
+            }
+            userDirectory.updateCounts(counts); // Only once the file holds the users as counted
+            deleteUnusedAlbumFiles(written);
+            if (idleBefore) { // Otherwise a change in progress may have been left out, the next save lets go of them
+                evictUsers(users, written, changesBefore);
+            }
+        }
+    }
+
+    /**
+     * Helper method to delete the album files no user in the user data file refers to.
+     * The table of the file lists the album files of every user, so no user has to be read.
+     * @param written The location of each user's block in the file just written.
+     */
+    private static void deleteUnusedAlbumFiles(Map<String, UserStore.Location> written) {
+        Set<String> storageKeys = new HashSet<>();
+        for (UserStore.Location location : written.values()) {
+            if (location.getAlbumKeys() == null) {
+                return; // A user from an older file whose albums aren't known, so all are kept
+            }
+            storageKeys.addAll(location.getAlbumKeys());
+        }
+        AlbumStore.deleteUnused(storageKeys);
+    }
+
+    /**
+     * Helper method to let go of the users in memory that weren't loaded recently, after a save wrote them.
+     * A user is only let go of if nothing changed since the save started, so the file holds it as it is in memory.
+     * @param users The users in memory when the save started.
+     * @param written The location of each user's block in the file just written.
+     * @param changesBefore The number of changes begun before the save started.
+     */
+    private static void evictUsers(Map<String, User> users, Map<String, UserStore.Location> written, long changesBefore) {
+        Set<String> recent;
+        synchronized (recentUsers) {
+            recent = new HashSet<>(recentUsers.keySet());
+        }
+        for (Map.Entry<String, User> entry : users.entrySet()) {
+            String username = entry.getKey();
+            if (recent.contains(username) || !written.containsKey(username)) {
+                continue;
+            }
+            synchronized (RELOAD_LOCK) {
+                if (ModelVersion.changesBegun() != changesBefore) {
+                    return; // Something changed after the snapshot, the next save lets go of these users
+                }
+                // Only the same user object, a user added again since is newer than the file
+                if (usersMap.remove(username, entry.getValue())) {
+                    storedUsers.put(username, written.get(username));
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to read a user only in the user data file into memory. Must be called holding RELOAD_LOCK.
+     * @param username The username.
+     * @return The user, or null if it is not in the file or its data is damaged.
+     */
+    private static User readStoredUser(String username) {
+        User user;
+        STORE_LOCK.readLock().lock();
+        try {
+            UserStore.Location location = storedUsers.get(username); // Read under the lock, so it matches the file
+            if (location == null) {
+                return null;
+            }
+            user = UserStore.read(new File(getUsersMapFilePath()), username, location);
+        } finally {
+            STORE_LOCK.readLock().unlock();
+        }
+        if (user != null) {
+            usersMap.put(username, user);
+            storedUsers.remove(username);
+        }
+        return user;
+    }
+
+    /**
+     * Helper method to make a user the most recently loaded one.
+     * @param username The username.
+     */
+    private static void touch(String username) {
+        synchronized (recentUsers) {
+            recentUsers.put(username, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Helper method to wait for the table of the user data file, if it is being read in the background.
+     */
+    private static void awaitDirectory() {
+        try {
+            directoryLoaded.join();
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("Failed to load user data: " + e.getMessage());
         }
     }
 
     /**
      * Loads the user map from disk.
+     * The user directory is read first, then only the table of the user data file, see UserStore,
+     * and the users stay in the file until loaded. Users in the file that aren't in the directory were deleted and are
+     * left out. If there is no directory file yet, the directory is made from the users in the user data file,
+     * and written by the first save.
      */
     private static void loadUsersMap() {
+        File directoryFile = new File(DATA_DIR, DIRECTORY_FILE);
+        UserDirectory directory = null;
+        if (directoryFile.exists()) {
+            try {
+                directory = UserDirectory.read(directoryFile);
+            } catch (IOException e) {
+                System.err.println("Error reading user directory, it is made again from the user data: " + e.getMessage());
+            }
+        }
+        loadUsersMapFile();
+        if (directory == null) {
+            directory = new UserDirectory(directoryFile);
+            if (!usersMap.isEmpty() || !storedUsers.isEmpty()) {
+                Set<String> usernames = new TreeSet<>(usersMap.keySet());
+                usernames.addAll(storedUsers.keySet());
+                directory.addAll(usernames);
+            }
+        } else {
+            UserDirectory known = directory;
+            usersMap.keySet().removeIf(username -> !username.equals(known.find(username)));
+            storedUsers.keySet().removeIf(username -> !username.equals(known.find(username)));
+        }
+        userDirectory = directory;
+    }
+
+    /**
+     * Helper method to load the user map from the user data file.
+     * Only the table of the file is read, and the users stay in the file until loaded.
+     * A file in the format written before, a single serialized map, is read in full as it was,
+     * as is a file whose table doesn't list the album files of its users, so the next save can write them in the table.
+     */
+    private static void loadUsersMapFile() {
         File file = new File(getUsersMapFilePath()); // Get the file path for the user map file
-        if (file.exists()) {
-            // Try-with-resources to automatically close the stream
-            // ObjectInputStream is used to read objects from a file
-            // FileInputStream is used to read bytes from a file
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                // Read the object from the file, this is the map of usernames to user objects
-                Object readObject = ois.readObject();
-                if (readObject instanceof Map<?, ?>) { // Check if the object is a map of usernames to user objects
-                    // Unsafe cast, but we're simplifying under the assumption that the file's data is correct.
-                    usersMap = (Map<String, User>) readObject;
-                } else {
-                    System.err.println("Data format mismatch: Expected a Map.");
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            if (UserStore.isLegacy(file)) {
+                loadLegacyUsersMap(file);
+                return;
+            }
+            Map<String, UserStore.Location> locations = UserStore.readTable(file);
+            storedUsers.putAll(locations);
+            for (Map.Entry<String, UserStore.Location> entry : locations.entrySet()) {
+                if (entry.getValue().getAlbumKeys() == null) {
+                    synchronized (RELOAD_LOCK) {
+                        readStoredUser(entry.getKey()); // Kept in the file if damaged
+                    }
                 }
-            } catch (IOException e) {
-                System.err.println("Error reading users map: " + e.getMessage());
-            } catch (ClassNotFoundException e) {
-                System.err.println("Class not found while reading users map: " + e.getMessage());
             }
+        } catch (IOException e) {
+            System.err.println("Error reading users map: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Helper method to check the blocks of the users only in the user data file, reporting the damaged ones.
+     * They stay in the file as they are, and can't be loaded.
+     * @return The usernames of the users whose blocks are damaged.
+     */
+    private static Set<String> verifyStoredUsers() {
+        Set<String> damaged = new HashSet<>();
+        Map<String, UserStore.Location> stored = new HashMap<>(storedUsers);
+        if (stored.isEmpty()) {
+            return damaged;
+        }
+        STORE_LOCK.readLock().lock();
+        try {
+            // Only locations that still match the file, a save may have replaced it meanwhile
+            stored.entrySet().removeIf(entry -> storedUsers.get(entry.getKey()) != entry.getValue());
+            for (String username : UserStore.verify(new File(getUsersMapFilePath()), stored)) {
+                System.err.println("User data of " + username + " is damaged, the user can't be loaded");
+                damaged.add(username);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading users map: " + e.getMessage());
+        } finally {
+            STORE_LOCK.readLock().unlock();
         }
-    }    
+        return damaged;
+    }
+
+    /**
+     * Helper method to count the albums, photos and bytes of the users whose counts the directory doesn't have yet,
+     * because the directory was made from the user data file or written before it kept counts.
+     * Each such user is read once, in parallel on the common ForkJoin pool, and not kept in memory.
+     * The counts are kept in memory and written to the directory file by the next save, which from then on keeps them
+     * up to date.
+     * @param damaged The usernames of the users whose blocks are damaged, which can't be counted.
+     */
+    private static void countUnknownUsers(Set<String> damaged) {
+        UserDirectory directory = userDirectory;
+        List<UserSummary> counts = directory.list().parallelStream()
+                .map(directory::summary)
+                .filter(summary -> summary != null && !summary.isKnown() && !damaged.contains(summary.getUsername()))
+                .map(summary -> {
+                    User user = usersMap.get(summary.getUsername());
+                    if (user == null) {
+                        STORE_LOCK.readLock().lock();
+                        try {
+                            UserStore.Location location = storedUsers.get(summary.getUsername());
+                            user = location == null ? null
+                                    : UserStore.read(new File(getUsersMapFilePath()), summary.getUsername(), location);
+                        } finally {
+                            STORE_LOCK.readLock().unlock();
+                        }
+                    }
+                    return user == null ? null : summary.withCountsOf(user);
+                })
+                .filter(summary -> summary != null)
+                .collect(Collectors.toList());
+        directory.fillCounts(counts); // Written by the next save, counting only reads
+    }
+
+    /**
+     * Helper method to load the user map from a user data file in the format written before, a single serialized map.
+     * @param file The user data file.
+     */
+    private static void loadLegacyUsersMap(File file) {
+        // Try-with-resources to automatically close the stream
+        // ObjectInputStream is used to read objects, here from the file
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // Read the object from the file, this is the map of usernames to user objects
+            Object readObject = ois.readObject();
+            if (readObject instanceof Map<?, ?>) { // Check if the object is a map of usernames to user objects
+                // Unsafe cast, but we're simplifying under the assumption that the file's data is correct.
+                usersMap.putAll((Map<String, User>) readObject);
+            } else {
+                System.err.println("Data format mismatch: Expected a Map.");
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading users map: " + e.getMessage());
+        } catch (ClassNotFoundException e) {
+            System.err.println("Class not found while reading users map: " + e.getMessage());
+        }
+    }
 
     /**
      * Returns the file path for the user map file.
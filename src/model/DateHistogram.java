@@ -0,0 +1,230 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class to count photos per year, month and day in the Photos application, for the timeline.
+ * All three levels are updated together as photos are counted, so showing the years or the months of a year
+ * reads a handful of buckets and never looks at photos. Histograms can be merged, for example all albums of a user.
+ * Not thread safe, albums guard their histogram with their own lock.
+ * Albums save their histogram with their header, so the timeline is available without reading any photos.
+ * @author ZB SL
+ */
+public class DateHistogram implements Serializable {
+
+    /**
+     * Serial version UID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The photo counts by year.
+     */
+    private final TreeMap<Year, Integer> years = new TreeMap<>();
+
+    /**
+     * The photo counts by month.
+     */
+    private final TreeMap<YearMonth, Integer> months = new TreeMap<>();
+
+    /**
+     * The photo counts by day.
+     */
+    private final TreeMap<LocalDate, Integer> days = new TreeMap<>();
+
+    /**
+     * Method to count a photo taken at a date.
+     * @param date The date the photo was taken, ignored if null.
+     */
+    public void add(LocalDateTime date) {
+        if (date != null) {
+            add(date.toLocalDate(), 1);
+        }
+    }
+
+    /**
+     * Method to stop counting a photo taken at a date. Buckets that drop to zero are removed.
+     * @param date The date the photo was taken, ignored if null.
+     */
+    public void subtract(LocalDateTime date) {
+        if (date != null) {
+            add(date.toLocalDate(), -1);
+        }
+    }
+
+    /**
+     * Method to add all counts of another histogram to this one.
+     * Takes time in the number of days with photos, not the number of photos.
+     * @param other The other histogram.
+     */
+    public void addAll(DateHistogram other) {
+        for (Map.Entry<LocalDate, Integer> day : other.days.entrySet()) {
+            add(day.getKey(), day.getValue());
+        }
+    }
+
+    /**
+     * Method to get the number of photos counted.
+     * @return The number of photos.
+     */
+    public int getTotal() {
+        int total = 0;
+        for (int count : years.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Method to get the years that have photos.
+     * @return One bucket per year, oldest first.
+     */
+    public List<Bucket> getYears() {
+        List<Bucket> buckets = new ArrayList<>();
+        for (Map.Entry<Year, Integer> year : years.entrySet()) {
+            LocalDate start = year.getKey().atDay(1);
+            buckets.add(new Bucket(year.getKey().toString(), start, start.plusYears(1).minusDays(1), year.getValue()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Method to get the months of a year that have photos.
+     * @param year The year.
+     * @return One bucket per month, oldest first.
+     */
+    public List<Bucket> getMonths(Year year) {
+        List<Bucket> buckets = new ArrayList<>();
+        // subMap reads only the months of the year from the sorted map
+        for (Map.Entry<YearMonth, Integer> month : months.subMap(year.atMonth(1), true, year.atMonth(12), true).entrySet()) {
+            YearMonth key = month.getKey();
+            buckets.add(new Bucket(key.toString(), key.atDay(1), key.atEndOfMonth(), month.getValue()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Method to get the days of a month that have photos.
+     * @param month The month.
+     * @return One bucket per day, oldest first.
+     */
+    public List<Bucket> getDays(YearMonth month) {
+        List<Bucket> buckets = new ArrayList<>();
+        for (Map.Entry<LocalDate, Integer> day : days.subMap(month.atDay(1), true, month.atEndOfMonth(), true).entrySet()) {
+            buckets.add(new Bucket(day.getKey().toString(), day.getKey(), day.getKey(), day.getValue()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Helper method to change the count of a day and of its month and year.
+     * @param day The day.
+     * @param delta The change in the number of photos.
+     */
+    private void add(LocalDate day, int delta) {
+        change(days, day, delta);
+        change(months, YearMonth.from(day), delta);
+        change(years, Year.from(day), delta);
+    }
+
+    /**
+     * Helper method to change one count, removing it if it drops to zero.
+     * @param <K> The type of bucket key.
+     * @param counts The counts.
+     * @param key The bucket key.
+     * @param delta The change in the number of photos.
+     */
+    private static <K> void change(TreeMap<K, Integer> counts, K key, int delta) {
+        // Returning null from the merge function removes the entry
+        counts.merge(key, delta, (count, change) -> count + change <= 0 ? null : count + change);
+    }
+
+    /**
+     * Class to represent one bar of the timeline: a date range with its number of photos.
+     */
+    public static final class Bucket {
+
+        /**
+         * The name of the bucket shown to the user, such as 2019, 2019-07 or 2019-07-04.
+         */
+        private final String label;
+
+        /**
+         * The first day of the bucket.
+         */
+        private final LocalDate start;
+
+        /**
+         * The last day of the bucket.
+         */
+        private final LocalDate end;
+
+        /**
+         * The number of photos in the bucket.
+         */
+        private final int count;
+
+        /**
+         * Constructor that takes the bucket's name, date range and number of photos.
+         * @param label The name of the bucket.
+         * @param start The first day of the bucket.
+         * @param end The last day of the bucket.
+         * @param count The number of photos in the bucket.
+         */
+        public Bucket(String label, LocalDate start, LocalDate end, int count) {
+            this.label = label;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+        }
+
+        /**
+         * Getter for label.
+         * @return The name of the bucket.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Getter for start.
+         * @return The first day of the bucket.
+         */
+        public LocalDate getStart() {
+            return start;
+        }
+
+        /**
+         * Getter for end.
+         * @return The last day of the bucket.
+         */
+        public LocalDate getEnd() {
+            return end;
+        }
+
+        /**
+         * Getter for count.
+         * @return The number of photos in the bucket.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * To string method.
+         * @return The name of the bucket and its number of photos.
+         */
+        @Override
+        public String toString() {
+            return label + " (" + count + ")";
+        }
+    }
+}
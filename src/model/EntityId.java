@@ -0,0 +1,35 @@
+package model;
+
+import java.security.SecureRandom;
+
+/**
+ * Class to generate the ids of users, albums and photos in the Photos application.
+ * Ids are random 64 bit numbers, so they can be created anywhere, including while old data is read,
+ * without a shared counter that would have to be saved. Zero is never used, it marks data saved before ids existed.
+ * @author ZB SL
+ */
+final class EntityId {
+
+    /**
+     * The source of random ids, seeded once from the operating system.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private EntityId() {
+    }
+
+    /**
+     * Method to create a new id.
+     * @return A random id that is not zero.
+     */
+    static long next() {
+        long id;
+        do {
+            id = RANDOM.nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
@@ -0,0 +1,241 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Class to count photos per tag type and value in the Photos application, for faceted browsing.
+ * Counts are kept per tag type, so the most common values of one type (such as the top people in an album)
+ * are found without looking at any other tags. Counts can be updated one photo at a time and merged.
+ * Not thread safe, albums guard their counts with their own lock.
+ * @author ZB SL
+ */
+public class FacetCounts {
+
+    /**
+     * The photo counts by tag type and then by tag value.
+     */
+    private final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+    /**
+     * Method to count the photos in a collection, for example the results of a search.
+     * @param photos The photos.
+     * @return The counts of the photos' tags.
+     */
+    public static FacetCounts of(Collection<Photo> photos) {
+        FacetCounts facets = new FacetCounts();
+        for (Photo photo : photos) {
+            facets.add(photo);
+        }
+        return facets;
+    }
+
+    /**
+     * Method to count the tags of a photo.
+     * @param photo The photo.
+     */
+    public void add(Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            // computeIfAbsent creates the map for the tag type the first time it is seen
+            counts.computeIfAbsent(tag.getTagName(), type -> new HashMap<>()).merge(tag.getTagValue(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Method to stop counting the tags of a photo. Counts that drop to zero are removed.
+     * @param photo The photo.
+     */
+    public void subtract(Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            Map<String, Integer> values = counts.get(tag.getTagName());
+            if (values == null) {
+                continue;
+            }
+            // Returning null from the merge function removes the entry
+            values.merge(tag.getTagValue(), -1, (count, minus) -> count + minus <= 0 ? null : count + minus);
+            if (values.isEmpty()) {
+                counts.remove(tag.getTagName());
+            }
+        }
+    }
+
+    /**
+     * Method to add all counts of another set of counts to this one.
+     * @param other The other counts.
+     */
+    public void addAll(FacetCounts other) {
+        for (Map.Entry<String, Map<String, Integer>> type : other.counts.entrySet()) {
+            Map<String, Integer> values = counts.computeIfAbsent(type.getKey(), key -> new HashMap<>());
+            for (Map.Entry<String, Integer> value : type.getValue().entrySet()) {
+                values.merge(value.getKey(), value.getValue(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Method to get the number of photos with a tag.
+     * @param tagType The tag type.
+     * @param tagValue The tag value.
+     * @return The number of photos counted with the tag.
+     */
+    public int getCount(String tagType, String tagValue) {
+        Map<String, Integer> values = counts.get(tagType);
+        return values == null ? 0 : values.getOrDefault(tagValue, 0);
+    }
+
+    /**
+     * Method to get the tag types that have been counted.
+     * @return The tag types, sorted alphabetically.
+     */
+    public Set<String> getTagTypes() {
+        return new TreeSet<>(counts.keySet());
+    }
+
+    /**
+     * Method to get all distinct tags that have been counted.
+     * @return The tags, one per type and value.
+     */
+    public List<Tag> getTags() {
+        List<Tag> tags = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Integer>> type : counts.entrySet()) {
+            for (String value : type.getValue().keySet()) {
+                tags.add(new Tag(type.getKey(), value));
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Method to get the most common values of a tag type, for example the top 20 people.
+     * Uses a bounded heap, so only the values of the one type are looked at and they are never sorted in full.
+     * @param tagType The tag type.
+     * @param limit The largest number of values wanted.
+     * @return The most common values, most photos first and then alphabetically.
+     */
+    public List<Facet> top(String tagType, int limit) {
+        Map<String, Integer> values = counts.get(tagType);
+        if (values == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // Heap of the best facets so far, ordered so the weakest of them is on top and can be replaced
+        PriorityQueue<Facet> heap = new PriorityQueue<>(Math.max(1, Math.min(limit, values.size())), Collections.reverseOrder());
+        for (Map.Entry<String, Integer> value : values.entrySet()) {
+            Facet facet = new Facet(tagType, value.getKey(), value.getValue());
+            if (heap.size() < limit) {
+                heap.add(facet);
+            } else if (facet.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(facet);
+            }
+        }
+        List<Facet> top = new ArrayList<>(heap);
+        Collections.sort(top);
+        return top;
+    }
+
+    /**
+     * Method to get the most common values of every tag type, for a facet side panel.
+     * @param limitPerType The largest number of values wanted for each tag type.
+     * @return The facets, grouped by tag type in alphabetical order.
+     */
+    public List<Facet> topOfEachType(int limitPerType) {
+        List<Facet> facets = new ArrayList<>();
+        for (String tagType : getTagTypes()) {
+            facets.addAll(top(tagType, limitPerType));
+        }
+        return facets;
+    }
+
+    /**
+     * Class to represent one tag value with its number of photos.
+     * Facets sort with the most photos first, then by value.
+     */
+    public static final class Facet implements Comparable<Facet> {
+
+        /**
+         * The tag type.
+         */
+        private final String tagType;
+
+        /**
+         * The tag value.
+         */
+        private final String tagValue;
+
+        /**
+         * The number of photos with the tag.
+         */
+        private final int count;
+
+        /**
+         * Constructor that takes the tag and its number of photos.
+         * @param tagType The tag type.
+         * @param tagValue The tag value.
+         * @param count The number of photos with the tag.
+         */
+        public Facet(String tagType, String tagValue, int count) {
+            this.tagType = tagType;
+            this.tagValue = tagValue;
+            this.count = count;
+        }
+
+        /**
+         * Getter for tag type.
+         * @return The tag type.
+         */
+        public String getTagType() {
+            return tagType;
+        }
+
+        /**
+         * Getter for tag value.
+         * @return The tag value.
+         */
+        public String getTagValue() {
+            return tagValue;
+        }
+
+        /**
+         * Getter for count.
+         * @return The number of photos with the tag.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Method to get the tag of the facet.
+         * @return A new tag with the facet's type and value.
+         */
+        public Tag toTag() {
+            return new Tag(tagType, tagValue);
+        }
+
+        /**
+         * Method to compare this facet to another facet.
+         * @param other The other facet.
+         * @return A negative number if this facet sorts first, zero if they sort the same, a positive number otherwise.
+         */
+        @Override
+        public int compareTo(Facet other) {
+            int result = Integer.compare(other.count, count); // More photos first
+            return result != 0 ? result : tagValue.compareTo(other.tagValue);
+        }
+
+        /**
+         * To string method, used by the facet list.
+         * @return The tag and its number of photos.
+         */
+        @Override
+        public String toString() {
+            return tagType + ": " + tagValue + " (" + count + ")";
+        }
+    }
+}
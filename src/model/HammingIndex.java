@@ -0,0 +1,197 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to index items by a 64 bit hash for Hamming distance queries in the Photos application.
+ * This is a multi-index hash table: each hash is split into four 16 bit chunks and the item is stored in one
+ * hash table per chunk. If two hashes are within distance r, then by the pigeonhole principle at least one of their
+ * chunks differs by at most r / 4 bits. A search therefore only probes the chunk values within r / 4 bits of the
+ * query's chunks and checks the few candidates found, instead of comparing against every hash.
+ * For the small radii used to find similar photos this stays well under a millisecond for hundreds of thousands of items.
+ * @param <T> The type of the items indexed.
+ * @author ZB SL
+ */
+public class HammingIndex<T> {
+
+    /**
+     * The number of chunks each hash is split into.
+     */
+    private static final int CHUNKS = 4;
+
+    /**
+     * The number of bits in each chunk.
+     */
+    private static final int CHUNK_BITS = 64 / CHUNKS;
+
+    /**
+     * Class to represent an item with its hash.
+     * @param <T> The type of the item.
+     */
+    private static class Entry<T> {
+
+        /**
+         * The hash of the item.
+         */
+        private final long hash;
+
+        /**
+         * The item.
+         */
+        private final T item;
+
+        /**
+         * Constructor for an entry.
+         * @param hash The hash of the item.
+         * @param item The item.
+         */
+        Entry(long hash, T item) {
+            this.hash = hash;
+            this.item = item;
+        }
+    }
+
+    /**
+     * One table per chunk, mapping a chunk value to the entries whose hash has that value in the chunk.
+     */
+    private final List<Map<Integer, List<Entry<T>>>> tables = new ArrayList<>(CHUNKS);
+
+    /**
+     * The number of items in the index.
+     */
+    private int size;
+
+    /**
+     * Constructor for an empty index.
+     */
+    public HammingIndex() {
+        for (int i = 0; i < CHUNKS; i++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Method to get the Hamming distance between two hashes.
+     * @param a The first hash.
+     * @param b The second hash.
+     * @return The number of bits that differ, from 0 to 64.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Getter for size.
+     * @return The number of items in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method to add an item to the index.
+     * @param hash The hash of the item.
+     * @param item The item.
+     */
+    public void add(long hash, T item) {
+        Entry<T> entry = new Entry<>(hash, item);
+        for (int i = 0; i < CHUNKS; i++) {
+            tables.get(i).computeIfAbsent(chunk(hash, i), key -> new ArrayList<>(1)).add(entry);
+        }
+        size++;
+    }
+
+    /**
+     * Method to remove an item from the index.
+     * @param hash The hash the item was added with.
+     * @param item The item.
+     * @return True if the item was removed, false if it was not in the index.
+     */
+    public boolean remove(long hash, T item) {
+        boolean removed = false;
+        for (int i = 0; i < CHUNKS; i++) {
+            List<Entry<T>> bucket = tables.get(i).get(chunk(hash, i));
+            if (bucket != null && bucket.removeIf(entry -> entry.item == item)) {
+                removed = true;
+                if (bucket.isEmpty()) {
+                    tables.get(i).remove(chunk(hash, i));
+                }
+            }
+        }
+        if (removed) {
+            size--;
+        }
+        return removed;
+    }
+
+    /**
+     * Method to find all items within a Hamming distance of a hash.
+     * @param hash The hash to search around.
+     * @param maxDistance The largest distance to include.
+     * @return The items found, each once, in no particular order.
+     */
+    public List<T> search(long hash, int maxDistance) {
+        int chunkRadius = maxDistance / CHUNKS;
+        // Identity map so an item found through several chunks is only returned once
+        Map<T, Boolean> found = new IdentityHashMap<>();
+        List<T> results = new ArrayList<>();
+        for (int i = 0; i < CHUNKS; i++) {
+            Map<Integer, List<Entry<T>>> table = tables.get(i);
+            for (int probe : neighbours(chunk(hash, i), chunkRadius)) {
+                List<Entry<T>> bucket = table.get(probe);
+                if (bucket == null) {
+                    continue;
+                }
+                for (Entry<T> entry : bucket) {
+                    if (distance(hash, entry.hash) <= maxDistance && found.put(entry.item, Boolean.TRUE) == null) {
+                        results.add(entry.item);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Helper method to extract a chunk of a hash.
+     * @param hash The hash.
+     * @param index The index of the chunk, from 0 to CHUNKS - 1.
+     * @return The chunk value.
+     */
+    private static int chunk(long hash, int index) {
+        return (int) ((hash >>> (index * CHUNK_BITS)) & ((1L << CHUNK_BITS) - 1));
+    }
+
+    /**
+     * Helper method to list every chunk value within a number of bit flips of a chunk value.
+     * @param value The chunk value.
+     * @param radius The number of bits that may differ.
+     * @return The chunk values, including the value itself.
+     */
+    private static List<Integer> neighbours(int value, int radius) {
+        List<Integer> results = new ArrayList<>();
+        addNeighbours(value, radius, 0, results);
+        return results;
+    }
+
+    /**
+     * Helper method to recursively flip bits from a starting bit onwards, so each combination is produced once.
+     * @param value The current chunk value.
+     * @param radius The number of bits that may still be flipped.
+     * @param firstBit The lowest bit that may be flipped.
+     * @param results The list to add the values to.
+     */
+    private static void addNeighbours(int value, int radius, int firstBit, List<Integer> results) {
+        results.add(value);
+        if (radius == 0) {
+            return;
+        }
+        for (int bit = firstBit; bit < CHUNK_BITS; bit++) {
+            addNeighbours(value ^ (1 << bit), radius - 1, bit + 1, results);
+        }
+    }
+}
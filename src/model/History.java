@@ -0,0 +1,115 @@
+package model;
+
+/**
+ * Class to keep the older versions of a value for the snapshots that can still see them, see ModelVersion.
+ * The value itself stays in its owner's field, the current version, so code that doesn't read a snapshot
+ * never looks at the history. When the value is about to change and an open snapshot can see it,
+ * it is kept here and the owner replaces it with a copy instead of changing it in place.
+ * Versions no open snapshot can see are dropped, and nothing is kept at all while no snapshot is open.
+ * The owner must write the value's field after calling beforeChange and read it before calling at,
+ * and the field must be volatile, so a reader never pairs a value with the wrong version.
+ * @param <T> The type of the value, which must not be changed in place once kept.
+ * @author ZB SL
+ */
+final class History<T> {
+
+    /**
+     * One kept version of the value.
+     * @param <T> The type of the value.
+     */
+    private static final class Version<T> {
+
+        /**
+         * The value as it was.
+         */
+        private final T value;
+
+        /**
+         * The version the value was stamped with when it became current.
+         */
+        private final long stamp;
+
+        /**
+         * The version before this one, or null if no snapshot can see it.
+         */
+        private volatile Version<T> older;
+
+        /**
+         * Constructor for a kept version.
+         * @param value The value as it was.
+         * @param stamp The version the value was stamped with.
+         * @param older The version before it, may be null.
+         */
+        private Version(T value, long stamp, Version<T> older) {
+            this.value = value;
+            this.stamp = stamp;
+            this.older = older;
+        }
+    }
+
+    /**
+     * The version the current value was stamped with. Zero for a value as it was read or created.
+     */
+    private volatile long stamp;
+
+    /**
+     * The newest kept version, or null if there is none.
+     */
+    private volatile Version<T> older;
+
+    /**
+     * Method to get the value as the current thread should see it.
+     * @param current The current value, read from the owner's field before this call.
+     * @return The current value, or the value as it was at the snapshot the thread reads.
+     *         Null if the value didn't exist yet at that snapshot.
+     */
+    T at(T current) {
+        long version = ModelVersion.readVersion();
+        if (version < 0 || stamp <= version) {
+            return current;
+        }
+        Version<T> kept = older;
+        while (kept != null && kept.stamp > version) {
+            kept = kept.older;
+        }
+        return kept == null ? null : kept.value;
+    }
+
+    /**
+     * Method to record a change to the value. Must be called between ModelVersion.beginChange and endChange.
+     * @param current The current value, before the change.
+     * @return True if an open snapshot can see the current value, so the owner must replace it with a changed copy.
+     *         False if it can be changed in place.
+     */
+    boolean beforeChange(T current) {
+        long now = ModelVersion.stamp();
+        boolean visible = ModelVersion.isVisible(stamp);
+        if (visible) {
+            older = new Version<>(current, stamp, trimmed(older));
+        } else if (older != null) {
+            older = trimmed(older);
+        }
+        stamp = now; // Written before the owner writes the new value, see the class comment
+        return visible;
+    }
+
+    /**
+     * Helper method to drop the versions no open snapshot can see.
+     * The first version at or before the oldest open snapshot is the last one any snapshot can see.
+     * @param newest The newest kept version, may be null.
+     * @return The versions to keep, null if none.
+     */
+    private static <T> Version<T> trimmed(Version<T> newest) {
+        long oldest = ModelVersion.oldestOpen();
+        if (oldest < 0) {
+            return null; // No snapshot is open
+        }
+        for (Version<T> kept = newest; kept != null; kept = kept.older) {
+            if (kept.stamp <= oldest) {
+                kept.older = null;
+                break;
+            }
+        }
+        return newest;
+    }
+}
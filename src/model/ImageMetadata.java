@@ -0,0 +1,118 @@
+package model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Class to hold the metadata read from a photo file's header in the Photos application.
+ * Instances are immutable and cached on the photo, so the file header only has to be read once.
+ * @author ZB SL
+ */
+public class ImageMetadata implements Serializable {
+
+    /**
+     * Serial version UID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The orientation value used when the file doesn't specify one (EXIF orientation 1, upright).
+     */
+    public static final int ORIENTATION_NORMAL = 1;
+
+    /**
+     * The date the photo was captured, from the EXIF or PNG text metadata, or null if the file doesn't record it.
+     */
+    private final LocalDateTime captureDate;
+
+    /**
+     * The width of the image in pixels, or 0 if unknown.
+     */
+    private final int width;
+
+    /**
+     * The height of the image in pixels, or 0 if unknown.
+     */
+    private final int height;
+
+    /**
+     * The EXIF orientation of the image, from 1 to 8.
+     */
+    private final int orientation;
+
+    /**
+     * Constructor that takes all metadata values.
+     * @param captureDate The date the photo was captured, or null if unknown.
+     * @param width The width of the image in pixels, or 0 if unknown.
+     * @param height The height of the image in pixels, or 0 if unknown.
+     * @param orientation The EXIF orientation of the image, from 1 to 8.
+     */
+    public ImageMetadata(LocalDateTime captureDate, int width, int height, int orientation) {
+        this.captureDate = captureDate;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation >= 1 && orientation <= 8 ? orientation : ORIENTATION_NORMAL;
+    }
+
+    /**
+     * Getter for capture date.
+     * @return The date the photo was captured, or null if the file doesn't record it.
+     */
+    public LocalDateTime getCaptureDate() {
+        return captureDate;
+    }
+
+    /**
+     * Getter for width.
+     * @return The width of the image in pixels, or 0 if unknown.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for height.
+     * @return The height of the image in pixels, or 0 if unknown.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Getter for orientation.
+     * @return The EXIF orientation of the image, from 1 to 8.
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Method to get the clockwise rotation needed to display the image upright.
+     * Mirrored orientations (2, 4, 5, 7) are displayed with the rotation of their unmirrored counterpart.
+     * @return The rotation in degrees: 0, 90, 180 or 270.
+     */
+    public int getRotationDegrees() {
+        switch (orientation) {
+            case 3:
+            case 4:
+                return 180;
+            case 5:
+            case 6:
+                return 90;
+            case 7:
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * To string method.
+     * @return The string representation of the metadata.
+     */
+    @Override
+    public String toString() {
+        return "Captured: " + captureDate + ", Size: " + width + "x" + height + ", Orientation: " + orientation;
+    }
+}
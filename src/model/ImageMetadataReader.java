@@ -0,0 +1,535 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Class to read photo metadata from JPEG and PNG file headers in the Photos application.
+ * Only the header bytes are read, through a FileChannel, and no pixels are decoded.
+ * For JPEG files the EXIF block gives the capture date and orientation and the frame header gives the size.
+ * For PNG files the IHDR chunk gives the size, and an eXIf chunk or a "Creation Time" text chunk gives the date.
+ * Parsing stops as soon as the image data starts, so a typical photo costs one or two small reads.
+ * @author ZB SL
+ */
+public class ImageMetadataReader {
+
+    /**
+     * The number of bytes read from the file at a time. Most JPEG headers, including the EXIF block, fit in the first window.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * The date format used in EXIF, e.g. "2024:03:31 20:23:59".
+     */
+    private static final DateTimeFormatter EXIF_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    /**
+     * The PNG file signature.
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * EXIF tag for the image orientation.
+     */
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    /**
+     * EXIF tag for the date the file was last changed, used when the original date is missing.
+     */
+    private static final int TAG_DATE_TIME = 0x0132;
+
+    /**
+     * EXIF tag pointing to the EXIF sub-IFD.
+     */
+    private static final int TAG_EXIF_IFD = 0x8769;
+
+    /**
+     * EXIF tag for the date the photo was taken.
+     */
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    /**
+     * EXIF tag for the date the photo was digitized.
+     */
+    private static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+
+    /**
+     * EXIF tag for the image width.
+     */
+    private static final int TAG_PIXEL_X = 0xA002;
+
+    /**
+     * EXIF tag for the image height.
+     */
+    private static final int TAG_PIXEL_Y = 0xA003;
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ImageMetadataReader() {
+    }
+
+    /**
+     * Method to read the metadata of a photo file.
+     * @param path The path of the file.
+     * @return The metadata, or null if the file is not a JPEG or PNG file or could not be read.
+     */
+    public static ImageMetadata read(Path path) {
+        // Try-with-resources to automatically close the channel
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window window = new Window(channel);
+            if (window.u8(0) == 0xFF && window.u8(1) == 0xD8) {
+                return readJpeg(window);
+            }
+            if (isPng(window)) {
+                return readPng(window);
+            }
+            return null; // Not a format that carries metadata we know how to read
+        } catch (IOException | RuntimeException e) {
+            // A truncated or malformed header is not an error for the caller, the photo just has no metadata
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to read the metadata of a JPEG file by walking its marker segments.
+     * @param window The window over the file.
+     * @return The metadata.
+     * @throws IOException If the file could not be read.
+     */
+    private static ImageMetadata readJpeg(Window window) throws IOException {
+        Fields fields = new Fields();
+        long position = 2; // Skip the start of image marker
+        while (position + 4 <= window.size()) {
+            if (window.u8(position) != 0xFF) {
+                break; // Lost sync with the marker stream, stop with what we have
+            }
+            int marker = window.u8(position + 1);
+            if (marker == 0xFF) {
+                position++; // Fill byte before a marker
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                break; // End of image or start of scan, the header is over
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                position += 2; // Standalone markers have no length
+                continue;
+            }
+            int length = window.u16(position + 2, ByteOrder.BIG_ENDIAN);
+            long data = position + 4;
+            if (marker == 0xE1 && length >= 8 && window.matches(data, "Exif\0\0")) {
+                // APP1 EXIF segment: a TIFF structure follows the 6 byte identifier
+                readTiff(window.slice(data + 6, length - 8), fields);
+            } else if (isStartOfFrame(marker) && length >= 7) {
+                // Frame header: precision, height, width
+                fields.height = window.u16(data + 1, ByteOrder.BIG_ENDIAN);
+                fields.width = window.u16(data + 3, ByteOrder.BIG_ENDIAN);
+                break; // The frame header comes after the EXIF block, nothing else to read
+            }
+            position = data + length - 2; // The length includes its own two bytes
+        }
+        return fields.toMetadata();
+    }
+
+    /**
+     * Helper method to read the metadata of a PNG file by walking its chunks.
+     * @param window The window over the file.
+     * @return The metadata.
+     * @throws IOException If the file could not be read.
+     */
+    private static ImageMetadata readPng(Window window) throws IOException {
+        Fields fields = new Fields();
+        long position = PNG_SIGNATURE.length;
+        while (position + 8 <= window.size()) {
+            long length = window.u32(position, ByteOrder.BIG_ENDIAN);
+            String type = window.ascii(position + 4, 4);
+            long data = position + 8;
+            if (type.equals("IDAT") || type.equals("IEND")) {
+                break; // Image data starts, metadata chunks that matter come before it
+            }
+            if (type.equals("IHDR") && length >= 8) {
+                fields.width = (int) window.u32(data, ByteOrder.BIG_ENDIAN);
+                fields.height = (int) window.u32(data + 4, ByteOrder.BIG_ENDIAN);
+            } else if (type.equals("eXIf")) {
+                readTiff(window.slice(data, (int) length), fields);
+            } else if (type.equals("tEXt") && length < WINDOW_SIZE) {
+                readPngText(window.ascii(data, (int) length), fields);
+            }
+            position = data + length + 4; // Skip the data and the CRC
+        }
+        return fields.toMetadata();
+    }
+
+    /**
+     * Helper method to read a PNG text chunk, keeping the date if it is a "Creation Time" entry.
+     * @param text The text chunk, keyword and value separated by a null byte.
+     * @param fields The fields read so far.
+     */
+    private static void readPngText(String text, Fields fields) {
+        int separator = text.indexOf('\0');
+        if (separator < 0 || !text.substring(0, separator).equals("Creation Time")) {
+            return;
+        }
+        String value = text.substring(separator + 1).trim();
+        // The PNG spec recommends RFC 1123, but EXIF and ISO formats are common in the wild
+        try {
+            fields.pngDate = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            return;
+        } catch (DateTimeParseException e) {
+            // Try the next format
+        }
+        fields.pngDate = parseExifDate(value);
+        if (fields.pngDate == null) {
+            try {
+                fields.pngDate = LocalDateTime.parse(value);
+            } catch (DateTimeParseException e) {
+                // Unknown format, leave the date unset
+            }
+        }
+    }
+
+    /**
+     * Helper method to read the EXIF fields we care about from a TIFF structure.
+     * @param tiff The TIFF structure, starting at the byte order mark.
+     * @param fields The fields read so far.
+     */
+    private static void readTiff(ByteBuffer tiff, Fields fields) {
+        if (tiff.remaining() < 8) {
+            return;
+        }
+        // "II" is little endian (Intel), "MM" is big endian (Motorola)
+        tiff.order(tiff.getShort(0) == 0x4949 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (tiff.getShort(2) != 42) {
+            return; // Not a TIFF structure
+        }
+        int exifOffset = readIfd(tiff, tiff.getInt(4), fields);
+        if (exifOffset > 0) {
+            readIfd(tiff, exifOffset, fields);
+        }
+    }
+
+    /**
+     * Helper method to read one image file directory (IFD) of a TIFF structure.
+     * @param tiff The TIFF structure.
+     * @param offset The offset of the IFD in the structure.
+     * @param fields The fields read so far.
+     * @return The offset of the EXIF sub-IFD if this IFD points to one, 0 otherwise.
+     */
+    private static int readIfd(ByteBuffer tiff, int offset, Fields fields) {
+        if (offset < 8 || offset + 2 > tiff.limit()) {
+            return 0;
+        }
+        int exifOffset = 0;
+        int count = tiff.getShort(offset) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12; // Each entry: tag, type, count, value or offset
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            switch (tag) {
+                case TAG_ORIENTATION:
+                    fields.orientation = tiff.getShort(entry + 8) & 0xFFFF;
+                    break;
+                case TAG_EXIF_IFD:
+                    exifOffset = tiff.getInt(entry + 8);
+                    break;
+                case TAG_DATE_TIME:
+                    fields.modifiedDate = readExifDate(tiff, entry);
+                    break;
+                case TAG_DATE_TIME_ORIGINAL:
+                    fields.originalDate = readExifDate(tiff, entry);
+                    break;
+                case TAG_DATE_TIME_DIGITIZED:
+                    fields.digitizedDate = readExifDate(tiff, entry);
+                    break;
+                case TAG_PIXEL_X:
+                    fields.exifWidth = type == 3 ? tiff.getShort(entry + 8) & 0xFFFF : tiff.getInt(entry + 8);
+                    break;
+                case TAG_PIXEL_Y:
+                    fields.exifHeight = type == 3 ? tiff.getShort(entry + 8) & 0xFFFF : tiff.getInt(entry + 8);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return exifOffset;
+    }
+
+    /**
+     * Helper method to read an EXIF date entry. Dates are 20 byte ASCII values stored at an offset.
+     * @param tiff The TIFF structure.
+     * @param entry The offset of the IFD entry.
+     * @return The date, or null if the value is missing or malformed.
+     */
+    private static LocalDateTime readExifDate(ByteBuffer tiff, int entry) {
+        int valueOffset = tiff.getInt(entry + 8);
+        if (valueOffset < 0 || valueOffset + 19 > tiff.limit()) {
+            return null;
+        }
+        byte[] bytes = new byte[19];
+        tiff.get(valueOffset, bytes);
+        return parseExifDate(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Helper method to parse an EXIF date string.
+     * @param value The date string, e.g. "2024:03:31 20:23:59".
+     * @return The date, or null if the value is blank or malformed (cameras write "0000:00:00 00:00:00" when unset).
+     */
+    private static LocalDateTime parseExifDate(String value) {
+        try {
+            return LocalDateTime.parse(value.trim(), EXIF_DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to check if a JPEG marker is a start of frame marker, which holds the image size.
+     * @param marker The marker byte.
+     * @return True if the marker starts a frame, false otherwise.
+     */
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC) which share the range
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Helper method to check if a file starts with the PNG signature.
+     * @param window The window over the file.
+     * @return True if the file is a PNG file, false otherwise.
+     * @throws IOException If the file could not be read.
+     */
+    private static boolean isPng(Window window) throws IOException {
+        if (window.size() < PNG_SIGNATURE.length) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if ((byte) window.u8(i) != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Class to collect the fields found while parsing, before they are turned into metadata.
+     */
+    private static class Fields {
+
+        /**
+         * The EXIF original date.
+         */
+        private LocalDateTime originalDate;
+
+        /**
+         * The EXIF digitized date.
+         */
+        private LocalDateTime digitizedDate;
+
+        /**
+         * The EXIF modified date.
+         */
+        private LocalDateTime modifiedDate;
+
+        /**
+         * The PNG creation time.
+         */
+        private LocalDateTime pngDate;
+
+        /**
+         * The width from the frame header or IHDR chunk.
+         */
+        private int width;
+
+        /**
+         * The height from the frame header or IHDR chunk.
+         */
+        private int height;
+
+        /**
+         * The width from the EXIF block.
+         */
+        private int exifWidth;
+
+        /**
+         * The height from the EXIF block.
+         */
+        private int exifHeight;
+
+        /**
+         * The EXIF orientation.
+         */
+        private int orientation = ImageMetadata.ORIENTATION_NORMAL;
+
+        /**
+         * Method to build the metadata, preferring the most specific source for each value.
+         * @return The metadata.
+         */
+        private ImageMetadata toMetadata() {
+            LocalDateTime captureDate = originalDate != null ? originalDate
+                    : digitizedDate != null ? digitizedDate
+                    : pngDate != null ? pngDate
+                    : modifiedDate;
+            int finalWidth = width > 0 ? width : exifWidth;
+            int finalHeight = height > 0 ? height : exifHeight;
+            return new ImageMetadata(captureDate, finalWidth, finalHeight, orientation);
+        }
+    }
+
+    /**
+     * Class to read bytes at arbitrary positions of a file through a buffered window.
+     * The window is refilled with one positional read whenever a read falls outside of it.
+     */
+    private static class Window {
+
+        /**
+         * The file channel.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The size of the file.
+         */
+        private final long size;
+
+        /**
+         * The buffer holding the current window.
+         */
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        /**
+         * The file position of the first byte of the window.
+         */
+        private long start;
+
+        /**
+         * Constructor for the window.
+         * @param channel The file channel.
+         * @throws IOException If the file size could not be read.
+         */
+        Window(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Getter for size.
+         * @return The size of the file.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Method to make sure the bytes at a position are in the window, reading them if needed.
+         * @param position The file position.
+         * @param length The number of bytes needed.
+         * @return The offset of the position within the buffer.
+         * @throws IOException If the bytes are past the end of the file or could not be read.
+         */
+        private int ensure(long position, int length) throws IOException {
+            if (position < 0 || position + length > size) {
+                throw new IOException("Read past end of file");
+            }
+            if (position < start || position + length > start + buffer.limit()) {
+                buffer = ByteBuffer.allocate((int) Math.min(Math.max(length, WINDOW_SIZE), size - position));
+                start = position;
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                    // Keep reading until the window is full
+                }
+                buffer.flip();
+                if (buffer.limit() < length) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            return (int) (position - start);
+        }
+
+        /**
+         * Method to read an unsigned byte.
+         * @param position The file position.
+         * @return The byte value, from 0 to 255.
+         * @throws IOException If the file could not be read.
+         */
+        int u8(long position) throws IOException {
+            int offset = ensure(position, 1); // Must run before buffer is read, since it may replace the buffer
+            return buffer.get(offset) & 0xFF;
+        }
+
+        /**
+         * Method to read an unsigned 16 bit value.
+         * @param position The file position.
+         * @param order The byte order.
+         * @return The value.
+         * @throws IOException If the file could not be read.
+         */
+        int u16(long position, ByteOrder order) throws IOException {
+            int offset = ensure(position, 2);
+            return buffer.order(order).getShort(offset) & 0xFFFF;
+        }
+
+        /**
+         * Method to read an unsigned 32 bit value.
+         * @param position The file position.
+         * @param order The byte order.
+         * @return The value.
+         * @throws IOException If the file could not be read.
+         */
+        long u32(long position, ByteOrder order) throws IOException {
+            int offset = ensure(position, 4);
+            return buffer.order(order).getInt(offset) & 0xFFFFFFFFL;
+        }
+
+        /**
+         * Method to read an ASCII string.
+         * @param position The file position.
+         * @param length The number of bytes.
+         * @return The string.
+         * @throws IOException If the file could not be read.
+         */
+        String ascii(long position, int length) throws IOException {
+            int offset = ensure(position, length);
+            byte[] bytes = new byte[length];
+            buffer.get(offset, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Method to check if the bytes at a position match an ASCII string.
+         * @param position The file position.
+         * @param expected The expected string.
+         * @return True if the bytes match, false otherwise.
+         * @throws IOException If the file could not be read.
+         */
+        boolean matches(long position, String expected) throws IOException {
+            return position + expected.length() <= size && ascii(position, expected.length()).equals(expected);
+        }
+
+        /**
+         * Method to get a range of the file as its own buffer, indexed from zero.
+         * @param position The file position.
+         * @param length The number of bytes.
+         * @return A buffer over the bytes.
+         * @throws IOException If the file could not be read.
+         */
+        ByteBuffer slice(long position, int length) throws IOException {
+            int offset = ensure(position, length);
+            return buffer.slice(offset, length);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Class to keep a user's photos in sync with their files on disk for the Photos application.
+ * The directories holding the user's photos are watched with a WatchService on a background thread.
+ * Events are collected until the directory goes quiet and then handled as one batch: modified files get their
+ * date, size and metadata re-read and their cached thumbnail dropped, deleted files are flagged as missing,
+ * and a missing file that reappears in a watched directory under another name is followed.
+ * Only the changed files are looked at, the library is never rescanned.
+ * Albums whose photos are not in memory are watched too, from the folders saved with their headers: such an album
+ * is only read when one of its files changes. Folders that no longer hold any photo stop being watched.
+ * Photos are hashed while they are watched, so a photo can be followed by its content once its file moves.
+ * @author ZB SL
+ */
+public class LibraryWatcher {
+
+    /**
+     * How long a directory has to be quiet before a batch of events is handled, in milliseconds.
+     * Copying a large file produces many events, this waits for the copy to finish.
+     */
+    private static final long SETTLE_MILLIS = 300;
+
+    /**
+     * How often the watcher checks for albums or photos added since the directories were registered, in milliseconds.
+     */
+    private static final long POLL_MILLIS = 2000;
+
+    /**
+     * The listeners told about photos updated by the watcher, called on the watcher thread.
+     */
+    private static final List<Consumer<List<Photo>>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The user being watched, or null if the watcher is stopped.
+     */
+    private static User watchedUser;
+
+    /**
+     * The watch service of the running watcher.
+     */
+    private static WatchService watchService;
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private LibraryWatcher() {
+    }
+
+    /**
+     * Method to start watching the files of a user's photos, stopping the watcher for any other user.
+     * Does nothing if the user is already being watched. The method returns immediately.
+     * @param user The user.
+     */
+    public static synchronized void start(User user) {
+        if (watchedUser == user) {
+            return;
+        }
+        stop();
+        try {
+            WatchService service = FileSystems.getDefault().newWatchService();
+            watchedUser = user;
+            watchService = service;
+            Thread thread = new Thread(() -> run(user, service), "library-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            System.err.println("Failed to start watching photo files: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to stop watching, for example when the user logs out.
+     */
+    public static synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close(); // Wakes up the watcher thread, which then exits
+            } catch (IOException e) {
+                System.err.println("Failed to stop watching photo files: " + e.getMessage());
+            }
+        }
+        watchService = null;
+        watchedUser = null;
+    }
+
+    /**
+     * Method to add a listener told about photos the watcher updated. The listener is called on the watcher thread.
+     * @param listener The listener, which receives the updated photos.
+     */
+    public static void addListener(Consumer<List<Photo>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method to remove a listener added with addListener.
+     * @param listener The listener.
+     */
+    public static void removeListener(Consumer<List<Photo>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Helper method with the watcher thread's loop.
+     * @param user The user being watched.
+     * @param service The watch service, closed to stop the loop.
+     */
+    private static void run(User user, WatchService service) {
+        // The watched directories, the photo file paths in each of them and the photos of each path
+        Map<WatchKey, Path> directories = new HashMap<>();
+        Map<Path, Set<String>> photoPaths = new HashMap<>();
+        Map<String, List<Photo>> photosByPath = new HashMap<>();
+        Map<Path, List<Album>> storedAlbums = new HashMap<>(); // Albums whose photos are on disk, by folder
+        long registeredStamp = -1;
+        try {
+            while (true) {
+                // Register the directories of albums and photos added since the last check
+                long stamp = user.getModStamp();
+                if (stamp != registeredStamp) {
+                    registerDirectories(user, service, directories, photoPaths, photosByPath, storedAlbums);
+                    registeredStamp = stamp;
+                }
+                WatchKey key = service.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                // Collect events until no more arrive for a while, then handle them as one batch
+                Set<Path> changed = new LinkedHashSet<>();
+                while (key != null) {
+                    collectEvents(key, directories, photoPaths, storedAlbums, changed);
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                List<Photo> updated = applyChanges(user, changed, photosByPath, storedAlbums);
+                if (!updated.isEmpty()) {
+                    registeredStamp = -1; // Moved photos have new paths, register again on the next pass
+                    for (Consumer<List<Photo>> listener : listeners) {
+                        listener.accept(updated);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // The watcher was stopped
+        }
+    }
+
+    /**
+     * Helper method to start watching the directories of a user's photos that are not watched yet,
+     * and to stop watching the ones that no longer hold any photo.
+     * Albums whose photos are on disk are watched from the folders saved with their headers, without reading them.
+     * Photos in directories that no longer exist are flagged as missing, which reads the albums on disk holding them.
+     * Photos without a content hash are hashed in the background, so they can be followed if their file moves.
+     * @param user The user.
+     * @param service The watch service.
+     * @param directories The watched directories by watch key, updated by this method.
+     * @param photoPaths The photo file paths in each watched directory, rebuilt by this method.
+     * @param photosByPath The watched photos by file path, rebuilt by this method.
+     * @param storedAlbums The albums whose photos are on disk, by directory, rebuilt by this method.
+     */
+    private static void registerDirectories(User user, WatchService service, Map<WatchKey, Path> directories,
+            Map<Path, Set<String>> photoPaths, Map<String, List<Photo>> photosByPath, Map<Path, List<Album>> storedAlbums) {
+        Map<Path, List<Photo>> photosByDirectory = new HashMap<>();
+        photosByPath.clear();
+        boolean unhashed = false;
+        for (Photo photo : user.getLoadedPhotos()) {
+            photosByPath.computeIfAbsent(photo.getFilePath(), path -> new ArrayList<>(1)).add(photo);
+            Path parent = Paths.get(photo.getFilePath()).getParent();
+            if (parent != null) {
+                photosByDirectory.computeIfAbsent(parent, directory -> new ArrayList<>()).add(photo);
+            }
+            unhashed |= !photo.isMissing() && PhotoIndex.isIncomplete(photo.getFileSize(), photo.getContentHash());
+        }
+        storedAlbums.clear();
+        for (Album album : user.getAlbums()) {
+            if (!album.isLoaded()) {
+                for (String directory : album.getDirectories()) {
+                    storedAlbums.computeIfAbsent(Paths.get(directory), path -> new ArrayList<>(1)).add(album);
+                }
+            }
+        }
+        if (unhashed) {
+            ContentHasher.hashInBackground(user); // Photos already queued are not queued again
+        }
+
+        // Stop watching the directories no photo is in any more
+        Iterator<Map.Entry<WatchKey, Path>> watchedKeys = directories.entrySet().iterator();
+        while (watchedKeys.hasNext()) {
+            Map.Entry<WatchKey, Path> entry = watchedKeys.next();
+            if (!photosByDirectory.containsKey(entry.getValue()) && !storedAlbums.containsKey(entry.getValue())) {
+                entry.getKey().cancel();
+                watchedKeys.remove();
+            }
+        }
+
+        photoPaths.clear();
+        Set<Path> watched = new HashSet<>(directories.values());
+        Set<Path> needed = new LinkedHashSet<>(photosByDirectory.keySet());
+        needed.addAll(storedAlbums.keySet());
+        for (Path directory : needed) {
+            List<Photo> photos = photosByDirectory.getOrDefault(directory, Collections.emptyList());
+            Set<String> paths = new LinkedHashSet<>();
+            for (Photo photo : photos) {
+                paths.add(photo.getFilePath());
+            }
+            photoPaths.put(directory, paths);
+            if (watched.contains(directory)) {
+                continue; // Already watched
+            }
+            try {
+                WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory);
+            } catch (IOException e) {
+                // The directory is gone, so are the photos in it
+                for (Photo photo : photos) {
+                    photo.setMissing(true);
+                }
+                for (Album album : storedAlbums.getOrDefault(directory, Collections.emptyList())) {
+                    for (Photo photo : photosIn(album, directory)) {
+                        photo.setMissing(true);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to get the photos of an album in a directory, reading the album if its photos are on disk.
+     * @param album The album.
+     * @param directory The directory.
+     * @return The photos of the album whose files are in the directory.
+     */
+    private static List<Photo> photosIn(Album album, Path directory) {
+        List<Photo> photos = new ArrayList<>();
+        for (Photo photo : album.getPhotos()) {
+            if (directory.equals(Paths.get(photo.getFilePath()).getParent())) {
+                photos.add(photo);
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * Helper method to collect the paths changed by the pending events of a watch key.
+     * If events were lost or the directory itself went away, every photo in the directory is treated as changed,
+     * including those of albums on disk, which are then read.
+     * @param key The watch key.
+     * @param directories The watched directories by watch key.
+     * @param photoPaths The photo file paths in each watched directory.
+     * @param storedAlbums The albums whose photos are on disk, by directory.
+     * @param changed The set the changed paths are added to.
+     */
+    private static void collectEvents(WatchKey key, Map<WatchKey, Path> directories, Map<Path, Set<String>> photoPaths,
+            Map<Path, List<Album>> storedAlbums, Set<Path> changed) {
+        Path directory = directories.get(key);
+        if (directory == null) {
+            key.cancel();
+            return;
+        }
+        boolean recheckAll = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                recheckAll = true; // Events were dropped, so we don't know which files changed
+            } else {
+                changed.add(directory.resolve((Path) event.context()));
+            }
+        }
+        if (!key.reset()) {
+            // The directory was deleted or is no longer accessible
+            directories.remove(key);
+            recheckAll = true;
+        }
+        if (recheckAll) {
+            for (String path : photoPaths.getOrDefault(directory, Collections.emptySet())) {
+                changed.add(Paths.get(path));
+            }
+            for (Album album : storedAlbums.getOrDefault(directory, Collections.emptyList())) {
+                for (Photo photo : photosIn(album, directory)) {
+                    changed.add(Paths.get(photo.getFilePath()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to update the photos of the changed paths.
+     * An album whose photos are on disk is only read if its saved keys hold one of the changed files.
+     * @param user The user.
+     * @param changed The changed paths.
+     * @param photosByPath The watched photos by file path, the photos of albums read here are added to it.
+     * @param storedAlbums The albums whose photos are on disk, by directory.
+     * @return The photos that were updated.
+     */
+    private static List<Photo> applyChanges(User user, Set<Path> changed, Map<String, List<Photo>> photosByPath,
+            Map<Path, List<Album>> storedAlbums) {
+        List<Photo> updated = new ArrayList<>();
+        List<Photo> missing = new ArrayList<>();
+        List<Path> created = new ArrayList<>();
+        for (Path path : changed) {
+            for (Album album : storedAlbums.getOrDefault(path.getParent(), Collections.emptyList())) {
+                for (Photo photo : album.findPhotosByPath(path.toString())) {
+                    List<Photo> photos = photosByPath.computeIfAbsent(path.toString(), key -> new ArrayList<>(1));
+                    if (photos.stream().noneMatch(known -> known == photo)) {
+                        photos.add(photo);
+                    }
+                }
+            }
+        }
+        for (Path path : changed) {
+            List<Photo> photos = photosByPath.getOrDefault(path.toString(), Collections.emptyList());
+            if (photos.isEmpty()) {
+                // Not one of the user's photos, but it may be a missing photo moved or renamed to here
+                if (PhotoImporter.isImageFile(path.getFileName().toString()) && Files.isRegularFile(path)) {
+                    created.add(path);
+                }
+                continue;
+            }
+            BasicFileAttributes attributes;
+            ImageMetadata metadata;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                metadata = ImageMetadataReader.read(path);
+            } catch (IOException e) {
+                attributes = null; // The file was deleted or moved away
+                metadata = null;
+            }
+            // The file was read above without the lock, the photos are only updated with it held
+            user.getLock().writeLock().lock();
+            ModelVersion.beginChange(user);
+            try {
+                for (Photo photo : photos) {
+                    // Drop the cached thumbnail before the photo's cache key changes
+                    ThumbnailCache.invalidate(photo);
+                    if (attributes == null) {
+                        photo.setMissing(true);
+                        missing.add(photo);
+                    } else {
+                        photo.updateFileInfo(attributes, metadata);
+                    }
+                    updated.add(photo);
+                }
+            } finally {
+                ModelVersion.endChange();
+                user.getLock().writeLock().unlock();
+            }
+        }
+        if (!missing.isEmpty() && !created.isEmpty()) {
+            relinkMovedPhotos(user, missing, created);
+        }
+        if (!updated.isEmpty()) {
+            user.invalidateSimilarityIndex(); // Perceptual hashes were cleared with the file info
+            ContentHasher.hashInBackground(user);
+            PerceptualHasher.hashInBackground(user);
+        }
+        return updated;
+    }
+
+    /**
+     * Helper method to follow photos whose files were moved or renamed within the watched directories.
+     * A missing photo is moved to a new file with the same size and the same content hash.
+     * Watched photos are hashed in the background, so only a photo moved before it could be hashed has no content hash.
+     * Such a photo is followed by its file name instead, see findMovedByName.
+     * @param user The user, whose write lock is taken while the photos are moved.
+     * @param missing The photos whose files went missing in this batch.
+     * @param created The image files that appeared in this batch and don't belong to any photo.
+     */
+    private static void relinkMovedPhotos(User user, List<Photo> missing, List<Path> created) {
+        Set<Long> missingSizes = new HashSet<>();
+        for (Photo photo : missing) {
+            missingSizes.add(photo.getFileSize());
+        }
+        Map<String, Path> createdByHash = new HashMap<>();
+        Map<Path, Long> createdSizes = new HashMap<>();
+        for (Path path : created) {
+            try {
+                long size = Files.size(path);
+                createdSizes.put(path, size);
+                if (!missingSizes.contains(size)) {
+                    continue; // Can't be one of the missing photos, no need to read it
+                }
+                createdByHash.putIfAbsent(size + ":" + ContentHasher.hash(path), path);
+            } catch (IOException e) {
+                System.err.println("Failed to hash " + path + ": " + e.getMessage());
+            }
+        }
+        user.getLock().writeLock().lock();
+        ModelVersion.beginChange(user);
+        try {
+            for (Photo photo : missing) {
+                Path moved = photo.getContentHash() != null
+                        ? createdByHash.get(photo.getFileSize() + ":" + photo.getContentHash())
+                        : findMovedByName(photo, createdSizes);
+                if (moved != null) {
+                    photo.setFilePath(moved.toString());
+                    photo.setMissing(false);
+                }
+            }
+        } finally {
+            ModelVersion.endChange();
+            user.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method to find the file a photo without a content hash was moved to, by its file name.
+     * The file is only followed if it is the one new file with the photo's name, and has the photo's size
+     * if the size is known, since a file with the same name elsewhere may be a different photo.
+     * @param photo The missing photo.
+     * @param createdSizes The size of each image file that appeared in this batch.
+     * @return The file the photo was moved to, or null if there is none or more than one.
+     */
+    private static Path findMovedByName(Photo photo, Map<Path, Long> createdSizes) {
+        Path name = Paths.get(photo.getFilePath()).getFileName();
+        Path moved = null;
+        for (Map.Entry<Path, Long> entry : createdSizes.entrySet()) {
+            if (entry.getKey().getFileName().equals(name)) {
+                if (moved != null) {
+                    return null; // Can't tell which one it is
+                }
+                moved = entry.getKey();
+            }
+        }
+        if (moved != null && photo.getFileSize() > 0 && createdSizes.get(moved) != photo.getFileSize()) {
+            return null;
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,321 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Class to describe one change to the users, albums or photos of the Photos application.
+ * The model publishes an event for every change it makes, whoever made it: a view, a background service such as
+ * the library watcher, or the command line. Views apply the events to their lists one item at a time instead of
+ * listing everything again, so editing one photo's caption redraws one cell however large the album is.
+ * Listeners are called on the thread that made the change and have to move to the JavaFX thread themselves.
+ * A batch edit holds the events of its thread back while it runs and publishes the changed photos as one
+ * PHOTOS_CHANGED event, so editing a thousand photos redraws the view once instead of a thousand times.
+ * @author ZB SL
+ */
+public final class ModelEvent {
+
+    /**
+     * The kinds of change.
+     */
+    public enum Type {
+        /** Photos were added to an album, at the index given by the event. */
+        PHOTOS_ADDED,
+        /** A photo was removed from an album, from the index given by the event. */
+        PHOTO_REMOVED,
+        /** The photos of an album were put in a new order. */
+        PHOTOS_REORDERED,
+        /** A photo's caption changed. */
+        CAPTION_CHANGED,
+        /** A photo's tags changed. */
+        TAGS_CHANGED,
+        /** A photo's date, file information or missing flag changed, for example after its file was edited. */
+        FILE_CHANGED,
+        /** The captions, tags or files of several photos changed in one batch edit, the event lists them all. */
+        PHOTOS_CHANGED,
+        /** An album was added to a user. */
+        ALBUM_ADDED,
+        /** An album was removed from a user. */
+        ALBUM_REMOVED,
+        /** An album was renamed. */
+        ALBUM_RENAMED,
+        /** The number of photos, date range or first photos of an album changed. */
+        ALBUM_UPDATED,
+        /** A user was created. */
+        USER_ADDED,
+        /** A user was deleted. */
+        USER_REMOVED
+    }
+
+    /**
+     * The listeners told about every change.
+     */
+    private static final List<Consumer<ModelEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The batch open on each thread, see beginBatch, or null if there is none.
+     */
+    private static final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+    /**
+     * The kind of change.
+     */
+    private final Type type;
+
+    /**
+     * The user the change was made to, or null if the event is about an album or photo.
+     */
+    private final User user;
+
+    /**
+     * The album the change was made to, or null if the event is about a photo or user only.
+     */
+    private final Album album;
+
+    /**
+     * The photos that changed, empty if the event is about an album or user.
+     */
+    private final List<Photo> photos;
+
+    /**
+     * The index in the album of the first photo added or of the photo removed, -1 for other events.
+     */
+    private final int index;
+
+    /**
+     * Constructor for an event.
+     * @param type The kind of change.
+     * @param user The user, or null.
+     * @param album The album, or null.
+     * @param photos The photos that changed, may be empty.
+     * @param index The index in the album, or -1.
+     */
+    private ModelEvent(Type type, User user, Album album, List<Photo> photos, int index) {
+        this.type = type;
+        this.user = user;
+        this.album = album;
+        this.photos = photos;
+        this.index = index;
+    }
+
+    /**
+     * Method to add a listener told about every change to the model.
+     * @param listener The listener, called on the thread that made the change.
+     */
+    public static void addListener(Consumer<ModelEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method to remove a listener added with addListener.
+     * @param listener The listener.
+     */
+    public static void removeListener(Consumer<ModelEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Method to check if anyone is listening, so no event is built when nobody is, for example on the command line.
+     * @return True if there is at least one listener.
+     */
+    static boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Method to publish a change about photos in an album.
+     * @param type The kind of change.
+     * @param album The album.
+     * @param photos The photos added or removed.
+     * @param index The index in the album of the first photo added or of the photo removed.
+     */
+    static void publish(Type type, Album album, List<Photo> photos, int index) {
+        if (hasListeners()) {
+            publish(new ModelEvent(type, null, album, photos, index));
+        }
+    }
+
+    /**
+     * Method to publish a change about one photo.
+     * @param type The kind of change.
+     * @param photo The photo.
+     */
+    static void publish(Type type, Photo photo) {
+        if (hasListeners()) {
+            publish(new ModelEvent(type, null, null, Collections.singletonList(photo), -1));
+        }
+    }
+
+    /**
+     * Method to publish a change about an album of a user.
+     * @param type The kind of change.
+     * @param user The user, may be null for a rename.
+     * @param album The album.
+     */
+    static void publish(Type type, User user, Album album) {
+        if (hasListeners()) {
+            publish(new ModelEvent(type, user, album, Collections.emptyList(), -1));
+        }
+    }
+
+    /**
+     * Method to start holding back the events of this thread, for an edit of many photos.
+     * Every call must be followed by a call to endBatch, which must be made after the edit released its locks.
+     */
+    static void beginBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * Method to end a batch started with beginBatch. When the outermost batch ends, the events held back are published:
+     * those about albums and users in the order they happened, then one PHOTOS_CHANGED event for every photo whose
+     * caption, tags or file changed.
+     */
+    static void endBatch() {
+        Batch batch = batches.get();
+        if (batch == null || --batch.depth > 0) {
+            return;
+        }
+        batches.remove();
+        for (ModelEvent event : batch.events) {
+            deliver(event);
+        }
+        if (!batch.photos.isEmpty()) {
+            deliver(new ModelEvent(Type.PHOTOS_CHANGED, null, null, Collections.unmodifiableList(batch.photos), -1));
+        }
+    }
+
+    /**
+     * Helper method to publish a change, or hold it back if a batch is open on this thread.
+     * @param event The change.
+     */
+    private static void publish(ModelEvent event) {
+        Batch batch = batches.get();
+        if (batch == null) {
+            deliver(event);
+            return;
+        }
+        switch (event.type) {
+            case CAPTION_CHANGED:
+            case TAGS_CHANGED:
+            case FILE_CHANGED:
+                for (Photo photo : event.photos) {
+                    if (batch.seen.add(photo)) {
+                        batch.photos.add(photo); // Listed once, however many times it changed
+                    }
+                }
+                break;
+            default:
+                batch.events.add(event);
+                break;
+        }
+    }
+
+    /**
+     * Helper method to tell every listener about a change. A failing listener doesn't stop the others.
+     * @param event The change.
+     */
+    private static void deliver(ModelEvent event) {
+        for (Consumer<ModelEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                System.err.println("Model event listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Getter for type.
+     * @return The kind of change.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Getter for user.
+     * @return The user the change was made to, or null.
+     */
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * Getter for album.
+     * @return The album the change was made to, or null.
+     */
+    public Album getAlbum() {
+        return album;
+    }
+
+    /**
+     * Getter for photos.
+     * @return The photos that changed, empty if the event is about an album or user.
+     */
+    public List<Photo> getPhotos() {
+        return photos;
+    }
+
+    /**
+     * Getter for the photo of a single photo event.
+     * @return The first photo that changed, or null if the event has none.
+     */
+    public Photo getPhoto() {
+        return photos.isEmpty() ? null : photos.get(0);
+    }
+
+    /**
+     * Getter for index.
+     * @return The index in the album of the first photo added or of the photo removed, -1 for other events.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * To string method.
+     * @return The kind of change and what it was made to.
+     */
+    @Override
+    public String toString() {
+        return type + (user != null ? " user " + user.getUsername() : "") + (album != null ? " album " + album.getName() : "")
+                + (photos.isEmpty() ? "" : " " + photos.size() + " photo(s)") + (index >= 0 ? " at " + index : "");
+    }
+
+    /**
+     * Class to hold the events of a thread back while a batch is open.
+     */
+    private static final class Batch {
+
+        /**
+         * The number of batches open on the thread, the events are published when the outermost one ends.
+         */
+        private int depth;
+
+        /**
+         * The events about albums and users held back, in the order they happened.
+         */
+        private final List<ModelEvent> events = new ArrayList<>();
+
+        /**
+         * The photos whose caption, tags or file changed, in the order they first changed.
+         */
+        private final List<Photo> photos = new ArrayList<>();
+
+        /**
+         * The same photos, compared by identity, so each is listed once.
+         */
+        private final Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
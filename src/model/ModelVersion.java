@@ -0,0 +1,306 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Class to keep the version clock of the Photos application's data, for snapshots.
+ * Every change is stamped with the version current when it began. Opening a snapshot takes the current version for
+ * the snapshot and moves the clock on, so the snapshot sees every change stamped with its version or before
+ * and none begun after. Changed data keeps its old versions, see History, only while an open snapshot can still see them.
+ * Nothing here takes a monitor shared by every change: the clock and the open snapshots are lock-free,
+ * and each user has a Gate of its own recording the stamp of the change in progress on its data.
+ * Opening a snapshot never waits. A change to a user begun before the snapshot was opened may still be in progress,
+ * so the snapshot's first read of that user's albums waits for that one change to end, see settle,
+ * and never for changes to other users or changes begun after it. Changes never wait for snapshots.
+ * @author ZB SL
+ */
+final class ModelVersion {
+
+    /**
+     * The version changes are stamped with. Versions before it belong to snapshots or to data as it was read.
+     */
+    private static final AtomicLong current = new AtomicLong(1);
+
+    /**
+     * The number of changes begun since the application started, so code can tell if anything changed meanwhile.
+     */
+    private static final AtomicLong begun = new AtomicLong();
+
+    /**
+     * The number of changes ended since the application started. Equal to begun when no change is in progress.
+     */
+    private static final AtomicLong ended = new AtomicLong();
+
+    /**
+     * The versions of the open snapshots and how many snapshots are open at each.
+     */
+    private static final ConcurrentSkipListMap<Long, Integer> open = new ConcurrentSkipListMap<>();
+
+    /**
+     * The version of the snapshot the current thread reads, if it is reading one.
+     */
+    private static final ThreadLocal<Long> reading = new ThreadLocal<>();
+
+    /**
+     * The change the current thread is making, if it is making one.
+     */
+    private static final ThreadLocal<Change> changing = new ThreadLocal<>();
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ModelVersion() {
+    }
+
+    /**
+     * Method to start a change that isn't made to a user's albums, such as an edit of one photo, which replaces
+     * the photo's state in one step. Every call must be followed by a call to endChange, also if the change fails.
+     */
+    static void beginChange() {
+        beginChange(null);
+    }
+
+    /**
+     * Method to start a change to a user's albums, photo lists or tag types, holding the user's write lock.
+     * Every call must be followed by a call to endChange, also if the change fails. Never waits.
+     * @param user The user whose data changes, or null if the data doesn't belong to a user yet.
+     */
+    static void beginChange(User user) {
+        Change change = changing.get();
+        if (change == null) {
+            change = new Change();
+            changing.set(change);
+        }
+        Gate gate = user == null ? null : user.getGate();
+        // Announced before the stamp is taken, so a snapshot opened meanwhile knows to wait for the change
+        boolean entered = gate != null && gate.depth++ == 0;
+        if (entered) {
+            gate.stamp = Gate.STARTING;
+        }
+        if (change.gates.isEmpty()) {
+            change.stamp = current.get();
+        }
+        if (entered) {
+            gate.stamp = change.stamp;
+        }
+        change.gates.push(gate != null ? gate : Gate.NONE);
+        begun.incrementAndGet();
+    }
+
+    /**
+     * Getter for the number of changes begun so far. If it is the same at two moments, nothing changed in between.
+     * @return The number of changes begun since the application started.
+     */
+    static long changesBegun() {
+        return begun.get();
+    }
+
+    /**
+     * Getter for the number of changes ended so far. Read after changesBegun, if it is the same number
+     * and no change began meanwhile, every change begun by then has ended.
+     * @return The number of changes ended since the application started.
+     */
+    static long changesEnded() {
+        return ended.get();
+    }
+
+    /**
+     * Method to end the change begun last on this thread, letting snapshots waiting for it read the user.
+     */
+    static void endChange() {
+        Change change = changing.get();
+        if (change == null || change.gates.isEmpty()) {
+            return;
+        }
+        Gate gate = change.gates.pop();
+        ended.incrementAndGet();
+        if (gate != Gate.NONE && --gate.depth == 0) {
+            synchronized (gate) {
+                gate.stamp = Gate.IDLE;
+                gate.notifyAll();
+            }
+        }
+        if (change.gates.isEmpty()) {
+            changing.remove();
+        }
+    }
+
+    /**
+     * Method to get the version to stamp a change with, the one current when the outermost change of the thread began.
+     * @return The version.
+     */
+    static long stamp() {
+        Change change = changing.get();
+        return change != null ? change.stamp : current.get();
+    }
+
+    /**
+     * Method to check if data stamped with a version can be seen by an open snapshot.
+     * Such data must not be changed in place, it has to be copied and kept for the snapshot.
+     * @param version The version the data was stamped with.
+     * @return True if an open snapshot has that version or a later one.
+     */
+    static boolean isVisible(long version) {
+        return open.ceilingKey(version) != null;
+    }
+
+    /**
+     * Getter for the oldest open snapshot, used to drop old versions no snapshot can see any more.
+     * @return The version of the oldest open snapshot, -1 if none is open.
+     */
+    static long oldestOpen() {
+        Map.Entry<Long, Integer> oldest = open.firstEntry();
+        return oldest == null ? -1 : oldest.getKey();
+    }
+
+    /**
+     * Method to open a snapshot of the current data. Doesn't wait and doesn't copy any data.
+     * The snapshot is registered before the clock moves on, so every change stamped after it keeps what it can see.
+     * @return The version of the snapshot.
+     */
+    static long open() {
+        long version = current.get();
+        open.merge(version, 1, Integer::sum);
+        // If another snapshot moved the clock on first, the version is shared with it, which is just as good
+        current.compareAndSet(version, version + 1);
+        return version;
+    }
+
+    /**
+     * Method to close a snapshot, so the old versions only it could see can be dropped.
+     * @param version The version of the snapshot.
+     */
+    static void close(long version) {
+        // Returning null from the merge function removes the entry
+        open.merge(version, -1, (count, minus) -> count + minus == 0 ? null : count + minus);
+    }
+
+    /**
+     * Method to get the version of the snapshot the current thread reads.
+     * @return The version, or -1 if the thread reads the current data.
+     */
+    static long readVersion() {
+        if (open.isEmpty()) {
+            return -1; // No snapshot is open, so no thread can be reading one
+        }
+        Long version = reading.get();
+        return version == null ? -1 : version;
+    }
+
+    /**
+     * Method to make sure the snapshot the current thread reads sees a user's change whole, called before reading
+     * the user's album list, tag types or an album's photos. Waits only if a change to that user begun before the
+     * snapshot was opened is still in progress, which is rare and short. Returns at once otherwise.
+     * @param user The user whose data is about to be read, may be null.
+     */
+    static void settle(User user) {
+        long version = readVersion();
+        if (version < 0 || user == null) {
+            return;
+        }
+        Gate gate = user.getGate();
+        if (!gate.holds(version)) {
+            return;
+        }
+        Change change = changing.get();
+        if (change != null && change.gates.contains(gate)) {
+            return; // This thread is making the change, it sees its own data
+        }
+        synchronized (gate) {
+            boolean interrupted = false;
+            while (gate.holds(version)) {
+                try {
+                    gate.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // Keep waiting, an unfinished change must not be seen
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Method to run a read of the data as it was at a snapshot's version on the current thread.
+     * @param version The version of the snapshot.
+     * @param reader The read.
+     * @param <T> The type of the result.
+     * @return The result of the read.
+     */
+    static <T> T readAt(long version, Supplier<T> reader) {
+        Long previous = reading.get();
+        reading.set(version);
+        try {
+            return reader.get();
+        } finally {
+            if (previous == null) {
+                reading.remove();
+            } else {
+                reading.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Class to record the change in progress on one user's data. Changes to a user are made holding its write lock,
+     * so there is at most one, possibly nested, and only the thread making it writes the depth.
+     */
+    static final class Gate {
+
+        /**
+         * The stamp of a gate with no change in progress.
+         */
+        private static final long IDLE = -1;
+
+        /**
+         * The stamp of a gate whose change is taking its stamp, which any snapshot has to wait for.
+         */
+        private static final long STARTING = 0;
+
+        /**
+         * Marks a change that isn't made to a user's data on the change stack.
+         */
+        private static final Gate NONE = new Gate();
+
+        /**
+         * The stamp of the change in progress, STARTING while it is being taken, IDLE if there is no change.
+         */
+        private volatile long stamp = IDLE;
+
+        /**
+         * The number of nested changes in progress, only written by the thread holding the user's write lock.
+         */
+        private int depth;
+
+        /**
+         * Method to check if a snapshot has to wait for the change in progress.
+         * @param version The version of the snapshot.
+         * @return True if a change stamped with the version or before is still in progress.
+         */
+        private boolean holds(long version) {
+            long changeStamp = stamp;
+            return changeStamp != IDLE && changeStamp <= version;
+        }
+    }
+
+    /**
+     * Class to hold the change a thread is making: its stamp and the gates of the nested changes, innermost first.
+     */
+    private static final class Change {
+
+        /**
+         * The version the change is stamped with.
+         */
+        private long stamp;
+
+        /**
+         * The gates of the nested changes, NONE for a change that isn't made to a user's data.
+         */
+        private final ArrayDeque<Gate> gates = new ArrayDeque<>();
+    }
+}
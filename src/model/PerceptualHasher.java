@@ -0,0 +1,139 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+
+/**
+ * Class to compute perceptual hashes of photos in the Photos application.
+ * The hash is a 64 bit difference hash (dHash): the thumbnail is reduced to a 9x8 grid of gray levels and each bit
+ * records whether a cell is brighter than its right neighbour. Resized, recompressed or slightly edited copies of
+ * an image get hashes that differ in only a few bits, so near duplicates are found by Hamming distance.
+ * Hashes are computed from the cached thumbnails on background threads and indexed in a HammingIndex.
+ * @author ZB SL
+ */
+public class PerceptualHasher {
+
+    /**
+     * The number of columns in the grid, one more than the number of comparisons per row.
+     */
+    private static final int GRID_WIDTH = 9;
+
+    /**
+     * The number of rows in the grid.
+     */
+    private static final int GRID_HEIGHT = 8;
+
+    /**
+     * The background threads used to hash photos that don't have a perceptual hash yet.
+     */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "perceptual-hasher");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * The photos currently queued for background hashing, so a photo is never queued twice.
+     */
+    private static final Set<Photo> queued = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private PerceptualHasher() {
+    }
+
+    /**
+     * Method to compute the difference hash of an image.
+     * @param image The image, normally a thumbnail.
+     * @return The 64 bit hash.
+     */
+    public static long hash(Image image) {
+        PixelReader reader = image.getPixelReader();
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        double[][] gray = new double[GRID_HEIGHT][GRID_WIDTH];
+        // Average the pixels falling in each grid cell (box filter), so the hash doesn't depend on the thumbnail size
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            int y0 = gy * height / GRID_HEIGHT;
+            int y1 = Math.max(y0 + 1, (gy + 1) * height / GRID_HEIGHT);
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int x0 = gx * width / GRID_WIDTH;
+                int x1 = Math.max(x0 + 1, (gx + 1) * width / GRID_WIDTH);
+                double sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1 && y < height; y++) {
+                    for (int x = x0; x < x1 && x < width; x++) {
+                        int argb = reader.getArgb(x, y);
+                        // Luma from the red, green and blue channels
+                        sum += 0.299 * ((argb >> 16) & 0xFF) + 0.587 * ((argb >> 8) & 0xFF) + 0.114 * (argb & 0xFF);
+                        count++;
+                    }
+                }
+                gray[gy][gx] = count > 0 ? sum / count : 0;
+            }
+        }
+        long hash = 0;
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH - 1; gx++) {
+                hash <<= 1;
+                if (gray[gy][gx] > gray[gy][gx + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Method to make sure a photo has a perceptual hash, computing it from its thumbnail if needed.
+     * @param photo The photo.
+     * @return True if the photo has a perceptual hash, false if its thumbnail could not be loaded.
+     */
+    public static boolean ensureHash(Photo photo) {
+        if (photo.getPerceptualHash() != null) {
+            return true;
+        }
+        Image thumbnail = photo.getThumbnail();
+        if (thumbnail == null || thumbnail.isError() || thumbnail.getPixelReader() == null) {
+            return false;
+        }
+        photo.setPerceptualHash(hash(thumbnail));
+        return true;
+    }
+
+    /**
+     * Method to compute the missing perceptual hashes of a user's photos on the background threads.
+     * Only albums whose photos are in memory are looked at, albums still on disk are hashed once they are read.
+     * Each hash is added to the user's similarity index as soon as it is known.
+     * The hashes are saved with the user data the next time it is saved. The method returns immediately.
+     * @param user The user.
+     */
+    public static void hashInBackground(User user) {
+        List<Photo> missing = new ArrayList<>();
+        for (Photo photo : user.getLoadedPhotos()) {
+            if (photo.getPerceptualHash() == null && queued.add(photo)) {
+                missing.add(photo);
+            }
+        }
+        for (Photo photo : missing) {
+            executor.execute(() -> {
+                try {
+                    if (ensureHash(photo)) {
+                        user.indexPerceptualHash(photo);
+                    }
+                } finally {
+                    queued.remove(photo);
+                }
+            });
+        }
+    }
+}
@@ -1,21 +1,28 @@
 package model;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Predicate;
 import javafx.scene.image.Image;
 
 /**
  * Class to represent a photo in the Photos application.
+ * The file path, date, caption, tags, size and metadata are kept together in an immutable state that is replaced
+ * on every edit, so a snapshot can keep reading the state it saw, see Snapshot, and no reader sees an edit half made.
+ * The content and perceptual hashes are computed from the file and are not versioned.
  * @author ZB SL
  */
 public class Photo implements Serializable {
@@ -26,60 +33,305 @@ public class Photo implements Serializable {
     private static final long serialVersionUID = 1L; // 1L is generic
 
     /**
-     * The file path of the photo.
+     * The fields written to album files, the same as before the state was kept in an object of its own,
+     * so photos saved by earlier versions can still be read.
      */
-    private String filePath;
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", long.class),
+        new ObjectStreamField("filePath", String.class),
+        new ObjectStreamField("dateTaken", LocalDateTime.class),
+        new ObjectStreamField("caption", String.class),
+        new ObjectStreamField("tags", ArrayList.class),
+        new ObjectStreamField("fileSize", long.class),
+        new ObjectStreamField("contentHash", String.class),
+        new ObjectStreamField("perceptualHash", Long.class),
+        new ObjectStreamField("metadata", ImageMetadata.class),
+        new ObjectStreamField("dateAdded", long.class)
+    };
 
     /**
-     * The date the photo was taken.
+     * Class to hold the part of a photo that the user and the library watcher edit.
+     * A state is never changed once it is the photo's state: an edit copies it, changes the copy and replaces it.
      */
-    private LocalDateTime dateTaken;
+    private static final class State {
+
+        /**
+         * The file path of the photo.
+         */
+        private String filePath;
+
+        /**
+         * The date the photo was taken.
+         */
+        private LocalDateTime dateTaken;
+
+        /**
+         * The caption of the photo.
+         */
+        private String caption;
+
+        /**
+         * The list of tags of the photo, never changed once the state is the photo's state.
+         */
+        private ArrayList<Tag> tags;
+
+        /**
+         * The size of the photo file in bytes, recorded when the photo was added.
+         * Photos saved before this field existed read back as 0.
+         */
+        private long fileSize;
+
+        /**
+         * The metadata read from the photo file's header (capture date, size and orientation).
+         * Null for photos saved before metadata was read, or for files whose header could not be parsed.
+         */
+        private ImageMetadata metadata;
+
+        /**
+         * Constructor for an empty state.
+         */
+        private State() {
+        }
+
+        /**
+         * Copy constructor, used to make the next state of an edit. The tags list is shared, edits replace it.
+         * @param other The state to copy.
+         */
+        private State(State other) {
+            this.filePath = other.filePath;
+            this.dateTaken = other.dateTaken;
+            this.caption = other.caption;
+            this.tags = other.tags;
+            this.fileSize = other.fileSize;
+            this.metadata = other.metadata;
+        }
+    }
 
     /**
-     * The caption of the photo.
+     * The id of the photo, used for equality. Never changes once set, even if the photo's file or date changes.
+     * A copy of the photo in another album has an id of its own.
      */
-    private String caption;
+    private long id;
 
     /**
-     * The list of tags of the photo.
+     * The current state of the photo. Volatile so a new state is seen by every thread.
      */
-    private ArrayList<Tag> tags;
+    private transient volatile State state;
 
     /**
-     * The width for the thumbnail.
+     * The states of the photo that open snapshots can still see.
      */
-    private final int THUMBNAIL_WIDTH = 100; // Width for the thumbnail
+    private transient History<State> history;
 
     /**
-     * The height for the thumbnail.
+     * The lock held across an edit of the date, size, tags, file path or content hash, so the albums' aggregates
+     * and indexes are told about one edit at a time, see changeCounted. Taken after the owning user's lock, if held,
+     * and before any monitor.
      */
-    private final int THUMBNAIL_HEIGHT = 100; // Height for the thumbnail
+    private transient Object editLock;
+
+    /**
+     * The hash of the photo file's content, computed in the background by the ContentHasher.
+     * Null until it has been computed. Volatile because it is set from background threads.
+     */
+    private volatile String contentHash;
+
+    /**
+     * The perceptual hash of the photo, computed from its thumbnail in the background by the PerceptualHasher.
+     * Similar looking images have hashes that differ in few bits. Null until it has been computed.
+     */
+    private volatile Long perceptualHash;
+
+    /**
+     * Whether the photo's file could not be found the last time it was looked at.
+     * Set by the LibraryWatcher and the thumbnail cache. Not persisted, since the file may come back.
+     */
+    private transient volatile boolean missing;
+
+    /**
+     * When the photo was added to its album, in milliseconds since the epoch, used to list recently added photos first.
+     * Photos saved before this field existed read back as 0, as if added before all others.
+     */
+    private long dateAdded;
+
+    /**
+     * The albums whose running aggregates include this photo, told before and after the photo's date, size, tags,
+     * file path or content hash change.
+     * Albums register themselves when they build their aggregates. Not persisted.
+     */
+    private transient List<Album> owners;
 
     /**
      * Constructor that takes only the file path of the photo.
+     * The file is stat'ed once and its header is read for metadata.
      * @param filePath The file path of the photo.
      */
     public Photo(String filePath) {
-        this.filePath = filePath;
-        this.dateTaken = getLastModificationDate(filePath); // As per the instructions, the date taken is the last modification date
-        this.caption = "";
-        this.tags = new ArrayList<Tag>();
+        this.id = EntityId.next();
+        this.history = new History<>();
+        this.editLock = new Object();
+        this.dateAdded = System.currentTimeMillis();
+        State initial = newState(filePath);
+        try {
+            Path path = Paths.get(filePath);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class); // Uses built-in Java NIO library to stat the file once
+            applyFileInfo(initial, attributes, ImageMetadataReader.read(path));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.state = initial;
+    }
+
+    /**
+     * Constructor that takes the file path along with file attributes and metadata that were already read.
+     * Used by the bulk importer, which reads files on worker threads, so no file access is made here.
+     * @param filePath The file path of the photo.
+     * @param attributes The attributes of the photo file.
+     * @param metadata The metadata read from the photo file's header, may be null.
+     */
+    public Photo(String filePath, BasicFileAttributes attributes, ImageMetadata metadata) {
+        this.id = EntityId.next();
+        this.history = new History<>();
+        this.editLock = new Object();
+        this.dateAdded = System.currentTimeMillis();
+        State initial = newState(filePath);
+        applyFileInfo(initial, attributes, metadata);
+        this.state = initial;
+    }
+
+    /**
+     * Copy constructor, used when a photo is copied to another album.
+     * The file information is copied too, so the file is not read again. The tags list is copied, not shared.
+     * @param other The photo to copy.
+     */
+    public Photo(Photo other) {
+        this.id = EntityId.next(); // The copy is a photo of its own
+        this.history = new History<>();
+        this.editLock = new Object();
+        State copy = new State(other.state());
+        copy.tags = new ArrayList<>(copy.tags);
+        this.state = copy;
+        this.contentHash = other.contentHash;
+        this.perceptualHash = other.perceptualHash;
+        this.dateAdded = System.currentTimeMillis(); // The copy is newly added to its album
     }
 
     /**
-     * Helper method to get the last modification date of a file.
+     * Helper method to create the state of a new photo, without a caption or tags.
      * @param filePath The file path of the photo.
-     * @return The last modification date of the file.
+     * @return The state.
+     */
+    private static State newState(String filePath) {
+        State initial = new State();
+        initial.filePath = filePath;
+        initial.caption = "";
+        initial.tags = new ArrayList<Tag>();
+        return initial;
+    }
+
+    /**
+     * Helper method to set the date, size and metadata of a state from what was read from the photo's file.
+     * The date taken is the capture date recorded in the file if there is one, since it survives copying the file.
+     * Otherwise it is the last modification date, as per the original instructions.
+     * @param next The state to set them in, not yet the photo's state.
+     * @param attributes The attributes of the photo file.
+     * @param metadata The metadata read from the photo file's header, may be null.
+     */
+    private static void applyFileInfo(State next, BasicFileAttributes attributes, ImageMetadata metadata) {
+        next.metadata = metadata;
+        next.fileSize = attributes.size();
+        if (metadata != null && metadata.getCaptureDate() != null) {
+            next.dateTaken = metadata.getCaptureDate();
+        } else {
+            next.dateTaken = LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault()); // Converts the FileTime to LocalDateTime
+        }
+    }
+
+    /**
+     * Helper method to get the state the current thread should see: the current one,
+     * or the one seen by the snapshot the thread reads.
+     * @return The state.
      */
-    private LocalDateTime getLastModificationDate(String filePath) {
+    private State state() {
+        State current = state; // Read before the history, see History
+        State seen = history.at(current);
+        return seen != null ? seen : current; // A photo created after the snapshot is seen as it is
+    }
+
+    /**
+     * Helper method to edit the photo: the current state is copied, the edit is made to the copy,
+     * and the copy replaces the state. The old state is kept for open snapshots that can see it.
+     * The edit runs holding the photo's monitor, so any check it makes against the copy holds when the copy replaces
+     * the state, and two edits made at the same time both count.
+     * @param edit The edit, made to the copy, returning false if there is nothing to change.
+     * @return True if the state was replaced, false if the edit found nothing to change.
+     */
+    private boolean change(Predicate<State> edit) {
+        ModelVersion.beginChange();
         try {
-            Path path = Paths.get(filePath);
-            FileTime fileTime = Files.getLastModifiedTime(path); // Uses built-in Java NIO library to get the last modified time
-            return LocalDateTime.ofInstant(fileTime.toInstant(), ZoneId.systemDefault()); // Converts the FileTime to LocalDateTime
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+            synchronized (this) {
+                State current = state;
+                State next = new State(current);
+                if (!edit.test(next)) {
+                    return false; // The state is kept as it is
+                }
+                history.beforeChange(current);
+                state = next;
+                return true;
+            }
+        } finally {
+            ModelVersion.endChange();
+        }
+    }
+
+    /**
+     * Helper method to make an edit of the date, size, tags or file path, which the albums' aggregates count or index:
+     * the photo is taken out of the aggregates, edited and put back, all with the edit lock held,
+     * so edits made at the same time never take the same state out twice.
+     * @param edit The edit, see change.
+     * @return True if the state was replaced.
+     */
+    private boolean changeCounted(Predicate<State> edit) {
+        boolean changed;
+        synchronized (editLock) {
+            beforeChange();
+            try {
+                changed = change(edit);
+            } finally {
+                afterChange();
+            }
         }
+        // The albums' new counts and dates are published once the edit lock is released
+        for (Album owner : ownersSnapshot()) {
+            owner.publishAggregatesChanged();
+        }
+        return changed;
+    }
+
+    /**
+     * Method to update the photo after its file changed on disk.
+     * The content and perceptual hashes are cleared since the content may have changed, and are recomputed in the background.
+     * @param attributes The new attributes of the photo file.
+     * @param metadata The metadata read from the photo file's header, may be null.
+     */
+    void updateFileInfo(BasicFileAttributes attributes, ImageMetadata metadata) {
+        changeCounted(next -> {
+            applyFileInfo(next, attributes, metadata);
+            // Cleared with the change, so the albums' content indexes drop the old hash
+            this.contentHash = null;
+            this.perceptualHash = null;
+            return true;
+        });
+        this.missing = false;
+        ModelEvent.publish(ModelEvent.Type.FILE_CHANGED, this);
+    }
+
+    /**
+     * Getter for id.
+     * @return The id of the photo.
+     */
+    public long getId() {
+        return id;
     }
 
     /**
@@ -87,7 +339,7 @@ public class Photo implements Serializable {
      * @return The file path of the photo.
      */
     public String getFilePath() {
-        return filePath;
+        return state().filePath;
     }
 
     /**
@@ -95,7 +347,16 @@ public class Photo implements Serializable {
      * @param filePath The file path of the photo.
      */
     public void setFilePath(String filePath) {
-        this.filePath = filePath;
+        boolean changed = changeCounted(next -> { // Counted, the albums index their photos by path
+            if (filePath.equals(next.filePath)) {
+                return false;
+            }
+            next.filePath = filePath;
+            return true;
+        });
+        if (changed) {
+            ModelEvent.publish(ModelEvent.Type.FILE_CHANGED, this);
+        }
     }
 
     /**
@@ -103,7 +364,7 @@ public class Photo implements Serializable {
      * @return The date the photo was taken.
      */
     public LocalDateTime getDate() {
-        return dateTaken;
+        return state().dateTaken;
     }
 
     /**
@@ -111,7 +372,11 @@ public class Photo implements Serializable {
      * @param date The date the photo was taken.
      */
     public void setDate(LocalDateTime date) {
-        this.dateTaken = date;
+        changeCounted(next -> {
+            next.dateTaken = date;
+            return true;
+        });
+        ModelEvent.publish(ModelEvent.Type.FILE_CHANGED, this);
     }
 
     /**
@@ -119,7 +384,7 @@ public class Photo implements Serializable {
      * @return The caption of the photo.
      */
     public String getCaption() {
-        return caption;
+        return state().caption;
     }
 
     /**
@@ -127,15 +392,25 @@ public class Photo implements Serializable {
      * @param caption The caption of the photo.
      */
     public void setCaption(String caption) {
-        this.caption = caption;
+        boolean changed = change(next -> {
+            if (Objects.equals(caption, next.caption)) {
+                return false;
+            }
+            next.caption = caption;
+            return true;
+        });
+        if (changed) {
+            ModelEvent.publish(ModelEvent.Type.CAPTION_CHANGED, this);
+        }
     }
 
     /**
      * Getter for tags.
+     * The list must not be changed, use addTag and deleteTag.
      * @return The tags of the photo.
      */
     public ArrayList<Tag> getTags() {
-        return tags;
+        return state().tags;
     }
 
     /**
@@ -143,22 +418,174 @@ public class Photo implements Serializable {
      * @param tags The tags of the photo.
      */
     public void setTags(ArrayList<Tag> tags) {
-        this.tags = tags;
+        changeCounted(next -> {
+            next.tags = tags;
+            return true;
+        });
+        ModelEvent.publish(ModelEvent.Type.TAGS_CHANGED, this);
+    }
+
+    /**
+     * Getter for file size.
+     * @return The size of the photo file in bytes, or 0 if unknown.
+     */
+    public long getFileSize() {
+        return state().fileSize;
+    }
+
+    /**
+     * Setter for file size, used when the size is learned after the photo was created.
+     * @param fileSize The size of the photo file in bytes.
+     */
+    void setFileSize(long fileSize) {
+        changeCounted(next -> {
+            next.fileSize = fileSize;
+            return true;
+        });
+    }
+
+    /**
+     * Getter for metadata.
+     * @return The metadata read from the photo file's header, or null if none was read.
+     */
+    public ImageMetadata getMetadata() {
+        return state().metadata;
+    }
+
+    /**
+     * Getter for content hash.
+     * @return The hash of the photo file's content, or null if it has not been computed yet.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Setter for content hash.
+     * @param contentHash The hash of the photo file's content.
+     */
+    void setContentHash(String contentHash) {
+        synchronized (editLock) {
+            String oldHash = this.contentHash;
+            this.contentHash = contentHash;
+            for (Album owner : ownersSnapshot()) {
+                owner.contentHashChanged(this, oldHash);
+            }
+        }
+    }
+
+    /**
+     * Getter for perceptual hash.
+     * @return The perceptual hash of the photo, or null if it has not been computed yet.
+     */
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    /**
+     * Setter for perceptual hash.
+     * @param perceptualHash The perceptual hash of the photo.
+     */
+    void setPerceptualHash(Long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+
+    /**
+     * Getter for date added.
+     * @return When the photo was added to its album, in milliseconds since the epoch, or 0 if unknown.
+     */
+    public long getDateAdded() {
+        return dateAdded;
+    }
+
+    /**
+     * Method to register an album whose aggregates include this photo.
+     * @param album The album.
+     */
+    synchronized void addOwner(Album album) {
+        if (owners == null) {
+            owners = new ArrayList<>(1);
+        }
+        for (Album owner : owners) {
+            if (owner == album) {
+                return; // Already registered
+            }
+        }
+        owners.add(album);
+    }
+
+    /**
+     * Method to unregister an album, after the photo was removed from it.
+     * @param album The album.
+     */
+    synchronized void removeOwner(Album album) {
+        if (owners != null) {
+            owners.removeIf(owner -> owner == album);
+        }
+    }
+
+    /**
+     * Helper method to take the photo out of its albums' aggregates before a change.
+     */
+    private void beforeChange() {
+        for (Album owner : ownersSnapshot()) {
+            owner.excludeFromAggregates(this);
+        }
+    }
+
+    /**
+     * Helper method to put the photo back into its albums' aggregates after a change.
+     */
+    private void afterChange() {
+        for (Album owner : ownersSnapshot()) {
+            owner.includeInAggregates(this);
+        }
+    }
+
+    /**
+     * Helper method to copy the owner list, so albums can be called without holding the photo's lock.
+     * @return The albums whose aggregates include this photo.
+     */
+    private synchronized List<Album> ownersSnapshot() {
+        return owners == null ? Collections.emptyList() : new ArrayList<>(owners);
+    }
+
+    /**
+     * Method to check if the photo's file is missing.
+     * @return True if the file could not be found the last time it was looked at.
+     */
+    public boolean isMissing() {
+        return missing;
+    }
+
+    /**
+     * Setter for missing.
+     * @param missing Whether the photo's file is missing.
+     */
+    void setMissing(boolean missing) {
+        if (this.missing != missing) {
+            this.missing = missing;
+            ModelEvent.publish(ModelEvent.Type.FILE_CHANGED, this);
+        }
+    }
+
+    /**
+     * Method to get the key the photo's cached data is stored under.
+     * Photos with known content are keyed by content hash, so copies of the same image share one thumbnail.
+     * @return The content hash if known, the file path otherwise.
+     */
+    public String getCacheKey() {
+        String hash = contentHash;
+        return hash != null ? hash : getFilePath();
     }
 
     /**
      * Getter for thumbnail.
+     * Thumbnails are shared through the ThumbnailCache so each image is decoded at most once while it stays cached.
      * @return The thumbnail of the photo.
      */
     public Image getThumbnail() {
-        try {
-            // Uses JavaFX Image class to create a thumbnail of the photo with the specified width and height
-            Image image = new Image(new FileInputStream(filePath), THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true, true);
-            return image;
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return ThumbnailCache.getThumbnail(this);
     }
 
     /**
@@ -167,14 +594,39 @@ public class Photo implements Serializable {
      * @return True if the tag was added, false otherwise.
      */
     public boolean addTag(Tag newTag) {
+        if (hasTag(state.tags, newTag)) {
+            return false; // Already there, no need to touch the aggregates
+        }
+        boolean added = changeCounted(next -> {
+            if (hasTag(next.tags, newTag)) {
+                return false; // Added by another edit meanwhile
+            }
+            ArrayList<Tag> updated = new ArrayList<>(next.tags.size() + 1);
+            updated.addAll(next.tags);
+            updated.add(newTag);
+            next.tags = updated; // Replaced rather than changed, see the State class
+            return true;
+        });
+        if (added) {
+            ModelEvent.publish(ModelEvent.Type.TAGS_CHANGED, this);
+        }
+        return added;
+    }
+
+    /**
+     * Helper method to check if a list of tags has a tag, considering case-insensitivity.
+     * @param tags The tags.
+     * @param tag The tag to look for.
+     * @return True if a tag with the same name and value is in the list.
+     */
+    private static boolean hasTag(List<Tag> tags, Tag tag) {
         for (Tag existingTag : tags) {
-            if (existingTag.getTagName().equalsIgnoreCase(newTag.getTagName()) && existingTag.getTagValue().equalsIgnoreCase(newTag.getTagValue())) {
-                return false; // Tag already exists, considering case-insensitivity
+            if (existingTag.getTagName().equalsIgnoreCase(tag.getTagName()) && existingTag.getTagValue().equalsIgnoreCase(tag.getTagValue())) {
+                return true;
             }
         }
-        tags.add(newTag);
-        return true;
-    }    
+        return false;
+    }
 
     /**
      * Method to delete a tag.
@@ -182,11 +634,21 @@ public class Photo implements Serializable {
      * @return True if the tag was deleted, false otherwise.
      */
     public boolean deleteTag(Tag tag) {
-        if (!tags.contains(tag)) {
-            return false;
+        if (!state.tags.contains(tag)) {
+            return false; // Not there, no need to touch the aggregates
+        }
+        boolean deleted = changeCounted(next -> {
+            ArrayList<Tag> updated = new ArrayList<>(next.tags);
+            if (!updated.remove(tag)) {
+                return false; // Deleted by another edit meanwhile
+            }
+            next.tags = updated; // Replaced rather than changed, see the State class
+            return true;
+        });
+        if (deleted) {
+            ModelEvent.publish(ModelEvent.Type.TAGS_CHANGED, this);
         }
-        tags.remove(tag);
-        return true;
+        return deleted;
     }
 
     /**
@@ -195,7 +657,7 @@ public class Photo implements Serializable {
      * @return True if the photo has a tag of the specified type, false otherwise.
      */
     public boolean hasTagOfType(String tagType) {
-        for (Tag tag : tags) {
+        for (Tag tag : getTags()) {
             // Check if the tag type matches the specified tag type (case-insensitive)
             if (tag.getTagName().equalsIgnoreCase(tagType)) {
                 return true;
@@ -205,7 +667,31 @@ public class Photo implements Serializable {
     }
 
     /**
-     * Equals method.
+     * Method to check if another photo shows the same file taken at the same date, whatever its id.
+     * This is what makes a photo a duplicate in an album, for example a copy made in another album.
+     * @param other The photo to compare to.
+     * @return True if both photos have the same file path and date.
+     */
+    public boolean hasSameContent(Photo other) {
+        if (other == null) {
+            return false;
+        }
+        State mine = state();
+        State theirs = other.state();
+        return mine.filePath.equals(theirs.filePath) && Objects.equals(mine.dateTaken, theirs.dateTaken);
+    }
+
+    /**
+     * Method to get a key that is the same for photos with the same content, for duplicate checks in hashed sets.
+     * @return The file path and date of the photo.
+     */
+    String contentKey() {
+        State seen = state();
+        return seen.filePath + '\n' + seen.dateTaken;
+    }
+
+    /**
+     * Equals method. Photos are equal if they have the same id, so equality doesn't change when a photo is edited.
      * @param o The object to compare.
      * @return True if the objects are equal, false otherwise.
      */
@@ -216,8 +702,7 @@ public class Photo implements Serializable {
         if (!(o instanceof Photo)) {
             return false;
         }
-        Photo p = (Photo) o;
-        return filePath.equals(p.getFilePath()) && dateTaken.equals(p.getDate());
+        return id == ((Photo) o).id;
     }
 
     /**
@@ -225,7 +710,61 @@ public class Photo implements Serializable {
      * @return The hash code of the photo.
      */
     public int hashCode() {
-        return Objects.hash(filePath, dateTaken);
+        return Long.hashCode(id);
+    }
+
+    /**
+     * Method to read a photo from a file, giving photos saved before ids existed an id of their own.
+     * @param in The stream to read from.
+     * @throws IOException If the photo could not be read.
+     * @throws ClassNotFoundException If a class of the photo's fields could not be found.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = fields.get("id", 0L);
+        if (id == 0) {
+            id = EntityId.next(); // Saved with the album the next time it is written
+        }
+        State read = new State();
+        read.filePath = (String) fields.get("filePath", null);
+        read.dateTaken = (LocalDateTime) fields.get("dateTaken", null);
+        read.caption = (String) fields.get("caption", null);
+        // Unsafe cast, but the tags are always written as a list of tags
+        read.tags = (ArrayList<Tag>) fields.get("tags", null);
+        if (read.tags == null) {
+            read.tags = new ArrayList<>();
+        }
+        read.fileSize = fields.get("fileSize", 0L);
+        read.metadata = (ImageMetadata) fields.get("metadata", null);
+        state = read;
+        history = new History<>();
+        editLock = new Object();
+        contentHash = (String) fields.get("contentHash", null);
+        perceptualHash = (Long) fields.get("perceptualHash", null);
+        dateAdded = fields.get("dateAdded", 0L);
+    }
+
+    /**
+     * Method to write the photo to an album file, as the state the writing thread should see.
+     * A save reads a snapshot, so it writes every photo as it was when the save started.
+     * @param out The stream to write to.
+     * @throws IOException If the photo could not be written.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        State seen = state();
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("filePath", seen.filePath);
+        fields.put("dateTaken", seen.dateTaken);
+        fields.put("caption", seen.caption);
+        fields.put("tags", seen.tags);
+        fields.put("fileSize", seen.fileSize);
+        fields.put("contentHash", contentHash);
+        fields.put("perceptualHash", perceptualHash);
+        fields.put("metadata", seen.metadata);
+        fields.put("dateAdded", dateAdded);
+        out.writeFields();
     }
 
     /**
@@ -233,6 +772,7 @@ public class Photo implements Serializable {
      * @return The string representation of the photo.
      */
     public String toString() {
-        return "Photo: " + filePath + ", Date: " + dateTaken + ", Caption: " + caption + ", Tags: " + tags;
+        State seen = state();
+        return "Photo: " + seen.filePath + ", Date: " + seen.dateTaken + ", Caption: " + seen.caption + ", Tags: " + seen.tags;
     }
 }
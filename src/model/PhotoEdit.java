@@ -0,0 +1,244 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class to apply the same caption and tag changes to many photos at once in the Photos application.
+ * The changes are collected first and then applied in one pass: each photo is changed in every album it is in,
+ * the albums table is updated once per album rather than once per photo, and nothing is saved, so the caller
+ * saves the user data once for the whole edit however many photos it touched.
+ * Tags are removed before they are added, so a single-valued tag can be replaced in one edit.
+ * The user's write lock is held for the whole edit and it is one change for snapshots,
+ * so a save made meanwhile has all of it or none of it.
+ * @author ZB SL
+ */
+public class PhotoEdit {
+
+    /**
+     * The tags to add to every photo.
+     */
+    private final List<Tag> tagsToAdd = new ArrayList<>();
+
+    /**
+     * The tags to remove from every photo, compared ignoring case.
+     */
+    private final List<Tag> tagsToRemove = new ArrayList<>();
+
+    /**
+     * The new caption of every photo, or null to leave captions unchanged.
+     */
+    private String caption;
+
+    /**
+     * Class to hold the outcome of an edit.
+     */
+    public static class EditResult {
+
+        /**
+         * The number of photos that were changed, counting each photo once even if it is in several albums.
+         */
+        private final int changed;
+
+        /**
+         * The number of tags not added because the photo already has a value for a single-valued tag type.
+         */
+        private final int skipped;
+
+        /**
+         * Constructor for the edit result.
+         * @param changed The number of photos that were changed.
+         * @param skipped The number of tags not added because their type only allows one value.
+         */
+        EditResult(int changed, int skipped) {
+            this.changed = changed;
+            this.skipped = skipped;
+        }
+
+        /**
+         * Getter for changed.
+         * @return The number of photos that were changed.
+         */
+        public int getChanged() {
+            return changed;
+        }
+
+        /**
+         * Getter for skipped.
+         * @return The number of tags not added because their type only allows one value.
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * Method to add a tag to every photo of the edit.
+     * @param tag The tag to add.
+     * @return This edit, so changes can be chained.
+     */
+    public PhotoEdit addTag(Tag tag) {
+        tagsToAdd.add(tag);
+        return this;
+    }
+
+    /**
+     * Method to remove a tag from every photo of the edit that has it.
+     * @param tag The tag to remove, compared ignoring case.
+     * @return This edit, so changes can be chained.
+     */
+    public PhotoEdit removeTag(Tag tag) {
+        tagsToRemove.add(tag);
+        return this;
+    }
+
+    /**
+     * Method to set the caption of every photo of the edit.
+     * @param caption The new caption.
+     * @return This edit, so changes can be chained.
+     */
+    public PhotoEdit setCaption(String caption) {
+        this.caption = caption;
+        return this;
+    }
+
+    /**
+     * Method to check if the edit changes anything.
+     * @return True if no tags or caption were given.
+     */
+    public boolean isEmpty() {
+        return tagsToAdd.isEmpty() && tagsToRemove.isEmpty() && caption == null;
+    }
+
+    /**
+     * Method to apply the edit to photos and to their copies in the user's other albums.
+     * Tag types the user doesn't have are treated as multi-valued, callers add new types to the user first.
+     * The user data is not saved, the caller saves it once afterwards.
+     * @param user The user who owns the photos.
+     * @param photos The photos to change.
+     * @return The number of photos changed and of tags skipped.
+     */
+    public EditResult apply(User user, Collection<Photo> photos) {
+        // The photos' events are held back and published as one PHOTOS_CHANGED event, after the locks are released
+        ModelEvent.beginBatch();
+        try {
+            List<Album> albums;
+            EditResult result;
+            user.getLock().writeLock().lock();
+            ModelVersion.beginChange(user); // A snapshot sees all of the edit or none of it
+            try {
+                albums = new ArrayList<>(user.getAlbums());
+                result = apply(user, photos, user.getTagTypes(), albums);
+            } finally {
+                ModelVersion.endChange();
+                user.getLock().writeLock().unlock();
+            }
+            // Each album's new counts and dates are published once for the whole edit
+            for (Album album : albums) {
+                album.publishAggregatesChanged();
+            }
+            return result;
+        } finally {
+            ModelEvent.endBatch();
+        }
+    }
+
+    /**
+     * Helper method to apply the edit with the user's write lock held.
+     * @param user The user who owns the photos.
+     * @param photos The photos to change.
+     * @param tagTypes The user's tag types and their multiplicity.
+     * @param albums The user's albums.
+     * @return The number of photos changed and of tags skipped.
+     */
+    private EditResult apply(User user, Collection<Photo> photos, Map<String, Integer> tagTypes, List<Album> albums) {
+        // Identity set, a photo selected twice or found again as a copy is only changed once
+        Set<Photo> done = Collections.newSetFromMap(new IdentityHashMap<>());
+        int changed = 0;
+        int skipped = 0;
+        for (Album album : albums) {
+            album.beginBatch();
+        }
+        try {
+            for (Photo photo : photos) {
+                if (done.contains(photo)) {
+                    continue;
+                }
+                boolean photoChanged = false;
+                // Every copy gets the same change, so the albums never need to be synchronized afterwards
+                List<Photo> copies = new ArrayList<>(user.findPhotosByPath(photo.getFilePath()));
+                if (copies.stream().noneMatch(copy -> copy == photo)) {
+                    copies.add(photo); // Not in any album yet, for example a photo being imported
+                }
+                for (Photo copy : copies) {
+                    if (!done.add(copy)) {
+                        continue;
+                    }
+                    for (Tag tag : tagsToRemove) {
+                        Tag existing = findTag(copy, tag);
+                        if (existing != null && copy.deleteTag(existing)) {
+                            photoChanged = true;
+                        }
+                    }
+                    for (Tag tag : tagsToAdd) {
+                        if (isSingleValued(tagTypes, tag.getTagName()) && copy.hasTagOfType(tag.getTagName())) {
+                            if (findTag(copy, tag) == null && copy == photo) {
+                                skipped++; // Counted once per photo, not per copy
+                            }
+                        } else if (copy.addTag(new Tag(tag.getTagName(), tag.getTagValue()))) {
+                            photoChanged = true;
+                        }
+                    }
+                    if (caption != null && !caption.equals(copy.getCaption())) {
+                        copy.setCaption(caption);
+                        photoChanged = true;
+                    }
+                }
+                if (photoChanged) {
+                    changed++;
+                }
+            }
+        } finally {
+            for (Album album : albums) {
+                album.endBatch();
+            }
+        }
+        return new EditResult(changed, skipped);
+    }
+
+    /**
+     * Helper method to check if a tag type only allows one value per photo.
+     * @param tagTypes The user's tag types and their multiplicity.
+     * @param tagType The tag type, compared ignoring case.
+     * @return True if the type allows a single value.
+     */
+    private static boolean isSingleValued(Map<String, Integer> tagTypes, String tagType) {
+        for (Map.Entry<String, Integer> entry : tagTypes.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(tagType)) {
+                return entry.getValue() != null && entry.getValue() <= 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to find a photo's own copy of a tag, ignoring case.
+     * @param photo The photo.
+     * @param tag The tag.
+     * @return The photo's tag, or null if the photo doesn't have it.
+     */
+    static Tag findTag(Photo photo, Tag tag) {
+        for (Tag existing : photo.getTags()) {
+            if (existing.getTagName().equalsIgnoreCase(tag.getTagName())
+                    && existing.getTagValue().equalsIgnoreCase(tag.getTagValue())) {
+                return existing;
+            }
+        }
+        return null;
+    }
+}
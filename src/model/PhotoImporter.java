@@ -0,0 +1,508 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Class to import many photos into an album at once.
+ * The import runs in two phases. The prepare phase walks the selected folders in parallel, stats every image file
+ * and reads its header metadata on a pool of worker threads, and drops files that are already in the album by path, or in any of the user's albums by content.
+ * Content is only compared for files whose size matches another file, first with a cheap pre-hash and then with
+ * the full content hash. The prepare phase is safe to run off the JavaFX thread and can be cancelled at any time. The commit phase adds the prepared photos to the album and saves the user data
+ * once, and is meant to run on the JavaFX thread.
+ * @author ZB SL
+ */
+public class PhotoImporter {
+
+    /**
+     * The file extensions accepted as photos, same as the file chooser filter in the album view.
+     */
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("bmp", "gif", "jpg", "jpeg", "png");
+
+    /**
+     * The number of thumbnails generated ahead of time after an import, enough to fill the first screens of the album.
+     * The rest are generated when they are first shown, so a large import does not flush the thumbnail cache.
+     */
+    private static final int THUMBNAIL_PREFETCH_LIMIT = 500;
+
+    /**
+     * Interface for receiving progress updates from the prepare phase.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Method called when progress is made.
+         * @param done The number of files processed so far.
+         * @param total The total number of files to process, or -1 while folders are still being scanned.
+         */
+        void progress(long done, long total);
+    }
+
+    /**
+     * Class to hold the outcome of an import.
+     */
+    public static class ImportResult {
+
+        /**
+         * The photos ready to be added to the album.
+         */
+        private final List<Photo> photos;
+
+        /**
+         * The number of files skipped because they are already in the album, or a copy of them is in one of the user's albums.
+         */
+        private final int duplicates;
+
+        /**
+         * The number of files that could not be read.
+         */
+        private final int failed;
+
+        /**
+         * Constructor for the import result.
+         * @param photos The photos ready to be added to the album.
+         * @param duplicates The number of files skipped because they or a copy of them are already there.
+         * @param failed The number of files that could not be read.
+         */
+        ImportResult(List<Photo> photos, int duplicates, int failed) {
+            this.photos = photos;
+            this.duplicates = duplicates;
+            this.failed = failed;
+        }
+
+        /**
+         * Getter for photos.
+         * @return The photos ready to be added to the album.
+         */
+        public List<Photo> getPhotos() {
+            return photos;
+        }
+
+        /**
+         * Getter for duplicates.
+         * @return The number of files skipped because they are already in the album, or a copy of them is in one of the user's albums.
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Getter for failed.
+         * @return The number of files that could not be read.
+         */
+        public int getFailed() {
+            return failed;
+        }
+    }
+
+    /**
+     * The user who owns the album.
+     */
+    private final User user;
+
+    /**
+     * The album the photos are imported into.
+     */
+    private final Album album;
+
+    /**
+     * Flag set when the import is cancelled, checked by every worker between files.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Constructor for the importer.
+     * @param user The user who owns the album.
+     * @param album The album the photos are imported into.
+     */
+    public PhotoImporter(User user, Album album) {
+        this.user = user;
+        this.album = album;
+    }
+
+    /**
+     * Method to cancel the import. Workers stop at the next file and prepare throws a CancellationException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Method to check if the import was cancelled.
+     * @return True if the import was cancelled, false otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method to prepare the import of the selected files and folders.
+     * Folders are walked recursively. Nothing is added to the album by this method.
+     * @param sources The files and folders selected by the user.
+     * @param listener The listener for progress updates, may be null.
+     * @return The result of the prepare phase, to be passed to commit.
+     * @throws CancellationException If the import was cancelled.
+     */
+    public ImportResult prepare(List<File> sources, ProgressListener listener) {
+        ProgressListener progress = listener != null ? listener : (done, total) -> { };
+        // Stat calls are blocking I/O, so use more threads than cores to keep the disk busy
+        ForkJoinPool pool = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        try {
+            progress.progress(0, -1);
+
+            // Phase 1: walk the folders in parallel, keeping the selection order and dropping repeated paths
+            Set<String> paths = new LinkedHashSet<>();
+            Set<Object> visited = ConcurrentHashMap.newKeySet(); // Folders already walked, shared by every scan task
+            for (File source : sources) {
+                checkCancelled();
+                paths.addAll(pool.invoke(new DirectoryScan(source.toPath().toAbsolutePath().normalize(), visited)));
+            }
+
+            // Drop files that are already in this album using the album's path index
+            List<String> candidates = new ArrayList<>(paths.size());
+            int duplicates = 0;
+            for (String path : paths) {
+                if (album.containsPath(path)) {
+                    duplicates++;
+                } else {
+                    candidates.add(path);
+                }
+            }
+
+            // Phase 2: stat every file and read its header metadata on the worker pool, in parallel
+            int total = candidates.size();
+            AtomicInteger done = new AtomicInteger();
+            progress.progress(0, total);
+            List<Photo> statted = pool.submit(() -> candidates.parallelStream()
+                    .map(path -> {
+                        checkCancelled();
+                        Photo photo = createPhoto(path);
+                        progress.progress(done.incrementAndGet(), total);
+                        return photo;
+                    })
+                    .collect(Collectors.toList())).get();
+
+            // Collect the photos that could be read, the list keeps the order of the candidates
+            List<Photo> readable = new ArrayList<>(statted.size());
+            for (Photo photo : statted) {
+                if (photo != null) {
+                    readable.add(photo);
+                }
+            }
+
+            // Phase 3: drop copies of images that are already in one of the user's albums or earlier in the batch
+            List<Photo> photos = removeContentDuplicates(readable, pool);
+            duplicates += readable.size() - photos.size();
+            checkCancelled();
+            return new ImportResult(photos, duplicates, total - readable.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Import interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause();
+            }
+            throw new IllegalStateException("Import failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Method to commit a prepared import: adds the photos to the album and saves the user data once.
+     * Thumbnails for the first photos are then generated in the background.
+     * @param result The result of the prepare phase.
+     * @return The number of photos added to the album.
+     */
+    public int commit(ImportResult result) {
+        int added = album.addPhotos(result.getPhotos());
+        DataManager.saveUserData(user); // One save for the whole batch
+        ContentHasher.hashInBackground(user); // Fingerprint the new photos that weren't hashed during the import
+        PerceptualHasher.hashInBackground(user); // And compute their perceptual hashes for finding similar photos
+
+        // Generate the thumbnails the album view is about to show
+        List<Photo> photos = result.getPhotos();
+        List<Photo> prefetch = photos.subList(0, Math.min(photos.size(), THUMBNAIL_PREFETCH_LIMIT));
+        ThumbnailCache.prefetch(prefetch);
+        return added;
+    }
+
+    /**
+     * Helper method to drop photos whose content is already in one of the user's albums or earlier in the batch.
+     * Only photos that share their size with another photo are read: first the pre-hash rules out
+     * most of them, then the full content hash is computed for those that still match.
+     * Albums on disk are not read to find sizes: a new photo whose size one of them holds is hashed in full
+     * and looked up in the albums' content indexes, which only read the albums whose saved keys hold the content.
+     * The same file in another album is not a copy, it is the photo shared between the albums.
+     * The indexes must hold every photo for this, so existing photos of unknown size are hashed first, and albums on disk
+     * whose saved keys say some photos have no size or hash are read.
+     * @param photos The new photos, in import order.
+     * @param pool The worker pool to hash on.
+     * @return The new photos that are not copies, in import order.
+     * @throws InterruptedException If the import thread was interrupted.
+     * @throws ExecutionException If hashing failed unexpectedly.
+     */
+    private List<Photo> removeContentDuplicates(List<Photo> photos, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        // Group the new photos by size, a photo can only be a copy of one with the same size
+        Map<Long, List<Photo>> batchBySize = new HashMap<>();
+        for (Photo photo : photos) {
+            batchBySize.computeIfAbsent(photo.getFileSize(), size -> new ArrayList<>(1)).add(photo);
+        }
+        List<Album> albums = user.getAlbums();
+
+        // Existing photos of unknown size could be a copy of any new photo, so their size and hash are filled in first
+        List<Photo> unknownSize = new ArrayList<>();
+        for (Album other : albums) {
+            if (other.isLoaded() || !other.isContentComplete()) {
+                for (Photo photo : other.findIncompletePhotos()) { // Reads an album on disk whose keys can't be trusted
+                    if (photo.getFileSize() <= 0) {
+                        unknownSize.add(photo);
+                    }
+                }
+            }
+        }
+        pool.submit(() -> unknownSize.parallelStream().forEach(photo -> {
+            checkCancelled();
+            ContentHasher.ensureHash(photo); // Indexed by size and content as they are set
+        })).get();
+
+        // The ones of known size that aren't hashed yet are found by size and pre-hashed with the new photos
+        List<Photo> sizeMatches = new ArrayList<>();
+        List<Photo> toHash = new ArrayList<>();
+        for (Map.Entry<Long, List<Photo>> entry : batchBySize.entrySet()) {
+            List<Photo> existing = new ArrayList<>();
+            boolean onDisk = false;
+            for (Album other : albums) {
+                if (other.isLoaded()) {
+                    existing.addAll(other.findPhotosBySize(entry.getKey())); // A photo in two albums is pre-hashed twice at most
+                } else if (other.containsSize(entry.getKey())) {
+                    onDisk = true;
+                }
+            }
+            if (onDisk) {
+                toHash.addAll(entry.getValue()); // Nothing to pre-hash against, the content index decides
+            } else if (entry.getValue().size() > 1 || !existing.isEmpty()) {
+                sizeMatches.addAll(entry.getValue());
+                sizeMatches.addAll(existing);
+            }
+        }
+        if (sizeMatches.isEmpty() && toHash.isEmpty()) {
+            return photos; // Every size is unique, nothing needs to be read
+        }
+
+        // Pre-hash every size match in parallel, then keep the ones whose pre-hash matches another photo
+        String[] preHashes = new String[sizeMatches.size()];
+        pool.submit(() -> IntStream.range(0, sizeMatches.size()).parallel().forEach(i -> {
+            checkCancelled();
+            try {
+                preHashes[i] = ContentHasher.preHash(Path.of(sizeMatches.get(i).getFilePath()));
+            } catch (IOException e) {
+                preHashes[i] = null; // Unreadable files are treated as unique
+            }
+        })).get();
+        Map<String, List<Photo>> byPreHash = new HashMap<>();
+        for (int i = 0; i < preHashes.length; i++) {
+            if (preHashes[i] != null) {
+                byPreHash.computeIfAbsent(preHashes[i], hash -> new ArrayList<>(2)).add(sizeMatches.get(i));
+            }
+        }
+        for (List<Photo> group : byPreHash.values()) {
+            if (group.size() > 1) {
+                toHash.addAll(group);
+            }
+        }
+
+        // Full content hash for the remaining candidates, in parallel
+        // Existing photos hashed here go straight into their albums' content indexes
+        pool.submit(() -> toHash.parallelStream().forEach(photo -> {
+            checkCancelled();
+            ContentHasher.ensureHash(photo);
+        })).get();
+
+        // Keep the first photo of each content that no album of the user holds in another file
+        Set<String> keptContent = new HashSet<>();
+        List<Photo> unique = new ArrayList<>(photos.size());
+        for (Photo photo : photos) {
+            String contentHash = photo.getContentHash();
+            if (contentHash == null) {
+                unique.add(photo);
+            } else if (!keptContent.contains(contentHash) && !hasCopy(photo)) {
+                keptContent.add(contentHash); // Only kept photos count, a dropped copy must not hide the file it copies
+                unique.add(photo);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Helper method to check if one of the user's albums holds another file with the same content as a new photo.
+     * @param photo The new photo, with its content hash.
+     * @return True if a photo of the user with the same content references a different file.
+     */
+    private boolean hasCopy(Photo photo) {
+        for (Photo existing : user.findPhotosByContent(photo.getContentHash())) {
+            if (!existing.getFilePath().equals(photo.getFilePath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to create a photo for a file, reading its attributes with one stat call
+     * and its capture date, size and orientation from the file header.
+     * If the file is already in another album of the user, the caption and tags are carried over
+     * so that they are kept in sync with the existing copy.
+     * @param path The absolute file path.
+     * @return The new photo, or null if the file could not be read.
+     */
+    private Photo createPhoto(String path) {
+        try {
+            Path file = Path.of(path);
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Photo photo = new Photo(path, attributes, ImageMetadataReader.read(file));
+            List<Photo> existing = user.findPhotosByPath(path);
+            if (!existing.isEmpty()) {
+                photo.setCaption(existing.get(0).getCaption());
+                photo.setTags(new ArrayList<>(existing.get(0).getTags()));
+            }
+            return photo;
+        } catch (IOException e) {
+            System.err.println("Failed to read " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to stop the current worker if the import was cancelled.
+     * @throws CancellationException If the import was cancelled.
+     */
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Import cancelled.");
+        }
+    }
+
+    /**
+     * Helper method to check if a file name has one of the accepted image extensions.
+     * @param fileName The file name to check.
+     * @return True if the file is an image, false otherwise.
+     */
+    static boolean isImageFile(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && IMAGE_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Fork/join task to list the image files below a path.
+     * Each subfolder is scanned by its own forked task so large trees are walked on all worker threads.
+     * Links to folders are followed, but each folder is walked only once so a link back to an ancestor ends the walk.
+     */
+    private class DirectoryScan extends RecursiveTask<List<String>> {
+
+        /**
+         * Serial version UID, required because ForkJoinTask is serializable.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The file or folder to scan.
+         */
+        private final Path path;
+
+        /**
+         * The keys of the folders already walked by this import, see folderKey.
+         */
+        private final Set<Object> visited;
+
+        /**
+         * Constructor for the scan task.
+         * @param path The file or folder to scan.
+         * @param visited The keys of the folders already walked, shared by all tasks of the walk.
+         */
+        DirectoryScan(Path path, Set<Object> visited) {
+            this.path = path;
+            this.visited = visited;
+        }
+
+        /**
+         * Method to scan the path, forking a task for each subfolder.
+         * @return The absolute paths of the image files found, sorted within each folder.
+         */
+        @Override
+        protected List<String> compute() {
+            checkCancelled();
+            if (!Files.isDirectory(path)) {
+                return isImageFile(path.getFileName().toString()) ? List.of(path.toString()) : Collections.emptyList();
+            }
+            Object key = folderKey(path);
+            if (key == null || !visited.add(key)) {
+                return Collections.emptyList(); // Unreadable, or reached again through a link, already walked
+            }
+            List<Path> children = new ArrayList<>();
+            // DirectoryStream lists one folder without reading the whole tree up front
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path child : stream) {
+                    children.add(child);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read folder " + path + ": " + e.getMessage());
+            }
+            Collections.sort(children); // Stable order so imports of the same folder always list photos the same way
+
+            List<String> files = new ArrayList<>();
+            List<DirectoryScan> subfolders = new ArrayList<>();
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    DirectoryScan task = new DirectoryScan(child, visited);
+                    task.fork(); // Scan the subfolder on another worker
+                    subfolders.add(task);
+                } else if (isImageFile(child.getFileName().toString())) {
+                    files.add(child.toString());
+                }
+            }
+            for (DirectoryScan task : subfolders) {
+                files.addAll(task.join());
+            }
+            return files;
+        }
+
+        /**
+         * Helper method to get a key that is the same for every path to a folder, links included.
+         * Uses the file system's file key (device and inode) where there is one, the real path otherwise.
+         * @param folder The folder.
+         * @return The key, or null if the folder could not be read.
+         */
+        private Object folderKey(Path folder) {
+            try {
+                Object key = Files.readAttributes(folder, BasicFileAttributes.class).fileKey();
+                return key != null ? key : folder.toRealPath();
+            } catch (IOException e) {
+                System.err.println("Failed to read folder " + folder + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+}
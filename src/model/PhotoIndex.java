@@ -0,0 +1,201 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class to index the photos of an album in the Photos application by file path, file size and content hash,
+ * so finding the copies of a file or the candidates for a duplicate takes constant time.
+ * Kept by an album while its photos are in memory and updated one photo at a time as photos are added, removed
+ * or edited, together with the album's other running aggregates. Albums on disk answer from PhotoKeys instead.
+ * Not thread safe, albums guard their index with their own lock.
+ * @author ZB SL
+ */
+final class PhotoIndex {
+
+    /**
+     * The photos by file path.
+     */
+    private final Map<String, List<Photo>> byPath = new HashMap<>();
+
+    /**
+     * The photos by file size, photos of unknown size are left out.
+     */
+    private final Map<Long, List<Photo>> bySize = new HashMap<>();
+
+    /**
+     * The photos by content hash, photos not hashed yet are left out.
+     */
+    private final Map<String, List<Photo>> byContent = new HashMap<>();
+
+    /**
+     * The photos of unknown size or not hashed yet, which lookups by size or content can't find.
+     * Kept by identity so two copies of a file are both listed.
+     */
+    private final Set<Photo> incomplete = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Method to index a photo by its current file path, size and content hash.
+     * @param photo The photo.
+     */
+    void add(Photo photo) {
+        // computeIfAbsent creates the list the first time a key is seen
+        byPath.computeIfAbsent(photo.getFilePath(), path -> new ArrayList<>(1)).add(photo);
+        if (photo.getFileSize() > 0) {
+            bySize.computeIfAbsent(photo.getFileSize(), size -> new ArrayList<>(1)).add(photo);
+        }
+        addContent(photo, photo.getContentHash());
+        if (isIncomplete(photo.getFileSize(), photo.getContentHash())) {
+            incomplete.add(photo);
+        }
+    }
+
+    /**
+     * Method to stop indexing a photo, by the file path, size and content hash it was indexed with.
+     * @param photo The photo.
+     */
+    void remove(Photo photo) {
+        remove(byPath, photo.getFilePath(), photo);
+        remove(bySize, photo.getFileSize(), photo);
+        remove(byContent, photo.getContentHash(), photo);
+        incomplete.remove(photo);
+    }
+
+    /**
+     * Method to index a photo under its new content hash, once it is computed or after it was cleared.
+     * @param photo The photo.
+     * @param oldHash The content hash the photo was indexed with, may be null.
+     */
+    void contentChanged(Photo photo, String oldHash) {
+        remove(byContent, oldHash, photo);
+        addContent(photo, photo.getContentHash());
+        if (isIncomplete(photo.getFileSize(), photo.getContentHash())) {
+            incomplete.add(photo);
+        } else {
+            incomplete.remove(photo);
+        }
+    }
+
+    /**
+     * Method to find the photos that reference a file path.
+     * @param path The file path.
+     * @return A copy of the photos found, empty if there are none.
+     */
+    List<Photo> byPath(String path) {
+        return copyOf(byPath.get(path));
+    }
+
+    /**
+     * Method to find the photos with a file size.
+     * @param size The file size in bytes.
+     * @return A copy of the photos found, empty if there are none.
+     */
+    List<Photo> bySize(long size) {
+        return copyOf(bySize.get(size));
+    }
+
+    /**
+     * Method to find the photos with a content hash.
+     * @param contentHash The content hash.
+     * @return A copy of the photos found, empty if there are none.
+     */
+    List<Photo> byContent(String contentHash) {
+        return copyOf(byContent.get(contentHash));
+    }
+
+    /**
+     * Method to check if a photo references a file path.
+     * @param path The file path.
+     * @return True if a photo references it.
+     */
+    boolean hasPath(String path) {
+        return byPath.containsKey(path);
+    }
+
+    /**
+     * Method to check if a photo has a file size.
+     * @param size The file size in bytes.
+     * @return True if a photo has that size.
+     */
+    boolean hasSize(long size) {
+        return bySize.containsKey(size);
+    }
+
+    /**
+     * Method to check if a photo has a content hash.
+     * @param contentHash The content hash.
+     * @return True if a photo has that content.
+     */
+    boolean hasContent(String contentHash) {
+        return byContent.containsKey(contentHash);
+    }
+
+    /**
+     * Method to find the photos of unknown size or not hashed yet.
+     * @return A copy of the photos, empty if every photo has a size and a content hash.
+     */
+    List<Photo> incomplete() {
+        return new ArrayList<>(incomplete);
+    }
+
+    /**
+     * Method to check if every photo has a size and a content hash, so lookups by size and content find every copy.
+     * @return True if no photo is of unknown size or not hashed yet.
+     */
+    boolean isComplete() {
+        return incomplete.isEmpty();
+    }
+
+    /**
+     * Helper method to check if a photo with a size and content hash is missing from the size or content index.
+     * A size of 0 is unknown: photos saved before sizes were kept read back with 0.
+     * @param size The file size.
+     * @param contentHash The content hash, may be null.
+     * @return True if the size is unknown or the content not hashed yet.
+     */
+    static boolean isIncomplete(long size, String contentHash) {
+        return size <= 0 || contentHash == null;
+    }
+
+    /**
+     * Helper method to index a photo by a content hash.
+     * @param photo The photo.
+     * @param contentHash The content hash, ignored if null.
+     */
+    private void addContent(Photo photo, String contentHash) {
+        if (contentHash != null) {
+            byContent.computeIfAbsent(contentHash, hash -> new ArrayList<>(1)).add(photo);
+        }
+    }
+
+    /**
+     * Helper method to take a photo out of one of the indexes. Keys left without photos are removed.
+     * @param index The index.
+     * @param key The key the photo was indexed under, ignored if null.
+     * @param photo The photo.
+     * @param <K> The type of the keys.
+     */
+    private static <K> void remove(Map<K, List<Photo>> index, K key, Photo photo) {
+        if (key == null) {
+            return;
+        }
+        List<Photo> photos = index.get(key);
+        if (photos != null && photos.removeIf(indexed -> indexed == photo) && photos.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Helper method to copy an index entry so callers never see the index change under them.
+     * @param photos The index entry, may be null.
+     * @return A copy of the entry, or an empty list if the entry is null.
+     */
+    private static List<Photo> copyOf(List<Photo> photos) {
+        return photos != null ? new ArrayList<>(photos) : Collections.emptyList();
+    }
+}
@@ -0,0 +1,225 @@
+package model;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Class to describe the photos of an album as they were last saved, for lookups while the photos are not in memory.
+ * The file paths, sizes and content hashes of the photos are kept as sorted arrays of 64 bit keys, so an album
+ * on disk can tell in logarithmic time whether it holds a file, a size or a content, without reading its file.
+ * The perceptual hashes are kept with the key of their file path, so similar photos can be found among albums on disk.
+ * Saved with the album header, at 8 to 40 bytes per photo, and never changed: a save makes a new one.
+ * Keys are 64 bit hashes, so a match is checked against the photos once they are read.
+ * Photos of unknown size or not hashed yet can't be found by size or content, so the keys also say if there were any.
+ * The folders of the photos are kept as they are, so the library watcher can watch an album without reading it.
+ * @author ZB SL
+ */
+final class PhotoKeys implements Serializable {
+
+    /**
+     * Serial version UID for serialization.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The keys of the file paths, sorted.
+     */
+    private final long[] paths;
+
+    /**
+     * The file sizes, sorted and without repeats. Photos of unknown size are left out.
+     */
+    private final long[] sizes;
+
+    /**
+     * The keys of the content hashes, sorted and without repeats. Photos not hashed yet are left out.
+     */
+    private final long[] contents;
+
+    /**
+     * The perceptual hashes, in the order of the photos. Photos not hashed yet are left out.
+     */
+    private final long[] perceptualHashes;
+
+    /**
+     * The keys of the file paths of the perceptual hashes, at the same index.
+     */
+    private final long[] perceptualPaths;
+
+    /**
+     * Whether every photo had a file size and a content hash, so lookups by size and content find every copy.
+     * Keys saved before this was recorded read back as false, as if some photos were not hashed.
+     */
+    private final boolean complete;
+
+    /**
+     * The folders holding the photos, sorted and without repeats. Null for keys saved before the folders were kept.
+     */
+    private final String[] directories;
+
+    /**
+     * Constructor for the keys.
+     * @param paths The keys of the file paths, sorted.
+     * @param sizes The file sizes, sorted and without repeats.
+     * @param contents The keys of the content hashes, sorted and without repeats.
+     * @param perceptualHashes The perceptual hashes.
+     * @param perceptualPaths The keys of the file paths of the perceptual hashes.
+     * @param complete Whether every photo had a file size and a content hash.
+     * @param directories The folders holding the photos, sorted and without repeats.
+     */
+    private PhotoKeys(long[] paths, long[] sizes, long[] contents, long[] perceptualHashes, long[] perceptualPaths,
+            boolean complete, String[] directories) {
+        this.paths = paths;
+        this.sizes = sizes;
+        this.contents = contents;
+        this.perceptualHashes = perceptualHashes;
+        this.perceptualPaths = perceptualPaths;
+        this.complete = complete;
+        this.directories = directories;
+    }
+
+    /**
+     * Method to make the keys of a list of photos.
+     * @param photos The photos, as saved.
+     * @return The keys.
+     */
+    static PhotoKeys of(List<Photo> photos) {
+        long[] paths = new long[photos.size()];
+        long[] sizes = new long[photos.size()];
+        long[] contents = new long[photos.size()];
+        long[] perceptualHashes = new long[photos.size()];
+        long[] perceptualPaths = new long[photos.size()];
+        int sizeCount = 0;
+        int contentCount = 0;
+        int perceptualCount = 0;
+        boolean complete = true;
+        TreeSet<String> directories = new TreeSet<>();
+        for (int i = 0; i < photos.size(); i++) {
+            Photo photo = photos.get(i);
+            paths[i] = key(photo.getFilePath());
+            complete &= !PhotoIndex.isIncomplete(photo.getFileSize(), photo.getContentHash());
+            Path parent = Paths.get(photo.getFilePath()).getParent();
+            if (parent != null) {
+                directories.add(parent.toString());
+            }
+            if (photo.getFileSize() > 0) {
+                sizes[sizeCount++] = photo.getFileSize();
+            }
+            if (photo.getContentHash() != null) {
+                contents[contentCount++] = key(photo.getContentHash());
+            }
+            if (photo.getPerceptualHash() != null) {
+                perceptualHashes[perceptualCount] = photo.getPerceptualHash();
+                perceptualPaths[perceptualCount++] = paths[i];
+            }
+        }
+        Arrays.sort(paths);
+        return new PhotoKeys(paths, distinct(sizes, sizeCount), distinct(contents, contentCount),
+                Arrays.copyOf(perceptualHashes, perceptualCount), Arrays.copyOf(perceptualPaths, perceptualCount), complete,
+                directories.toArray(new String[0]));
+    }
+
+    /**
+     * Method to make the 64 bit key of a file path or a content hash, with the FNV-1a hash.
+     * @param value The file path or content hash.
+     * @return The key.
+     */
+    static long key(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Method to check if a photo referenced a file path.
+     * @param path The file path.
+     * @return True if a photo's path has the same key.
+     */
+    boolean hasPath(String path) {
+        return Arrays.binarySearch(paths, key(path)) >= 0;
+    }
+
+    /**
+     * Method to check if a photo had a file size.
+     * @param size The file size in bytes.
+     * @return True if a photo had that size.
+     */
+    boolean hasSize(long size) {
+        return Arrays.binarySearch(sizes, size) >= 0;
+    }
+
+    /**
+     * Method to check if a photo had a content hash.
+     * @param contentHash The content hash.
+     * @return True if a photo's content hash has the same key.
+     */
+    boolean hasContent(String contentHash) {
+        return Arrays.binarySearch(contents, key(contentHash)) >= 0;
+    }
+
+    /**
+     * Getter for complete.
+     * @return True if every photo had a file size and a content hash when the keys were made.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Getter for directories.
+     * @return The folders holding the photos, or null if the keys were saved before the folders were kept.
+     */
+    List<String> getDirectories() {
+        return directories == null ? null : List.of(directories);
+    }
+
+    /**
+     * Getter for the number of perceptual hashes.
+     * @return The number of photos that had a perceptual hash.
+     */
+    int perceptualCount() {
+        return perceptualHashes.length;
+    }
+
+    /**
+     * Getter for a perceptual hash.
+     * @param index The index, from 0 to perceptualCount - 1.
+     * @return The perceptual hash.
+     */
+    long perceptualHash(int index) {
+        return perceptualHashes[index];
+    }
+
+    /**
+     * Getter for the key of the file path of a perceptual hash.
+     * @param index The index, from 0 to perceptualCount - 1.
+     * @return The key of the file path of the photo with the perceptual hash.
+     */
+    long perceptualPath(int index) {
+        return perceptualPaths[index];
+    }
+
+    /**
+     * Helper method to sort the start of an array and drop repeated values.
+     * @param values The values.
+     * @param count The number of values used at the start of the array.
+     * @return A new array with the values sorted, each once.
+     */
+    private static long[] distinct(long[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept == 0 || values[i] != values[kept - 1]) {
+                values[kept++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, kept);
+    }
+}
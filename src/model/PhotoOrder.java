@@ -0,0 +1,322 @@
+package model;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Enum of the orders photos can be listed in for albums and search results in the Photos application.
+ * Sorting works on sort keys computed once per photo, so comparisons never allocate or re-read photo fields.
+ * When only the first few photos of a large list are needed, they are selected with a bounded heap
+ * instead of sorting the whole list.
+ * @author ZB SL
+ */
+public enum PhotoOrder {
+
+    /**
+     * Oldest photos first.
+     */
+    DATE_ASCENDING("Date (oldest first)"),
+
+    /**
+     * Newest photos first.
+     */
+    DATE_DESCENDING("Date (newest first)"),
+
+    /**
+     * By caption, alphabetically and ignoring case.
+     */
+    CAPTION("Caption"),
+
+    /**
+     * Photos with the most of the searched tags first, then photos with the most tags.
+     */
+    TAG_RELEVANCE("Tag relevance"),
+
+    /**
+     * Photos most recently added to their album first.
+     */
+    RECENTLY_ADDED("Recently added");
+
+    /**
+     * The name of the order shown to the user.
+     */
+    private final String label;
+
+    /**
+     * Constructor that takes the name of the order shown to the user.
+     * @param label The name of the order.
+     */
+    PhotoOrder(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Method to sort photos into this order. Photos that compare equal keep their relative order.
+     * @param photos The photos to sort, not modified.
+     * @param relevanceTags The searched tags used by the tag relevance order, may be empty.
+     * @return A new list with the photos in this order.
+     */
+    public List<Photo> sort(Collection<Photo> photos, Collection<Tag> relevanceTags) {
+        List<SortKey> keys = keys(photos, relevanceTags);
+        Collections.sort(keys);
+        return photosOf(keys);
+    }
+
+    /**
+     * Method to get the first photos in this order without sorting all of them.
+     * Takes O(n log k) time for n photos, instead of O(n log n) for a full sort.
+     * @param photos The photos to choose from, not modified.
+     * @param relevanceTags The searched tags used by the tag relevance order, may be empty.
+     * @param count The number of photos wanted.
+     * @return A new list with the first photos in this order, at most count of them.
+     */
+    public List<Photo> top(Collection<Photo> photos, Collection<Tag> relevanceTags, int count) {
+        return photosOf(selectTop(keys(photos, relevanceTags), count));
+    }
+
+    /**
+     * Method to get a comparator for this order, for keeping a sorted list in order as photos are added or edited.
+     * Photos that compare equal compare as zero, the tag relevance order only counts the photos' tags.
+     * @return The comparator.
+     */
+    public Comparator<Photo> comparator() {
+        Set<String> noTags = Collections.emptySet();
+        return (p1, p2) -> keyOf(p1, 0, noTags).compareTo(keyOf(p2, 0, noTags));
+    }
+
+    /**
+     * Method to compute the sort key of a photo for this order.
+     * @param photo The photo.
+     * @param sequence The position of the photo in its list, used to keep equal photos in their original order.
+     * @param relevanceKeys The searched tags used by the tag relevance order, from relevanceKeys.
+     * @return The sort key.
+     */
+    SortKey keyOf(Photo photo, int sequence, Set<String> relevanceKeys) {
+        switch (this) {
+            case DATE_ASCENDING:
+                return new SortKey(photo, dateKey(photo), null, sequence);
+            case DATE_DESCENDING:
+                return new SortKey(photo, -dateKey(photo), null, sequence);
+            case CAPTION:
+                String caption = photo.getCaption() == null ? "" : photo.getCaption().toLowerCase(Locale.ROOT);
+                return new SortKey(photo, 0, caption, sequence);
+            case TAG_RELEVANCE:
+                int matched = 0;
+                if (!relevanceKeys.isEmpty()) {
+                    for (Tag tag : photo.getTags()) {
+                        if (relevanceKeys.contains(tagKey(tag))) {
+                            matched++;
+                        }
+                    }
+                }
+                // More matched tags first, then more tags overall
+                return new SortKey(photo, -(((long) matched << 32) | photo.getTags().size()), null, sequence);
+            case RECENTLY_ADDED:
+                return new SortKey(photo, -photo.getDateAdded(), null, sequence);
+            default:
+                throw new IllegalStateException("Unknown order " + this);
+        }
+    }
+
+    /**
+     * Method to select the smallest keys, in order, using a bounded heap.
+     * @param keys The keys to choose from, not modified.
+     * @param count The number of keys wanted.
+     * @return The first keys in order, at most count of them.
+     */
+    static List<SortKey> selectTop(Collection<SortKey> keys, int count) {
+        Selection selection = new Selection(count);
+        for (SortKey key : keys) {
+            selection.add(key);
+        }
+        return selection.toList();
+    }
+
+    /**
+     * To string method, used by the order choice boxes.
+     * @return The name of the order shown to the user.
+     */
+    @Override
+    public String toString() {
+        return label;
+    }
+
+    /**
+     * Helper method to compute the sort keys of photos.
+     * @param photos The photos.
+     * @param relevanceTags The searched tags used by the tag relevance order, may be empty.
+     * @return The sort keys, in the order of the photos.
+     */
+    private List<SortKey> keys(Collection<Photo> photos, Collection<Tag> relevanceTags) {
+        Set<String> relevanceKeys = relevanceKeys(relevanceTags);
+        List<SortKey> keys = new ArrayList<>(photos.size());
+        int sequence = 0;
+        for (Photo photo : photos) {
+            keys.add(keyOf(photo, sequence++, relevanceKeys));
+        }
+        return keys;
+    }
+
+    /**
+     * Method to prepare searched tags for the tag relevance order.
+     * Tags are matched ignoring case, like the tag search does.
+     * @param relevanceTags The searched tags, may be empty.
+     * @return The lookup keys of the tags.
+     */
+    static Set<String> relevanceKeys(Collection<Tag> relevanceTags) {
+        Set<String> keys = new HashSet<>();
+        for (Tag tag : relevanceTags) {
+            keys.add(tagKey(tag));
+        }
+        return keys;
+    }
+
+    /**
+     * Helper method to get the case-insensitive lookup key of a tag.
+     * @param tag The tag.
+     * @return The tag name and value in lower case.
+     */
+    private static String tagKey(Tag tag) {
+        return tag.getTagName().toLowerCase(Locale.ROOT) + "=" + tag.getTagValue().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Helper method to get the photos of sort keys.
+     * @param keys The sort keys.
+     * @return The photos, in the order of the keys.
+     */
+    private static List<Photo> photosOf(List<SortKey> keys) {
+        List<Photo> photos = new ArrayList<>(keys.size());
+        for (SortKey key : keys) {
+            photos.add(key.photo);
+        }
+        return photos;
+    }
+
+    /**
+     * Helper method to turn a photo's date into a number that sorts the same way.
+     * @param photo The photo.
+     * @return The date in nanoseconds since the epoch, or the smallest value if the photo has no date.
+     */
+    private static long dateKey(Photo photo) {
+        if (photo.getDate() == null) {
+            return Long.MIN_VALUE + 1; // Plus one so it can still be negated for the descending order
+        }
+        return photo.getDate().toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + photo.getDate().getNano();
+    }
+
+    /**
+     * Class to select the smallest keys offered to it one at a time with a bounded heap,
+     * so keys can be computed while scanning and only the selected ones are kept.
+     */
+    static final class Selection {
+
+        /**
+         * The number of keys wanted.
+         */
+        private final int count;
+
+        /**
+         * Max-heap of the best keys so far, so the worst of them is on top and can be replaced.
+         */
+        private final PriorityQueue<SortKey> heap;
+
+        /**
+         * Constructor that takes the number of keys wanted.
+         * @param count The number of keys wanted.
+         */
+        Selection(int count) {
+            this.count = count;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(count, 1024)), Collections.reverseOrder());
+        }
+
+        /**
+         * Method to offer a key, kept if it is one of the smallest offered so far.
+         * @param key The key.
+         */
+        void add(SortKey key) {
+            if (heap.size() < count) {
+                heap.add(key);
+            } else if (count > 0 && key.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(key);
+            }
+        }
+
+        /**
+         * Method to get the selected keys.
+         * @return The smallest keys offered, in order, at most count of them.
+         */
+        List<SortKey> toList() {
+            List<SortKey> top = new ArrayList<>(heap);
+            Collections.sort(top);
+            return top;
+        }
+    }
+
+    /**
+     * Class to hold a photo with its precomputed sort key.
+     * Keys compare by number first, then by text, then by position, so sorts are stable.
+     */
+    static final class SortKey implements Comparable<SortKey> {
+
+        /**
+         * The photo.
+         */
+        final Photo photo;
+
+        /**
+         * The numeric part of the key.
+         */
+        private final long number;
+
+        /**
+         * The text part of the key, or null if the order doesn't use text.
+         */
+        private final String text;
+
+        /**
+         * The position of the photo in its original list.
+         */
+        private final int sequence;
+
+        /**
+         * Constructor that takes the photo and the parts of its key.
+         * @param photo The photo.
+         * @param number The numeric part of the key.
+         * @param text The text part of the key, or null if the order doesn't use text.
+         * @param sequence The position of the photo in its original list.
+         */
+        SortKey(Photo photo, long number, String text, int sequence) {
+            this.photo = photo;
+            this.number = number;
+            this.text = text;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Method to compare this key to another key.
+         * @param other The other key.
+         * @return A negative number, zero, or a positive number as this key sorts before, with or after the other key.
+         */
+        @Override
+        public int compareTo(SortKey other) {
+            int result = Long.compare(number, other.number);
+            if (result == 0 && text != null && other.text != null) {
+                result = text.compareTo(other.text);
+            }
+            if (result == 0) {
+                result = Integer.compare(sequence, other.sequence);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Class to read the results of a photo search a page at a time in the Photos application.
+ * Matches are found lazily: the albums are only scanned as far as needed to fill the pages that are read,
+ * so the first page is ready as soon as enough matches are found, however many there are in total.
+ * Results come in a stable order, album by album in the user's album order and then in each album's photo order.
+ * A cursor can also return results in a PhotoOrder. Every album is then scanned for each batch of results,
+ * keeping only the best keys after the last result in a bounded heap, so no key is kept for the other matches.
+ * A photo in several albums is only returned once, from the first album searched that holds a matching copy.
+ * The cursor only keeps the page read last and the results found ahead of it, plus where to resume,
+ * so its memory doesn't grow with the number of results. Reading an earlier page scans again from the start.
+ * Each page is read from its own snapshot, see Snapshot, opened for the read and closed right after,
+ * so a cursor left open never keeps old versions alive. Every page sees the photos as they were at one moment,
+ * and edits made between pages show in later pages: a photo moved past the last result read can be skipped or
+ * returned again. Results are the photo objects themselves, so they show their current captions and tags.
+ * @author ZB SL
+ */
+public class SearchCursor {
+
+    /**
+     * The smallest number of ordered results selected by one scan of every album.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The albums being searched, copied when the cursor is created so the order stays the same.
+     */
+    private final List<Album> albums;
+
+    /**
+     * The condition a photo has to meet to be a result.
+     */
+    private final Predicate<Photo> filter;
+
+    /**
+     * The condition an album has to meet to be scanned at all, so albums that can't have results are skipped whole.
+     */
+    private final Predicate<Album> albumFilter;
+
+    /**
+     * The order of the results, or null for album order.
+     */
+    private final PhotoOrder order;
+
+    /**
+     * The searched tags used by the tag relevance order.
+     */
+    private final Set<String> relevanceKeys;
+
+    /**
+     * The results kept, in order: the last page read and the results found after it.
+     */
+    private final List<Photo> window = new ArrayList<>();
+
+    /**
+     * The index of the first result kept in the window.
+     */
+    private int windowStart;
+
+    /**
+     * The sort key of the last result found, where the next ordered batch starts, or null before the first batch.
+     */
+    private PhotoOrder.SortKey lastKey;
+
+    /**
+     * The photo list of the album the scan is in as seen by the snapshot being read, or null before the scan reaches it.
+     */
+    private List<Photo> albumPhotos;
+
+    /**
+     * The index of the album the scan is in.
+     */
+    private int albumIndex;
+
+    /**
+     * The index of the next photo to look at in the current album.
+     */
+    private int photoIndex;
+
+    /**
+     * The photo before photoIndex in the current album, to find where to resume if the album changed between pages.
+     */
+    private Photo lastPhoto;
+
+    /**
+     * Whether every match has been found.
+     */
+    private boolean exhausted;
+
+    /**
+     * Whether the cursor was closed, so no more albums are scanned.
+     */
+    private boolean closed;
+
+    /**
+     * The index after the last result of the last page read, where the next page starts.
+     */
+    private int readCount;
+
+    /**
+     * Constructor that takes the user whose photos are searched and the search condition.
+     * No photos are looked at until a page is read.
+     * @param user The user whose albums are searched.
+     * @param filter The condition a photo has to meet to be a result.
+     */
+    public SearchCursor(User user, Predicate<Photo> filter) {
+        this(user, filter, null, Collections.emptyList());
+    }
+
+    /**
+     * Constructor that takes the user whose photos are searched, the search condition and the order of the results.
+     * No photos are looked at until a page is read.
+     * @param user The user whose albums are searched.
+     * @param filter The condition a photo has to meet to be a result.
+     * @param order The order of the results, or null for album order.
+     * @param relevanceTags The searched tags used by the tag relevance order, may be empty.
+     */
+    public SearchCursor(User user, Predicate<Photo> filter, PhotoOrder order, Collection<Tag> relevanceTags) {
+        this(user, album -> true, filter, order, relevanceTags);
+    }
+
+    /**
+     * Constructor that also takes a condition on the albums, used by the factory methods.
+     * @param user The user whose albums are searched.
+     * @param albumFilter The condition an album has to meet to be scanned.
+     * @param filter The condition a photo has to meet to be a result.
+     * @param order The order of the results, or null for album order.
+     * @param relevanceTags The searched tags used by the tag relevance order, may be empty.
+     */
+    private SearchCursor(User user, Predicate<Album> albumFilter, Predicate<Photo> filter, PhotoOrder order, Collection<Tag> relevanceTags) {
+        try (Snapshot snapshot = Snapshot.open()) {
+            this.albums = snapshot.read(() -> new ArrayList<>(user.getAlbums()));
+        }
+        this.albumFilter = albumFilter;
+        this.filter = filter;
+        this.order = order;
+        this.relevanceKeys = PhotoOrder.relevanceKeys(relevanceTags);
+    }
+
+    /**
+     * Method to create a cursor over some of the user's albums only, for example the albums named in a command.
+     * Albums that don't meet the condition are skipped without reading their photos.
+     * @param user The user whose albums are searched.
+     * @param albumFilter The condition an album has to meet to be searched.
+     * @param filter The condition a photo has to meet to be a result.
+     * @return The cursor, with results in album order.
+     */
+    public static SearchCursor inAlbums(User user, Predicate<Album> albumFilter, Predicate<Photo> filter) {
+        return new SearchCursor(user, albumFilter, filter, null, Collections.emptyList());
+    }
+
+    /**
+     * Method to create a cursor over the photos taken in a date range, for example a bucket of the timeline.
+     * Albums whose earliest and latest dates are both outside the range are skipped without looking at their photos.
+     * @param user The user whose albums are searched.
+     * @param start The start of the range, inclusive.
+     * @param end The end of the range, inclusive.
+     * @param order The order of the results, or null for album order.
+     * @return The cursor.
+     */
+    public static SearchCursor inDateRange(User user, LocalDateTime start, LocalDateTime end, PhotoOrder order) {
+        return new SearchCursor(user, album -> {
+            // The album's date range comes from its running aggregates, so this doesn't scan the album
+            LocalDateTime earliest = album.getEarliestDate();
+            LocalDateTime latest = album.getLatestDate();
+            return earliest != null && !earliest.isAfter(end) && !latest.isBefore(start);
+        }, photo -> {
+            LocalDateTime date = photo.getDate();
+            return date != null && !date.isBefore(start) && !date.isAfter(end);
+        }, order, Collections.emptyList());
+    }
+
+    /**
+     * Method to read a page of results, scanning further into the albums if needed.
+     * A page before the results kept is found by scanning again from the start.
+     * @param offset The index of the first result of the page.
+     * @param limit The largest number of results in the page.
+     * @return The results of the page, fewer than the limit (or none) if the search runs out of results.
+     */
+    public List<Photo> getPage(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
+        }
+        if (offset < windowStart) {
+            if (closed) {
+                return Collections.emptyList(); // The results were dropped and can't be found again
+            }
+            rewind();
+        }
+        int end = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        if (windowStart + window.size() < end && !exhausted) {
+            scan(() -> {
+                dropBefore(offset);
+                if (order != null) {
+                    // Batches of at least a page, so a long read doesn't scan every album once per result
+                    while (windowStart + window.size() < end && !exhausted) {
+                        selectNext(offset, Math.max(end - windowStart - window.size(), BATCH_SIZE));
+                    }
+                } else {
+                    // Scan until the page is filled or there are no more matches
+                    while (windowStart + window.size() < end && findNext(offset)) {
+                        // findNext adds the match to the window
+                    }
+                }
+            });
+        }
+        int found = windowStart + window.size();
+        List<Photo> page = Collections.emptyList();
+        if (offset < found) {
+            int pageEnd = Math.min(found, end);
+            page = new ArrayList<>(window.subList(offset - windowStart, pageEnd - windowStart));
+            readCount = pageEnd;
+        }
+        dropBefore(Math.min(offset, found)); // Keep the page so it can be read again
+        return page;
+    }
+
+    /**
+     * Method to read the page of results after the ones read so far.
+     * @param limit The largest number of results in the page.
+     * @return The next results, none if the search has run out of results.
+     */
+    public List<Photo> nextPage(int limit) {
+        return getPage(readCount, limit);
+    }
+
+    /**
+     * Method to read every result, for example to create an album from the whole search.
+     * The albums are scanned again from the start in one snapshot, and the results are not kept by the cursor.
+     * @return All results of the search, in order, or the results kept if the cursor was closed.
+     */
+    public List<Photo> getAll() {
+        if (closed) {
+            return new ArrayList<>(window);
+        }
+        List<Photo> all = new ArrayList<>();
+        List<PhotoOrder.SortKey> keys = new ArrayList<>();
+        scan(() -> forEachMatch((photo, sequence) -> {
+            if (order == null) {
+                all.add(photo);
+            } else {
+                keys.add(order.keyOf(photo, sequence, relevanceKeys));
+            }
+        }));
+        if (order != null) {
+            // Every result is wanted, so a full sort is cheaper than selecting them a batch at a time
+            Collections.sort(keys);
+            for (PhotoOrder.SortKey key : keys) {
+                all.add(key.photo);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Method to check if there may be results after the ones read so far.
+     * @return False if every match has been found and read, true otherwise.
+     */
+    public boolean hasMore() {
+        return readCount < windowStart + window.size() || !exhausted;
+    }
+
+    /**
+     * Method to stop the search early, for example when the view showing it is left.
+     * Only the results kept can be read afterwards.
+     */
+    public void close() {
+        closed = true;
+        exhausted = true;
+        albumPhotos = null;
+        lastPhoto = null;
+        lastKey = null;
+    }
+
+    /**
+     * Getter for the number of results read so far.
+     * @return The index after the last result of the last page read.
+     */
+    public int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Helper method to select the next batch of ordered results, the best matches after the last result found.
+     * Scans every album, offering the keys after the last one to a bounded heap, so only the batch is kept.
+     * Must be called by scan, so the photos are read as seen by the snapshot.
+     * @param offset The index of the first result of the page being read, results before it are not kept.
+     * @param count The number of results wanted.
+     */
+    private void selectNext(int offset, int count) {
+        PhotoOrder.Selection selection = new PhotoOrder.Selection(count);
+        int[] remaining = {0};
+        forEachMatch((photo, sequence) -> {
+            PhotoOrder.SortKey key = order.keyOf(photo, sequence, relevanceKeys);
+            if (lastKey == null || key.compareTo(lastKey) > 0) {
+                remaining[0]++;
+                selection.add(key);
+            }
+        });
+        List<PhotoOrder.SortKey> best = selection.toList();
+        for (PhotoOrder.SortKey key : best) {
+            keep(key.photo, offset);
+        }
+        if (!best.isEmpty()) {
+            lastKey = best.get(best.size() - 1);
+        }
+        exhausted = remaining[0] <= best.size();
+    }
+
+    /**
+     * Helper method to run code on every match, in album order, skipping copies of a photo already matched.
+     * Must be called by scan, so the photos are read as seen by the snapshot.
+     * @param action The code, given the photo and its position among the photos of the scanned albums.
+     */
+    private void forEachMatch(ObjIntConsumer<Photo> action) {
+        int sequence = 0;
+        for (int i = 0; i < albums.size(); i++) {
+            Album album = albums.get(i);
+            if (!albumFilter.test(album)) {
+                continue; // Skip the whole album
+            }
+            List<Photo> photos = album.getPhotos();
+            for (int j = 0; j < photos.size(); j++) {
+                Photo photo = photos.get(j);
+                if (filter.test(photo) && isFirstCopy(photo, i, photos, j)) {
+                    action.accept(photo, sequence);
+                }
+                sequence++;
+            }
+        }
+    }
+
+    /**
+     * Helper method to scan forward to the next match in album order and add it to the window.
+     * Resumes after the last photo looked at, even if photos were added or removed before it since the last page.
+     * Must be called by scan, so the photos are read as seen by the snapshot.
+     * @param offset The index of the first result of the page being read, results before it are not kept.
+     * @return True if a match was found, false if every album has been scanned.
+     */
+    private boolean findNext(int offset) {
+        while (!exhausted) {
+            if (albumIndex >= albums.size()) {
+                exhausted = true;
+                break;
+            }
+            Album album = albums.get(albumIndex);
+            if (photoIndex == 0 && !albumFilter.test(album)) {
+                albumIndex++; // Skip the whole album
+                continue;
+            }
+            if (albumPhotos == null) {
+                albumPhotos = album.getPhotos(); // Never changes while the snapshot is open
+                photoIndex = resumeIndex(albumPhotos);
+            }
+            if (photoIndex >= albumPhotos.size()) {
+                // Move on to the next album
+                albumIndex++;
+                photoIndex = 0;
+                albumPhotos = null;
+                lastPhoto = null;
+                continue;
+            }
+            int index = photoIndex++;
+            Photo photo = albumPhotos.get(index);
+            lastPhoto = photo;
+            if (filter.test(photo) && isFirstCopy(photo, albumIndex, albumPhotos, index)) {
+                keep(photo, offset);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method to find where to resume the scan of the current album in the photo list of a new snapshot.
+     * @param photos The album's photos as seen by the snapshot.
+     * @return The index after the last photo looked at, or where it was if it has been removed since.
+     */
+    private int resumeIndex(List<Photo> photos) {
+        if (lastPhoto == null) {
+            return Math.min(photoIndex, photos.size());
+        }
+        if (photoIndex <= photos.size() && photos.get(photoIndex - 1) == lastPhoto) {
+            return photoIndex; // Nothing moved before it, the usual case
+        }
+        for (int i = 0; i < photos.size(); i++) {
+            if (photos.get(i) == lastPhoto) {
+                return i + 1;
+            }
+        }
+        return Math.min(photoIndex, photos.size());
+    }
+
+    /**
+     * Helper method to check if a match is the first matching copy of its file in the search,
+     * looking up the file path in the albums searched before it instead of keeping every path returned.
+     * @param photo The match.
+     * @param albumPosition The index of its album in the albums searched.
+     * @param photos The photos of its album as seen by the snapshot.
+     * @param index The index of the match in its album.
+     * @return True if no album searched before, and no photo before it in its album, holds a matching copy.
+     */
+    private boolean isFirstCopy(Photo photo, int albumPosition, List<Photo> photos, int index) {
+        String path = photo.getFilePath();
+        for (int i = 0; i < albumPosition; i++) {
+            Album earlier = albums.get(i);
+            if (!albumFilter.test(earlier)) {
+                continue;
+            }
+            // Looked up in the album's path index, so albums without the file cost one lookup
+            for (Photo copy : earlier.findPhotosByPath(path)) {
+                if (filter.test(copy)) {
+                    return false;
+                }
+            }
+        }
+        if (albums.get(albumPosition).findPhotosByPath(path).size() > 1) {
+            // The album holds the file more than once, only the first matching copy is returned
+            for (int i = 0; i < index; i++) {
+                Photo copy = photos.get(i);
+                if (path.equals(copy.getFilePath()) && filter.test(copy)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to add a result to the window, or only count it if it comes before the page being read.
+     * @param photo The result.
+     * @param offset The index of the first result of the page being read.
+     */
+    private void keep(Photo photo, int offset) {
+        if (window.isEmpty() && windowStart < offset) {
+            windowStart++;
+        } else {
+            window.add(photo);
+        }
+    }
+
+    /**
+     * Helper method to drop the results kept before an index.
+     * @param index The index of the first result to keep.
+     */
+    private void dropBefore(int index) {
+        int count = Math.min(window.size(), index - windowStart);
+        if (count > 0) {
+            window.subList(0, count).clear();
+            windowStart += count;
+        }
+    }
+
+    /**
+     * Helper method to go back to the start of the search, to find results that are no longer kept.
+     */
+    private void rewind() {
+        window.clear();
+        windowStart = 0;
+        lastKey = null;
+        albumPhotos = null;
+        albumIndex = 0;
+        photoIndex = 0;
+        lastPhoto = null;
+        exhausted = false;
+    }
+
+    /**
+     * Helper method to run part of the scan reading a snapshot opened for it and closed right after.
+     * @param part The part of the scan.
+     */
+    private void scan(Runnable part) {
+        if (closed) {
+            return;
+        }
+        try (Snapshot snapshot = Snapshot.open()) {
+            snapshot.read(() -> {
+                part.run();
+                return null;
+            });
+        } finally {
+            albumPhotos = null; // Only valid in the snapshot, the next scan reads the album again
+        }
+    }
+}
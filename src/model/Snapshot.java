@@ -0,0 +1,90 @@
+package model;
+
+import java.lang.ref.Cleaner;
+import java.util.function.Supplier;
+
+/**
+ * Class to read the users, albums and photos of the Photos application as they were at one moment,
+ * while they keep being edited. Opening a snapshot copies nothing and doesn't stop anyone:
+ * a change made afterwards copies just what it changes, and only while a snapshot can still see the old version.
+ * Saves and searches read snapshots, so they never see an edit half made and never hold up the user.
+ * Code run by read sees the album lists of users, the photo lists of albums, the tag types and the
+ * file path, date, caption, tags and file information of photos as they were when the snapshot was opened,
+ * and the names and modification dates of albums with them. Counts and other aggregates are read as they are now,
+ * a save counts the headers it writes from the photos of its snapshot instead.
+ * Snapshots should be closed when done with, a snapshot that is never closed is closed when it is garbage collected.
+ * @author ZB SL
+ */
+public final class Snapshot implements AutoCloseable {
+
+    /**
+     * Closes snapshots that are garbage collected without being closed.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * The version of the data the snapshot sees.
+     */
+    private final long version;
+
+    /**
+     * The action that closes the snapshot, run once by close or by the cleaner.
+     */
+    private final Cleaner.Cleanable closer;
+
+    /**
+     * Whether the snapshot was closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor for a snapshot of the current data.
+     */
+    private Snapshot() {
+        long opened = ModelVersion.open();
+        this.version = opened;
+        // The action must not refer to the snapshot, or it would never be garbage collected
+        this.closer = CLEANER.register(this, () -> ModelVersion.close(opened));
+    }
+
+    /**
+     * Method to open a snapshot of the current data.
+     * Never waits. An edit of a user begun before is seen whole: the snapshot's first read of that user's albums
+     * waits for it to end, and edits made afterwards don't wait for the snapshot.
+     * @return The snapshot.
+     */
+    public static Snapshot open() {
+        return new Snapshot();
+    }
+
+    /**
+     * Getter for version.
+     * @return The version of the data the snapshot sees.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Method to run code that reads the data as it was when the snapshot was opened.
+     * The code must only read, and objects it gets may be read outside the snapshot as they are now.
+     * @param reader The code.
+     * @param <T> The type of the result.
+     * @return The result of the code.
+     */
+    public <T> T read(Supplier<T> reader) {
+        if (closed) {
+            throw new IllegalStateException("Snapshot " + version + " is closed");
+        }
+        return ModelVersion.readAt(version, reader);
+    }
+
+    /**
+     * Method to close the snapshot, so older versions only it could see can be dropped. Closing twice does nothing.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closer.clean();
+    }
+}
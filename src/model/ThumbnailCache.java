@@ -0,0 +1,315 @@
+package model;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Class to cache photo thumbnails in memory for the Photos application.
+ * Thumbnails are keyed by the photo's cache key and kept in a bounded least-recently-used map,
+ * so scrolling an album or re-opening it does not decode the original files again.
+ * Photos with a known content hash are keyed by it, so copies of the same image share one thumbnail.
+ * Thumbnails can also be generated ahead of time on a small pool of background threads.
+ * Album previews, a cover or a 2x2 mosaic of the album's first photos, are composed from these thumbnails on the
+ * same threads and cached next to them, keyed by the photos they show, so a change to the album's first photos
+ * gives a new key and the albums table never decodes an original file itself.
+ * @author ZB SL
+ */
+public class ThumbnailCache {
+
+    /**
+     * The width for the thumbnail.
+     */
+    public static final int THUMBNAIL_WIDTH = 100;
+
+    /**
+     * The height for the thumbnail.
+     */
+    public static final int THUMBNAIL_HEIGHT = 100;
+
+    /**
+     * The maximum number of thumbnails kept in memory.
+     * A 100x100 thumbnail is about 40KB decoded, so this bounds the cache to roughly 200MB.
+     */
+    private static final int MAX_ENTRIES = 5000;
+
+    /**
+     * The width and height of an album preview.
+     */
+    public static final int PREVIEW_SIZE = 64;
+
+    /**
+     * The maximum number of album previews kept in memory.
+     * A 64x64 preview is about 16KB, so this bounds the previews to roughly 16MB.
+     */
+    private static final int MAX_PREVIEWS = 1000;
+
+    /**
+     * The in-memory map of cache keys to thumbnails.
+     * The LinkedHashMap is created in access order so the eldest entry is the least recently used one.
+     */
+    private static final Map<String, Image> cache = new LinkedHashMap<String, Image>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_ENTRIES; // Evict the least recently used thumbnail once the cache is full
+        }
+    };
+
+    /**
+     * The in-memory map of preview keys to album previews, least recently used first.
+     */
+    private static final Map<String, Image> previews = new LinkedHashMap<String, Image>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_PREVIEWS;
+        }
+    };
+
+    /**
+     * The pool of background threads used to generate thumbnails ahead of time.
+     * Daemon threads are used so that pending work never keeps the application from exiting.
+     */
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "thumbnail-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private ThumbnailCache() {
+    }
+
+    /**
+     * Method to get the thumbnail for a photo, decoding it if it is not cached yet.
+     * @param photo The photo.
+     * @return The thumbnail of the photo, or null if the file could not be read.
+     */
+    public static Image getThumbnail(Photo photo) {
+        String key = photo.getCacheKey();
+        synchronized (cache) {
+            Image cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Decode outside the lock so other threads can keep using the cache in the meantime
+        Image image = loadThumbnail(photo);
+        if (image != null) {
+            synchronized (cache) {
+                cache.put(key, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Method to check if the thumbnail for a photo is already cached.
+     * @param photo The photo.
+     * @return True if the thumbnail is cached, false otherwise.
+     */
+    public static boolean isCached(Photo photo) {
+        synchronized (cache) {
+            return cache.containsKey(photo.getCacheKey());
+        }
+    }
+
+    /**
+     * Method to generate thumbnails for several photos on the background threads.
+     * Photos that are already cached are skipped. The method returns immediately.
+     * @param photos The photos.
+     */
+    public static void prefetch(Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            if (!isCached(photo)) {
+                executor.execute(() -> getThumbnail(photo));
+            }
+        }
+    }
+
+    /**
+     * Method to get the thumbnail for a photo without blocking the caller.
+     * A cached thumbnail is passed to the callback right away on the calling thread. Otherwise the thumbnail is
+     * decoded on a background thread and passed to the callback on that thread, so UI callers must hand it
+     * back to their own thread. The request is dropped if it is no longer wanted by the time it runs,
+     * so quickly scrolling past rows doesn't queue up work for rows that are already gone.
+     * @param photo The photo.
+     * @param wanted Checked on the background thread before decoding, returns false if the thumbnail is no longer needed.
+     * @param callback Receives the thumbnail, or null if the file could not be read.
+     */
+    public static void getThumbnailAsync(Photo photo, BooleanSupplier wanted, Consumer<Image> callback) {
+        Image cached;
+        synchronized (cache) {
+            cached = cache.get(photo.getCacheKey());
+        }
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        executor.execute(() -> {
+            if (wanted.getAsBoolean()) {
+                callback.accept(getThumbnail(photo));
+            }
+        });
+    }
+
+    /**
+     * Method to get the preview of an album without blocking the caller, like getThumbnailAsync.
+     * A cached preview is passed to the callback right away on the calling thread. Otherwise the thumbnails of the
+     * photos are taken from the cache, or decoded if they aren't cached, and the preview is composed and passed to
+     * the callback on a background thread.
+     * @param photoPaths The file paths of the album's first photos, see Album.getPreviewPaths.
+     * @param mosaic True for a 2x2 mosaic of up to four photos, false for a cover of the first photo.
+     * @param wanted Checked on the background thread before composing, returns false if the preview is no longer needed.
+     * @param callback Receives the preview, or null if the album is empty or no photo could be read.
+     */
+    public static void getAlbumPreviewAsync(List<String> photoPaths, boolean mosaic, BooleanSupplier wanted,
+            Consumer<Image> callback) {
+        if (photoPaths.isEmpty()) {
+            callback.accept(null);
+            return;
+        }
+        List<String> paths = new ArrayList<>(photoPaths.subList(0, mosaic ? Math.min(4, photoPaths.size()) : 1));
+        String key = (mosaic ? "mosaic:" : "cover:") + String.join("|", paths);
+        Image cached;
+        synchronized (previews) {
+            cached = previews.get(key);
+        }
+        if (cached != null) {
+            callback.accept(cached);
+            return;
+        }
+        executor.execute(() -> {
+            if (!wanted.getAsBoolean()) {
+                return;
+            }
+            Image preview = composePreview(paths);
+            if (preview != null) {
+                synchronized (previews) {
+                    previews.put(key, preview);
+                }
+            }
+            callback.accept(preview);
+        });
+    }
+
+    /**
+     * Method to remove the cached thumbnail for a photo, for example when the file changed on disk.
+     * Both the content key and the path key are removed, since either may have been used.
+     * @param photo The photo.
+     */
+    public static void invalidate(Photo photo) {
+        synchronized (cache) {
+            cache.remove(photo.getFilePath());
+            if (photo.getContentHash() != null) {
+                cache.remove(photo.getContentHash());
+            }
+        }
+        synchronized (previews) {
+            // Drop the previews showing the photo, their keys list the file paths of their photos
+            previews.keySet().removeIf(key -> key.substring(key.indexOf(':') + 1).contains(photo.getFilePath()));
+        }
+    }
+
+    /**
+     * Helper method to compose an album preview from the thumbnails of its photos.
+     * Each photo fills one square tile, cropped to the middle of the thumbnail, so the tiles line up.
+     * One photo fills the whole preview, two to four photos fill the tiles of a 2x2 grid in reading order.
+     * @param paths The file paths of the photos, one to four of them.
+     * @return The preview, or null if none of the photos could be read.
+     */
+    private static Image composePreview(List<String> paths) {
+        int tilesPerSide = paths.size() == 1 ? 1 : 2;
+        int tileSize = PREVIEW_SIZE / tilesPerSide;
+        WritableImage preview = new WritableImage(PREVIEW_SIZE, PREVIEW_SIZE);
+        PixelWriter writer = preview.getPixelWriter();
+        boolean anyRead = false;
+        for (int tile = 0; tile < paths.size(); tile++) {
+            Image thumbnail = getThumbnail(paths.get(tile));
+            if (thumbnail == null || thumbnail.isError() || thumbnail.getPixelReader() == null) {
+                continue; // Leave the tile empty
+            }
+            anyRead = true;
+            PixelReader reader = thumbnail.getPixelReader();
+            int width = (int) thumbnail.getWidth();
+            int height = (int) thumbnail.getHeight();
+            int side = Math.min(width, height);
+            int left = (width - side) / 2;
+            int top = (height - side) / 2;
+            int tileX = (tile % tilesPerSide) * tileSize;
+            int tileY = (tile / tilesPerSide) * tileSize;
+            // Nearest neighbour sampling of the thumbnail's middle square, which is already small
+            for (int y = 0; y < tileSize; y++) {
+                for (int x = 0; x < tileSize; x++) {
+                    writer.setArgb(tileX + x, tileY + y, reader.getArgb(left + x * side / tileSize, top + y * side / tileSize));
+                }
+            }
+        }
+        return anyRead ? preview : null;
+    }
+
+    /**
+     * Helper method to get the thumbnail of a file by its path, decoding it if it is not cached yet.
+     * Used for album previews, whose photos may not be loaded.
+     * @param path The file path.
+     * @return The thumbnail, or null if the file could not be read.
+     */
+    private static Image getThumbnail(String path) {
+        synchronized (cache) {
+            Image cached = cache.get(path);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try (FileInputStream stream = new FileInputStream(path)) {
+            Image image = new Image(stream, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true, true);
+            synchronized (cache) {
+                cache.put(path, image);
+            }
+            return image;
+        } catch (IOException e) {
+            return null; // Missing files are flagged when their photo's own thumbnail is loaded
+        }
+    }
+
+    /**
+     * Helper method to decode a thumbnail from a photo's file.
+     * A photo whose file is not found is flagged as missing instead of failing loudly, since files can be moved or deleted.
+     * @param photo The photo.
+     * @return The thumbnail, or null if the file could not be read.
+     */
+    private static Image loadThumbnail(Photo photo) {
+        // Try-with-resources so the stream is closed once the image has been decoded
+        try (FileInputStream stream = new FileInputStream(photo.getFilePath())) {
+            // Uses JavaFX Image class to create a thumbnail of the photo with the specified width and height
+            Image image = new Image(stream, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true, true);
+            photo.setMissing(false);
+            return image;
+        } catch (FileNotFoundException e) {
+            photo.setMissing(true);
+            return null;
+        } catch (IOException e) {
+            System.err.println("Failed to read thumbnail: " + e.getMessage());
+            return null;
+        }
+    }
+}
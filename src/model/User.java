@@ -1,13 +1,29 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * Class to represent a user in the Photos application.
+ * Each user has a read/write lock guarding its albums, their photo lists and its tag types.
+ * Changes take the write lock, saves and searches take the read lock just long enough to copy or encode what they need.
+ * Edits of a single photo's caption, tags, date or file don't need it, each is made on the photo's own state, see Photo,
+ * and batch edits and the library watcher take it only to keep their many photo edits together.
+ * The lock is always taken before the monitor of the user, an album or a photo, never while holding one.
+ * The album list and the tag types are replaced by changed copies while an open snapshot can see them, see Snapshot.
  * @author ZB SL
  */
 public class User implements Serializable {
@@ -18,6 +34,11 @@ public class User implements Serializable {
      */
     private static final long serialVersionUID = 1L; // Again 1L is generic
 
+    /**
+     * The id of the user, used for equality. Never changes once set.
+     */
+    private long id;
+
     /**
      * The username of the user.
      */
@@ -26,13 +47,61 @@ public class User implements Serializable {
     /**
      * The list of albums of the user.
      */
-    private ArrayList<Album> albums;
+    private volatile ArrayList<Album> albums;
 
     /**
      * The map of tag types and their multiplicities.
      */
-    private Map<String, Integer> tagTypes; // Map to store tag types and their multiplicities
+    private volatile Map<String, Integer> tagTypes; // Map to store tag types and their multiplicities
+
+    /**
+     * The album lists of the user that open snapshots can still see. Not persisted.
+     */
+    private transient History<ArrayList<Album>> albumHistory;
+
+    /**
+     * The tag type maps of the user that open snapshots can still see. Not persisted.
+     */
+    private transient History<Map<String, Integer>> tagTypeHistory;
+
+    /**
+     * Index of perceptual hashes for finding similar photos, one entry per file path: the photos of the albums
+     * in memory, and a StoredPhoto for each hash saved with the header of an album on disk.
+     * Built lazily when first queried, and updated in place as perceptual hashes are computed. Not persisted.
+     */
+    private transient HammingIndex<Object> similarityIndex;
 
+    /**
+     * The first photo of each file path of the albums in memory when the similarity index was built,
+     * the one indexed for the path. Not persisted.
+     */
+    private transient Map<String, Photo> similarityPaths;
+
+    /**
+     * The photos of albums on disk in the similarity index. Not persisted.
+     */
+    private transient List<StoredPhoto> storedPhotos;
+
+    /**
+     * The modification stamp the similarity index was built against.
+     */
+    private transient long similarityIndexedStamp;
+
+    /**
+     * Stamp of the last change to the album list, taken from the same counter as album stamps. Not persisted.
+     */
+    private transient long albumsStamp;
+
+    /**
+     * The lock guarding the user's albums and tag types, see getLock. Not persisted, created again when the user is read.
+     */
+    private transient ReentrantReadWriteLock lock;
+
+    /**
+     * The record of the change in progress on the user's data, which snapshots reading the user check.
+     * Not persisted, created again when the user is read.
+     */
+    private transient ModelVersion.Gate gate;
 
     /**
      * Method to check if the user is an admin.
@@ -47,6 +116,11 @@ public class User implements Serializable {
      * @param username The username of the user.
      */
     public User(String username) {
+        this.id = EntityId.next();
+        this.lock = new ReentrantReadWriteLock();
+        this.gate = new ModelVersion.Gate();
+        this.albumHistory = new History<>();
+        this.tagTypeHistory = new History<>();
         this.username = username;
         this.albums = new ArrayList<Album>();
         this.tagTypes = new HashMap<>(); // Initialize the map
@@ -73,10 +147,33 @@ public class User implements Serializable {
 
     /**
      * Getter for albums.
+     * Code reading a snapshot gets the list as it was when the snapshot was opened.
      * @return The list of albums of the user.
      */
     public ArrayList<Album> getAlbums() {
-        return albums;
+        ModelVersion.settle(this); // A snapshot sees a change to the user whole
+        ArrayList<Album> current = albums; // Read before the history, see History
+        ArrayList<Album> seen = albumHistory.at(current);
+        return seen != null ? seen : new ArrayList<>();
+    }
+
+    /**
+     * Getter for lock.
+     * The write lock is held while the user's albums, their photo lists or its tag types change,
+     * so a reader holding the read lock sees all of a change or none of it.
+     * Model methods take it themselves, callers only take it to group several changes into one.
+     * @return The user's read/write lock.
+     */
+    public ReentrantReadWriteLock getLock() {
+        return lock;
+    }
+
+    /**
+     * Getter for gate.
+     * @return The record of the change in progress on the user's data, see ModelVersion.
+     */
+    ModelVersion.Gate getGate() {
+        return gate;
     }
 
     /**
@@ -85,7 +182,10 @@ public class User implements Serializable {
      * @return The map of tag types and their multiplicities.
      */
     public Map<String, Integer> getTagTypes() {
-        return tagTypes;
+        ModelVersion.settle(this);
+        Map<String, Integer> current = tagTypes; // Read before the history, see History
+        Map<String, Integer> seen = tagTypeHistory.at(current);
+        return seen != null ? seen : current;
     }
 
     /**
@@ -93,7 +193,10 @@ public class User implements Serializable {
      * @param tagTypes The map of tag types and their multiplicities.
      */
     public void setTagTypes(Map<String, Integer> tagTypes) {
-        this.tagTypes = tagTypes;
+        write(() -> {
+            tagTypeHistory.beforeChange(this.tagTypes);
+            return this.tagTypes = tagTypes;
+        });
     }
 
     /**
@@ -102,7 +205,12 @@ public class User implements Serializable {
      * @param multiplicity The multiplicity of the tag type.
      */
     public void addTagType(String tagType, Integer multiplicity) {
-        this.tagTypes.put(tagType, multiplicity);
+        write(() -> {
+            if (tagTypeHistory.beforeChange(tagTypes)) {
+                tagTypes = new HashMap<>(tagTypes); // A snapshot sees the map, change a copy
+            }
+            return tagTypes.put(tagType, multiplicity);
+        });
     }
 
     /**
@@ -111,8 +219,17 @@ public class User implements Serializable {
      * @param album The album to create.
      */
     public void createAlbum(Album album) {
-        if (!albums.contains(album)) { // deal with case sensitivity elsewhere
-            albums.add(album);
+        boolean added = write(() -> {
+            if (albums.contains(album)) { // deal with case sensitivity elsewhere
+                return false;
+            }
+            album.setOwner(this);
+            writableAlbums().add(album);
+            albumsStamp = Album.nextModStamp();
+            return true;
+        });
+        if (added) {
+            ModelEvent.publish(ModelEvent.Type.ALBUM_ADDED, this, album);
         }
     }
 
@@ -135,7 +252,16 @@ public class User implements Serializable {
      * @param album The album to delete.
      */
     public void deleteAlbum(Album album) {
-        albums.remove(album);
+        boolean removed = write(() -> {
+            if (!albums.contains(album) || !writableAlbums().remove(album)) {
+                return false;
+            }
+            albumsStamp = Album.nextModStamp();
+            return true;
+        });
+        if (removed) {
+            ModelEvent.publish(ModelEvent.Type.ALBUM_REMOVED, this, album);
+        }
     }
 
     /**
@@ -147,18 +273,20 @@ public class User implements Serializable {
      */
     public boolean renameAlbum(Album album, String newName) {
         String trimmedNewName = newName.trim();
-    
-        // Check for existing album with case-insensitive comparison
-        for (Album existingAlbum : this.albums) {
-            // If the existing album is NOT the same as the album being renamed AND has the same name as the new name
-            if (!existingAlbum.equals(album) && existingAlbum.getName().equalsIgnoreCase(trimmedNewName)) {
-                // An album with the new name already exists, return false to indicate failure
-                return false;
+        // The write lock is held across the check and the rename, so no album can take the name in between
+        return write(() -> {
+            // Check for existing album with case-insensitive comparison
+            for (Album existingAlbum : this.albums) {
+                // If the existing album is NOT the same as the album being renamed AND has the same name as the new name
+                if (!existingAlbum.equals(album) && existingAlbum.getName().equalsIgnoreCase(trimmedNewName)) {
+                    // An album with the new name already exists, return false to indicate failure
+                    return false;
+                }
             }
-        }
-        // No conflicting album name found, proceed with renaming
-        album.setName(trimmedNewName);
-        return true; // Indicate success
+            // No conflicting album name found, proceed with renaming
+            album.setName(trimmedNewName);
+            return true; // Indicate success
+        });
     }
 
     /**
@@ -175,6 +303,384 @@ public class User implements Serializable {
         return null;
     }
 
+    /**
+     * Method to find all photos of this user that reference a file path, across all albums.
+     * Each album answers from its path index, or from the keys saved with its header while its photos are on disk,
+     * so only the albums that hold the file are read.
+     * @param filePath The absolute file path to look up.
+     * @return The photos referencing the file path, empty if there are none.
+     */
+    public List<Photo> findPhotosByPath(String filePath) {
+        return read(() -> {
+            List<Photo> found = new ArrayList<>();
+            for (Album album : albums) {
+                addNew(found, album.findPhotosByPath(filePath));
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Method to find all photos of this user with the given content, across all albums.
+     * Only photos whose content hash has already been computed are found, and only the albums that hold
+     * the content are read, see findPhotosByPath.
+     * @param contentHash The content hash to look up.
+     * @return The photos with that content, empty if there are none.
+     */
+    public List<Photo> findPhotosByContent(String contentHash) {
+        return read(() -> {
+            List<Photo> found = new ArrayList<>();
+            for (Album album : albums) {
+                addNew(found, album.findPhotosByContent(contentHash));
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Method to get every photo of this user, each photo object once, across all albums.
+     * Reads every album from disk, it is meant for commands that go through the whole library.
+     * @return The list of photos.
+     */
+    public List<Photo> getAllPhotos() {
+        return read(() -> {
+            // Identity set so a photo object shared by two albums is only listed once
+            Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Photo> allPhotos = new ArrayList<>();
+            for (Album album : albums) {
+                for (Photo photo : album.getPhotos()) {
+                    if (seen.add(photo)) {
+                        allPhotos.add(photo);
+                    }
+                }
+            }
+            return allPhotos;
+        });
+    }
+
+    /**
+     * Method to get every photo of this user's albums whose photos are in memory, each photo object once.
+     * Used by background work such as hashing and file watching, which shouldn't read albums from disk
+     * that the user hasn't opened.
+     * @return The list of photos.
+     */
+    public List<Photo> getLoadedPhotos() {
+        return read(() -> {
+            // Identity set so a photo object shared by two albums is only listed once
+            Set<Photo> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Photo> loadedPhotos = new ArrayList<>();
+            for (Album album : albums) {
+                if (!album.isLoaded()) {
+                    continue;
+                }
+                for (Photo photo : album.getPhotos()) {
+                    if (seen.add(photo)) {
+                        loadedPhotos.add(photo);
+                    }
+                }
+            }
+            return loadedPhotos;
+        });
+    }
+
+    /**
+     * Method to get the tag counts over all of the user's albums, for faceted browsing.
+     * Merged from each album's running counts, so no photos are scanned. A photo in several albums counts once per album.
+     * @return The user-wide tag counts.
+     */
+    public FacetCounts getFacetCounts() {
+        return read(() -> {
+            FacetCounts total = new FacetCounts();
+            for (Album album : albums) {
+                album.addFacetsTo(total);
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Method to get the photo counts by year, month and day over all of the user's albums, for the timeline.
+     * Merged from each album's running counts, so it takes time in the number of days with photos and no photos are scanned.
+     * A photo in several albums counts once per album, like the tag counts.
+     * @return The user-wide histogram.
+     */
+    public DateHistogram getTimeline() {
+        return read(() -> {
+            DateHistogram total = new DateHistogram();
+            for (Album album : albums) {
+                album.addTimelineTo(total);
+            }
+            return total;
+        });
+    }
+
+    /**
+     * Method to find the photos that look similar to a photo, across all albums.
+     * Copies of the photo's own file are not included, and each file is listed once.
+     * @param photo The photo to compare against, which must have a perceptual hash.
+     * @param maxDistance The largest number of differing hash bits to count as similar.
+     * @return The similar photos, closest first.
+     */
+    public List<Photo> findSimilarPhotos(Photo photo, int maxDistance) {
+        return read(() -> {
+            Long hash = photo.getPerceptualHash();
+            if (hash == null) {
+                return Collections.emptyList();
+            }
+            List<Photo> matches = new ArrayList<>();
+            Set<String> paths = new HashSet<>();
+            paths.add(photo.getFilePath());
+            Set<Album> read = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Object match : ensureSimilarityIndex().search(hash, maxDistance)) {
+                if (match instanceof Photo) {
+                    if (paths.add(((Photo) match).getFilePath())) {
+                        matches.add((Photo) match);
+                    }
+                } else if (read.add(((StoredPhoto) match).album)) {
+                    // Only the albums on disk holding a similar photo are read
+                    for (Photo stored : ((StoredPhoto) match).album.getPhotos()) {
+                        if (stored.getPerceptualHash() != null
+                                && HammingIndex.distance(hash, stored.getPerceptualHash()) <= maxDistance
+                                && paths.add(stored.getFilePath())) {
+                            matches.add(stored);
+                        }
+                    }
+                }
+            }
+            matches.sort(Comparator.comparingInt(match -> HammingIndex.distance(hash, match.getPerceptualHash())));
+            return matches;
+        });
+    }
+
+    /**
+     * Method to find groups of near duplicate photos across all albums, for a duplicates report.
+     * Photos are grouped transitively: if A is close to B and B is close to C, all three are in one group.
+     * @param maxDistance The largest number of differing hash bits to count as a near duplicate.
+     * @return The groups with more than one file, largest first.
+     */
+    public List<List<Photo>> findNearDuplicates(int maxDistance) {
+        return read(() -> {
+            HammingIndex<Object> index = ensureSimilarityIndex();
+            // Read only the albums on disk that hold a photo close to another one, the others can't be in a group
+            Set<Album> toRead = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (StoredPhoto stored : storedPhotos) {
+                for (Object match : index.search(stored.hash, maxDistance)) {
+                    if (match != stored) {
+                        toRead.add(stored.album);
+                    }
+                }
+            }
+            if (!toRead.isEmpty()) {
+                for (Album album : toRead) {
+                    album.getPhotos();
+                }
+                index = ensureSimilarityIndex(); // Built again with the photos just read
+            }
+            // Union-find over the indexed photos, keyed by identity
+            Map<Photo, Photo> parent = new IdentityHashMap<>();
+            for (Photo photo : similarityPaths.values()) {
+                if (photo.getPerceptualHash() == null) {
+                    continue;
+                }
+                parent.putIfAbsent(photo, photo);
+                for (Object match : index.search(photo.getPerceptualHash(), maxDistance)) {
+                    if (match instanceof Photo) { // A photo still on disk isn't close to any of these
+                        parent.putIfAbsent((Photo) match, (Photo) match);
+                        union(parent, photo, (Photo) match);
+                    }
+                }
+            }
+            Map<Photo, List<Photo>> groups = new IdentityHashMap<>();
+            for (Photo photo : parent.keySet()) {
+                groups.computeIfAbsent(find(parent, photo), root -> new ArrayList<>()).add(photo);
+            }
+            List<List<Photo>> report = new ArrayList<>();
+            for (List<Photo> group : groups.values()) {
+                if (group.size() > 1) {
+                    report.add(group);
+                }
+            }
+            report.sort((a, b) -> Integer.compare(b.size(), a.size()));
+            return report;
+        });
+    }
+
+    /**
+     * Method to get the stamp of the last change to the user's albums or their photo lists.
+     * @return The modification stamp, larger values are more recent changes.
+     */
+    long getModStamp() {
+        return read(() -> {
+            long stamp = albumsStamp;
+            for (Album album : albums) {
+                stamp = Math.max(stamp, album.getModStamp());
+            }
+            return stamp;
+        });
+    }
+
+    /**
+     * Method to force the similarity index to be rebuilt, after photos changed in ways the albums don't see,
+     * such as a file being modified or moved on disk.
+     */
+    synchronized void invalidateSimilarityIndex() {
+        albumsStamp = Album.nextModStamp();
+    }
+
+    /**
+     * Method to add a photo to the similarity index once its perceptual hash has been computed.
+     * Called by the PerceptualHasher from background threads.
+     * @param photo The photo whose perceptual hash was just computed.
+     */
+    synchronized void indexPerceptualHash(Photo photo) {
+        if (similarityIndex != null && photo.getPerceptualHash() != null
+                && similarityPaths.get(photo.getFilePath()) == photo) {
+            similarityIndex.add(photo.getPerceptualHash(), photo);
+        }
+    }
+
+    /**
+     * Helper method to build the similarity index if anything changed since it was last built.
+     * Only the first photo of each file path is indexed, so copies of a photo in several albums don't match each other.
+     * Albums on disk are not read: the perceptual hashes saved with their headers are indexed instead.
+     * @return The similarity index.
+     */
+    private HammingIndex<Object> ensureSimilarityIndex() {
+        long stamp = getModStamp();
+        if (similarityIndex != null && similarityIndexedStamp == stamp) {
+            return similarityIndex;
+        }
+        HammingIndex<Object> index = new HammingIndex<>();
+        Map<String, Photo> paths = new HashMap<>();
+        Set<Long> pathKeys = new HashSet<>();
+        List<Album> onDisk = new ArrayList<>();
+        for (Album album : albums) {
+            if (!album.isLoaded()) {
+                onDisk.add(album);
+                continue;
+            }
+            for (Photo photo : album.getPhotos()) {
+                if (paths.putIfAbsent(photo.getFilePath(), photo) == null) {
+                    pathKeys.add(PhotoKeys.key(photo.getFilePath()));
+                    if (photo.getPerceptualHash() != null) {
+                        index.add(photo.getPerceptualHash(), photo);
+                    }
+                }
+            }
+        }
+        List<StoredPhoto> stored = new ArrayList<>();
+        for (Album album : onDisk) {
+            PhotoKeys keys = album.getSavedKeys();
+            for (int i = 0; i < keys.perceptualCount(); i++) {
+                if (pathKeys.add(keys.perceptualPath(i))) { // Files already indexed in another album are skipped
+                    StoredPhoto photo = new StoredPhoto(album, keys.perceptualHash(i));
+                    index.add(photo.hash, photo);
+                    stored.add(photo);
+                }
+            }
+        }
+        similarityIndex = index;
+        similarityPaths = paths;
+        storedPhotos = stored;
+        similarityIndexedStamp = stamp;
+        return index;
+    }
+
+    /**
+     * Helper method to find the representative of a photo's group in the union-find structure.
+     * @param parent The union-find parent links.
+     * @param photo The photo.
+     * @return The representative of the photo's group.
+     */
+    private static Photo find(Map<Photo, Photo> parent, Photo photo) {
+        Photo root = photo;
+        while (parent.get(root) != root) {
+            root = parent.get(root);
+        }
+        // Path compression: point every photo on the way directly at the root
+        while (parent.get(photo) != root) {
+            Photo next = parent.get(photo);
+            parent.put(photo, root);
+            photo = next;
+        }
+        return root;
+    }
+
+    /**
+     * Helper method to merge the groups of two photos in the union-find structure.
+     * @param parent The union-find parent links.
+     * @param a The first photo.
+     * @param b The second photo.
+     */
+    private static void union(Map<Photo, Photo> parent, Photo a, Photo b) {
+        Photo rootA = find(parent, a);
+        Photo rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent.put(rootB, rootA);
+        }
+    }
+
+    /**
+     * Helper method to add the photos found in an album to those found in the albums before it.
+     * A photo object shared by two albums is only listed once.
+     * @param found The photos found so far.
+     * @param photos The photos found in the album.
+     */
+    private static void addNew(List<Photo> found, List<Photo> photos) {
+        for (Photo photo : photos) {
+            if (found.stream().noneMatch(other -> other == photo)) {
+                found.add(photo);
+            }
+        }
+    }
+
+    /**
+     * Helper method to run a read of the user's albums with the read lock and the user's monitor held.
+     * The monitor guards the lazily built indexes, which readers build and share.
+     * @param action The read.
+     * @param <T> The type of the result.
+     * @return The result of the read.
+     */
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                return action.get();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method to run a change to the user's albums or tag types with the write lock held.
+     * @param action The change.
+     * @param <T> The type of the result.
+     * @return The result of the change.
+     */
+    private <T> T write(Supplier<T> action) {
+        lock.writeLock().lock();
+        ModelVersion.beginChange(this);
+        try {
+            return action.get();
+        } finally {
+            ModelVersion.endChange();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper method to get the album list to change, during a change.
+     * If an open snapshot can see the list, the list is kept for it and replaced by a copy, which is returned.
+     * @return The album list, which may be changed in place.
+     */
+    private ArrayList<Album> writableAlbums() {
+        if (albumHistory.beforeChange(albums)) {
+            albums = new ArrayList<>(albums);
+        }
+        return albums;
+    }
+
     // Data persistence methods. Save and load user data. Use serialization and deserialization. Linked to DataManager.
 
     /**
@@ -199,7 +705,33 @@ public class User implements Serializable {
     }
 
     /**
-     * Equals method.
+     * Getter for id.
+     * @return The id of the user.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Method to check if another user has the same username and albums, whatever its id.
+     * Reads the photos of every album of both users.
+     * @param other The user to compare to.
+     * @return True if the users have the same username and albums with the same content in the same order.
+     */
+    public boolean hasSameContent(User other) {
+        if (other == null || !username.equals(other.username) || albums.size() != other.albums.size()) {
+            return false;
+        }
+        for (int i = 0; i < albums.size(); i++) {
+            if (!albums.get(i).hasSameContent(other.albums.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Equals method. Users are equal if they have the same id, so comparing users never reads their albums.
      * @param o The object to compare to.
      * @return True if the objects are equal, false otherwise.
      */
@@ -211,8 +743,7 @@ public class User implements Serializable {
         if (!(o instanceof User)) {
             return false;
         }
-        User u = (User) o;
-        return username.equals(u.getUsername()) && albums.equals(u.getAlbums());
+        return id == ((User) o).id;
     }
     
     /**
@@ -221,7 +752,43 @@ public class User implements Serializable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(username, albums);
+        return Long.hashCode(id);
+    }
+
+    /**
+     * Method to read the user from the user data file, giving users saved before ids existed an id of their own.
+     * The lock is created again and the albums are told which user they belong to.
+     * @param in The stream to read from.
+     * @throws IOException If the user could not be read.
+     * @throws ClassNotFoundException If a class of the user's fields could not be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (id == 0) {
+            id = EntityId.next(); // Saved with the user data the next time it is written
+        }
+        lock = new ReentrantReadWriteLock();
+        gate = new ModelVersion.Gate();
+        albumHistory = new History<>();
+        tagTypeHistory = new History<>();
+        for (Album album : albums) {
+            album.setOwner(this);
+        }
+    }
+
+    /**
+     * Method to write the user to the user data file, with the albums and tag types the writing thread should see.
+     * A save reads a snapshot, so it writes the user as it was when the save started.
+     * @param out The stream to write to.
+     * @throws IOException If the user could not be written.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("username", username);
+        fields.put("albums", getAlbums());
+        fields.put("tagTypes", getTagTypes());
+        out.writeFields();
     }
 
     /**
@@ -232,4 +799,31 @@ public class User implements Serializable {
     public String toString() {
         return "Username: " + username + "\nAlbums: " + albums;
     }
+
+    /**
+     * Class to describe a photo of an album on disk in the similarity index, from the keys saved with the album header.
+     * Finding one is a reason to read its album, the photo itself is only known once the album is read.
+     */
+    private static final class StoredPhoto {
+
+        /**
+         * The album holding the photo.
+         */
+        final Album album;
+
+        /**
+         * The perceptual hash of the photo.
+         */
+        final long hash;
+
+        /**
+         * Constructor for a stored photo.
+         * @param album The album holding the photo.
+         * @param hash The perceptual hash of the photo.
+         */
+        StoredPhoto(Album album, long hash) {
+            this.album = album;
+            this.hash = hash;
+        }
+    }
 }
@@ -0,0 +1,616 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Class to keep the directory of the users of the Photos application: which users exist, by username.
+ * Usernames are matched without regard to case, so "Stock" finds the user "stock" and can't be created next to it.
+ * Each user's summary, see UserSummary, is kept under its key, see normalize, in a hash index for lookups, creation
+ * and deletion in constant time, and in a sorted index for listing, paging and searching by the start of the username.
+ * The directory is kept in a file of its own, apart from the users' albums and photos, as a log of the users
+ * added and removed and of their counts and logins: creating or deleting a user appends a record or two to it
+ * and writes nothing else. The log is written anew, with only the users that exist, once it has grown to twice
+ * what that takes.
+ * Reading the directory never writes the file: what is learned while reading it, such as users found only in the user
+ * data file or counts made on loading, is kept in memory and written with the next change or save.
+ * The directory can be used from any thread. Lookups never wait, changes are made one at a time.
+ * @author ZB SL
+ */
+final class UserDirectory {
+
+    /**
+     * Number at the start of every directory file.
+     */
+    private static final int MAGIC = 0x50444952; // "PDIR"
+
+    /**
+     * Version of the directory file format. Version 1 had no records of counts, and is still read.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Record of a user added.
+     */
+    private static final byte ADDED = 1;
+
+    /**
+     * Record of a user removed.
+     */
+    private static final byte REMOVED = 0;
+
+    /**
+     * Record of a user's counts and last login, see UserSummary.
+     */
+    private static final byte STATS = 2;
+
+    /**
+     * The smallest number of records the log is allowed to have before it is written anew.
+     */
+    private static final int MIN_COMPACT_RECORDS = 64;
+
+    /**
+     * Writes records to the directory file.
+     */
+    private interface RecordWriter {
+
+        /**
+         * Method to write the records.
+         * @param out The directory file.
+         * @throws IOException If the records could not be written.
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The users of the directory in one order, kept until the directory changes, for paging through them.
+     */
+    private static final class Ordered {
+
+        /**
+         * The number of changes to the directory when the order was made.
+         */
+        private final long modifications;
+
+        /**
+         * The key of the prefix of the usernames in the order.
+         */
+        private final String prefix;
+
+        /**
+         * The order.
+         */
+        private final UserSummary.Sort sort;
+
+        /**
+         * Whether the order is reversed.
+         */
+        private final boolean descending;
+
+        /**
+         * The users, in order.
+         */
+        private final UserSummary[] rows;
+
+        /**
+         * Constructor for an order.
+         * @param modifications The number of changes to the directory when the order was made.
+         * @param prefix The key of the prefix.
+         * @param sort The order.
+         * @param descending Whether the order is reversed.
+         * @param rows The users, in order.
+         */
+        private Ordered(long modifications, String prefix, UserSummary.Sort sort, boolean descending, UserSummary[] rows) {
+            this.modifications = modifications;
+            this.prefix = prefix;
+            this.sort = sort;
+            this.descending = descending;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * The directory file, null for a directory that is only kept in memory.
+     */
+    private final File file;
+
+    /**
+     * The users by key. The index lookups, creation and deletion use.
+     */
+    private final Map<String, UserSummary> byKey;
+
+    /**
+     * The users by key, sorted. The index listing and searching use.
+     */
+    private final ConcurrentNavigableMap<String, UserSummary> sorted;
+
+    /**
+     * The number of records in the directory file, including those of users removed or counted again since.
+     * Guarded by the directory's monitor.
+     */
+    private int records;
+
+    /**
+     * Whether the directory file doesn't hold what is in memory, because a change could not be written to it
+     * or was made while reading, so it must be written anew by the next change or save.
+     * Guarded by the directory's monitor.
+     */
+    private boolean stale;
+
+    /**
+     * The number of changes made to the directory, so an order made before a change is made again.
+     * Only changed holding the directory's monitor.
+     */
+    private volatile long modifications;
+
+    /**
+     * The order made last, for the next page in the same order, null if none was made.
+     */
+    private volatile Ordered ordered;
+
+    /**
+     * Constructor for an empty directory.
+     * @param file The directory file, null to keep the directory in memory only.
+     */
+    UserDirectory(File file) {
+        this.file = file;
+        this.byKey = new ConcurrentHashMap<>();
+        this.sorted = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Constructor for a directory of users read from its file.
+     * @param file The directory file.
+     * @param users The users, sorted by key.
+     */
+    private UserDirectory(File file, TreeMap<String, UserSummary> users) {
+        this.file = file;
+        this.byKey = new ConcurrentHashMap<>(users);
+        this.sorted = new ConcurrentSkipListMap<>(users); // Built in one pass from a sorted map
+    }
+
+    /**
+     * Method to read the directory from its file.
+     * A record cut short by a crash while it was written is left out, and the file is written anew without it
+     * by the next change, as is a file in an older format.
+     * @param file The directory file, which must exist.
+     * @return The directory.
+     * @throws IOException If the file could not be read or is not a directory file.
+     */
+    static UserDirectory read(File file) throws IOException {
+        Map<String, UserSummary> users = new HashMap<>(); // Filled first, then the indexes are built at once
+        int records = 0;
+        boolean complete = true;
+        int version;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported directory file");
+            }
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    break;
+                }
+                try {
+                    String username = in.readUTF();
+                    if (op == ADDED) {
+                        users.put(normalize(username), UserSummary.unknown(username)); // Counted by the record after it, if any
+                    } else if (op == REMOVED) {
+                        users.remove(normalize(username));
+                    } else if (op == STATS) {
+                        UserSummary summary = new UserSummary(username, in.readInt(), in.readInt(), in.readLong(),
+                                in.readLong());
+                        users.replace(summary.getKey(), summary);
+                    } else {
+                        complete = false;
+                        break;
+                    }
+                } catch (EOFException | UTFDataFormatException e) {
+                    complete = false; // The last record was cut short
+                    break;
+                }
+                records++;
+            }
+        }
+        UserDirectory directory = new UserDirectory(file, new TreeMap<>(users));
+        directory.records = records;
+        // Written anew by the next change rather than here, so reading never writes
+        directory.stale = !complete || version != VERSION;
+        return directory;
+    }
+
+    /**
+     * Method to make the key of a username: its Unicode normalized form in lower case,
+     * so usernames that differ only in case or in how their letters are encoded have the same key.
+     * @param username The username.
+     * @return The key.
+     */
+    static String normalize(String username) {
+        for (int i = 0; i < username.length(); i++) {
+            if (username.charAt(i) >= 0x80) {
+                return Normalizer.normalize(username, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+            }
+        }
+        return username.toLowerCase(Locale.ROOT); // Plain ASCII is already normalized
+    }
+
+    /**
+     * Method to find a user, without regard to case.
+     * @param username The username, in any case.
+     * @return The username as the user was created with it, or null if there is no such user.
+     */
+    String find(String username) {
+        UserSummary summary = byKey.get(normalize(username));
+        return summary == null ? null : summary.getUsername();
+    }
+
+    /**
+     * Method to get the summary of a user, without regard to case.
+     * @param username The username, in any case.
+     * @return The summary, or null if there is no such user.
+     */
+    UserSummary summary(String username) {
+        return byKey.get(normalize(username));
+    }
+
+    /**
+     * Method to add a new user, which holds nothing.
+     * @param username The username.
+     * @return True if the user was added, false if a user with the same username in any case exists.
+     */
+    synchronized boolean add(String username) {
+        if (byKey.containsKey(normalize(username))) {
+            return false;
+        }
+        UserSummary summary = UserSummary.empty(username);
+        put(summary);
+        append(2, out -> {
+            out.writeByte(ADDED);
+            out.writeUTF(username);
+            writeStats(out, summary);
+        });
+        return true;
+    }
+
+    /**
+     * Method to add users whose counts are not known yet, found while loading. Nothing is written,
+     * the directory file is written once for all of them by the next change or save.
+     * Users whose usernames are taken, in any case, are skipped.
+     * @param usernames The usernames.
+     */
+    synchronized void addAll(Collection<String> usernames) {
+        for (String username : usernames) {
+            if (!byKey.containsKey(normalize(username))) {
+                put(UserSummary.unknown(username));
+            }
+        }
+        stale = file != null;
+    }
+
+    /**
+     * Method to remove a user, without regard to case.
+     * @param username The username, in any case.
+     * @return The username as the user was created with it, or null if there is no such user.
+     */
+    synchronized String remove(String username) {
+        String removed = delete(username);
+        if (removed != null) {
+            append(1, out -> {
+                out.writeByte(REMOVED);
+                out.writeUTF(removed);
+            });
+        }
+        return removed;
+    }
+
+    /**
+     * Method to record the counts of users when they are saved, keeping their last logins. Only the users whose counts
+     * changed are written, all in one append to the directory file. Users no longer in the directory are skipped.
+     * If the file doesn't hold what is in memory, it is written anew, see fillCounts.
+     * @param counts The summaries with the users' counts.
+     */
+    synchronized void updateCounts(Collection<UserSummary> counts) {
+        List<UserSummary> changed = merge(counts);
+        if (!changed.isEmpty()) {
+            append(changed.size(), out -> {
+                for (UserSummary summary : changed) {
+                    writeStats(out, summary);
+                }
+            });
+        } else if (stale) {
+            compact();
+        }
+    }
+
+    /**
+     * Method to record counts of users made without saving them, for example on loading, keeping their last logins.
+     * Nothing is written, the counts are written with the next change or save.
+     * @param counts The summaries with the users' counts.
+     */
+    synchronized void fillCounts(Collection<UserSummary> counts) {
+        if (!merge(counts).isEmpty()) {
+            stale = file != null;
+        }
+    }
+
+    /**
+     * Helper method to put the counts of users in the indexes, keeping their last logins.
+     * Users no longer in the directory are skipped. Must be called holding the directory's monitor.
+     * @param counts The summaries with the users' counts.
+     * @return The summaries put, of the users whose counts changed.
+     */
+    private List<UserSummary> merge(Collection<UserSummary> counts) {
+        List<UserSummary> changed = new ArrayList<>();
+        for (UserSummary count : counts) {
+            UserSummary current = byKey.get(count.getKey());
+            if (current == null || !current.getUsername().equals(count.getUsername())) {
+                continue; // Deleted, maybe created again, since the user was counted
+            }
+            UserSummary updated = count.withLastLogin(current.getLastLogin());
+            if (!updated.sameAs(current)) {
+                put(updated);
+                changed.add(updated);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Method to record a login of a user.
+     * @param username The username, in any case.
+     * @param time The time of the login, in milliseconds since the epoch.
+     */
+    synchronized void recordLogin(String username, long time) {
+        UserSummary current = byKey.get(normalize(username));
+        if (current == null) {
+            return;
+        }
+        UserSummary updated = current.withLastLogin(time);
+        put(updated);
+        append(1, out -> writeStats(out, updated));
+    }
+
+    /**
+     * Method to list the users whose usernames start with a prefix, without regard to case, in the order of their keys.
+     * @param prefix The prefix, empty for every user.
+     * @param limit The most usernames to list.
+     * @return The usernames as the users were created with them.
+     */
+    List<String> search(String prefix, int limit) {
+        List<String> usernames = new ArrayList<>(Math.min(limit, 256));
+        for (UserSummary summary : range(normalize(prefix)).values()) {
+            if (usernames.size() >= limit) {
+                break;
+            }
+            usernames.add(summary.getUsername());
+        }
+        return usernames;
+    }
+
+    /**
+     * Method to list every user, in the order of their keys.
+     * @return The usernames as the users were created with them.
+     */
+    List<String> list() {
+        List<String> usernames = new ArrayList<>(byKey.size());
+        for (UserSummary summary : sorted.values()) {
+            usernames.add(summary.getUsername());
+        }
+        return usernames;
+    }
+
+    /**
+     * Method to count the users whose usernames start with a prefix, without regard to case.
+     * @param prefix The prefix, empty for every user.
+     * @return The number of users.
+     */
+    int count(String prefix) {
+        String key = normalize(prefix);
+        if (key.isEmpty()) {
+            return byKey.size();
+        }
+        Ordered last = ordered;
+        if (last != null && last.modifications == modifications && last.prefix.equals(key)) {
+            return last.rows.length;
+        }
+        int count = 0;
+        for (Iterator<String> keys = range(key).keySet().iterator(); keys.hasNext(); keys.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Method to get one page of the users whose usernames start with a prefix, without regard to case, in an order.
+     * In username order the page is read straight from the sorted index. In any other order the matching users are
+     * sorted once, and the order is kept for the next pages until the directory changes.
+     * @param prefix The prefix, empty for every user.
+     * @param sort The order.
+     * @param descending Whether the order is reversed.
+     * @param offset The number of users before the page.
+     * @param limit The most users on the page.
+     * @return The summaries of the users on the page.
+     */
+    List<UserSummary> page(String prefix, UserSummary.Sort sort, boolean descending, int offset, int limit) {
+        String key = normalize(prefix);
+        List<UserSummary> page = new ArrayList<>(Math.min(limit, 256));
+        if (sort == UserSummary.Sort.USERNAME) {
+            NavigableMap<String, UserSummary> range = descending ? range(key).descendingMap() : range(key);
+            int skipped = 0;
+            for (UserSummary summary : range.values()) {
+                if (skipped++ < offset) {
+                    continue;
+                }
+                if (page.size() >= limit) {
+                    break;
+                }
+                page.add(summary);
+            }
+            return page;
+        }
+        Ordered last = ordered;
+        long seen = modifications; // Read before the rows, so a change made meanwhile orders them again next time
+        if (last == null || last.modifications != seen || !last.prefix.equals(key) || last.sort != sort
+                || last.descending != descending) {
+            UserSummary[] rows = range(key).values().toArray(new UserSummary[0]);
+            Arrays.sort(rows, descending ? sort.comparator().reversed() : sort.comparator());
+            last = new Ordered(seen, key, sort, descending, rows);
+            ordered = last;
+        }
+        for (int i = Math.max(0, offset); i < last.rows.length && page.size() < limit; i++) {
+            page.add(last.rows[i]);
+        }
+        return page;
+    }
+
+    /**
+     * Getter for the number of users.
+     * @return The number of users in the directory.
+     */
+    int size() {
+        return byKey.size();
+    }
+
+    /**
+     * Helper method to get the users whose keys start with a prefix, in the order of their keys.
+     * @param key The key of the prefix, empty for every user.
+     * @return The users, a view of the sorted index.
+     */
+    private ConcurrentNavigableMap<String, UserSummary> range(String key) {
+        // Every key starting with the prefix sorts between the prefix and the prefix followed by the last character
+        return key.isEmpty() ? sorted : sorted.subMap(key, true, key + Character.MAX_VALUE, true);
+    }
+
+    /**
+     * Helper method to put a user's summary in both indexes, replacing the one it had.
+     * @param summary The summary.
+     */
+    private void put(UserSummary summary) {
+        String key = summary.getKey();
+        byKey.put(key, summary);
+        sorted.put(key, summary);
+        modifications++;
+    }
+
+    /**
+     * Helper method to delete a user from both indexes.
+     * @param username The username, in any case.
+     * @return The username as it was in the indexes, or null if it wasn't.
+     */
+    private String delete(String username) {
+        String key = normalize(username);
+        UserSummary removed = byKey.remove(key);
+        sorted.remove(key);
+        modifications++;
+        return removed == null ? null : removed.getUsername();
+    }
+
+    /**
+     * Helper method to write a record of a user's counts and last login.
+     * @param out The directory file.
+     * @param summary The summary of the user.
+     * @throws IOException If the record could not be written.
+     */
+    private static void writeStats(DataOutputStream out, UserSummary summary) throws IOException {
+        out.writeByte(STATS);
+        out.writeUTF(summary.getUsername());
+        out.writeInt(summary.getAlbumCount());
+        out.writeInt(summary.getPhotoCount());
+        out.writeLong(summary.getTotalBytes());
+        out.writeLong(summary.getLastLogin());
+    }
+
+    /**
+     * Helper method to append records to the directory file, or to write it anew if the log has grown too long.
+     * A failure is reported and the directory is kept in memory, it is written in full by the next change.
+     * Must be called holding the directory's monitor.
+     * @param count The number of records.
+     * @param writer Writes the records.
+     */
+    private void append(int count, RecordWriter writer) {
+        if (file == null) {
+            return;
+        }
+        records += count;
+        if (stale || needsCompacting() || !file.exists()) {
+            compact();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writer.write(out);
+        } catch (IOException e) {
+            System.err.println("Failed to save user directory: " + e.getMessage());
+            stale = true; // Written anew by the next change, which may succeed
+        }
+    }
+
+    /**
+     * Helper method to check if the directory file has grown to twice what it takes to list the users,
+     * which is up to two records each.
+     * @return True if the file should be written anew.
+     */
+    private boolean needsCompacting() {
+        return records > MIN_COMPACT_RECORDS && records > 4 * byKey.size();
+    }
+
+    /**
+     * Helper method to write the directory file anew, with a record per user and one of its counts if they are known,
+     * and to move it into place at once.
+     * Must be called holding the directory's monitor, or before the directory is shared.
+     */
+    private void compact() {
+        if (file == null) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        try {
+            int written = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (UserSummary summary : sorted.values()) {
+                    out.writeByte(ADDED);
+                    out.writeUTF(summary.getUsername());
+                    written++;
+                    if (summary.isKnown() || summary.getLastLogin() != 0) {
+                        writeStats(out, summary);
+                        written++;
+                    }
+                }
+            }
+            AlbumStore.moveIntoPlace(temp, file);
+            records = written;
+            stale = false;
+        } catch (IOException e) {
+            System.err.println("Failed to save user directory: " + e.getMessage());
+            stale = true; // Written anew by the next change, which may succeed
+        }
+    }
+}
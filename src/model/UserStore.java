@@ -0,0 +1,429 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32C;
+
+/**
+ * Class to store the users of the Photos application in the user data file, one block per user.
+ * Each user is serialized on its own with a CRC32C checksum, and a table at the start of the file gives the
+ * username, position, length and checksum of every block and the keys of the user's album files.
+ * The table is all that has to be read to know every user, see Location: a user is read from its block
+ * when it is needed, so the memory taken grows with the users in use rather than with all users.
+ * Checksums are checked in parallel on the common ForkJoin pool. A block that is damaged only loses that user,
+ * and its bytes are copied to the next file as they are, so saving never throws away what might still be recovered.
+ * Files written before this format, a single serialized map of all users, are still read.
+ * @author ZB SL
+ */
+final class UserStore {
+
+    /**
+     * Number at the start of every user data file in this format, to tell it from a serialized map.
+     */
+    private static final int MAGIC = 0x50555352; // "PUSR"
+
+    /**
+     * Version of the user data file format. Version 1 had no album keys in the table, and is still read.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The first two bytes of a Java serialization stream, the format the user data file had before.
+     */
+    private static final int STREAM_MAGIC = 0xACED;
+
+    /**
+     * One user serialized into a block, to be written to the user data file.
+     */
+    static final class Block {
+
+        /**
+         * The serialized user.
+         */
+        private final byte[] data;
+
+        /**
+         * The CRC32C checksum of the data.
+         */
+        private final int checksum;
+
+        /**
+         * The keys of the user's album files.
+         */
+        private final List<String> albumKeys;
+
+        /**
+         * Constructor for a block.
+         * @param data The serialized user.
+         * @param checksum The checksum of the data.
+         * @param albumKeys The keys of the user's album files.
+         */
+        private Block(byte[] data, int checksum, List<String> albumKeys) {
+            this.data = data;
+            this.checksum = checksum;
+            this.albumKeys = albumKeys;
+        }
+
+        /**
+         * Getter for albumKeys.
+         * @return The keys of the user's album files.
+         */
+        List<String> getAlbumKeys() {
+            return albumKeys;
+        }
+    }
+
+    /**
+     * Where a user's block is in the user data file, as read from its table or returned by write.
+     */
+    static final class Location {
+
+        /**
+         * The position of the block in the file.
+         */
+        private final long position;
+
+        /**
+         * The length of the block.
+         */
+        private final int length;
+
+        /**
+         * The checksum of the block, as it was written.
+         */
+        private final int checksum;
+
+        /**
+         * The keys of the user's album files, null if the file doesn't have them.
+         */
+        private final List<String> albumKeys;
+
+        /**
+         * Constructor for a location.
+         * @param position The position of the block in the file.
+         * @param length The length of the block.
+         * @param checksum The checksum of the block.
+         * @param albumKeys The keys of the user's album files, may be null.
+         */
+        private Location(long position, int length, int checksum, List<String> albumKeys) {
+            this.position = position;
+            this.length = length;
+            this.checksum = checksum;
+            this.albumKeys = albumKeys;
+        }
+
+        /**
+         * Getter for albumKeys.
+         * @return The keys of the user's album files, null if the file doesn't have them.
+         */
+        List<String> getAlbumKeys() {
+            return albumKeys;
+        }
+    }
+
+    /**
+     * Private constructor, this class only has static methods.
+     */
+    private UserStore() {
+    }
+
+    /**
+     * Method to serialize one user into its block. Must be called in a snapshot's read when saving,
+     * so the block holds the user as it was when the save started.
+     * @param user The user.
+     * @return The block of the user.
+     * @throws IOException If the user could not be serialized.
+     */
+    static Block encode(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(user);
+        }
+        byte[] data = bytes.toByteArray();
+        List<String> albumKeys = new ArrayList<>();
+        for (Album album : user.getAlbums()) {
+            if (album.getStorageKey() != null) {
+                albumKeys.add(album.getStorageKey());
+            }
+        }
+        return new Block(data, checksum(data, 0, data.length), Collections.unmodifiableList(albumKeys));
+    }
+
+    /**
+     * Method to check if a user data file is in the format written before this one.
+     * @param file The user data file.
+     * @return True if the file is a single serialized map of all users.
+     * @throws IOException If the file could not be read.
+     */
+    static boolean isLegacy(File file) throws IOException {
+        if (file.length() < 2) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUnsignedShort() == STREAM_MAGIC;
+        }
+    }
+
+    /**
+     * Method to read the table of a user data file, without reading any user.
+     * @param file The user data file.
+     * @return The location of each user's block, by username, in the order of the file.
+     * @throws IOException If the file is not a user data file or its table is damaged, so no block can be found.
+     */
+    static Map<String, Location> readTable(File file) throws IOException {
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported user data file");
+            }
+            int count = in.readInt();
+            if (count < 0 || count > fileLength) {
+                throw new IOException("User data file has a damaged table");
+            }
+            String[] usernames = new String[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            int[] checksums = new int[count];
+            List<List<String>> albumKeys = new ArrayList<>(count);
+            long tableLength = 3 * Integer.BYTES;
+            for (int i = 0; i < count; i++) {
+                usernames[i] = in.readUTF();
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                checksums[i] = in.readInt();
+                tableLength += utfLength(usernames[i]) + Long.BYTES + 2 * Integer.BYTES;
+                int keyCount = -1; // Version 1 has no keys, they are not known without reading the user
+                if (version >= 2) {
+                    keyCount = in.readInt();
+                    tableLength += Integer.BYTES;
+                }
+                if (keyCount > fileLength) {
+                    throw new IOException("User data file has a damaged table at user " + usernames[i]);
+                }
+                List<String> keys = keyCount < 0 ? null : new ArrayList<>(keyCount);
+                for (int k = 0; k < keyCount; k++) {
+                    keys.add(in.readUTF());
+                    tableLength += utfLength(keys.get(k));
+                }
+                albumKeys.add(keys == null ? null : Collections.unmodifiableList(keys));
+            }
+            // Whatever the table took, the blocks start where it ends
+            Map<String, Location> locations = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                long position = tableLength + offsets[i];
+                if (offsets[i] < 0 || lengths[i] < 0 || position + lengths[i] > fileLength) {
+                    throw new IOException("User data file is truncated at user " + usernames[i]);
+                }
+                locations.put(usernames[i], new Location(position, lengths[i], checksums[i], albumKeys.get(i)));
+            }
+            return locations;
+        }
+    }
+
+    /**
+     * Method to check the blocks of a user data file against their checksums, in parallel on the common ForkJoin pool.
+     * No user is decoded, so this takes about as long as reading the file.
+     * @param file The user data file.
+     * @param locations The location of each user's block, read from the file's table.
+     * @return The usernames of the users whose blocks are damaged, sorted.
+     * @throws IOException If the file could not be opened.
+     */
+    static List<String> verify(File file, Map<String, Location> locations) throws IOException {
+        ConcurrentLinkedQueue<String> damaged = new ConcurrentLinkedQueue<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Positional reads don't share a position, so every block can be read at the same time
+            locations.entrySet().parallelStream().forEach(entry -> {
+                try {
+                    byte[] data = readBlock(channel, entry.getValue());
+                    if (checksum(data, 0, data.length) != entry.getValue().checksum) {
+                        damaged.add(entry.getKey());
+                    }
+                } catch (IOException e) {
+                    damaged.add(entry.getKey());
+                }
+            });
+        }
+        List<String> sorted = new ArrayList<>(damaged);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Method to read one user from its block in a user data file.
+     * @param file The user data file.
+     * @param username The username, for error messages.
+     * @param location The location of the user's block, read from the file's table.
+     * @return The user, or null if its block is damaged.
+     */
+    static User read(File file, String username, Location location) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] data = readBlock(channel, location);
+            if (checksum(data, 0, data.length) != location.checksum) {
+                throw new IOException("checksum mismatch");
+            }
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                Object user = ois.readObject();
+                if (!(user instanceof User)) {
+                    throw new IOException("expected a user");
+                }
+                return (User) user;
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            System.err.println("User data of " + username + " is damaged, the user was not loaded: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Method to write a user data file. Users in memory are written from their blocks,
+     * the others are copied from the current file as they are, damaged or not, without being read into memory.
+     * @param file The file to write, a temporary file that is moved into place afterwards.
+     * @param source The current user data file, which the copied blocks are in.
+     * @param blocks The blocks of the users written from memory, by username.
+     * @param copied The locations in the current file of the users copied from it, by username.
+     *               A user that also has a block is written from the block.
+     * @return The location of each user's block in the new file, by username.
+     * @throws IOException If the file could not be written.
+     */
+    static Map<String, Location> write(File file, File source, Map<String, Block> blocks, Map<String, Location> copied)
+            throws IOException {
+        // Sorted, so the file doesn't change order between saves
+        Map<String, Location> stored = new TreeMap<>(copied);
+        stored.keySet().removeAll(blocks.keySet());
+        TreeMap<String, Object> entries = new TreeMap<>(stored);
+        entries.putAll(blocks);
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(table);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        long offset = 0;
+        Map<String, Location> written = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            Block block = entry.getValue() instanceof Block ? (Block) entry.getValue() : null;
+            Location location = block == null ? (Location) entry.getValue() : null;
+            int length = block != null ? block.data.length : location.length;
+            // A copied block keeps its old checksum, so a damaged one stays damaged
+            int checksum = block != null ? block.checksum : location.checksum;
+            List<String> keys = block != null ? block.albumKeys : location.albumKeys;
+            out.writeUTF(entry.getKey());
+            out.writeLong(offset);
+            out.writeInt(length);
+            out.writeInt(checksum);
+            out.writeInt(keys == null ? -1 : keys.size());
+            if (keys != null) {
+                for (String key : keys) {
+                    out.writeUTF(key);
+                }
+            }
+            // Positions are counted from the start of the blocks until the table's length is known
+            written.put(entry.getKey(), new Location(offset, length, checksum, keys));
+            offset += length;
+        }
+        out.flush();
+        long start = table.size();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel sourceChannel = stored.isEmpty() ? null
+                     : FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            writeFully(channel, ByteBuffer.wrap(table.toByteArray()));
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                if (entry.getValue() instanceof Block) {
+                    writeFully(channel, ByteBuffer.wrap(((Block) entry.getValue()).data));
+                    continue;
+                }
+                Location location = (Location) entry.getValue();
+                long done = 0;
+                while (done < location.length) {
+                    // Copied from file to file without passing through the heap where the system allows it
+                    long moved = sourceChannel.transferTo(location.position + done, location.length - done, channel);
+                    if (moved <= 0) {
+                        throw new IOException("User data file ended in the block of " + entry.getKey());
+                    }
+                    done += moved;
+                }
+            }
+            channel.force(true);
+        }
+        for (Map.Entry<String, Location> entry : written.entrySet()) {
+            Location location = entry.getValue();
+            entry.setValue(new Location(start + location.position, location.length, location.checksum, location.albumKeys));
+        }
+        return written;
+    }
+
+    /**
+     * Helper method to read a block from a user data file.
+     * @param channel The file.
+     * @param location The location of the block.
+     * @return The bytes of the block.
+     * @throws IOException If the block could not be read.
+     */
+    private static byte[] readBlock(FileChannel channel, Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, location.position + buffer.position()) < 0) {
+                throw new IOException("User data file ended in a block");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Helper method to write all of a buffer to a file.
+     * @param channel The file.
+     * @param buffer The buffer.
+     * @throws IOException If the buffer could not be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Helper method to get the number of bytes writeUTF writes for a string.
+     * @param text The string.
+     * @return The number of bytes, including the two bytes of the length.
+     */
+    private static int utfLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return 2 + length;
+    }
+
+    /**
+     * Helper method to compute the CRC32C checksum of part of an array.
+     * @param bytes The array.
+     * @param offset The start of the part.
+     * @param length The length of the part.
+     * @return The checksum.
+     */
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C(); // Computed with the processor's CRC instructions where it has them
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
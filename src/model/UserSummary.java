@@ -0,0 +1,237 @@
+package model;
+
+import java.util.Comparator;
+
+/**
+ * Class to describe a user in the user directory: its username and how much it holds, without reading the user.
+ * The counts are summed from the running counts of the user's albums each time the user is saved,
+ * and the last login is recorded when the user logs in, so no photos are ever walked to fill them in.
+ * Summaries are immutable, a change makes a new one.
+ * @author ZB SL
+ */
+public final class UserSummary {
+
+    /**
+     * The orders the admin can list users in.
+     */
+    public enum Sort {
+        /** By username, without regard to case. */
+        USERNAME(Comparator.comparing(summary -> summary.key)),
+        /** By number of albums. */
+        ALBUMS(Comparator.comparingInt(summary -> summary.albumCount)),
+        /** By number of photos. */
+        PHOTOS(Comparator.comparingInt(summary -> summary.photoCount)),
+        /** By total size of the photo files. */
+        BYTES(Comparator.comparingLong(summary -> summary.totalBytes)),
+        /** By time of the last login. */
+        LAST_LOGIN(Comparator.comparingLong(summary -> summary.lastLogin));
+
+        /**
+         * The order, with ties broken by username so every order is the same from one page to the next.
+         */
+        private final Comparator<UserSummary> comparator;
+
+        /**
+         * Constructor for an order.
+         * @param comparator The order, before ties are broken.
+         */
+        Sort(Comparator<UserSummary> comparator) {
+            this.comparator = comparator.thenComparing(summary -> summary.key);
+        }
+
+        /**
+         * Getter for comparator.
+         * @return The order, with ties broken by username.
+         */
+        Comparator<UserSummary> comparator() {
+            return comparator;
+        }
+    }
+
+    /**
+     * The username as the user was created with it.
+     */
+    private final String username;
+
+    /**
+     * The key of the username in the user directory, see UserDirectory.normalize.
+     */
+    private final String key;
+
+    /**
+     * The number of albums, -1 if not known yet.
+     */
+    private final int albumCount;
+
+    /**
+     * The number of photos in all albums, counting a photo in two albums twice, -1 if not known yet.
+     */
+    private final int photoCount;
+
+    /**
+     * The total size of the photo files in all albums, in bytes, -1 if not known yet.
+     */
+    private final long totalBytes;
+
+    /**
+     * The time of the last login, in milliseconds since the epoch, 0 if the user never logged in.
+     */
+    private final long lastLogin;
+
+    /**
+     * Constructor for a summary.
+     * @param username The username.
+     * @param albumCount The number of albums, -1 if not known.
+     * @param photoCount The number of photos, -1 if not known.
+     * @param totalBytes The total size of the photo files, -1 if not known.
+     * @param lastLogin The time of the last login, 0 if never.
+     */
+    UserSummary(String username, int albumCount, int photoCount, long totalBytes, long lastLogin) {
+        this.username = username;
+        this.key = UserDirectory.normalize(username); // Made once, sorting compares it many times
+        this.albumCount = albumCount;
+        this.photoCount = photoCount;
+        this.totalBytes = totalBytes;
+        this.lastLogin = lastLogin;
+    }
+
+    /**
+     * Method to make the summary of a user whose counts are not known yet.
+     * @param username The username.
+     * @return The summary.
+     */
+    static UserSummary unknown(String username) {
+        return new UserSummary(username, -1, -1, -1, 0);
+    }
+
+    /**
+     * Method to make the summary of a new user, which holds nothing.
+     * @param username The username.
+     * @return The summary.
+     */
+    static UserSummary empty(String username) {
+        return new UserSummary(username, 0, 0, 0, 0);
+    }
+
+    /**
+     * Method to make the summary with the counts of a user, read from the running counts of its albums.
+     * Takes as long as the user has albums, an album whose photos were never read answers from its header.
+     * @param user The user, with the username of this summary.
+     * @return The summary with the user's counts and this summary's last login.
+     */
+    UserSummary withCountsOf(User user) {
+        int albums = 0;
+        int photos = 0;
+        long bytes = 0;
+        for (Album album : user.getAlbums()) {
+            albums++;
+            photos += album.getNumPhotos();
+            bytes += album.getTotalBytes();
+        }
+        return new UserSummary(username, albums, photos, bytes, lastLogin);
+    }
+
+    /**
+     * Method to make the summary with the counts of a user as written by a save, read from the album headers.
+     * Called by the save while it reads its snapshot, after the albums were stored, so the counts are those of
+     * the photos it wrote and never include edits made meanwhile.
+     * @param user The user, with the username of this summary.
+     * @return The summary with the user's saved counts and this summary's last login.
+     */
+    UserSummary withSavedCountsOf(User user) {
+        int albums = 0;
+        int photos = 0;
+        long bytes = 0;
+        for (Album album : user.getAlbums()) {
+            albums++;
+            photos += album.getSavedPhotoCount();
+            bytes += album.getSavedTotalBytes();
+        }
+        return new UserSummary(username, albums, photos, bytes, lastLogin);
+    }
+
+    /**
+     * Method to make the summary with a new last login.
+     * @param time The time of the login, in milliseconds since the epoch.
+     * @return The summary with the last login and this summary's counts.
+     */
+    UserSummary withLastLogin(long time) {
+        return new UserSummary(username, albumCount, photoCount, totalBytes, time);
+    }
+
+    /**
+     * Method to check if the counts of the summary are known.
+     * @return True if the counts are known.
+     */
+    public boolean isKnown() {
+        return albumCount >= 0;
+    }
+
+    /**
+     * Getter for username.
+     * @return The username as the user was created with it.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Getter for key.
+     * @return The key of the username in the user directory.
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Getter for albumCount.
+     * @return The number of albums, -1 if not known yet.
+     */
+    public int getAlbumCount() {
+        return albumCount;
+    }
+
+    /**
+     * Getter for photoCount.
+     * @return The number of photos in all albums, -1 if not known yet.
+     */
+    public int getPhotoCount() {
+        return photoCount;
+    }
+
+    /**
+     * Getter for totalBytes.
+     * @return The total size of the photo files in all albums, in bytes, -1 if not known yet.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Getter for lastLogin.
+     * @return The time of the last login, in milliseconds since the epoch, 0 if the user never logged in.
+     */
+    public long getLastLogin() {
+        return lastLogin;
+    }
+
+    /**
+     * Method to check if two summaries say the same.
+     * @param other The other summary, may be null.
+     * @return True if the other summary has the same username, counts and last login.
+     */
+    boolean sameAs(UserSummary other) {
+        return other != null && username.equals(other.username) && albumCount == other.albumCount
+                && photoCount == other.photoCount && totalBytes == other.totalBytes && lastLogin == other.lastLogin;
+    }
+
+    /**
+     * Method to get a string representation of the summary.
+     * @return The username and counts.
+     */
+    @Override
+    public String toString() {
+        return username + " albums=" + albumCount + " photos=" + photoCount + " bytes=" + totalBytes
+                + " lastLogin=" + lastLogin;
+    }
+}